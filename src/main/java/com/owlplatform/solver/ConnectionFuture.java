@@ -0,0 +1,383 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.solver;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.owlplatform.solver.listeners.ConnectionFutureListener;
+
+/**
+ * <p>
+ * The result of an asynchronous connection attempt to an aggregator. The
+ * future succeeds once the handshake has been verified and the first
+ * subscription response has arrived, so the aggregator is ready to send
+ * samples. It fails if the connection ends before then.
+ * </p>
+ * 
+ * <p>
+ * Listeners can be notified of completion, and {@link #awaitAll(Collection,
+ * long, TimeUnit)} and {@link #awaitAny(Collection, long, TimeUnit)} wait for
+ * many connection attempts at once, so that they can all be made
+ * concurrently.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class ConnectionFuture implements Future<SolverAggregatorInterface> {
+
+  /**
+   * Logger for this class.
+   */
+  private static final Logger log = LoggerFactory
+      .getLogger(ConnectionFuture.class);
+
+  /**
+   * The interface that is connecting.
+   */
+  private final SolverAggregatorInterface aggregator;
+
+  /**
+   * Listeners to notify on completion, or {@code null} once notified.
+   */
+  private List<ConnectionFutureListener> listeners = new ArrayList<ConnectionFutureListener>(
+      2);
+
+  /**
+   * Whether the attempt has completed.
+   */
+  private boolean done = false;
+
+  /**
+   * Whether the attempt succeeded.
+   */
+  private boolean success = false;
+
+  /**
+   * Whether the attempt was cancelled.
+   */
+  private boolean cancelled = false;
+
+  /**
+   * The reason the attempt failed, or {@code null}.
+   */
+  private Throwable cause = null;
+
+  /**
+   * Creates a new, incomplete future.
+   * 
+   * @param aggregator
+   *          the interface that is connecting.
+   */
+  public ConnectionFuture(final SolverAggregatorInterface aggregator) {
+    super();
+    this.aggregator = aggregator;
+  }
+
+  /**
+   * Returns the interface that is connecting.
+   * 
+   * @return the aggregator interface.
+   */
+  public SolverAggregatorInterface getAggregator() {
+    return this.aggregator;
+  }
+
+  /**
+   * Marks the attempt as successful and notifies the listeners. Has no
+   * effect if the attempt already completed.
+   * 
+   * @return {@code true} if this call completed the attempt.
+   */
+  public boolean succeed() {
+    return this.complete(true, false, null);
+  }
+
+  /**
+   * Marks the attempt as failed and notifies the listeners. Has no effect if
+   * the attempt already completed.
+   * 
+   * @param failure
+   *          the reason the attempt failed.
+   * @return {@code true} if this call completed the attempt.
+   */
+  public boolean fail(final Throwable failure) {
+    return this.complete(false, false, failure);
+  }
+
+  /**
+   * Cancels the attempt and disconnects from the aggregator.
+   */
+  @Override
+  public boolean cancel(final boolean mayInterruptIfRunning) {
+    if (!this.complete(false, true, null)) {
+      return false;
+    }
+    this.aggregator.disconnect();
+    return true;
+  }
+
+  /**
+   * Completes the attempt and notifies the listeners.
+   * 
+   * @param succeeded
+   *          whether the attempt succeeded.
+   * @param wasCancelled
+   *          whether the attempt was cancelled.
+   * @param failure
+   *          the reason the attempt failed, or {@code null}.
+   * @return {@code true} if the attempt was completed by this call.
+   */
+  private boolean complete(final boolean succeeded,
+      final boolean wasCancelled, final Throwable failure) {
+    List<ConnectionFutureListener> toNotify;
+    synchronized (this) {
+      if (this.done) {
+        return false;
+      }
+      this.done = true;
+      this.success = succeeded;
+      this.cancelled = wasCancelled;
+      this.cause = failure;
+      toNotify = this.listeners;
+      this.listeners = null;
+      this.notifyAll();
+    }
+    for (ConnectionFutureListener listener : toNotify) {
+      this.notifyListener(listener);
+    }
+    return true;
+  }
+
+  /**
+   * Adds a listener to be notified when the attempt completes. If it has
+   * already completed, the listener is notified immediately.
+   * 
+   * @param listener
+   *          the listener to add.
+   * @return this future.
+   */
+  public ConnectionFuture addListener(final ConnectionFutureListener listener) {
+    synchronized (this) {
+      if (!this.done) {
+        this.listeners.add(listener);
+        return this;
+      }
+    }
+    this.notifyListener(listener);
+    return this;
+  }
+
+  /**
+   * Notifies a listener, logging any exception it throws.
+   * 
+   * @param listener
+   *          the listener to notify.
+   */
+  private void notifyListener(final ConnectionFutureListener listener) {
+    try {
+      listener.connectionCompleted(this);
+    } catch (RuntimeException re) {
+      log.error("Connection future listener threw an exception.", re);
+    }
+  }
+
+  @Override
+  public synchronized boolean isCancelled() {
+    return this.cancelled;
+  }
+
+  @Override
+  public synchronized boolean isDone() {
+    return this.done;
+  }
+
+  /**
+   * Returns {@code true} if the attempt completed successfully.
+   * 
+   * @return {@code true} if the aggregator is connected and subscribed.
+   */
+  public synchronized boolean isSuccess() {
+    return this.success;
+  }
+
+  /**
+   * Returns the reason the attempt failed.
+   * 
+   * @return the failure, or {@code null} if the attempt has not failed.
+   */
+  public synchronized Throwable getCause() {
+    return this.cause;
+  }
+
+  /**
+   * Waits for the attempt to complete.
+   * 
+   * @param timeout
+   *          how long to wait.
+   * @param unit
+   *          the unit of {@code timeout}.
+   * @return {@code true} if the attempt completed, or {@code false} if the
+   *         timeout elapsed first.
+   * @throws InterruptedException
+   *           if the thread is interrupted while waiting.
+   */
+  public synchronized boolean await(final long timeout, final TimeUnit unit)
+      throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    while (!this.done) {
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0) {
+        return false;
+      }
+      TimeUnit.NANOSECONDS.timedWait(this, remaining);
+    }
+    return true;
+  }
+
+  @Override
+  public SolverAggregatorInterface get() throws InterruptedException,
+      ExecutionException {
+    synchronized (this) {
+      while (!this.done) {
+        this.wait();
+      }
+    }
+    return this.result();
+  }
+
+  @Override
+  public SolverAggregatorInterface get(final long timeout, final TimeUnit unit)
+      throws InterruptedException, ExecutionException, TimeoutException {
+    if (!this.await(timeout, unit)) {
+      throw new TimeoutException("Not connected to " + this.aggregator
+          + " within " + timeout + " " + unit + ".");
+    }
+    return this.result();
+  }
+
+  /**
+   * Returns the result of a completed attempt.
+   * 
+   * @return the connected aggregator interface.
+   * @throws ExecutionException
+   *           if the attempt failed.
+   */
+  private synchronized SolverAggregatorInterface result()
+      throws ExecutionException {
+    if (this.cancelled) {
+      throw new CancellationException();
+    }
+    if (!this.success) {
+      throw new ExecutionException(this.cause);
+    }
+    return this.aggregator;
+  }
+
+  /**
+   * Waits for all of the connection attempts to complete.
+   * 
+   * @param futures
+   *          the connection attempts.
+   * @param timeout
+   *          how long to wait for all of them.
+   * @param unit
+   *          the unit of {@code timeout}.
+   * @return {@code true} if all attempts completed successfully, or
+   *         {@code false} if any failed or the timeout elapsed first.
+   * @throws InterruptedException
+   *           if the thread is interrupted while waiting.
+   */
+  public static boolean awaitAll(
+      final Collection<? extends ConnectionFuture> futures,
+      final long timeout, final TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    boolean allSucceeded = true;
+    for (ConnectionFuture future : futures) {
+      long remaining = deadline - System.nanoTime();
+      if (!future.await(Math.max(0, remaining), TimeUnit.NANOSECONDS)) {
+        return false;
+      }
+      allSucceeded &= future.isSuccess();
+    }
+    return allSucceeded;
+  }
+
+  /**
+   * Waits until any of the connection attempts succeeds, or all of them have
+   * failed.
+   * 
+   * @param futures
+   *          the connection attempts.
+   * @param timeout
+   *          how long to wait.
+   * @param unit
+   *          the unit of {@code timeout}.
+   * @return {@code true} if at least one attempt completed successfully, or
+   *         {@code false} if all failed or the timeout elapsed first.
+   * @throws InterruptedException
+   *           if the thread is interrupted while waiting.
+   */
+  public static boolean awaitAny(
+      final Collection<? extends ConnectionFuture> futures,
+      final long timeout, final TimeUnit unit) throws InterruptedException {
+    final CountDownLatch completed = new CountDownLatch(1);
+    final AtomicInteger pending = new AtomicInteger(futures.size());
+    ConnectionFutureListener listener = new ConnectionFutureListener() {
+      @Override
+      public void connectionCompleted(ConnectionFuture future) {
+        if (future.isSuccess() || pending.decrementAndGet() == 0) {
+          completed.countDown();
+        }
+      }
+    };
+    for (ConnectionFuture future : futures) {
+      future.addListener(listener);
+    }
+    if (!futures.isEmpty()) {
+      completed.await(timeout, unit);
+    }
+    for (ConnectionFuture future : futures) {
+      if (future.isSuccess()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "Connection to " + this.aggregator + " ("
+        + (!this.done ? "pending" : this.success ? "connected" : "failed")
+        + ")";
+  }
+}
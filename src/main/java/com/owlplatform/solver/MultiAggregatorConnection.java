@@ -0,0 +1,650 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.solver;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.owlplatform.common.SampleMessage;
+import com.owlplatform.solver.buffer.BlockingBuffer;
+import com.owlplatform.solver.buffer.OverflowPolicy;
+import com.owlplatform.solver.buffer.RingBuffer;
+import com.owlplatform.solver.dispatch.SampleDeduplicator;
+import com.owlplatform.solver.listeners.ConnectionListener;
+import com.owlplatform.solver.listeners.SampleListener;
+import com.owlplatform.solver.protocol.messages.SubscriptionMessage;
+import com.owlplatform.solver.rules.RuleRegistry;
+import com.owlplatform.solver.rules.SubscriptionRequestRule;
+
+/**
+ * <p>
+ * A simplified interface between a solver and several redundant aggregators.
+ * The same subscription rules are sent to every aggregator, and the samples
+ * they send are merged into a single buffer. Copies of a sample received
+ * from more than one aggregator are identified by their device, receiver and
+ * receiver timestamp, and only the first copy is buffered.
+ * </p>
+ * 
+ * <p>
+ * Each aggregator has its own session and IO thread, and all of them add
+ * samples directly to the shared lock-free buffer, so no merge thread is
+ * needed.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class MultiAggregatorConnection {
+
+  /**
+   * Private class to hide interface methods from classes using the
+   * {@code MultiAggregatorConnection}.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  private static final class Handler implements ConnectionListener,
+      SampleListener {
+
+    /**
+     * The connection that will actually handle the events.
+     */
+    private final MultiAggregatorConnection parent;
+
+    /**
+     * Creates a new handler for the specified connection.
+     * 
+     * @param parent
+     *          the actual handler of the events.
+     */
+    Handler(final MultiAggregatorConnection parent) {
+      this.parent = parent;
+    }
+
+    @Override
+    public void connectionEnded(SolverAggregatorInterface aggregator) {
+      this.parent.connectionEnded(aggregator);
+    }
+
+    @Override
+    public void connectionEstablished(SolverAggregatorInterface aggregator) {
+      this.parent.connectionEstablished(aggregator);
+    }
+
+    @Override
+    public void connectionInterrupted(SolverAggregatorInterface aggregator) {
+      // Ignored
+    }
+
+    @Override
+    public void sampleReceived(SolverAggregatorInterface aggregator,
+        SampleMessage sample) {
+      this.parent.sampleReceived(sample);
+    }
+
+    @Override
+    public void subscriptionReceived(SolverAggregatorInterface aggregator,
+        SubscriptionMessage response) {
+      // Ignored
+    }
+  }
+
+  /**
+   * Logger for this class.
+   */
+  private static final Logger log = LoggerFactory
+      .getLogger(MultiAggregatorConnection.class);
+
+  /**
+   * How long {@link #connect(long)} keeps waiting for the other aggregators
+   * after the first one connects, in milliseconds.
+   */
+  public static final long CONNECT_GRACE_PERIOD = 200;
+
+  /**
+   * The interfaces to each aggregator.
+   */
+  protected final List<SolverAggregatorInterface> aggregators = new CopyOnWriteArrayList<SolverAggregatorInterface>();
+
+  /**
+   * Samples received from any aggregator but not yet taken by the solver.
+   */
+  protected final BlockingBuffer<SampleMessage> sampleQueue;
+
+  /**
+   * Detects copies of samples received from more than one aggregator.
+   */
+  protected final SampleDeduplicator deduplicator;
+
+  /**
+   * Private handler to hide the event methods from outside classes.
+   */
+  protected final Handler handler = new Handler(this);
+
+  /**
+   * Subscription rules by rule number.
+   */
+  protected final RuleRegistry ruleRegistry = new RuleRegistry();
+
+  /**
+   * Sends rule changes to the aggregators.
+   */
+  private final RuleUpdateCoalescer ruleUpdates = new RuleUpdateCoalescer(
+      this.ruleRegistry, this.aggregators);
+
+  /**
+   * Aggregators that are connected or connecting, and whose connection has
+   * not permanently ended.
+   */
+  protected final Set<SolverAggregatorInterface> liveAggregators = Collections
+      .newSetFromMap(new ConcurrentHashMap<SolverAggregatorInterface, Boolean>());
+
+  /**
+   * Determines which sample is discarded when {@link #sampleQueue} is full.
+   */
+  protected volatile OverflowPolicy overflowPolicy = OverflowPolicy
+      .dropNewest();
+
+  /**
+   * Shared threads for the aggregator connections, or {@code null}.
+   */
+  protected volatile SolverRuntime runtime = null;
+
+  /**
+   * Flag to indicate if any aggregator may still send samples.
+   */
+  protected volatile boolean connected = true;
+
+  /**
+   * Creates a new connection that buffers up to 1024 samples and remembers
+   * samples for {@link SampleDeduplicator#DEFAULT_WINDOW} milliseconds.
+   */
+  public MultiAggregatorConnection() {
+    this(1024);
+  }
+
+  /**
+   * Creates a new connection that buffers up to {@code bufferSize} samples
+   * and remembers samples for {@link SampleDeduplicator#DEFAULT_WINDOW}
+   * milliseconds.
+   * 
+   * @param bufferSize
+   *          the number of samples to buffer for the solver.
+   */
+  public MultiAggregatorConnection(final int bufferSize) {
+    this(new RingBuffer<SampleMessage>(bufferSize), new SampleDeduplicator());
+  }
+
+  /**
+   * Creates a new connection that buffers samples in {@code sampleBuffer} and
+   * drops the samples that {@code deduplicator} detects as duplicates. The
+   * deduplication window should be longer than the largest difference in
+   * delivery delay between the aggregators.
+   * 
+   * @param sampleBuffer
+   *          the buffer for samples received from the aggregators.
+   * @param deduplicator
+   *          detects duplicate samples.
+   */
+  public MultiAggregatorConnection(
+      final BlockingBuffer<SampleMessage> sampleBuffer,
+      final SampleDeduplicator deduplicator) {
+    super();
+    if (sampleBuffer == null) {
+      throw new IllegalArgumentException("Sample buffer cannot be null.");
+    }
+    if (deduplicator == null) {
+      throw new IllegalArgumentException("Deduplicator cannot be null.");
+    }
+    this.sampleQueue = sampleBuffer;
+    this.deduplicator = deduplicator;
+  }
+
+  /**
+   * Adds an aggregator. Its interface uses the same settings as a
+   * {@link SolverAggregatorConnection}, and the current rules. It is not
+   * connected until the next call to {@link #connect(long)}.
+   * 
+   * @param host
+   *          the hostname/IP address of the aggregator.
+   * @param port
+   *          the port number of the aggregator.
+   * @return the interface to the aggregator.
+   */
+  public SolverAggregatorInterface addAggregator(final String host,
+      final int port) {
+    SolverAggregatorInterface agg = new SolverAggregatorInterface();
+    agg.setConnectionRetryDelay(5000l);
+    agg.setConnectionTimeout(5000l);
+    agg.setDisconnectOnException(true);
+    agg.setStayConnected(true);
+    agg.setHost(host);
+    agg.setPort(port);
+    agg.setRuntime(this.runtime);
+    agg.addSampleListener(this.handler);
+    agg.addConnectionListener(this.handler);
+    this.aggregators.add(agg);
+    // Rules changed before the aggregator was added may not have been sent
+    agg.setRules(this.ruleRegistry.getRules());
+    return agg;
+  }
+
+  /**
+   * Sets the runtime whose threads are shared by the aggregators added after
+   * this call.
+   * 
+   * @param runtime
+   *          the runtime to use, or {@code null} to create threads for each
+   *          aggregator.
+   * @see SolverAggregatorInterface#setRuntime(SolverRuntime)
+   */
+  public void setRuntime(final SolverRuntime runtime) {
+    this.runtime = runtime;
+  }
+
+  /**
+   * Returns the interfaces to the aggregators.
+   * 
+   * @return the aggregator interfaces, in the order they were added.
+   */
+  public List<SolverAggregatorInterface> getAggregators() {
+    return Collections.unmodifiableList(this.aggregators);
+  }
+
+  /**
+   * Connects to every aggregator that is not already connected, all at once,
+   * waiting up to {@code timeout} milliseconds in total. This method returns
+   * once the first aggregator connects and the others have had a further
+   * {@link #CONNECT_GRACE_PERIOD} milliseconds, so an unreachable aggregator
+   * does not delay the rest by the whole timeout. The aggregators that have
+   * not connected by then keep retrying in the background and start sending
+   * samples once they connect. If none connect within the timeout, all of the
+   * attempts are cancelled.
+   * 
+   * @param timeout
+   *          how long to wait for the aggregators, in milliseconds, or 0 to
+   *          use each aggregator's connection timeout.
+   * @return {@code true} if at least one aggregator is connected, else
+   *         {@code false}.
+   */
+  public boolean connect(final long timeout) {
+    this.sampleQueue.reopen();
+    this.connected = true;
+    boolean anyConnected = false;
+    long wait = timeout;
+    List<SolverAggregatorInterface> connecting = new ArrayList<SolverAggregatorInterface>();
+    for (SolverAggregatorInterface agg : this.aggregators) {
+      if (agg.isConnected()) {
+        anyConnected = true;
+        continue;
+      }
+      // Counted before any attempt can fail, so one failure can't end the rest
+      this.liveAggregators.add(agg);
+      connecting.add(agg);
+      if (timeout <= 0) {
+        wait = Math.max(wait, agg.getConnectionTimeout());
+      }
+    }
+
+    List<ConnectionFuture> attempts = new ArrayList<ConnectionFuture>(
+        connecting.size());
+    for (SolverAggregatorInterface agg : connecting) {
+      agg.setStayConnected(true);
+      attempts.add(agg.connectAsync());
+    }
+    long deadline = System.currentTimeMillis() + wait;
+    try {
+      if (ConnectionFuture.awaitAny(attempts, wait, TimeUnit.MILLISECONDS)) {
+        long grace = Math.min(CONNECT_GRACE_PERIOD,
+            deadline - System.currentTimeMillis());
+        ConnectionFuture.awaitAll(attempts, Math.max(0, grace),
+            TimeUnit.MILLISECONDS);
+      }
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    }
+    for (ConnectionFuture attempt : attempts) {
+      anyConnected |= attempt.isSuccess();
+    }
+
+    for (int i = 0; i < attempts.size(); ++i) {
+      if (attempts.get(i).isSuccess()) {
+        continue;
+      }
+      SolverAggregatorInterface agg = connecting.get(i);
+      if (anyConnected) {
+        log.warn("Unable to connect to {}:{}, retrying in the background.",
+            agg.getHost(), Integer.valueOf(agg.getPort()));
+      } else {
+        log.warn("Unable to connect to {}:{}.", agg.getHost(),
+            Integer.valueOf(agg.getPort()));
+        attempts.get(i).cancel(false);
+      }
+    }
+    return anyConnected;
+  }
+
+  /**
+   * Disconnects from all aggregators.
+   */
+  public void disconnect() {
+    for (SolverAggregatorInterface agg : this.aggregators) {
+      agg.disconnect();
+    }
+  }
+
+  /**
+   * Returns the next sample from any aggregator, blocking until it is
+   * available if none are currently buffered.
+   * 
+   * @return the next sample.
+   * @throws IllegalStateException
+   *           if the connections to all aggregators have terminated.
+   */
+  public SampleMessage getNextSample() {
+    if (this.connected) {
+      try {
+        SampleMessage sample = this.sampleQueue.take();
+        if (sample != null) {
+          return sample;
+        }
+      } catch (InterruptedException e) {
+        log.error("Interrupted while waiting for next sample to arrive.", e);
+        return null;
+      }
+    }
+    throw new IllegalStateException(
+        "Connections to the aggregators have terminated.");
+  }
+
+  /**
+   * Returns the next sample from any aggregator, waiting up to the specified
+   * time if none are currently buffered.
+   * 
+   * @param timeout
+   *          how long to wait for a sample, in units of {@code unit}.
+   * @param unit
+   *          the unit of {@code timeout}.
+   * @return the next sample, or {@code null} if none arrived before the
+   *         timeout or all connections were shut down.
+   * @throws IllegalStateException
+   *           if the connections to all aggregators have terminated.
+   */
+  public SampleMessage pollSample(final long timeout, final TimeUnit unit) {
+    if (this.connected) {
+      try {
+        return this.sampleQueue.poll(timeout, unit);
+      } catch (InterruptedException e) {
+        log.error("Interrupted while waiting for next sample to arrive.", e);
+      }
+      return null;
+    }
+    throw new IllegalStateException(
+        "Connections to the aggregators have terminated.");
+  }
+
+  /**
+   * Returns the next buffered sample without waiting.
+   * 
+   * @return the next buffered sample, or {@code null} if none are available.
+   */
+  public SampleMessage tryNextSample() {
+    return this.sampleQueue.poll();
+  }
+
+  /**
+   * Removes up to {@code max} buffered samples and adds them to
+   * {@code target} without blocking.
+   * 
+   * @param target
+   *          the collection to add the samples to.
+   * @param max
+   *          the maximum number of samples to remove.
+   * @return the number of samples added to {@code target}, possibly 0.
+   */
+  public int drainSamples(final Collection<? super SampleMessage> target,
+      final int max) {
+    return this.sampleQueue.drainTo(target, max);
+  }
+
+  /**
+   * Removes up to {@code max} buffered samples and adds them to
+   * {@code target}, blocking until at least one sample is available.
+   * 
+   * @param target
+   *          the collection to add the samples to.
+   * @param max
+   *          the maximum number of samples to remove; must be positive.
+   * @return the number of samples added to {@code target}, or 0 if the
+   *         thread was interrupted or all connections were shut down.
+   * @throws IllegalStateException
+   *           if the connections to all aggregators have terminated.
+   */
+  public int takeSamples(final Collection<? super SampleMessage> target,
+      final int max) {
+    if (this.connected) {
+      try {
+        return this.sampleQueue.takeAll(target, max);
+      } catch (InterruptedException e) {
+        log.error("Interrupted while waiting for samples to arrive.", e);
+      }
+      return 0;
+    }
+    throw new IllegalStateException(
+        "Connections to the aggregators have terminated.");
+  }
+
+  /**
+   * Returns {@code true} if there is a sample available for immediate
+   * consumption.
+   * 
+   * @return {@code true} if a sample is buffered, else {@code false}.
+   */
+  public boolean hasNext() {
+    return !this.sampleQueue.isEmpty();
+  }
+
+  /**
+   * Returns {@code true} until the connections to all aggregators have
+   * permanently ended.
+   * 
+   * @return {@code true} if any aggregator may still send samples.
+   */
+  public boolean isConnected() {
+    return this.connected;
+  }
+
+  /**
+   * Adds a Subscription Request Rule to every aggregator. Connected
+   * aggregators are sent the rule at the end of the rule update window, and
+   * the others receive it with all rules when they connect.
+   * 
+   * @param rule
+   *          the rule to add.
+   * @return the rule number, which can be used later to remove the rule, or
+   *         -1 if the rule was already added.
+   */
+  public int addRule(final SubscriptionRequestRule rule) {
+    int ruleNum = this.ruleRegistry.add(rule);
+    if (ruleNum < 0) {
+      log.warn("Rule {} is already configured for use.", rule);
+      return -1;
+    }
+    this.ruleUpdates.changed();
+    return ruleNum;
+  }
+
+  /**
+   * Adds many Subscription Request Rules to every aggregator. Connected
+   * aggregators are sent the new rules in a single subscription request at
+   * the end of the rule update window.
+   * 
+   * @param rules
+   *          the rules to add.
+   * @return the rule number of each rule in iteration order, or -1 for each
+   *         rule that was already added.
+   * @see SolverAggregatorConnection#addRules(Collection)
+   */
+  public int[] addRules(final Collection<SubscriptionRequestRule> rules) {
+    int[] ruleNums = this.ruleRegistry.addAll(rules);
+    this.ruleUpdates.changed();
+    return ruleNums;
+  }
+
+  /**
+   * Removes a rule from every aggregator. As with
+   * {@link SolverAggregatorConnection#removeRule(int)}, connected aggregators
+   * are not reconnected; samples matching only the removed rule are discarded
+   * instead.
+   * 
+   * @param ruleNum
+   *          the number of the rule to remove.
+   * @return the rule that was removed, or {@code null} if there was none.
+   */
+  public SubscriptionRequestRule removeRule(final int ruleNum) {
+    SubscriptionRequestRule rule = this.ruleRegistry.remove(ruleNum);
+    if (rule != null) {
+      this.ruleUpdates.changed();
+    }
+    return rule;
+  }
+
+  /**
+   * Returns how long rule changes are collected before they are sent to the
+   * connected aggregators.
+   * 
+   * @return the rule update window in milliseconds.
+   */
+  public long getRuleUpdateWindow() {
+    return this.ruleUpdates.getWindow();
+  }
+
+  /**
+   * Sets how long rule changes are collected before they are sent to the
+   * connected aggregators. The default is 10 milliseconds.
+   * 
+   * @param ruleUpdateWindow
+   *          the rule update window in milliseconds, or 0 to send each change
+   *          immediately.
+   * @see SolverAggregatorConnection#setRuleUpdateWindow(long)
+   */
+  public void setRuleUpdateWindow(final long ruleUpdateWindow) {
+    this.ruleUpdates.setWindow(ruleUpdateWindow);
+  }
+
+  /**
+   * Returns the policy applied when a sample arrives and the buffer is full.
+   * 
+   * @return the current overflow policy.
+   */
+  public OverflowPolicy getOverflowPolicy() {
+    return this.overflowPolicy;
+  }
+
+  /**
+   * Sets the policy applied when a sample arrives and the buffer is full.
+   * 
+   * @param overflowPolicy
+   *          the new overflow policy.
+   */
+  public void setOverflowPolicy(final OverflowPolicy overflowPolicy) {
+    if (overflowPolicy == null) {
+      throw new IllegalArgumentException("Overflow policy cannot be null.");
+    }
+    this.overflowPolicy = overflowPolicy;
+  }
+
+  /**
+   * Returns the number of samples discarded by the current overflow policy.
+   * 
+   * @return the number of discarded samples.
+   */
+  public long getDiscardedSampleCount() {
+    return this.overflowPolicy.getDiscardedCount();
+  }
+
+  /**
+   * Returns the number of duplicate samples that were dropped.
+   * 
+   * @return the number of duplicates.
+   */
+  public long getDuplicateSampleCount() {
+    return this.deduplicator.getDuplicateCount();
+  }
+
+  /**
+   * Called when the connection to an aggregator has permanently died. Once
+   * all have died, threads waiting for samples are woken.
+   * 
+   * @param aggregator
+   *          the aggregator whose connection ended.
+   */
+  void connectionEnded(final SolverAggregatorInterface aggregator) {
+    if (this.liveAggregators.remove(aggregator)
+        && this.liveAggregators.isEmpty()) {
+      this.connected = false;
+      this.sampleQueue.close();
+    }
+  }
+
+  /**
+   * Called when the connection to an aggregator is established. If the
+   * connections to all other aggregators had already ended, the solver can
+   * take samples again.
+   * 
+   * @param aggregator
+   *          the aggregator that connected.
+   */
+  void connectionEstablished(final SolverAggregatorInterface aggregator) {
+    if (this.liveAggregators.add(aggregator) && !this.connected) {
+      this.sampleQueue.reopen();
+      this.connected = true;
+    }
+  }
+
+  /**
+   * Called when any aggregator sends a sample. Buffers the sample unless it
+   * is a duplicate.
+   * 
+   * @param sample
+   *          the sample that was sent.
+   */
+  void sampleReceived(final SampleMessage sample) {
+    if (this.deduplicator.isDuplicate(sample)) {
+      return;
+    }
+    this.overflowPolicy.offer(this.sampleQueue, sample);
+  }
+
+  @Override
+  public String toString() {
+    return "Multi-Aggregator Connection (" + this.aggregators.size()
+        + " aggregators)";
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.apache.mina.core.session.IoSession;
+
+/**
+ * <p>
+ * Coordinates the components that suspend reads from an aggregator session.
+ * Each component holds the suspension under its own reason object, and reads
+ * are only resumed once every reason has been released. Suspending or
+ * releasing the same reason more than once has no further effect.
+ * </p>
+ * 
+ * <p>
+ * The reasons are stored as an attribute of the session, so a new session
+ * always starts with reads enabled and no reasons held.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public final class ReadSuspension {
+
+  /**
+   * Session attribute key for the reasons reads are suspended.
+   */
+  private static final String REASONS_KEY = ReadSuspension.class.getName()
+      + ".REASONS";
+
+  /**
+   * Not instantiable.
+   */
+  private ReadSuspension() {
+    super();
+  }
+
+  /**
+   * Suspends reads from {@code session} on behalf of {@code reason}. Reads
+   * are suspended when the first reason is added.
+   * 
+   * @param session
+   *          the session to suspend.
+   * @param reason
+   *          the object holding the suspension.
+   * @return {@code true} if {@code reason} was not already holding the
+   *         suspension.
+   */
+  public static boolean suspend(final IoSession session, final Object reason) {
+    Map<Object, Object> reasons = getReasons(session);
+    synchronized (reasons) {
+      if (reasons.put(reason, reason) != null) {
+        return false;
+      }
+      if (reasons.size() == 1) {
+        session.suspendRead();
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Releases the suspension held by {@code reason} on {@code session}. Reads
+   * are resumed when the last reason is released.
+   * 
+   * @param session
+   *          the session to release.
+   * @param reason
+   *          the object holding the suspension.
+   * @return {@code true} if {@code reason} was holding the suspension.
+   */
+  public static boolean resume(final IoSession session, final Object reason) {
+    Map<Object, Object> reasons = getReasons(session);
+    synchronized (reasons) {
+      if (reasons.remove(reason) == null) {
+        return false;
+      }
+      if (reasons.isEmpty()) {
+        session.resumeRead();
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the number of reasons holding reads suspended on
+   * {@code session}.
+   * 
+   * @param session
+   *          the session.
+   * @return the number of reasons.
+   */
+  public static int getReasonCount(final IoSession session) {
+    Map<Object, Object> reasons = getReasons(session);
+    synchronized (reasons) {
+      return reasons.size();
+    }
+  }
+
+  /**
+   * Returns the reasons holding reads suspended on {@code session}, creating
+   * the set if necessary.
+   * 
+   * @param session
+   *          the session.
+   * @return the reasons, which must be locked while in use.
+   */
+  @SuppressWarnings("unchecked")
+  private static Map<Object, Object> getReasons(final IoSession session) {
+    Map<Object, Object> reasons = (Map<Object, Object>) session
+        .getAttribute(REASONS_KEY);
+    if (reasons == null) {
+      Map<Object, Object> created = new IdentityHashMap<Object, Object>(4);
+      reasons = (Map<Object, Object>) session.setAttributeIfAbsent(
+          REASONS_KEY, created);
+      if (reasons == null) {
+        reasons = created;
+      }
+    }
+    return reasons;
+  }
+}
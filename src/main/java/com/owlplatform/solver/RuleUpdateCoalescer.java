@@ -0,0 +1,161 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.owlplatform.solver.rules.RuleRegistry;
+import com.owlplatform.solver.rules.SubscriptionRequestRule;
+
+/**
+ * Sends the changes made to a {@link RuleRegistry} to one or more aggregator
+ * interfaces. Changes made within the coalescing window of the first one are
+ * passed together to
+ * {@link SolverAggregatorInterface#updateRules(SubscriptionRequestRule[])},
+ * which requests only the rules a connected aggregator has not been sent.
+ * 
+ * @author Robert Moore
+ * 
+ */
+final class RuleUpdateCoalescer implements Runnable {
+
+  /**
+   * Logging facility for this class.
+   */
+  private static final Logger log = LoggerFactory
+      .getLogger(RuleUpdateCoalescer.class);
+
+  /**
+   * Default coalescing window, in milliseconds.
+   */
+  static final long DEFAULT_WINDOW = 10;
+
+  /**
+   * The rules.
+   */
+  private final RuleRegistry registry;
+
+  /**
+   * The interfaces that are sent the changes.
+   */
+  private final Iterable<SolverAggregatorInterface> aggregators;
+
+  /**
+   * Whether a flush is scheduled.
+   */
+  private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+  /**
+   * How long changes are collected before they are sent, in milliseconds.
+   */
+  private volatile long window = DEFAULT_WINDOW;
+
+  /**
+   * Creates a new coalescer.
+   * 
+   * @param registry
+   *          the rules.
+   * @param aggregators
+   *          the interfaces that are sent the changes.
+   */
+  RuleUpdateCoalescer(final RuleRegistry registry,
+      final Iterable<SolverAggregatorInterface> aggregators) {
+    this.registry = registry;
+    this.aggregators = aggregators;
+  }
+
+  /**
+   * Returns the coalescing window.
+   * 
+   * @return the window in milliseconds.
+   */
+  long getWindow() {
+    return this.window;
+  }
+
+  /**
+   * Sets the coalescing window.
+   * 
+   * @param window
+   *          the window in milliseconds, or 0 to send each change
+   *          immediately.
+   */
+  void setWindow(final long window) {
+    if (window < 0) {
+      throw new IllegalArgumentException(
+          "Rule update window cannot be negative.");
+    }
+    this.window = window;
+  }
+
+  /**
+   * Called after the registry was changed. If the window is 0 or no
+   * aggregator is connected, the changes are applied now, so that a
+   * connection made afterwards uses the new rules. Otherwise they are sent
+   * when the window ends.
+   */
+  void changed() {
+    long currentWindow = this.window;
+    ScheduledExecutorService scheduler = null;
+    for (SolverAggregatorInterface agg : this.aggregators) {
+      if (agg.isConnected()) {
+        scheduler = agg.getReconnectScheduler();
+        break;
+      }
+    }
+    if (currentWindow <= 0 || scheduler == null) {
+      this.run();
+      return;
+    }
+    if (!this.scheduled.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      scheduler.schedule(this, currentWindow, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException ree) {
+      log.warn("Unable to schedule rule update, sending it now.", ree);
+      this.run();
+    }
+  }
+
+  /**
+   * Sends all changes made since the previous flush.
+   */
+  @Override
+  public synchronized void run() {
+    this.scheduled.set(false);
+    RuleRegistry.Changes changes = this.registry.drainChanges();
+    if (changes == null) {
+      return;
+    }
+    log.debug("Sending {} new rules ({} total, removed: {}).", new Object[] {
+        Integer.valueOf(changes.getAdded().length),
+        Integer.valueOf(changes.getRules().length),
+        Boolean.valueOf(changes.isRemoved()) });
+    for (SolverAggregatorInterface agg : this.aggregators) {
+      agg.updateRules(changes.getRules());
+    }
+  }
+}
@@ -19,18 +19,22 @@
 
 package com.owlplatform.solver;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.mina.core.session.IoSession;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.owlplatform.common.SampleMessage;
+import com.owlplatform.solver.buffer.BlockingBuffer;
+import com.owlplatform.solver.buffer.OverflowPolicy;
+import com.owlplatform.solver.buffer.RingBuffer;
 import com.owlplatform.solver.listeners.ConnectionListener;
 import com.owlplatform.solver.listeners.SampleListener;
 import com.owlplatform.solver.protocol.messages.SubscriptionMessage;
+import com.owlplatform.solver.rules.RuleRegistry;
 import com.owlplatform.solver.rules.SubscriptionRequestRule;
 
 /**
@@ -72,6 +76,7 @@ public class SolverAggregatorConnection {
 		@Override
 		public void connectionEstablished(SolverAggregatorInterface aggregator) {
 		  this.parent.subscriptionAcknowledged = false;
+		  this.parent.resetBackpressure();
 		}
 
 		@Override
@@ -106,10 +111,9 @@ public class SolverAggregatorConnection {
 
 	/**
 	 * Queue of samples that were received from the aggregator but not yet
-	 * taken by the solver.  Bounded to 1,000 samples by default.
+	 * taken by the solver.  Bounded by the capacity of the buffer.
 	 */
-	protected final LinkedBlockingQueue<SampleMessage> sampleQueue = new LinkedBlockingQueue<SampleMessage>(
-			1000);
+	protected final BlockingBuffer<SampleMessage> sampleQueue;
 
 	/**
 	 * Private handler to hide the event methods from outside classes.
@@ -122,20 +126,48 @@ public class SolverAggregatorConnection {
 	protected boolean connected = true;
 
 	/**
-	 * Map of subscription rules to their request numbers.  Used internally to cancel a subscription
+	 * Subscription rules by rule number.  Used internally to cancel a subscription
 	 * request on behalf of the solver.
 	 */
-	protected final Map<Integer, SubscriptionRequestRule> ruleMap = new ConcurrentHashMap<Integer, SubscriptionRequestRule>();
+	protected final RuleRegistry ruleRegistry = new RuleRegistry();
 
 	/**
-	 * Stores the next available rule number for this connection.
+	 * Sends rule changes to the aggregator.
 	 */
-	protected AtomicInteger nextRuleNum = new AtomicInteger(0);
+	private final RuleUpdateCoalescer ruleUpdates = new RuleUpdateCoalescer(
+			this.ruleRegistry, Collections.singletonList(this.agg));
 
 	/**
 	 * Flag to indicate whether full buffers should be logged with a warning.  Defaults to false.
 	 */
 	protected boolean warnBufferFull = false;
+
+	/**
+	 * Determines which sample is discarded when {@link #sampleQueue} is full.
+	 * Drops the newest sample by default.
+	 */
+	protected volatile OverflowPolicy overflowPolicy = OverflowPolicy.dropNewest();
+
+	/**
+	 * Buffer size at or above which reads from the aggregator are suspended, or
+	 * 0 if backpressure is disabled.
+	 */
+	protected volatile int highWatermark = 0;
+
+	/**
+	 * Buffer size at or below which suspended reads are resumed.
+	 */
+	protected volatile int lowWatermark = 0;
+
+	/**
+	 * Whether reads from the aggregator session are currently suspended.
+	 */
+	protected volatile boolean readSuspended = false;
+
+	/**
+	 * Lock for suspending and resuming reads, so that the two never race.
+	 */
+	private final Object backpressureLock = new Object();
 	
 	
 	/**
@@ -167,9 +199,30 @@ public class SolverAggregatorConnection {
 	 *            the number of samples to buffer for the solver. Samples
 	 *            received after the buffer is full will be discarded and a
 	 *            warning will be logged.
+	 * @throws IllegalArgumentException
+	 *             if {@code bufferSize} is not positive.
 	 */
 	public SolverAggregatorConnection(final int bufferSize) {
+		this(new RingBuffer<SampleMessage>(bufferSize));
+	}
+
+	/**
+	 * Creates a new Aggregator interface for a solver that buffers samples in
+	 * {@code sampleBuffer}.  For example, a
+	 * {@link com.owlplatform.solver.buffer.ConflatingSampleBuffer} keeps only
+	 * the latest pending sample for each device and receiver.  The same
+	 * {@code SolverAggregatorInterface} values are set as for
+	 * {@link #SolverAggregatorConnection(int)}.
+	 * 
+	 * @param sampleBuffer
+	 *            the buffer for samples received from the aggregator.
+	 */
+	public SolverAggregatorConnection(final BlockingBuffer<SampleMessage> sampleBuffer) {
 		super();
+		if (sampleBuffer == null) {
+			throw new IllegalArgumentException("Sample buffer cannot be null.");
+		}
+		this.sampleQueue = sampleBuffer;
 		this.agg.setConnectionRetryDelay(5000l);
 		this.agg.setConnectionTimeout(5000l);
 		this.agg.setDisconnectOnException(true);
@@ -189,10 +242,25 @@ public class SolverAggregatorConnection {
 	 * @return {@code true} if the connection succeeds, else {@code false}.
 	 */
 	public boolean connect(long timeout) {
-	  
+		this.sampleQueue.reopen();
 		return (this.connected = this.agg.connect(timeout));
 	}
 	
+	/**
+	 * Connects to the aggregator without waiting.  The returned future succeeds
+	 * once the handshake is verified and the aggregator has responded to the
+	 * subscription request, so samples can be taken.  Connections to many
+	 * aggregators can be started at once and waited for together with
+	 * {@link ConnectionFuture#awaitAll(Collection, long, TimeUnit)}.
+	 * 
+	 * @return the connection attempt.
+	 */
+	public ConnectionFuture connectAsync() {
+		this.sampleQueue.reopen();
+		this.connected = true;
+		return this.agg.connectAsync();
+	}
+
 	/**
    * Connects to the aggregator if it is not already connected.  This method
    * has been replaced with {@link #connect(long)}.
@@ -224,6 +292,80 @@ public class SolverAggregatorConnection {
 		this.agg.setHost(host);
 	}
 
+	/**
+	 * Sets the runtime whose threads are shared with other connections.  Must
+	 * be called before connecting.
+	 * 
+	 * @param runtime
+	 *            the runtime to use, or {@code null} to create threads for
+	 *            this connection.
+	 * @see SolverAggregatorInterface#setRuntime(SolverRuntime)
+	 */
+	public void setRuntime(final SolverRuntime runtime) {
+		this.agg.setRuntime(runtime);
+	}
+
+	/**
+	 * Sets which threads deliver events from the aggregator.  Must be called
+	 * before connecting.
+	 * 
+	 * @param threadingModel
+	 *            the threading model to use.
+	 * @see SolverAggregatorInterface#setThreadingModel(ThreadingModel)
+	 */
+	public void setThreadingModel(final ThreadingModel threadingModel) {
+		this.agg.setThreadingModel(threadingModel);
+	}
+
+	/**
+	 * Sets the maximum number of threads that deliver events from the
+	 * aggregator for a pooled threading model.  Must be called before
+	 * connecting.
+	 * 
+	 * @param listenerThreads
+	 *            the maximum number of listener threads.
+	 * @see SolverAggregatorInterface#setListenerThreads(int)
+	 */
+	public void setListenerThreads(final int listenerThreads) {
+		this.agg.setListenerThreads(listenerThreads);
+	}
+
+	/**
+	 * Sets the maximum estimated size of the events waiting for listener
+	 * threads, beyond which reads from the aggregator are suspended.  Must be
+	 * called before connecting.
+	 * 
+	 * @param maxQueuedBytes
+	 *            the limit in bytes, or 0 for no limit.
+	 * @see SolverAggregatorInterface#setMaxQueuedBytes(long)
+	 */
+	public void setMaxQueuedBytes(final long maxQueuedBytes) {
+		this.agg.setMaxQueuedBytes(maxQueuedBytes);
+	}
+
+	/**
+	 * Sets the maximum number of events waiting for listener threads, beyond
+	 * which reads from the aggregator are suspended.  Must be called before
+	 * connecting.
+	 * 
+	 * @param maxQueuedEvents
+	 *            the limit, or 0 for no limit.
+	 * @see SolverAggregatorInterface#setMaxQueuedEvents(int)
+	 */
+	public void setMaxQueuedEvents(final int maxQueuedEvents) {
+		this.agg.setMaxQueuedEvents(maxQueuedEvents);
+	}
+
+	/**
+	 * Returns the estimated size of the events waiting for listener threads.
+	 * 
+	 * @return the estimated size of the queued events in bytes.
+	 * @see SolverAggregatorInterface#getQueuedBytes()
+	 */
+	public long getQueuedBytes() {
+		return this.agg.getQueuedBytes();
+	}
+
 	/**
 	 * Sets the port number for the aggregator. If the aggregator is already
 	 * connected, then the new port will be used the next time a connection is
@@ -239,7 +381,8 @@ public class SolverAggregatorConnection {
 	 * Returns the next sample from the Aggregator, blocking until it is
 	 * available if none are currently buffered. If the connection to the
 	 * aggregator has been completely shut down, then this method will throw an
-	 * IllegalStateException.
+	 * IllegalStateException, including in threads that were already waiting
+	 * for a sample.
 	 * 
 	 * @return the next sample received from the Aggregator.
 	 * @throws IllegalStateException
@@ -249,7 +392,45 @@ public class SolverAggregatorConnection {
 	public SampleMessage getNextSample() {
 		if (this.connected) {
 			try {
-				return this.sampleQueue.take();
+				SampleMessage sample = this.sampleQueue.take();
+				if (sample != null) {
+					this.checkLowWatermark();
+					return sample;
+				}
+			} catch (InterruptedException e) {
+				log.error(
+						"Interrupted while waiting for next sample to arrive.",
+						e);
+				return null;
+			}
+		}
+		throw new IllegalStateException(
+				"Connection to the aggregator has terminated.");
+
+	}
+
+	/**
+	 * Returns the next sample from the Aggregator, waiting up to the specified
+	 * time if none are currently buffered. Threads waiting in this method
+	 * return immediately when the connection to the aggregator is shut down.
+	 * 
+	 * @param timeout
+	 *            how long to wait for a sample, in units of {@code unit}.
+	 * @param unit
+	 *            the unit of {@code timeout}.
+	 * @return the next sample received from the Aggregator, or {@code null}
+	 *         if none arrived before the timeout or the connection was shut
+	 *         down.
+	 * @throws IllegalStateException
+	 *             if this method is called after the Aggregator has been
+	 *             disconnected.
+	 */
+	public SampleMessage pollSample(long timeout, TimeUnit unit) {
+		if (this.connected) {
+			try {
+				SampleMessage sample = this.sampleQueue.poll(timeout, unit);
+				this.checkLowWatermark();
+				return sample;
 			} catch (InterruptedException e) {
 				log.error(
 						"Interrupted while waiting for next sample to arrive.",
@@ -259,7 +440,71 @@ public class SolverAggregatorConnection {
 		}
 		throw new IllegalStateException(
 				"Connection to the aggregator has terminated.");
+	}
+
+	/**
+	 * Returns the next buffered sample without waiting. Samples that were
+	 * buffered before the connection was shut down can still be retrieved with
+	 * this method.
+	 * 
+	 * @return the next buffered sample, or {@code null} if none are available.
+	 */
+	public SampleMessage tryNextSample() {
+		SampleMessage sample = this.sampleQueue.poll();
+		this.checkLowWatermark();
+		return sample;
+	}
 
+	/**
+	 * Removes up to {@code max} buffered samples and adds them to
+	 * {@code target}, in the order they were received. This method does not
+	 * block, and is much cheaper than calling {@link #getNextSample()} for
+	 * each sample.
+	 * 
+	 * @param target
+	 *            the collection to add the samples to.
+	 * @param max
+	 *            the maximum number of samples to remove.
+	 * @return the number of samples added to {@code target}, possibly 0.
+	 */
+	public int drainSamples(Collection<? super SampleMessage> target, int max) {
+		int drained = this.sampleQueue.drainTo(target, max);
+		this.checkLowWatermark();
+		return drained;
+	}
+
+	/**
+	 * Removes up to {@code max} buffered samples and adds them to
+	 * {@code target}, blocking until at least one sample is available. If the
+	 * connection to the aggregator has been completely shut down, then this
+	 * method will throw an IllegalStateException.
+	 * 
+	 * @param target
+	 *            the collection to add the samples to.
+	 * @param max
+	 *            the maximum number of samples to remove; must be positive.
+	 * @return the number of samples added to {@code target}, or 0 if the
+	 *         thread was interrupted while waiting or the connection was shut
+	 *         down.
+	 * @throws IllegalStateException
+	 *             if this method is called after the Aggregator has been
+	 *             disconnected.
+	 */
+	public int takeSamples(Collection<? super SampleMessage> target, int max) {
+		if (this.connected) {
+			try {
+				int taken = this.sampleQueue.takeAll(target, max);
+				this.checkLowWatermark();
+				return taken;
+			} catch (InterruptedException e) {
+				log.error(
+						"Interrupted while waiting for samples to arrive.",
+						e);
+			}
+			return 0;
+		}
+		throw new IllegalStateException(
+				"Connection to the aggregator has terminated.");
 	}
 
 	/**
@@ -288,57 +533,85 @@ public class SolverAggregatorConnection {
 
 	/**
 	 * Adds a Subscription Request Rule to the aggregator interface. If the
-	 * aggregator is already connected, the rule will be sent immediately,
+	 * aggregator is already connected, the rule will be sent at the end of the
+	 * rule update window, together with any other rules added in the meantime,
 	 * otherwise it will be sent with all rules when the aggregator is
-	 * connected.
+	 * connected.  Each call copies the current rules, so
+	 * {@link #addRules(Collection)} should be used to add many rules at once.
 	 * 
 	 * @param rule
 	 *            the rule to add to this aggregator.
 	 * @return the rule number, which can be used later to remove a Subscription
-	 *         Request Rule.
+	 *         Request Rule, or -1 if an equivalent rule was already added.
 	 */
 	public int addRule(final SubscriptionRequestRule rule) {
-		Integer theRuleNum = Integer.valueOf(this.nextRuleNum.getAndIncrement());
-		synchronized (this.ruleMap) {
-			if (!this.ruleMap.values().contains(rule)) {
-				this.ruleMap.put(theRuleNum, rule);
-				
-				SubscriptionRequestRule[] newRules = this.ruleMap.values().toArray(new SubscriptionRequestRule[]{});
-				this.agg.setRules(newRules);
-				if (this.agg.isConnected()) {
-					SubscriptionMessage msg = new SubscriptionMessage();
-					msg.setRules(new SubscriptionRequestRule[] { rule });
-					msg.setMessageType(SubscriptionMessage.SUBSCRIPTION_MESSAGE_ID);
-					this.agg.getSession().write(msg);
-				}
-				
-				return theRuleNum.intValue();
-			}
+		int ruleNum = this.ruleRegistry.add(rule);
+		if (ruleNum < 0) {
 			log.warn("Rule {} is already configured for use.", rule);
 			return -1;
 		}
+		this.ruleUpdates.changed();
+		return ruleNum;
+	}
+
+	/**
+	 * Adds many Subscription Request Rules to the aggregator interface. If the
+	 * aggregator is already connected, the new rules are sent in a single
+	 * subscription request at the end of the rule update window.
+	 * 
+	 * @param rules
+	 *            the rules to add to this aggregator.
+	 * @return the rule number of each rule in iteration order, or -1 for each
+	 *         rule equivalent to one that was already added.
+	 */
+	public int[] addRules(final Collection<SubscriptionRequestRule> rules) {
+		int[] ruleNums = this.ruleRegistry.addAll(rules);
+		this.ruleUpdates.changed();
+		return ruleNums;
 	}
 
 	/**
 	 * Removes a rule from this aggregator based on the rule number returned by
-	 * {@link #addRule(SubscriptionRequestRule)}. At this time, it will not
-	 * cancel the subscription request rule on the aggregator, but instead will
-	 * cause a reconnection to the aggregator to refresh the rules.
+	 * {@link #addRule(SubscriptionRequestRule)}. The aggregator cannot cancel a
+	 * subscription, so if it is connected, samples matching only the removed
+	 * rule are discarded until the next time a connection is made, which
+	 * requests only the remaining rules.
 	 * 
 	 * @param ruleNum
 	 *            the number of the rule to cancel.
 	 * @return the rule that was cancelled, if one matching the rule number was
 	 *         present for this aggregator.
+	 * @see SolverAggregatorInterface#updateRules(SubscriptionRequestRule[])
 	 */
 	public SubscriptionRequestRule removeRule(final int ruleNum) {
-		synchronized (this.ruleMap) {
-			SubscriptionRequestRule rule = this.ruleMap.remove(Integer
-					.valueOf(ruleNum));
-			if (this.agg.isConnected()) {
-				this.agg._disconnect();
-			}
-			return rule;
+		SubscriptionRequestRule rule = this.ruleRegistry.remove(ruleNum);
+		if (rule != null) {
+			this.ruleUpdates.changed();
 		}
+		return rule;
+	}
+
+	/**
+	 * Returns how long rule changes are collected before they are sent to a
+	 * connected aggregator.
+	 * 
+	 * @return the rule update window in milliseconds.
+	 */
+	public long getRuleUpdateWindow() {
+		return this.ruleUpdates.getWindow();
+	}
+
+	/**
+	 * Sets how long rule changes are collected before they are sent to a
+	 * connected aggregator.  All rules added or removed within the window are
+	 * sent together.  The default is 10 milliseconds.
+	 * 
+	 * @param ruleUpdateWindow
+	 *            the rule update window in milliseconds, or 0 to send each
+	 *            change immediately.
+	 */
+	public void setRuleUpdateWindow(final long ruleUpdateWindow) {
+		this.ruleUpdates.setWindow(ruleUpdateWindow);
 	}
 
 	/**
@@ -366,6 +639,178 @@ public class SolverAggregatorConnection {
 		this.warnBufferFull = warnBufferFull;
 	}
 	
+	/**
+	 * Returns the policy applied when a sample arrives and the buffer is full.
+	 * 
+	 * @return the current overflow policy.
+	 */
+	public OverflowPolicy getOverflowPolicy() {
+		return this.overflowPolicy;
+	}
+
+	/**
+	 * Sets the policy applied when a sample arrives and the buffer is full.
+	 * The default policy, {@link OverflowPolicy#dropNewest()}, discards the
+	 * arriving sample.  {@link OverflowPolicy#dropOldest()} keeps the newest
+	 * samples instead, and {@link OverflowPolicy#block(long, TimeUnit)} waits
+	 * for the solver to make room, which delays all other processing of the
+	 * aggregator connection while it waits.
+	 * 
+	 * @param overflowPolicy
+	 *            the new overflow policy.
+	 */
+	public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+		if (overflowPolicy == null) {
+			throw new IllegalArgumentException("Overflow policy cannot be null.");
+		}
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	/**
+	 * Returns the number of samples discarded by the current overflow policy.
+	 * 
+	 * @return the number of discarded samples.
+	 */
+	public long getDiscardedSampleCount() {
+		return this.overflowPolicy.getDiscardedCount();
+	}
+
+	/**
+	 * Enables backpressure. When the number of buffered samples reaches
+	 * {@code highWatermark}, reads from the aggregator are suspended so that
+	 * the TCP window throttles the aggregator. Reads resume once the solver
+	 * has reduced the buffer to {@code lowWatermark} samples, unless another
+	 * {@link ReadSuspension} reason is still held on the session. Samples
+	 * already read from the socket are still delivered while reads are
+	 * suspended, so {@code highWatermark} should leave some room below the
+	 * buffer size.
+	 * 
+	 * @param highWatermark
+	 *            the buffer size at which reads are suspended.
+	 * @param lowWatermark
+	 *            the buffer size at which reads are resumed.
+	 * @throws IllegalArgumentException
+	 *             if {@code lowWatermark} is negative, not less than
+	 *             {@code highWatermark}, or {@code highWatermark} is greater
+	 *             than the buffer size.
+	 */
+	public void setBackpressureWatermarks(int highWatermark, int lowWatermark) {
+		if (lowWatermark < 0 || lowWatermark >= highWatermark
+				|| highWatermark > this.sampleQueue.capacity()) {
+			throw new IllegalArgumentException(String.format(
+					"Invalid watermarks (high %d, low %d) for buffer size %d.",
+					Integer.valueOf(highWatermark), Integer.valueOf(lowWatermark),
+					Integer.valueOf(this.sampleQueue.capacity())));
+		}
+		synchronized (this.backpressureLock) {
+			this.lowWatermark = lowWatermark;
+			this.highWatermark = highWatermark;
+		}
+		this.checkLowWatermark();
+	}
+
+	/**
+	 * Disables backpressure, resuming reads from the aggregator if they were
+	 * suspended.
+	 */
+	public void clearBackpressureWatermarks() {
+		synchronized (this.backpressureLock) {
+			this.highWatermark = 0;
+			this.lowWatermark = 0;
+			if (this.readSuspended) {
+				this.readSuspended = false;
+				IoSession session = this.agg.getSession();
+				if (session != null) {
+					ReadSuspension.resume(session, this);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the buffer size at which reads from the aggregator are
+	 * suspended.
+	 * 
+	 * @return the high watermark, or 0 if backpressure is disabled.
+	 */
+	public int getHighWatermark() {
+		return this.highWatermark;
+	}
+
+	/**
+	 * Returns the buffer size at which suspended reads are resumed.
+	 * 
+	 * @return the low watermark.
+	 */
+	public int getLowWatermark() {
+		return this.lowWatermark;
+	}
+
+	/**
+	 * Returns {@code true} if reads from the aggregator are currently
+	 * suspended because the buffer reached the high watermark.
+	 * 
+	 * @return {@code true} if reads are suspended, else {@code false}.
+	 */
+	public boolean isReadSuspended() {
+		return this.readSuspended;
+	}
+
+	/**
+	 * Suspends reads from the aggregator if the buffer has reached the high
+	 * watermark.
+	 */
+	protected void checkHighWatermark() {
+		int high = this.highWatermark;
+		if (high == 0 || this.readSuspended || this.sampleQueue.size() < high) {
+			return;
+		}
+		synchronized (this.backpressureLock) {
+			IoSession session = this.agg.getSession();
+			if (this.readSuspended || session == null) {
+				return;
+			}
+			this.readSuspended = true;
+			ReadSuspension.suspend(session, this);
+			log.debug("Suspended reads from {} at {} buffered samples.", this,
+					Integer.valueOf(this.sampleQueue.size()));
+		}
+		// The solver may have emptied the buffer before reads were suspended
+		this.checkLowWatermark();
+	}
+
+	/**
+	 * Resumes reads from the aggregator if they are suspended and the buffer
+	 * has fallen to the low watermark.
+	 */
+	protected void checkLowWatermark() {
+		if (!this.readSuspended || this.sampleQueue.size() > this.lowWatermark) {
+			return;
+		}
+		synchronized (this.backpressureLock) {
+			if (!this.readSuspended
+					|| this.sampleQueue.size() > this.lowWatermark) {
+				return;
+			}
+			this.readSuspended = false;
+			IoSession session = this.agg.getSession();
+			if (session != null) {
+				ReadSuspension.resume(session, this);
+			}
+			log.debug("Released suspended reads from {}.", this);
+		}
+	}
+
+	/**
+	 * Clears the suspended state when a new session is established, since new
+	 * sessions start with reads enabled.
+	 */
+	void resetBackpressure() {
+		synchronized (this.backpressureLock) {
+			this.readSuspended = false;
+		}
+	}
+
 	@Override
 	public String toString(){
 		return "Aggregator @ " + this.agg.getHost() + ":" + this.agg.getPort();
@@ -377,22 +822,23 @@ public class SolverAggregatorConnection {
 	 */
 	void connectionEnded(SolverAggregatorInterface aggregator) {
 		this.connected = false;
-		
-		synchronized (this.sampleQueue) {
-			this.sampleQueue.notifyAll();
-		}
+		// Wake any threads waiting for samples
+		this.sampleQueue.close();
 	}
 
 	/**
-	 * Called when the aggregator sends a sample.  Enqueues the sample into the internal buffer.
+	 * Called when the aggregator sends a sample.  Enqueues the sample into the internal buffer,
+	 * applying the overflow policy if it is full.
 	 * @param aggregator the aggregator that sent the sample.
 	 * @param sample the sample that was sent.
 	 */
 	void sampleReceived(SolverAggregatorInterface aggregator,
 			SampleMessage sample) {
-		if (!this.sampleQueue.offer(sample) && this.warnBufferFull) {
-			log.warn("Unable to insert a sample due to a full buffer.");
+		if (!this.overflowPolicy.offer(this.sampleQueue, sample)
+				&& this.warnBufferFull) {
+			log.warn("Discarded a sample due to a full buffer.");
 		}
+		this.checkHighWatermark();
 	}
 
 	/**
@@ -19,15 +19,34 @@
 
 package com.owlplatform.solver;
 
+import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.mina.core.RuntimeIoException;
 import org.apache.mina.core.future.ConnectFuture;
+import org.apache.mina.core.future.IoFutureListener;
 import org.apache.mina.core.session.IdleStatus;
 import org.apache.mina.core.session.IoSession;
 import org.apache.mina.filter.codec.ProtocolCodecFilter;
 import org.apache.mina.filter.executor.ExecutorFilter;
+import org.apache.mina.filter.executor.IoEventQueueHandler;
+import org.apache.mina.filter.executor.OrderedThreadPoolExecutor;
+import org.apache.mina.filter.executor.UnorderedThreadPoolExecutor;
 import org.apache.mina.transport.socket.SocketConnector;
 import org.apache.mina.transport.socket.nio.NioSocketConnector;
 import org.slf4j.Logger;
@@ -35,11 +54,27 @@ import org.slf4j.LoggerFactory;
 
 import com.owlplatform.common.SampleMessage;
 
+import com.owlplatform.solver.buffer.OverflowPolicy;
+import com.owlplatform.solver.dispatch.EventQueueThrottle;
+import com.owlplatform.solver.dispatch.PartitionedSampleDispatcher;
+import com.owlplatform.solver.dispatch.SampleMailbox;
+import com.owlplatform.solver.dispatch.SampleListenerIndex;
+import com.owlplatform.solver.dispatch.UnorderedSampleFilter;
+import com.owlplatform.solver.flow.SamplePublisher;
 import com.owlplatform.solver.listeners.ConnectionListener;
+import com.owlplatform.solver.listeners.RawSampleListener;
+import com.owlplatform.solver.listeners.SampleBatchListener;
 import com.owlplatform.solver.listeners.SampleListener;
+import com.owlplatform.solver.listeners.SampleViewListener;
 import com.owlplatform.solver.protocol.codec.AggregatorSolverProtocolCodecFactory;
+import com.owlplatform.solver.protocol.codec.RawSampleHandler;
+import com.owlplatform.solver.protocol.codec.SampleViewHandler;
+import com.owlplatform.solver.protocol.messages.DeviceIdCache;
 import com.owlplatform.solver.protocol.messages.HandshakeMessage;
+import com.owlplatform.solver.protocol.messages.SampleBatch;
+import com.owlplatform.solver.protocol.messages.SampleView;
 import com.owlplatform.solver.protocol.messages.SubscriptionMessage;
+import com.owlplatform.solver.rules.SampleFilter;
 import com.owlplatform.solver.rules.SubscriptionRequestRule;
 
 /**
@@ -55,7 +90,8 @@ public class SolverAggregatorInterface {
 	 * 
 	 * @author Robert Moore
 	 */
-	private static final class AdapterHandler implements SolverIoAdapter {
+	private static final class AdapterHandler implements SolverBatchIoAdapter,
+			SampleViewHandler, RawSampleHandler, SampleListener {
 		/**
 		 * The actual object that will respond to events.
 		 */
@@ -138,10 +174,37 @@ public class SolverAggregatorInterface {
 			this.parent.solverSampleReceived(session, sampleMessage);
 		}
 
+		@Override
+		public void solverSampleBatchReceived(IoSession session,
+				SampleBatch sampleBatch) {
+			this.parent.solverSampleBatchReceived(session, sampleBatch);
+		}
+
 		@Override
 		public void sessionIdle(IoSession session, IdleStatus idleStatus) {
 			this.parent.sessionIdle(session, idleStatus);
 		}
+
+		@Override
+		public void sampleDecoded(IoSession session, SampleView view) {
+			this.parent.solverSampleViewed(session, view);
+		}
+
+		@Override
+		public void sampleDecoded(IoSession session, byte physicalLayer,
+				long deviceHigh, long deviceLow, long receiverHigh,
+				long receiverLow, long receiverTimeStamp, float rssi,
+				ByteBuffer sensedData) {
+			this.parent.solverSampleRaw(session, physicalLayer, deviceHigh,
+					deviceLow, receiverHigh, receiverLow, receiverTimeStamp, rssi,
+					sensedData);
+		}
+
+		@Override
+		public void sampleReceived(SolverAggregatorInterface aggregator,
+				SampleMessage sample) {
+			this.parent.deliverSample(sample);
+		}
 	}
 
 	/**
@@ -164,6 +227,35 @@ public class SolverAggregatorInterface {
 	 */
 	private SubscriptionMessage receivedSubscription = null;
 
+	/**
+	 * Placeholder listener for the rules in {@link #ruleUpdateFilter}.
+	 */
+	private static final SampleListener RULE_UPDATE_MATCHER = new SampleListener() {
+		@Override
+		public void sampleReceived(SolverAggregatorInterface aggregator,
+				SampleMessage sample) {
+			// Only used for matching
+		}
+	};
+
+	/**
+	 * Lock for the rules sent on the current session.
+	 */
+	private final Object ruleUpdateLock = new Object();
+
+	/**
+	 * The rules sent to the aggregator on the current session. Subscription
+	 * requests are additive, so all of them stay active until the session
+	 * ends.
+	 */
+	private Set<SubscriptionRequestRule> sessionRules = new HashSet<SubscriptionRequestRule>();
+
+	/**
+	 * Matches samples against the current rules if rules sent on the current
+	 * session have since been removed, or {@code null} if none were removed.
+	 */
+	private volatile SampleListenerIndex ruleUpdateFilter = null;
+
 	/**
 	 * Logging facility for this class.
 	 */
@@ -183,11 +275,96 @@ public class SolverAggregatorInterface {
 	private long connectionTimeout = 10000;
 
 	/**
-	 * How long to wait between connection attempts to the aggregator, in
+	 * Base delay between connection attempts to the aggregator, in
 	 * milliseconds.
 	 */
 	private long connectionRetryDelay = 10000;
 
+	/**
+	 * Maximum delay between connection attempts to the aggregator, in
+	 * milliseconds.
+	 */
+	private long maxConnectionRetryDelay = 60000;
+
+	/**
+	 * Scheduler shared by all interfaces that were not given their own, created
+	 * when first needed.
+	 */
+	private static ScheduledExecutorService sharedReconnectScheduler = null;
+
+	/**
+	 * Shared threads to use for connections, or {@code null} to create them
+	 * for each connection.
+	 */
+	private volatile SolverRuntime runtime = null;
+
+	/**
+	 * Which threads deliver events to the listeners.
+	 */
+	private ThreadingModel threadingModel = ThreadingModel.ORDERED_POOL;
+
+	/**
+	 * Maximum number of listener threads of a pooled threading model, when
+	 * there is no runtime.
+	 */
+	private int listenerThreads = 1;
+
+	/**
+	 * Number of seconds an idle listener thread is kept.
+	 */
+	private static final long LISTENER_KEEP_ALIVE = 30;
+
+	/**
+	 * Maximum estimated size of the events waiting for listener threads, in
+	 * bytes, or 0 for no limit.
+	 */
+	private long maxQueuedBytes = 0;
+
+	/**
+	 * Maximum number of events waiting for listener threads, or 0 for no
+	 * limit.
+	 */
+	private int maxQueuedEvents = 0;
+
+	/**
+	 * Limits the events waiting for listener threads, or {@code null} if they
+	 * are not limited.
+	 */
+	private volatile EventQueueThrottle queueThrottle = null;
+
+	/**
+	 * Scheduler for reconnection attempts, or {@code null} to use the shared
+	 * scheduler.
+	 */
+	private volatile ScheduledExecutorService reconnectScheduler = null;
+
+	/**
+	 * Lock for the reconnection state.
+	 */
+	private final Object reconnectLock = new Object();
+
+	/**
+	 * The scheduled reconnection attempt, or {@code null} if none is
+	 * scheduled.
+	 */
+	private ScheduledFuture<?> pendingReconnect = null;
+
+	/**
+	 * The asynchronous connection attempt waiting for a subscription response,
+	 * or {@code null} if there is none.
+	 */
+	private ConnectionFuture pendingConnect = null;
+
+	/**
+	 * Number of reconnection attempts since the last verified handshake.
+	 */
+	private int reconnectAttempts = 0;
+
+	/**
+	 * Source of jitter for retry delays.
+	 */
+	private final Random retryRandom = new Random();
+
 	/**
 	 * Whether or not to try and stay connected to the aggregator.
 	 */
@@ -270,16 +447,214 @@ public class SolverAggregatorInterface {
 		this.rules = rules;
 	}
 
+	/**
+	 * Replaces the rules of this interface without reconnecting. If the
+	 * aggregator is connected, only the rules not yet sent on the current
+	 * session are requested, since subscriptions are additive. The aggregator
+	 * cannot cancel a subscription, so once a rule sent on the current session
+	 * is no longer present, samples that don't match any of the new rules are
+	 * discarded instead of being passed to the sample, flyweight and raw
+	 * sample listeners until the next connection is made.
+	 * {@link SampleBatchListener}s still receive complete batches.
+	 * 
+	 * @param rules
+	 *            the new rules.
+	 */
+	public void updateRules(SubscriptionRequestRule[] rules) {
+		synchronized (this.ruleUpdateLock) {
+			this.rules = rules;
+			IoSession currentSession = this.session;
+			if (!this.connected || currentSession == null) {
+				return;
+			}
+			Set<SubscriptionRequestRule> current = new HashSet<SubscriptionRequestRule>();
+			List<SubscriptionRequestRule> added = new ArrayList<SubscriptionRequestRule>();
+			if (rules != null) {
+				for (SubscriptionRequestRule rule : rules) {
+					current.add(rule);
+					if (this.sessionRules.add(rule)) {
+						added.add(rule);
+					}
+				}
+			}
+			if (current.containsAll(this.sessionRules)) {
+				this.ruleUpdateFilter = null;
+			} else {
+				SampleListenerIndex filter = new SampleListenerIndex();
+				if (!current.isEmpty()) {
+					filter.add(RULE_UPDATE_MATCHER, rules);
+				}
+				this.ruleUpdateFilter = filter;
+			}
+			if (!added.isEmpty()) {
+				this.writeSubscription(currentSession,
+						added.toArray(new SubscriptionRequestRule[added.size()]));
+			}
+		}
+	}
+
+	/**
+	 * Requests the current rules on a session that has just completed the
+	 * handshake.
+	 * 
+	 * @param session
+	 *            the session to write the requests to.
+	 */
+	private void subscribe(IoSession session) {
+		synchronized (this.ruleUpdateLock) {
+			this.sessionRules.clear();
+			if (this.rules != null) {
+				this.sessionRules.addAll(Arrays.asList(this.rules));
+			}
+			this.ruleUpdateFilter = null;
+			this.writeSubscription(session, this.rules);
+			this.connected = true;
+		}
+	}
+
+	/**
+	 * Writes subscription requests for {@code rules}, divided between as many
+	 * messages as the aggregator's decoder requires. Dividing the rules is safe
+	 * because each request adds to the rules already requested.
+	 * 
+	 * @param session
+	 *            the session to write the requests to.
+	 * @param rules
+	 *            the rules to request.
+	 */
+	private void writeSubscription(IoSession session,
+			SubscriptionRequestRule[] rules) {
+		for (SubscriptionMessage msg : SubscriptionMessage.partition(rules,
+				SubscriptionMessage.MAX_LENGTH_PREFIX)) {
+			session.write(msg);
+		}
+	}
+
+	/**
+	 * Determines whether a sample is discarded because it only matches rules
+	 * removed during the current session.
+	 * 
+	 * @param physicalLayer
+	 *            the physical layer of the sample.
+	 * @param deviceHigh
+	 *            the high 8 bytes of the sample's device identifier.
+	 * @param deviceLow
+	 *            the low 8 bytes of the sample's device identifier.
+	 * @return {@code true} if the sample should be discarded.
+	 */
+	private boolean isRemovedByRuleUpdate(byte physicalLayer, long deviceHigh,
+			long deviceLow) {
+		SampleListenerIndex filter = this.ruleUpdateFilter;
+		return filter != null
+				&& !filter.matches(physicalLayer, deviceHigh, deviceLow);
+	}
+
+	/**
+	 * Determines whether a sample is discarded because it only matches rules
+	 * removed during the current session.
+	 * 
+	 * @param sampleMessage
+	 *            the sample.
+	 * @return {@code true} if the sample should be discarded.
+	 */
+	private boolean isRemovedByRuleUpdate(SampleMessage sampleMessage) {
+		SampleListenerIndex filter = this.ruleUpdateFilter;
+		return filter != null && !filter.matches(sampleMessage);
+	}
+
 	/**
 	 * Listeners for sample received events.
 	 */
 	protected ConcurrentLinkedQueue<SampleListener> sampleListeners = new ConcurrentLinkedQueue<SampleListener>();
 
+	/**
+	 * Listeners for samples matching specific rules.
+	 */
+	protected final SampleListenerIndex sampleListenerIndex = new SampleListenerIndex();
+
+	/**
+	 * Mailboxes of isolated listeners, keyed by the listener.
+	 */
+	protected final ConcurrentHashMap<SampleListener, SampleMailbox> sampleMailboxes = new ConcurrentHashMap<SampleListener, SampleMailbox>();
+
+	/**
+	 * Listeners for sample batch events.
+	 */
+	protected ConcurrentLinkedQueue<SampleBatchListener> sampleBatchListeners = new ConcurrentLinkedQueue<SampleBatchListener>();
+
+	/**
+	 * Listeners for flyweight sample events.
+	 */
+	protected ConcurrentLinkedQueue<SampleViewListener> sampleViewListeners = new ConcurrentLinkedQueue<SampleViewListener>();
+
+	/**
+	 * Listeners for raw sample events.
+	 */
+	protected ConcurrentLinkedQueue<RawSampleListener> rawSampleListeners = new ConcurrentLinkedQueue<RawSampleListener>();
+
 	/**
 	 * Listeners for connection events.
 	 */
 	protected ConcurrentLinkedQueue<ConnectionListener> connectionListeners = new ConcurrentLinkedQueue<ConnectionListener>();
 
+	/**
+	 * Whether samples should be delivered as flyweight {@code SampleView}
+	 * objects instead of {@code SampleMessage} objects.
+	 */
+	private boolean flyweightSamples = false;
+
+	/**
+	 * Whether samples should be delivered as primitive values to
+	 * {@link RawSampleListener}s instead of as objects.
+	 */
+	private boolean rawSamples = false;
+
+	/**
+	 * Whether the demultiplexing message decoders should be used instead of
+	 * the single-pass protocol decoder.
+	 */
+	private boolean compatibilityDecoding = false;
+
+	/**
+	 * Whether all samples decoded from a single read should be delivered as
+	 * one {@code SampleBatch}.
+	 */
+	private boolean batchSamples = false;
+
+	/**
+	 * Cache used to intern sample identifiers, or {@code null} if each sample
+	 * has its own identifier arrays.
+	 */
+	private DeviceIdCache deviceIdCache = null;
+
+	/**
+	 * Filter applied to samples in the decoder, or {@code null} if all
+	 * samples are delivered.
+	 */
+	private volatile SampleFilter sampleFilter = null;
+
+	/**
+	 * The codec factory for the current connector.
+	 */
+	private volatile AggregatorSolverProtocolCodecFactory codecFactory;
+
+	/**
+	 * Publisher of received samples, created when first requested.
+	 */
+	private SamplePublisher samplePublisher = null;
+
+	/**
+	 * Number of threads that deliver samples to the sample listeners, or 0 to
+	 * deliver them on the IO processing thread.
+	 */
+	private int dispatchLanes = 0;
+
+	/**
+	 * Delivers samples to the sample listeners when {@link #dispatchLanes} is
+	 * positive.
+	 */
+	private volatile PartitionedSampleDispatcher dispatcher = null;
+
 	/**
 	 * Creates a new SolverAggregatorConnection with a SolverIoHandler as the IO
 	 * handler.
@@ -289,10 +664,17 @@ public class SolverAggregatorInterface {
 	}
 
 	/**
-	 * Thread pool for handling IO events outside of the MINA IO thread.
+	 * Thread pool for handling IO events outside of the MINA IO thread, or
+	 * {@code null} if events are handled on the IO thread.
 	 */
 	private ExecutorFilter executors = null;
 
+	/**
+	 * The listener threads created for the current connection, or
+	 * {@code null} if there are none or they belong to the runtime.
+	 */
+	private ExecutorService listenerExecutor = null;
+
 	/**
 	 * Creates a new SolverAggregatorConnection with the provided
 	 * SolverIoHandler as the IO handler.
@@ -325,23 +707,101 @@ public class SolverAggregatorInterface {
 			return false;
 		}
 
-		this.executors = new ExecutorFilter(1);
+		SolverRuntime currentRuntime = this.runtime;
+		this.executors = this.createExecutorFilter(currentRuntime);
+		if (this.dispatchLanes > 0) {
+			this.dispatcher = new PartitionedSampleDispatcher(this, this.handler,
+					this.dispatchLanes);
+		}
+
+		AggregatorSolverProtocolCodecFactory codecFactory = new AggregatorSolverProtocolCodecFactory(
+				false, this.compatibilityDecoding);
+		if (this.flyweightSamples) {
+			codecFactory.setSampleViewHandler(this.handler);
+		}
+		if (this.rawSamples) {
+			codecFactory.setRawSampleHandler(this.handler);
+		}
+		codecFactory.setBatchSamples(this.batchSamples);
+		codecFactory.setSampleFilter(this.sampleFilter);
+		codecFactory.setDeviceIdCache(this.deviceIdCache);
+		this.codecFactory = codecFactory;
 
-		this.connector = new NioSocketConnector();
+		this.connector = currentRuntime == null ? new NioSocketConnector()
+				: currentRuntime.newConnector();
 		this.connector.getSessionConfig().setTcpNoDelay(true);
 		if (!this.connector.getFilterChain().contains(
 				AggregatorSolverProtocolCodecFactory.CODEC_NAME)) {
 			this.connector.getFilterChain().addLast(
 					AggregatorSolverProtocolCodecFactory.CODEC_NAME,
-					new ProtocolCodecFilter(
-							new AggregatorSolverProtocolCodecFactory(false)));
+					new ProtocolCodecFilter(codecFactory));
+		}
+		if (this.executors != null) {
+			this.connector.getFilterChain().addLast("ExecutorPool",
+					this.executors);
 		}
-		this.connector.getFilterChain().addLast("ExecutorPool", this.executors);
 		this.connector.setHandler(this.ioHandler);
 		log.debug("Connector set up successful.");
 		return true;
 	}
 
+	/**
+	 * Creates the executor filter for the current threading model.
+	 * 
+	 * @param currentRuntime
+	 *            the runtime whose listener threads should be used, or
+	 *            {@code null} to create new threads.
+	 * @return the executor filter, or {@code null} if events should be handled
+	 *         on the IO thread.
+	 */
+	private ExecutorFilter createExecutorFilter(SolverRuntime currentRuntime) {
+		this.listenerExecutor = null;
+		this.queueThrottle = null;
+		if (this.threadingModel == ThreadingModel.INLINE) {
+			return null;
+		}
+		if (currentRuntime != null) {
+			this.queueThrottle = currentRuntime.getQueueThrottle();
+			return currentRuntime.newExecutorFilter();
+		}
+		IoEventQueueHandler queueHandler = IoEventQueueHandler.NOOP;
+		if (this.maxQueuedBytes != 0 || this.maxQueuedEvents != 0) {
+			this.queueThrottle = new EventQueueThrottle(this.maxQueuedBytes,
+					this.maxQueuedEvents);
+			queueHandler = this.queueThrottle;
+		}
+		if (this.threadingModel == ThreadingModel.UNORDERED_POOL) {
+			this.listenerExecutor = new UnorderedThreadPoolExecutor(0,
+					this.listenerThreads, LISTENER_KEEP_ALIVE, TimeUnit.SECONDS,
+					queueHandler);
+			// Protocol events must stay in order
+			return new UnorderedSampleFilter(this.listenerExecutor);
+		}
+		this.listenerExecutor = new OrderedThreadPoolExecutor(0,
+				this.listenerThreads, LISTENER_KEEP_ALIVE, TimeUnit.SECONDS,
+				queueHandler);
+		return new ExecutorFilter(this.listenerExecutor);
+	}
+
+	/**
+	 * Returns the socket connector for the current connection.
+	 * 
+	 * @return the connector, or {@code null} if it is not set up.
+	 */
+	SocketConnector getConnector() {
+		return this.connector;
+	}
+
+	/**
+	 * Returns the listener threads created for the current connection.
+	 * 
+	 * @return the listener threads, or {@code null} if there are none or they
+	 *         belong to the runtime.
+	 */
+	ExecutorService getListenerExecutor() {
+		return this.listenerExecutor;
+	}
+
 	/**
 	 * Initiates a connection to the Aggregator (if it is not yet connected). If
 	 * {@code #stayConnected} is {@code true}, then this method will NOT return
@@ -387,6 +847,7 @@ public class SolverAggregatorInterface {
 			return true;
 		}
 		long waitTime = timeout;
+		int attempt = 0;
 		do {
 			long startAttempt = System.currentTimeMillis();
 			this.connector.setConnectTimeoutMillis(waitTime - 5);
@@ -396,8 +857,8 @@ public class SolverAggregatorInterface {
 			}
 
 			if (this.stayConnected) {
-				long retryDelay = this.connectionRetryDelay;
-				if (timeout < this.connectionRetryDelay * 2) {
+				long retryDelay = this.nextRetryDelay(attempt++);
+				if (timeout < retryDelay * 2) {
 					retryDelay = timeout / 2;
 					if (retryDelay < 500) {
 						retryDelay = 500;
@@ -425,19 +886,127 @@ public class SolverAggregatorInterface {
 		return false;
 	}
 
+	/**
+	 * Initiates a connection to the aggregator without waiting for it. The
+	 * returned future succeeds once the handshake has been verified and the
+	 * first subscription response has been received. If {@code #stayConnected}
+	 * is {@code true}, failed attempts are retried with the same backoff as
+	 * reconnections, and the future only fails if the connection ends
+	 * permanently; use {@link ConnectionFuture#get(long, TimeUnit)} to limit
+	 * the wait. Many connections can be started at once and waited for with
+	 * {@link ConnectionFuture#awaitAll(java.util.Collection, long, TimeUnit)}.
+	 * 
+	 * @return the connection attempt. If an attempt is already in progress,
+	 *         its future is returned.
+	 */
+	public ConnectionFuture connectAsync() {
+		final ConnectionFuture future;
+		synchronized (this.reconnectLock) {
+			if (this.pendingConnect != null) {
+				return this.pendingConnect;
+			}
+			future = new ConnectionFuture(this);
+			if (this.isConnected() && this.receivedSubscription != null) {
+				future.succeed();
+				return future;
+			}
+			this.pendingConnect = future;
+		}
+		if (this.connector == null && !this.setConnector()) {
+			log.error("Unable to set up connection to the aggregator.");
+			this.failPendingConnect(new IllegalStateException(
+					"Unable to set up connection to the aggregator."));
+			return future;
+		}
+		IoSession currentSession = this.session;
+		if (currentSession != null && currentSession.isConnected()
+				&& !currentSession.isClosing()) {
+			// Already connected, waiting for the subscription response
+			return future;
+		}
+		this.connector.setConnectTimeoutMillis(this.connectionTimeout);
+		ConnectFuture connFuture = this.connector
+				.connect(new InetSocketAddress(this.host, this.port));
+		connFuture.addListener(new IoFutureListener<ConnectFuture>() {
+			@Override
+			public void operationComplete(ConnectFuture completed) {
+				SolverAggregatorInterface.this.connectAsyncCompleted(future,
+						completed);
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * Called when the socket connection for {@link #connectAsync()} completes.
+	 * 
+	 * @param future
+	 *            the asynchronous connection attempt.
+	 * @param connFuture
+	 *            the completed socket connection.
+	 */
+	void connectAsyncCompleted(ConnectionFuture future, ConnectFuture connFuture) {
+		if (connFuture.isConnected()) {
+			if (future.isCancelled()) {
+				connFuture.getSession().close(true);
+			}
+			return;
+		}
+		log.warn("Connection to {}:{} failed.", this.host,
+				Integer.valueOf(this.port));
+		if (this.stayConnected) {
+			this.scheduleReconnect();
+			return;
+		}
+		this._disconnect();
+		this.finishConnection();
+	}
+
+	/**
+	 * Fails the pending asynchronous connection attempt, if there is one.
+	 * 
+	 * @param cause
+	 *            the reason the attempt failed.
+	 */
+	private void failPendingConnect(Throwable cause) {
+		ConnectionFuture future;
+		synchronized (this.reconnectLock) {
+			future = this.pendingConnect;
+			this.pendingConnect = null;
+		}
+		if (future != null) {
+			future.fail(cause);
+		}
+	}
+
 	/**
 	 * Clean-up any remaining connection-related state. Notify listeners that
 	 * the connection has ended.
 	 */
 	void finishConnection() {
-		this.connector.dispose();
-		this.connector = null;
+		if (this.connector != null) {
+			this.connector.dispose();
+			this.connector = null;
+		}
+		PartitionedSampleDispatcher currentDispatcher = this.dispatcher;
+		if (currentDispatcher != null) {
+			currentDispatcher.shutdown();
+			this.dispatcher = null;
+		}
+		this.failPendingConnect(new IOException(String.format(
+				"Connection to aggregator at %s:%d ended.", this.host,
+				Integer.valueOf(this.port))));
 		for (ConnectionListener listener : this.connectionListeners) {
 			listener.connectionEnded(this);
 		}
 		if (this.executors != null) {
 			this.executors.destroy();
 		}
+		ExecutorService currentExecutor = this.listenerExecutor;
+		if (currentExecutor != null) {
+			currentExecutor.shutdown();
+			this.listenerExecutor = null;
+		}
 	}
 
 	/**
@@ -455,7 +1024,18 @@ public class SolverAggregatorInterface {
 	public void disconnect() {
 		// Make sure we don't automatically reconnect
 		this.stayConnected = false;
+		boolean cancelled = false;
+		synchronized (this.reconnectLock) {
+			if (this.pendingReconnect != null
+					&& this.pendingReconnect.cancel(false)) {
+				this.pendingReconnect = null;
+				cancelled = true;
+			}
+		}
 		this._disconnect();
+		if (cancelled) {
+			this.finishConnection();
+		}
 	}
 
 	/**
@@ -499,62 +1079,379 @@ public class SolverAggregatorInterface {
 	}
 
 	/**
-	 * Disconnects from the aggregator, destroying any sessions and executor
-	 * filters that are already created. Resets the connection state.
+	 * Disconnects from the aggregator, destroying any sessions and executor
+	 * filters that are already created. Resets the connection state.
+	 */
+	protected void _disconnect() {
+		this.connected = false;
+		IoSession currentSession = this.session;
+		if (currentSession != null) {
+			if (!currentSession.isClosing()) {
+
+				log.info(
+						"Closing connection to aggregator at {} (waiting {}ms).",
+						currentSession.getRemoteAddress(),
+						Long.valueOf(this.connectionTimeout));
+				currentSession.close(true);
+			}
+			this.session = null;
+			this.sentHandshake = null;
+			this.receivedHandshake = null;
+			this.sentSubscription = null;
+			this.receivedSubscription = null;
+			for (ConnectionListener listener : this.connectionListeners) {
+				listener.connectionInterrupted(this);
+
+			}
+		}
+	}
+
+	/**
+	 * Called when the connection to the aggregator closes.
+	 * 
+	 * @param session
+	 *            the connection that closed.
+	 */
+	protected void connectionClosed(IoSession session) {
+		this.connected = false;
+		this._disconnect();
+		log.info("Connection lost to aggregator at {}:{}", this.host,
+				Integer.valueOf(this.port));
+
+		if (this.stayConnected) {
+			this.scheduleReconnect();
+			return;
+		}
+		this.finishConnection();
+	}
+
+	/**
+	 * Schedules the next reconnection attempt, unless one is already
+	 * scheduled. The delay is chosen uniformly between 0 and the retry delay
+	 * doubled for each failed attempt, up to the maximum retry delay, so that
+	 * many solvers losing the same aggregator do not reconnect at once.
+	 */
+	void scheduleReconnect() {
+		synchronized (this.reconnectLock) {
+			if (this.pendingReconnect != null) {
+				return;
+			}
+			long delay = this.nextRetryDelay(this.reconnectAttempts++);
+			log.warn("Reconnecting to aggregator at {}:{} in {}ms.",
+					new Object[] { this.host, Integer.valueOf(this.port),
+							Long.valueOf(delay) });
+			this.pendingReconnect = this.getReconnectScheduler().schedule(
+					new Runnable() {
+						@Override
+						public void run() {
+							SolverAggregatorInterface.this.reconnect();
+						}
+					}, delay, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Makes a single reconnection attempt without waiting for it to complete.
+	 * If the attempt fails, another one is scheduled.
+	 */
+	void reconnect() {
+		synchronized (this.reconnectLock) {
+			this.pendingReconnect = null;
+		}
+		if (!this.stayConnected) {
+			this.finishConnection();
+			return;
+		}
+		if (this.connector == null && !this.setConnector()) {
+			log.error("Unable to set up connection to the aggregator.");
+			this.finishConnection();
+			return;
+		}
+		this.connector.setConnectTimeoutMillis(this.connectionTimeout);
+		ConnectFuture connFuture = this.connector
+				.connect(new InetSocketAddress(this.host, this.port));
+		connFuture.addListener(new IoFutureListener<ConnectFuture>() {
+			@Override
+			public void operationComplete(ConnectFuture future) {
+				SolverAggregatorInterface.this.reconnectCompleted(future);
+			}
+		});
+	}
+
+	/**
+	 * Called when a reconnection attempt completes.
+	 * 
+	 * @param future
+	 *            the completed connection attempt.
+	 */
+	void reconnectCompleted(ConnectFuture future) {
+		if (future.isConnected()) {
+			if (!this.stayConnected) {
+				// Disconnected while the attempt was in progress
+				future.getSession().close(true);
+				return;
+			}
+			log.info("Reconnected to {}", this);
+			return;
+		}
+		log.warn("Failed to reconnect to aggregator at {}:{}", this.host,
+				Integer.valueOf(this.port));
+		if (this.stayConnected) {
+			this.scheduleReconnect();
+		} else {
+			this.finishConnection();
+		}
+	}
+
+	/**
+	 * Returns the delay before a connection attempt, using exponential
+	 * backoff with full jitter.
+	 * 
+	 * @param attempt
+	 *            the number of attempts that already failed.
+	 * @return a delay between 0 and the retry delay doubled {@code attempt}
+	 *         times, at most the maximum retry delay, in milliseconds.
+	 */
+	long nextRetryDelay(int attempt) {
+		long base = Math.max(1, this.connectionRetryDelay);
+		long ceiling = Math.max(base, this.maxConnectionRetryDelay);
+		if (attempt < 63 && (ceiling >> attempt) >= base) {
+			ceiling = base << attempt;
+		}
+		synchronized (this.retryRandom) {
+			return (long) (this.retryRandom.nextDouble() * (ceiling + 1.0));
+		}
+	}
+
+	/**
+	 * Seeds the source of jitter for retry delays, so that the delays are
+	 * repeatable.
+	 * 
+	 * @param seed
+	 *            the seed.
+	 */
+	void setRetrySeed(long seed) {
+		synchronized (this.retryRandom) {
+			this.retryRandom.setSeed(seed);
+		}
+	}
+
+	/**
+	 * Returns the number of reconnection attempts since the last verified
+	 * handshake.
+	 * 
+	 * @return the number of reconnection attempts.
+	 */
+	int getReconnectAttempts() {
+		synchronized (this.reconnectLock) {
+			return this.reconnectAttempts;
+		}
+	}
+
+	/**
+	 * Returns the scheduler used for reconnection attempts.
+	 * 
+	 * @return this interface's scheduler, or the scheduler of its runtime or
+	 *         the shared scheduler if none was set.
+	 */
+	public ScheduledExecutorService getReconnectScheduler() {
+		ScheduledExecutorService scheduler = this.reconnectScheduler;
+		if (scheduler != null) {
+			return scheduler;
+		}
+		SolverRuntime currentRuntime = this.runtime;
+		if (currentRuntime != null) {
+			return currentRuntime.getReconnectScheduler();
+		}
+		synchronized (SolverAggregatorInterface.class) {
+			if (sharedReconnectScheduler == null) {
+				sharedReconnectScheduler = Executors
+						.newSingleThreadScheduledExecutor(new ThreadFactory() {
+							@Override
+							public Thread newThread(Runnable r) {
+								Thread thread = new Thread(r, "Aggregator Reconnect");
+								thread.setDaemon(true);
+								return thread;
+							}
+						});
+			}
+			return sharedReconnectScheduler;
+		}
+	}
+
+	/**
+	 * Sets the scheduler used for reconnection attempts. By default, all
+	 * interfaces share a single daemon thread, since reconnection attempts
+	 * never block it.
+	 * 
+	 * @param reconnectScheduler
+	 *            the new scheduler, or {@code null} to use the shared
+	 *            scheduler.
+	 */
+	public void setReconnectScheduler(
+			ScheduledExecutorService reconnectScheduler) {
+		this.reconnectScheduler = reconnectScheduler;
+	}
+
+	/**
+	 * Returns the runtime whose threads this interface uses.
+	 * 
+	 * @return the runtime, or {@code null} if this interface creates its own
+	 *         threads.
+	 */
+	public SolverRuntime getRuntime() {
+		return this.runtime;
+	}
+
+	/**
+	 * Sets the runtime whose IO processors, listener threads and reconnection
+	 * scheduler this interface uses, so that many interfaces can share a fixed
+	 * number of threads. Changes to this value don't have any effect until a
+	 * connection attempt is made.
+	 * 
+	 * @param runtime
+	 *            the runtime to use, or {@code null} to create threads for
+	 *            each connection.
+	 */
+	public void setRuntime(SolverRuntime runtime) {
+		this.runtime = runtime;
+	}
+
+	/**
+	 * Returns which threads deliver events to the listeners.
+	 * 
+	 * @return the threading model.
+	 */
+	public ThreadingModel getThreadingModel() {
+		return this.threadingModel;
+	}
+
+	/**
+	 * Sets which threads deliver events to the listeners. The default is
+	 * {@link ThreadingModel#ORDERED_POOL}. If a runtime is set, both pooled
+	 * models use the runtime's listener threads, which preserve the order of
+	 * events on each connection. Changes to this value don't have any effect
+	 * until a connection attempt is made.
+	 * 
+	 * @param threadingModel
+	 *            the threading model to use.
+	 */
+	public void setThreadingModel(ThreadingModel threadingModel) {
+		if (threadingModel == null) {
+			throw new IllegalArgumentException(
+					"Threading model cannot be null.");
+		}
+		this.threadingModel = threadingModel;
+	}
+
+	/**
+	 * Returns the maximum number of listener threads created for a pooled
+	 * threading model.
+	 * 
+	 * @return the maximum number of listener threads.
+	 */
+	public int getListenerThreads() {
+		return this.listenerThreads;
+	}
+
+	/**
+	 * Sets the maximum number of listener threads created for a pooled
+	 * threading model. The default is 1. This value is ignored if a runtime is
+	 * set. Changes to this value don't have any effect until a connection
+	 * attempt is made.
+	 * 
+	 * @param listenerThreads
+	 *            the maximum number of listener threads.
+	 */
+	public void setListenerThreads(int listenerThreads) {
+		if (listenerThreads < 1) {
+			throw new IllegalArgumentException(
+					"Number of listener threads must be positive.");
+		}
+		this.listenerThreads = listenerThreads;
+	}
+
+	/**
+	 * Returns the maximum estimated size of the events waiting for listener
+	 * threads.
+	 * 
+	 * @return the limit in bytes, or 0 if there is no limit.
+	 */
+	public long getMaxQueuedBytes() {
+		return this.maxQueuedBytes;
+	}
+
+	/**
+	 * Sets the maximum estimated size of the events waiting for listener
+	 * threads. When the limit is exceeded, reads from the aggregator are
+	 * suspended until the listeners have drained half of the queue. The
+	 * default is 0 (no limit). This value is ignored for the
+	 * {@link ThreadingModel#INLINE} threading model, and if a runtime is set
+	 * the runtime's limits are used instead. Changes to this value don't have
+	 * any effect until a connection attempt is made.
+	 * 
+	 * @param maxQueuedBytes
+	 *            the limit in bytes, or 0 for no limit.
 	 */
-	protected void _disconnect() {
-		this.connected = false;
-		IoSession currentSession = this.session;
-		if (currentSession != null) {
-			if (!currentSession.isClosing()) {
-
-				log.info(
-						"Closing connection to aggregator at {} (waiting {}ms).",
-						currentSession.getRemoteAddress(),
-						Long.valueOf(this.connectionTimeout));
-				currentSession.close(true);
-			}
-			this.session = null;
-			this.sentHandshake = null;
-			this.receivedHandshake = null;
-			this.sentSubscription = null;
-			this.receivedSubscription = null;
-			for (ConnectionListener listener : this.connectionListeners) {
-				listener.connectionInterrupted(this);
-
-			}
+	public void setMaxQueuedBytes(long maxQueuedBytes) {
+		if (maxQueuedBytes < 0) {
+			throw new IllegalArgumentException(
+					"Queued byte limit cannot be negative.");
 		}
+		this.maxQueuedBytes = maxQueuedBytes;
 	}
 
 	/**
-	 * Called when the connection to the aggregator closes.
+	 * Returns the maximum number of events waiting for listener threads.
 	 * 
-	 * @param session
-	 *            the connection that closed.
+	 * @return the limit, or 0 if there is no limit.
 	 */
-	protected void connectionClosed(IoSession session) {
-		this.connected = false;
-		this._disconnect();
-		log.info("Connection lost to aggregator at {}:{}", this.host,
-				Integer.valueOf(this.port));
-
-		while (this.stayConnected) {
-			try {
-				Thread.sleep(this.connectionRetryDelay);
-			} catch (InterruptedException ie) {
-				// Ignored
-			}
-			log.warn("Reconnecting to aggregator at {}:{}", this.host,
-					Integer.valueOf(this.port));
-			if (this.connect(this.connectionTimeout)) {
-				return;
-			}
-			log.warn("Failed to reconnect to aggregator at {}:{}", this.host,
-					Integer.valueOf(this.port));
+	public int getMaxQueuedEvents() {
+		return this.maxQueuedEvents;
+	}
 
+	/**
+	 * Sets the maximum number of events waiting for listener threads. When
+	 * the limit is exceeded, reads from the aggregator are suspended until the
+	 * listeners have drained half of the queue. The default is 0 (no limit).
+	 * This value is ignored for the {@link ThreadingModel#INLINE} threading
+	 * model, and if a runtime is set the runtime's limits are used instead.
+	 * Changes to this value don't have any effect until a connection attempt
+	 * is made.
+	 * 
+	 * @param maxQueuedEvents
+	 *            the limit, or 0 for no limit.
+	 */
+	public void setMaxQueuedEvents(int maxQueuedEvents) {
+		if (maxQueuedEvents < 0) {
+			throw new IllegalArgumentException(
+					"Queued event limit cannot be negative.");
 		}
-		this.finishConnection();
+		this.maxQueuedEvents = maxQueuedEvents;
+	}
 
+	/**
+	 * Returns the estimated size of the events waiting for listener threads.
+	 * If a runtime is set, this includes the events of every connection
+	 * sharing it.
+	 * 
+	 * @return the estimated size of the queued events in bytes, or 0 if the
+	 *         queue is not limited.
+	 */
+	public long getQueuedBytes() {
+		EventQueueThrottle throttle = this.queueThrottle;
+		return throttle == null ? 0 : throttle.getQueuedBytes();
+	}
+
+	/**
+	 * Returns the number of events waiting for listener threads. If a runtime
+	 * is set, this includes the events of every connection sharing it.
+	 * 
+	 * @return the number of queued events, or 0 if the queue is not limited.
+	 */
+	public int getQueuedEvents() {
+		EventQueueThrottle throttle = this.queueThrottle;
+		return throttle == null ? 0 : throttle.getQueuedEvents();
 	}
 
 	/**
@@ -569,6 +1466,12 @@ public class SolverAggregatorInterface {
 			this.session = session;
 		}
 
+		// The subscription sent after the handshake contains the current rules
+		synchronized (this.ruleUpdateLock) {
+			this.sessionRules.clear();
+			this.ruleUpdateFilter = null;
+		}
+
 		log.info("Connected to {}.", session.getRemoteAddress());
 
 		for (ConnectionListener listener : this.connectionListeners) {
@@ -601,9 +1504,10 @@ public class SolverAggregatorInterface {
 			this._disconnect();
 		}
 		if (Boolean.TRUE.equals(handshakeCheck)) {
-			SubscriptionMessage msg = this.generateGenericSubscriptionMessage();
-			this.session.write(msg);
-			this.connected = true;
+			synchronized (this.reconnectLock) {
+				this.reconnectAttempts = 0;
+			}
+			this.subscribe(this.session);
 		}
 	}
 
@@ -629,9 +1533,7 @@ public class SolverAggregatorInterface {
 			this._disconnect();
 		}
 		if (Boolean.TRUE.equals(handshakeCheck)) {
-			SubscriptionMessage msg = this.generateGenericSubscriptionMessage();
-			session.write(msg);
-			this.connected = true;
+			this.subscribe(session);
 		}
 	}
 
@@ -651,7 +1553,9 @@ public class SolverAggregatorInterface {
 	}
 
 	/**
-	 * Called when a sample is received from the aggregator.
+	 * Called when a sample is received from the aggregator. If dispatch lanes
+	 * are configured, the sample is queued for its device's lane, otherwise it
+	 * is delivered to the sample listeners immediately.
 	 * 
 	 * @param session
 	 *            the session the sample was received on.
@@ -660,9 +1564,112 @@ public class SolverAggregatorInterface {
 	 */
 	protected void solverSampleReceived(IoSession session,
 			SampleMessage sampleMessage) {
+		if (this.isRemovedByRuleUpdate(sampleMessage)) {
+			return;
+		}
+		PartitionedSampleDispatcher currentDispatcher = this.dispatcher;
+		if (currentDispatcher != null) {
+			currentDispatcher.dispatch(sampleMessage);
+			return;
+		}
+		this.deliverSample(sampleMessage);
+	}
+
+	/**
+	 * Passes a sample to each {@link SampleListener} registered without rules,
+	 * and to each listener whose rules match it.
+	 * 
+	 * @param sampleMessage
+	 *            the sample to deliver.
+	 */
+	void deliverSample(SampleMessage sampleMessage) {
 		for (SampleListener listener : this.sampleListeners) {
 			listener.sampleReceived(this, sampleMessage);
 		}
+		this.sampleListenerIndex.dispatch(this, sampleMessage);
+	}
+
+	/**
+	 * Called when a batch of samples is received from the aggregator. The batch
+	 * is passed to each {@link SampleBatchListener}, then each sample in the
+	 * batch is passed to the {@link SampleListener}s in the order received.
+	 * 
+	 * @param session
+	 *            the session the samples were received on.
+	 * @param sampleBatch
+	 *            the received samples.
+	 */
+	protected void solverSampleBatchReceived(IoSession session,
+			SampleBatch sampleBatch) {
+		for (SampleBatchListener listener : this.sampleBatchListeners) {
+			listener.sampleBatchReceived(this, sampleBatch);
+		}
+		if (this.sampleListeners.isEmpty() && this.sampleListenerIndex.isEmpty()) {
+			return;
+		}
+		for (SampleMessage sampleMessage : sampleBatch) {
+			this.solverSampleReceived(session, sampleMessage);
+		}
+	}
+
+	/**
+	 * Called by the decoder when a sample is received from the aggregator and
+	 * flyweight samples are enabled. This method is invoked on the IO thread.
+	 * 
+	 * @param session
+	 *            the session the sample was received on.
+	 * @param view
+	 *            a view of the received sample, valid until this method
+	 *            returns.
+	 */
+	protected void solverSampleViewed(IoSession session, SampleView view) {
+		if (this.ruleUpdateFilter != null
+				&& this.isRemovedByRuleUpdate(view.getPhysicalLayer(),
+						view.getDeviceHigh(), view.getDeviceLow())) {
+			return;
+		}
+		for (SampleViewListener listener : this.sampleViewListeners) {
+			listener.sampleReceived(this, view);
+		}
+	}
+
+	/**
+	 * Called by the decoder when a sample is received from the aggregator and
+	 * raw samples are enabled. This method is invoked on the IO thread.
+	 * 
+	 * @param session
+	 *            the session the sample was received on.
+	 * @param physicalLayer
+	 *            the physical layer identifier.
+	 * @param deviceHigh
+	 *            the high 8 bytes of the device identifier.
+	 * @param deviceLow
+	 *            the low 8 bytes of the device identifier.
+	 * @param receiverHigh
+	 *            the high 8 bytes of the receiver identifier.
+	 * @param receiverLow
+	 *            the low 8 bytes of the receiver identifier.
+	 * @param receiverTimeStamp
+	 *            the timestamp assigned by the receiver.
+	 * @param rssi
+	 *            the received signal strength.
+	 * @param sensedData
+	 *            a read-only buffer over the sensed data, valid until this
+	 *            method returns.
+	 */
+	protected void solverSampleRaw(IoSession session, byte physicalLayer,
+			long deviceHigh, long deviceLow, long receiverHigh,
+			long receiverLow, long receiverTimeStamp, float rssi,
+			ByteBuffer sensedData) {
+		if (this.isRemovedByRuleUpdate(physicalLayer, deviceHigh, deviceLow)) {
+			return;
+		}
+		int position = sensedData.position();
+		for (RawSampleListener listener : this.rawSampleListeners) {
+			sensedData.position(position);
+			listener.sampleReceived(this, physicalLayer, deviceHigh, deviceLow,
+					receiverHigh, receiverLow, receiverTimeStamp, rssi, sensedData);
+		}
 	}
 
 	/**
@@ -753,6 +1760,15 @@ public class SolverAggregatorInterface {
 					this.sentSubscription, this.receivedSubscription);
 		}
 
+		ConnectionFuture future;
+		synchronized (this.reconnectLock) {
+			future = this.pendingConnect;
+			this.pendingConnect = null;
+		}
+		if (future != null) {
+			future.succeed();
+		}
+
 		for (ConnectionListener listener : this.connectionListeners) {
 			listener.subscriptionReceived(this, subscriptionMessage);
 		}
@@ -787,13 +1803,140 @@ public class SolverAggregatorInterface {
 	}
 
 	/**
-	 * Unregisters a listener to be notified of received samples.
+	 * Registers a listener to be notified of received samples that match any
+	 * of the rules in {@code interest}. A sample matches a rule if its physical
+	 * layer matches the rule's physical layer and its device ID matches one of
+	 * the rule's transmitters, or the rule has no transmitters. Update
+	 * intervals are ignored. Samples are routed through an index, so listeners
+	 * that are not interested in a sample cost nothing to skip. If
+	 * {@code interest} is empty, the listener receives every sample.
+	 * Registering a listener again replaces its previous interest.
+	 * 
+	 * @param listener
+	 *            the listener to register.
+	 * @param interest
+	 *            the rules describing the samples of interest.
+	 */
+	public void addSampleListener(SampleListener listener,
+			SubscriptionRequestRule... interest) {
+		if (interest == null || interest.length == 0) {
+			this.addSampleListener(listener);
+			return;
+		}
+		this.sampleListenerIndex.add(listener, interest);
+	}
+
+	/**
+	 * Registers a listener to be notified of received samples on its own
+	 * thread. Samples are placed in a bounded {@link SampleMailbox} for the
+	 * listener, so a slow listener does not delay the other listeners. When
+	 * the mailbox is full, {@code overflowPolicy} decides which sample is
+	 * dropped. Registering a listener that already has a mailbox replaces it.
+	 * 
+	 * @param listener
+	 *            the listener to register.
+	 * @param mailboxCapacity
+	 *            the number of samples buffered for the listener.
+	 * @param overflowPolicy
+	 *            decides which sample to drop when the mailbox is full. Each
+	 *            listener needs its own policy instance.
+	 * @return the listener's mailbox, for its delivery and drop counters.
+	 */
+	public SampleMailbox addIsolatedSampleListener(SampleListener listener,
+			int mailboxCapacity, OverflowPolicy overflowPolicy) {
+		SampleMailbox mailbox = new SampleMailbox(listener, mailboxCapacity,
+				overflowPolicy);
+		SampleMailbox previous = this.sampleMailboxes.put(listener, mailbox);
+		this.sampleListeners.add(mailbox);
+		if (previous != null) {
+			this.sampleListeners.remove(previous);
+			previous.shutdown();
+		}
+		return mailbox;
+	}
+
+	/**
+	 * Unregisters a listener to be notified of received samples, whether or
+	 * not it was registered with rules or a mailbox. The listener's mailbox
+	 * delivers the samples it holds and then its thread exits.
 	 * 
 	 * @param listener
 	 *            the listener to unregister.
 	 */
 	public void removeSampleListener(SampleListener listener) {
 		this.sampleListeners.remove(listener);
+		this.sampleListenerIndex.remove(listener);
+		SampleMailbox mailbox = this.sampleMailboxes.remove(listener);
+		if (mailbox != null) {
+			this.sampleListeners.remove(mailbox);
+			mailbox.shutdown();
+		}
+	}
+
+	/**
+	 * Registers a listener to be notified of batches of received samples when
+	 * batch decoding is enabled.
+	 * 
+	 * @param listener
+	 *            the listener to register.
+	 * @see #setBatchSamples(boolean)
+	 */
+	public void addSampleBatchListener(SampleBatchListener listener) {
+		this.sampleBatchListeners.add(listener);
+	}
+
+	/**
+	 * Unregisters a listener to be notified of batches of received samples.
+	 * 
+	 * @param listener
+	 *            the listener to unregister.
+	 */
+	public void removeSampleBatchListener(SampleBatchListener listener) {
+		this.sampleBatchListeners.remove(listener);
+	}
+
+	/**
+	 * Registers a listener to be notified of received samples when flyweight
+	 * samples are enabled.
+	 * 
+	 * @param listener
+	 *            the listener to register.
+	 * @see #setFlyweightSamples(boolean)
+	 */
+	public void addSampleViewListener(SampleViewListener listener) {
+		this.sampleViewListeners.add(listener);
+	}
+
+	/**
+	 * Unregisters a listener to be notified of received flyweight samples.
+	 * 
+	 * @param listener
+	 *            the listener to unregister.
+	 */
+	public void removeSampleViewListener(SampleViewListener listener) {
+		this.sampleViewListeners.remove(listener);
+	}
+
+	/**
+	 * Registers a listener to be notified of received samples when raw
+	 * samples are enabled.
+	 * 
+	 * @param listener
+	 *            the listener to register.
+	 * @see #setRawSamples(boolean)
+	 */
+	public void addRawSampleListener(RawSampleListener listener) {
+		this.rawSampleListeners.add(listener);
+	}
+
+	/**
+	 * Unregisters a listener to be notified of received raw samples.
+	 * 
+	 * @param listener
+	 *            the listener to unregister.
+	 */
+	public void removeRawSampleListener(RawSampleListener listener) {
+		this.rawSampleListeners.remove(listener);
 	}
 
 	/**
@@ -989,15 +2132,250 @@ public class SolverAggregatorInterface {
 	}
 
 	/**
-	 * Sets the connection retry delay for this interface.
+	 * Sets the connection retry delay for this interface. Each failed attempt
+	 * doubles the delay, up to the maximum retry delay, and the actual delay
+	 * is chosen at random between 0 and that value.
 	 * 
 	 * @param connectionRetryDelay
 	 *            the new connection retry delay, in milliseconds.
+	 * @see #setMaxConnectionRetryDelay(long)
 	 */
 	public void setConnectionRetryDelay(long connectionRetryDelay) {
 		this.connectionRetryDelay = connectionRetryDelay;
 	}
 
+	/**
+	 * Returns the maximum delay between connection attempts.
+	 * 
+	 * @return the maximum connection retry delay, in milliseconds.
+	 */
+	public long getMaxConnectionRetryDelay() {
+		return this.maxConnectionRetryDelay;
+	}
+
+	/**
+	 * Sets the maximum delay between connection attempts, which caps the
+	 * exponential backoff from the connection retry delay.
+	 * 
+	 * @param maxConnectionRetryDelay
+	 *            the new maximum connection retry delay, in milliseconds.
+	 */
+	public void setMaxConnectionRetryDelay(long maxConnectionRetryDelay) {
+		this.maxConnectionRetryDelay = maxConnectionRetryDelay;
+	}
+
+	/**
+	 * Indicates whether samples are delivered as flyweight {@code SampleView}
+	 * objects.
+	 * 
+	 * @return {@code true} if flyweight samples are enabled, else
+	 *         {@code false}.
+	 */
+	public boolean isFlyweightSamples() {
+		return this.flyweightSamples;
+	}
+
+	/**
+	 * Sets whether samples should be delivered as flyweight {@code SampleView}
+	 * objects. When enabled, each sample is passed to the registered
+	 * {@link SampleViewListener}s directly from the decode buffer on the IO
+	 * thread, and no {@code SampleMessage} is created or passed to the
+	 * {@link SampleListener}s. Changes to this value don't have any effect
+	 * until a connection attempt is made.
+	 * 
+	 * @param flyweightSamples
+	 *            {@code true} to enable flyweight samples, or {@code false} to
+	 *            decode each sample into a {@code SampleMessage}.
+	 */
+	public void setFlyweightSamples(boolean flyweightSamples) {
+		this.flyweightSamples = flyweightSamples;
+	}
+
+	/**
+	 * Indicates whether samples are delivered as primitive values to
+	 * {@link RawSampleListener}s.
+	 * 
+	 * @return {@code true} if raw samples are enabled, else {@code false}.
+	 */
+	public boolean isRawSamples() {
+		return this.rawSamples;
+	}
+
+	/**
+	 * Sets whether samples should be delivered as primitive values. When
+	 * enabled, the fields of each sample are passed to the registered
+	 * {@link RawSampleListener}s directly from the decode buffer on the IO
+	 * thread, without creating any objects per sample. No
+	 * {@code SampleMessage} or {@code SampleView} is created or passed to the
+	 * other sample listeners. Changes to this value don't have any effect
+	 * until a connection attempt is made.
+	 * 
+	 * @param rawSamples
+	 *            {@code true} to enable raw samples, or {@code false} to
+	 *            disable them.
+	 */
+	public void setRawSamples(boolean rawSamples) {
+		this.rawSamples = rawSamples;
+	}
+
+	/**
+	 * Returns the number of threads that deliver samples to the sample
+	 * listeners.
+	 * 
+	 * @return the number of dispatch lanes, or 0 if samples are delivered on
+	 *         the IO processing thread.
+	 */
+	public int getDispatchLanes() {
+		return this.dispatchLanes;
+	}
+
+	/**
+	 * Sets the number of threads that deliver samples to the
+	 * {@link SampleListener}s. Each sample's device identifier selects the
+	 * thread, so samples from the same device are always delivered in order
+	 * while samples from different devices are delivered in parallel.
+	 * Listeners must be thread-safe when this is positive. Changes to this
+	 * value don't have any effect until a connection attempt is made.
+	 * 
+	 * @param dispatchLanes
+	 *            the number of dispatch threads, or 0 to deliver samples on
+	 *            the IO processing thread.
+	 */
+	public void setDispatchLanes(int dispatchLanes) {
+		if (dispatchLanes < 0) {
+			throw new IllegalArgumentException(
+					"Number of dispatch lanes cannot be negative.");
+		}
+		this.dispatchLanes = dispatchLanes;
+	}
+
+	/**
+	 * Returns a publisher of the samples received by this interface.
+	 * Subscribers receive samples as they request them, and reads from the
+	 * aggregator are suspended while any subscriber is too far behind. The
+	 * same publisher is returned by every call.
+	 * 
+	 * @return the sample publisher for this interface.
+	 */
+	public synchronized SamplePublisher getSamplePublisher() {
+		if (this.samplePublisher == null) {
+			this.samplePublisher = new SamplePublisher(this);
+		}
+		return this.samplePublisher;
+	}
+
+	/**
+	 * Returns the filter applied to samples before they are decoded.
+	 * 
+	 * @return the current sample filter, or {@code null} if none is set.
+	 */
+	public SampleFilter getSampleFilter() {
+		return this.sampleFilter;
+	}
+
+	/**
+	 * Sets a filter that is applied to each sample by the decoder. Samples
+	 * rejected by the filter are skipped in the receive buffer without being
+	 * decoded, and are never delivered to any listener. The filter takes
+	 * effect immediately, including on an established connection.
+	 * 
+	 * @param sampleFilter
+	 *            the new filter, or {@code null} to deliver all samples.
+	 */
+	public void setSampleFilter(SampleFilter sampleFilter) {
+		this.sampleFilter = sampleFilter;
+		AggregatorSolverProtocolCodecFactory currentFactory = this.codecFactory;
+		if (currentFactory != null) {
+			currentFactory.setSampleFilter(sampleFilter);
+		}
+	}
+
+	/**
+	 * Returns the number of samples that were rejected by the sample filter
+	 * since the connector was last set up.
+	 * 
+	 * @return the number of filtered samples.
+	 */
+	public long getFilteredSampleCount() {
+		AggregatorSolverProtocolCodecFactory currentFactory = this.codecFactory;
+		return currentFactory == null ? 0 : currentFactory
+				.getFilteredSampleCount();
+	}
+
+	/**
+	 * Indicates whether all samples decoded from a single read are delivered
+	 * as one {@code SampleBatch}.
+	 * 
+	 * @return {@code true} if batch decoding is enabled, else {@code false}.
+	 */
+	public boolean isBatchSamples() {
+		return this.batchSamples;
+	}
+
+	/**
+	 * Sets whether all complete samples decoded from a single read of the
+	 * connection should be delivered through the filter chain as one
+	 * {@code SampleBatch}. Batches are passed to the
+	 * {@link SampleBatchListener}s, and each sample is still passed to the
+	 * {@link SampleListener}s. Changes to this value don't have any effect
+	 * until a connection attempt is made.
+	 * 
+	 * @param batchSamples
+	 *            {@code true} to enable batch decoding, else {@code false}.
+	 */
+	public void setBatchSamples(boolean batchSamples) {
+		this.batchSamples = batchSamples;
+	}
+
+	/**
+	 * Returns the cache used to intern the identifiers of received samples.
+	 * 
+	 * @return the cache, or {@code null} if identifiers are not interned.
+	 */
+	public DeviceIdCache getDeviceIdCache() {
+		return this.deviceIdCache;
+	}
+
+	/**
+	 * Sets a cache used to intern the device and receiver identifiers of
+	 * received samples. Samples with the same identifier then share a single
+	 * array, which must not be modified by listeners. Pass
+	 * {@link DeviceIdCache#getDefault()} to use the shared cache. Changes to
+	 * this value don't have any effect until a connection attempt is made.
+	 * 
+	 * @param deviceIdCache
+	 *            the cache, or {@code null} to give each sample its own
+	 *            identifier arrays.
+	 */
+	public void setDeviceIdCache(DeviceIdCache deviceIdCache) {
+		this.deviceIdCache = deviceIdCache;
+	}
+
+	/**
+	 * Indicates whether messages are decoded using the original
+	 * demultiplexing message decoders.
+	 * 
+	 * @return {@code true} if compatibility decoding is enabled, else
+	 *         {@code false}.
+	 */
+	public boolean isCompatibilityDecoding() {
+		return this.compatibilityDecoding;
+	}
+
+	/**
+	 * Sets whether messages should be decoded using the original
+	 * demultiplexing message decoders instead of the single-pass protocol
+	 * decoder. Changes to this value don't have any effect until a connection
+	 * attempt is made.
+	 * 
+	 * @param compatibilityDecoding
+	 *            {@code true} to use the demultiplexing decoders, or
+	 *            {@code false} to use the single-pass decoder.
+	 */
+	public void setCompatibilityDecoding(boolean compatibilityDecoding) {
+		this.compatibilityDecoding = compatibilityDecoding;
+	}
+
 	/**
 	 * Returns the session in use by this interface.
 	 * 
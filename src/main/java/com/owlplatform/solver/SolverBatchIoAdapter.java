@@ -0,0 +1,40 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver;
+
+import org.apache.mina.core.session.IoSession;
+
+import com.owlplatform.solver.protocol.messages.SampleBatch;
+
+/**
+ * A {@link SolverIoAdapter} that receives batches of Sample messages as a
+ * single event. {@link SolverIoHandler} passes the samples of a batch to
+ * adapters that don't implement this interface one at a time.
+ * @author Robert Moore
+ *
+ */
+public interface SolverBatchIoAdapter extends SolverIoAdapter
+{
+    /**
+     * Called when a batch of Sample messages has been received.
+     * @param session
+     * @param sampleBatch
+     */
+    public void solverSampleBatchReceived(IoSession session, SampleBatch sampleBatch);
+}
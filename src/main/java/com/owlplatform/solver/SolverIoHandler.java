@@ -27,6 +27,7 @@ import org.slf4j.LoggerFactory;
 
 import com.owlplatform.common.SampleMessage;
 import com.owlplatform.solver.protocol.messages.HandshakeMessage;
+import com.owlplatform.solver.protocol.messages.SampleBatch;
 import com.owlplatform.solver.protocol.messages.SubscriptionMessage;
 
 /**
@@ -83,7 +84,13 @@ public class SolverIoHandler implements IoHandler {
           message);
       return;
     }
-    if (message instanceof HandshakeMessage) {
+    // Samples are by far the most common messages, so check for them first
+    if (message instanceof SampleBatch) {
+      this.batchReceived(session, (SampleBatch) message);
+    } else if (message instanceof SampleMessage) {
+      this.solverIoAdapter.solverSampleReceived(session,
+          (SampleMessage) message);
+    } else if (message instanceof HandshakeMessage) {
       this.solverIoAdapter.handshakeReceived(session,
           (HandshakeMessage) message);
     } else if (message instanceof SubscriptionMessage) {
@@ -96,14 +103,32 @@ public class SolverIoHandler implements IoHandler {
       } else {
         log.error("Incorrect message ID received from {}: {}", session, message);
       }
-    } else if (message instanceof SampleMessage) {
-      this.solverIoAdapter.solverSampleReceived(session,
-          (SampleMessage) message);
     } else {
       log.warn("Unknown message type received from {}: {}", session, message);
     }
   }
 
+  /**
+   * Passes a batch of samples to the adapter, as a single event if it is a
+   * {@link SolverBatchIoAdapter}, otherwise one sample at a time.
+   * 
+   * @param session
+   *          the session the samples were received on.
+   * @param batch
+   *          the received samples.
+   */
+  private void batchReceived(IoSession session, SampleBatch batch) {
+    SolverIoAdapter adapter = this.solverIoAdapter;
+    if (adapter instanceof SolverBatchIoAdapter) {
+      ((SolverBatchIoAdapter) adapter).solverSampleBatchReceived(session,
+          batch);
+      return;
+    }
+    for (SampleMessage sample : batch) {
+      adapter.solverSampleReceived(session, sample);
+    }
+  }
+
   @Override
   public void messageSent(IoSession session, Object message) throws Exception {
     log.debug("{} --> {}", session, message);
@@ -0,0 +1,320 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.solver;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.mina.core.service.SimpleIoProcessorPool;
+import org.apache.mina.filter.executor.ExecutorFilter;
+import org.apache.mina.filter.executor.IoEventQueueHandler;
+import org.apache.mina.filter.executor.OrderedThreadPoolExecutor;
+import org.apache.mina.transport.socket.nio.NioProcessor;
+import org.apache.mina.transport.socket.nio.NioSession;
+import org.apache.mina.transport.socket.nio.NioSocketConnector;
+
+import com.owlplatform.solver.dispatch.EventQueueThrottle;
+
+/**
+ * <p>
+ * Threads shared by many {@link SolverAggregatorInterface}s in the same JVM.
+ * By default, each interface creates its own selector thread and its own
+ * executor thread for listeners, so the number of threads grows with the
+ * number of connections. Interfaces attached to a runtime with
+ * {@link SolverAggregatorInterface#setRuntime(SolverRuntime)} instead share
+ * a fixed pool of IO processors, a fixed pool of listener threads, and a
+ * single reconnection scheduler.
+ * </p>
+ * 
+ * <p>
+ * Events from a single session are still handled in order by the shared
+ * listener pool, but events from different sessions may be handled in
+ * parallel. The runtime must outlive the interfaces attached to it.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class SolverRuntime {
+
+  /**
+   * How long idle listener threads are kept, in seconds.
+   */
+  private static final long DISPATCH_KEEP_ALIVE = 30;
+
+  /**
+   * How long idle IO threads are kept, in seconds.
+   */
+  private static final long IO_KEEP_ALIVE = 5;
+
+  /**
+   * Creates named daemon threads.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  private static final class DaemonThreadFactory implements ThreadFactory {
+
+    /**
+     * Prefix of the thread names.
+     */
+    private final String prefix;
+
+    /**
+     * Number of threads created.
+     */
+    private final AtomicInteger count = new AtomicInteger(0);
+
+    /**
+     * Creates a new thread factory.
+     * 
+     * @param prefix
+     *          the prefix of the thread names.
+     */
+    DaemonThreadFactory(final String prefix) {
+      this.prefix = prefix;
+    }
+
+    @Override
+    public Thread newThread(final Runnable r) {
+      Thread thread = new Thread(r, this.prefix + " "
+          + this.count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+
+  /**
+   * Runs the IO processors and connector threads.
+   */
+  private final ExecutorService ioExecutor;
+
+  /**
+   * The shared IO processors.
+   */
+  private final SimpleIoProcessorPool<NioSession> processors;
+
+  /**
+   * The shared listener threads.
+   */
+  private final OrderedThreadPoolExecutor dispatchExecutor;
+
+  /**
+   * Limits the events waiting for the shared listener threads, or
+   * {@code null} if they are not limited.
+   */
+  private final EventQueueThrottle queueThrottle;
+
+  /**
+   * The shared reconnection scheduler.
+   */
+  private final ScheduledExecutorService reconnectScheduler;
+
+  /**
+   * Number of IO processors.
+   */
+  private final int ioThreads;
+
+  /**
+   * Number of listener threads.
+   */
+  private final int dispatchThreads;
+
+  /**
+   * Creates a new runtime with one IO processor and one listener thread per
+   * available processor core.
+   */
+  public SolverRuntime() {
+    this(Runtime.getRuntime().availableProcessors(), Runtime.getRuntime()
+        .availableProcessors());
+  }
+
+  /**
+   * Creates a new runtime.
+   * 
+   * @param ioThreads
+   *          the number of IO processors, each with its own selector thread.
+   * @param dispatchThreads
+   *          the maximum number of threads that invoke listeners.
+   */
+  public SolverRuntime(final int ioThreads, final int dispatchThreads) {
+    this(ioThreads, dispatchThreads, 0, 0);
+  }
+
+  /**
+   * Creates a new runtime whose listener queue is limited. When either limit
+   * is exceeded, reads are suspended on the session that exceeded it until
+   * the queue has drained to half of each limit.
+   * 
+   * @param ioThreads
+   *          the number of IO processors, each with its own selector thread.
+   * @param dispatchThreads
+   *          the maximum number of threads that invoke listeners.
+   * @param maxQueuedBytes
+   *          the maximum estimated size of the events waiting for listener
+   *          threads in bytes, or 0 for no limit.
+   * @param maxQueuedEvents
+   *          the maximum number of events waiting for listener threads, or 0
+   *          for no limit.
+   * @see EventQueueThrottle
+   */
+  public SolverRuntime(final int ioThreads, final int dispatchThreads,
+      final long maxQueuedBytes, final int maxQueuedEvents) {
+    if (ioThreads < 1) {
+      throw new IllegalArgumentException("IO thread count must be positive: "
+          + ioThreads);
+    }
+    if (dispatchThreads < 1) {
+      throw new IllegalArgumentException(
+          "Dispatch thread count must be positive: " + dispatchThreads);
+    }
+    this.ioThreads = ioThreads;
+    this.dispatchThreads = dispatchThreads;
+    // Connector threads only live while connections are pending
+    this.ioExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+        IO_KEEP_ALIVE, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+        new DaemonThreadFactory("Solver IO"));
+    this.processors = new SimpleIoProcessorPool<NioSession>(
+        NioProcessor.class, this.ioExecutor, ioThreads);
+    IoEventQueueHandler queueHandler = IoEventQueueHandler.NOOP;
+    if (maxQueuedBytes != 0 || maxQueuedEvents != 0) {
+      this.queueThrottle = new EventQueueThrottle(maxQueuedBytes,
+          maxQueuedEvents);
+      queueHandler = this.queueThrottle;
+    } else {
+      this.queueThrottle = null;
+    }
+    this.dispatchExecutor = new OrderedThreadPoolExecutor(0, dispatchThreads,
+        DISPATCH_KEEP_ALIVE, TimeUnit.SECONDS, new DaemonThreadFactory(
+            "Solver Dispatch"), queueHandler);
+    this.reconnectScheduler = Executors
+        .newSingleThreadScheduledExecutor(new DaemonThreadFactory(
+            "Solver Reconnect"));
+  }
+
+  /**
+   * Creates a socket connector that uses the shared IO processors.
+   * Disposing the connector does not affect the runtime.
+   * 
+   * @return a new connector.
+   */
+  public NioSocketConnector newConnector() {
+    this.checkDisposed();
+    return new NioSocketConnector(this.ioExecutor, this.processors);
+  }
+
+  /**
+   * Creates an executor filter that uses the shared listener threads.
+   * Destroying the filter does not affect the runtime.
+   * 
+   * @return a new executor filter.
+   */
+  public ExecutorFilter newExecutorFilter() {
+    this.checkDisposed();
+    return new ExecutorFilter(this.dispatchExecutor);
+  }
+
+  /**
+   * Returns the shared listener thread pool.
+   * 
+   * @return the listener thread pool.
+   */
+  public OrderedThreadPoolExecutor getDispatchExecutor() {
+    return this.dispatchExecutor;
+  }
+
+  /**
+   * Returns the shared reconnection scheduler.
+   * 
+   * @return the reconnection scheduler.
+   */
+  public ScheduledExecutorService getReconnectScheduler() {
+    return this.reconnectScheduler;
+  }
+
+  /**
+   * Returns the number of IO processors.
+   * 
+   * @return the number of IO processors.
+   */
+  public int getIoThreads() {
+    return this.ioThreads;
+  }
+
+  /**
+   * Returns the maximum number of listener threads.
+   * 
+   * @return the maximum number of listener threads.
+   */
+  public int getDispatchThreads() {
+    return this.dispatchThreads;
+  }
+
+  /**
+   * Returns the throttle that limits the events waiting for the shared
+   * listener threads.
+   * 
+   * @return the throttle, or {@code null} if the queue is not limited.
+   */
+  public EventQueueThrottle getQueueThrottle() {
+    return this.queueThrottle;
+  }
+
+  /**
+   * Stops all threads of this runtime. Interfaces attached to it should be
+   * disconnected first.
+   */
+  public void dispose() {
+    this.reconnectScheduler.shutdownNow();
+    this.dispatchExecutor.shutdown();
+    this.processors.dispose();
+    this.ioExecutor.shutdown();
+  }
+
+  /**
+   * Returns {@code true} if this runtime was disposed.
+   * 
+   * @return {@code true} if the runtime was disposed.
+   */
+  public boolean isDisposed() {
+    return this.processors.isDisposing();
+  }
+
+  /**
+   * Throws an exception if this runtime was disposed.
+   */
+  private void checkDisposed() {
+    if (this.isDisposed()) {
+      throw new IllegalStateException("Solver runtime was disposed.");
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "Solver Runtime (" + this.ioThreads + " IO, "
+        + this.dispatchThreads + " dispatch)";
+  }
+}
@@ -0,0 +1,55 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver;
+
+/**
+ * Determines which threads deliver the events of an aggregator connection
+ * (samples, handshakes and subscription responses) to its listeners.
+ * 
+ * @author Robert Moore
+ * @see SolverAggregatorInterface#setThreadingModel(ThreadingModel)
+ */
+public enum ThreadingModel {
+
+  /**
+   * Listeners are invoked directly on the IO processor thread that decoded the
+   * message. This avoids a thread hand-off for every message, but a slow
+   * listener delays reads from the aggregator and from any other connections
+   * sharing the same IO processor.
+   */
+  INLINE,
+
+  /**
+   * Listeners are invoked by a pool of threads that preserves the order of
+   * events on the connection. Since the events of a single connection are
+   * delivered one at a time, more than one thread only helps when the pool is
+   * shared with a {@link SolverRuntime}. This is the default.
+   */
+  ORDERED_POOL,
+
+  /**
+   * Samples are passed to listeners by a pool of threads without regard to
+   * order, so samples from the same connection may be delivered concurrently
+   * and out of order. Only suitable for stateless, thread-safe sample
+   * listeners. Handshakes, subscription responses and connection events are
+   * still handled in order on the IO processor thread, and the end of a
+   * connection is only reported once its samples have been delivered.
+   */
+  UNORDERED_POOL;
+}
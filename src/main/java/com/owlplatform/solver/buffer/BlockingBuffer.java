@@ -0,0 +1,375 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.solver.buffer;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>
+ * Base class for bounded buffers whose {@link #offer(Object)} and
+ * {@link #poll()} operations do not block. This class adds the operations that
+ * wait for an element or for space.
+ * </p>
+ * 
+ * <p>
+ * Consumers that need to wait for an element use {@link #take()} or
+ * {@link #poll(long, TimeUnit)}. Waiting threads are tracked so that producers
+ * only acquire the lock to wake a consumer when one is actually waiting.
+ * Likewise, producers may wait for space with {@link #offer(Object, long,
+ * TimeUnit)}, and consumers only wake them when one is waiting. Closing the
+ * buffer wakes all waiting consumers and producers immediately.
+ * </p>
+ * 
+ * <p>
+ * Subclasses must call {@link #elementAdded()} after each successful insert
+ * and {@link #elementRemoved()} after each removal, and must make the change
+ * visible with a volatile write before doing so.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ * @param <E>
+ *          the type of element held in the buffer.
+ */
+public abstract class BlockingBuffer<E> {
+
+  /**
+   * Number of times a consumer polls an empty buffer before blocking.
+   */
+  private static final int SPIN_TRIES = 64;
+
+  /**
+   * Lock held by consumers and producers while waiting.
+   */
+  private final ReentrantLock lock = new ReentrantLock();
+
+  /**
+   * Signalled when an element is inserted while a consumer is waiting.
+   */
+  private final Condition notEmpty = this.lock.newCondition();
+
+  /**
+   * The number of consumers waiting for an element.
+   */
+  private final AtomicInteger waiters = new AtomicInteger(0);
+
+  /**
+   * Signalled when an element is removed while a producer is waiting.
+   */
+  private final Condition notFull = this.lock.newCondition();
+
+  /**
+   * The number of producers waiting for space.
+   */
+  private final AtomicInteger producerWaiters = new AtomicInteger(0);
+
+  /**
+   * Whether the buffer has been closed. Consumers and producers do not wait
+   * on a closed buffer.
+   */
+  private volatile boolean closed = false;
+
+  /**
+   * Inserts an element into the buffer if there is room.
+   * 
+   * @param element
+   *          the element to insert.
+   * @return {@code true} if the element was inserted, or {@code false} if
+   *         the buffer is full.
+   */
+  public abstract boolean offer(E element);
+
+  /**
+   * Removes and returns the next element of the buffer, if there is one.
+   * 
+   * @return the next element, or {@code null} if the buffer is empty.
+   */
+  public abstract E poll();
+
+  /**
+   * Removes up to {@code max} elements from the buffer and adds them to
+   * {@code target}, in the order they would be returned by {@link #poll()}.
+   * 
+   * @param target
+   *          the collection to add the elements to.
+   * @param max
+   *          the maximum number of elements to remove.
+   * @return the number of elements added to {@code target}.
+   */
+  public abstract int drainTo(Collection<? super E> target, int max);
+
+  /**
+   * Returns the number of elements in the buffer. The value may be out of
+   * date by the time it is returned if other threads are using the buffer.
+   * 
+   * @return the number of buffered elements.
+   */
+  public abstract int size();
+
+  /**
+   * Returns the maximum number of elements in the buffer.
+   * 
+   * @return the capacity of the buffer.
+   */
+  public abstract int capacity();
+
+  /**
+   * Removes an element to make room for {@code element}, which could not be
+   * inserted because the buffer is full. By default this removes the next
+   * element returned by {@link #poll()}; buffers that are divided into
+   * separately bounded parts remove from the part that {@code element}
+   * belongs in.
+   * 
+   * @param element
+   *          the element that could not be inserted.
+   * @return the removed element, or {@code null} if none was removed.
+   */
+  public E evict(final E element) {
+    return this.poll();
+  }
+
+  /**
+   * Returns {@code true} if the buffer contains no elements.
+   * 
+   * @return {@code true} if the buffer is empty, else {@code false}.
+   */
+  public boolean isEmpty() {
+    return this.size() == 0;
+  }
+
+  /**
+   * Inserts an element into the buffer, waiting up to the specified time for
+   * space to become available.
+   * 
+   * @param element
+   *          the element to insert.
+   * @param timeout
+   *          how long to wait before giving up, in units of {@code unit}.
+   * @param unit
+   *          the unit of {@code timeout}.
+   * @return {@code true} if the element was inserted, or {@code false} if the
+   *         timeout elapsed or the buffer was closed while full.
+   * @throws InterruptedException
+   *           if the thread is interrupted while waiting.
+   */
+  public boolean offer(final E element, final long timeout, final TimeUnit unit)
+      throws InterruptedException {
+    if (this.offer(element)) {
+      return true;
+    }
+    if (timeout <= 0) {
+      return false;
+    }
+    long nanos = unit.toNanos(timeout);
+    this.lock.lockInterruptibly();
+    this.producerWaiters.incrementAndGet();
+    try {
+      while (!this.offer(element)) {
+        if (this.closed || nanos <= 0) {
+          return false;
+        }
+        nanos = this.notFull.awaitNanos(nanos);
+      }
+      return true;
+    } finally {
+      this.producerWaiters.decrementAndGet();
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Removes and returns the next element of the buffer, waiting until one is
+   * available or the buffer is closed.
+   * 
+   * @return the next element, or {@code null} if the buffer is closed and
+   *         empty.
+   * @throws InterruptedException
+   *           if the thread is interrupted while waiting.
+   */
+  public E take() throws InterruptedException {
+    E element = this.spinPoll();
+    if (element != null) {
+      return element;
+    }
+    this.lock.lockInterruptibly();
+    this.waiters.incrementAndGet();
+    try {
+      while ((element = this.poll()) == null) {
+        if (this.closed) {
+          return null;
+        }
+        this.notEmpty.await();
+      }
+      return element;
+    } finally {
+      this.waiters.decrementAndGet();
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Removes and returns the next element of the buffer, waiting up to the
+   * specified time for one to become available.
+   * 
+   * @param timeout
+   *          how long to wait before giving up, in units of {@code unit}.
+   * @param unit
+   *          the unit of {@code timeout}.
+   * @return the next element, or {@code null} if the timeout elapsed or the
+   *         buffer is closed and empty.
+   * @throws InterruptedException
+   *           if the thread is interrupted while waiting.
+   */
+  public E poll(final long timeout, final TimeUnit unit)
+      throws InterruptedException {
+    E element = this.poll();
+    if (element != null || timeout <= 0) {
+      return element;
+    }
+    long nanos = unit.toNanos(timeout);
+    this.lock.lockInterruptibly();
+    this.waiters.incrementAndGet();
+    try {
+      while ((element = this.poll()) == null) {
+        if (this.closed || nanos <= 0) {
+          return null;
+        }
+        nanos = this.notEmpty.awaitNanos(nanos);
+      }
+      return element;
+    } finally {
+      this.waiters.decrementAndGet();
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Waits until at least one element is available, then removes up to
+   * {@code max} elements from the buffer and adds them to {@code target}, in
+   * order.
+   * 
+   * @param target
+   *          the collection to add the elements to.
+   * @param max
+   *          the maximum number of elements to remove; must be positive.
+   * @return the number of elements added to {@code target}, at least 1
+   *         unless the buffer is closed and empty.
+   * @throws InterruptedException
+   *           if the thread is interrupted while waiting.
+   */
+  public int takeAll(final Collection<? super E> target, final int max)
+      throws InterruptedException {
+    if (max < 1) {
+      throw new IllegalArgumentException("Must take at least one element.");
+    }
+    E first = this.take();
+    if (first == null) {
+      return 0;
+    }
+    target.add(first);
+    return 1 + this.drainTo(target, max - 1);
+  }
+
+  /**
+   * Closes the buffer, waking all consumers that are waiting for an element
+   * and all producers that are waiting for space. Elements already in the
+   * buffer can still be removed, and elements can still be inserted, but
+   * neither consumers nor producers will wait any longer.
+   */
+  public void close() {
+    this.closed = true;
+    this.lock.lock();
+    try {
+      this.notEmpty.signalAll();
+      this.notFull.signalAll();
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Reopens a closed buffer so that consumers and producers wait again.
+   */
+  public void reopen() {
+    this.closed = false;
+  }
+
+  /**
+   * Returns {@code true} if the buffer has been closed.
+   * 
+   * @return {@code true} if the buffer is closed, else {@code false}.
+   */
+  public boolean isClosed() {
+    return this.closed;
+  }
+
+  /**
+   * Called by subclasses after an element is inserted. Wakes a waiting
+   * consumer, if there is one.
+   */
+  protected final void elementAdded() {
+    if (this.waiters.get() > 0) {
+      this.lock.lock();
+      try {
+        this.notEmpty.signal();
+      } finally {
+        this.lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Called by subclasses after one or more elements are removed. Wakes a
+   * waiting producer, if there is one.
+   */
+  protected final void elementRemoved() {
+    if (this.producerWaiters.get() > 0) {
+      this.lock.lock();
+      try {
+        this.notFull.signal();
+      } finally {
+        this.lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Polls the buffer a limited number of times before giving up, so that a
+   * consumer keeping pace with the producer doesn't need to block.
+   * 
+   * @return the next element, or {@code null} if the buffer remained empty.
+   */
+  private E spinPoll() {
+    for (int i = 0; i < SPIN_TRIES; ++i) {
+      E element = this.poll();
+      if (element != null) {
+        return element;
+      }
+      if (i >= SPIN_TRIES / 2) {
+        Thread.yield();
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,411 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.solver.buffer;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.owlplatform.common.SampleMessage;
+import com.owlplatform.solver.protocol.messages.DeviceId;
+import com.owlplatform.solver.protocol.messages.DeviceIdCache;
+
+/**
+ * <p>
+ * A sample buffer that keeps only the most recent pending sample for each
+ * (device, receiver) pair. A sample that arrives while an older sample for
+ * the same pair is still buffered replaces it in place, so the buffer never
+ * holds more than one sample per pair and its size is bounded by the number of
+ * active pairs rather than the arrival rate.
+ * </p>
+ * 
+ * <p>
+ * Pairs are returned in the order they first became pending, and each
+ * {@link #poll()} returns the latest sample for the next pair. Draining the
+ * buffer therefore returns the set of pairs that changed since the last
+ * pass, each with its newest sample.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class ConflatingSampleBuffer extends BlockingBuffer<SampleMessage> {
+
+  /**
+   * Stored in an evicted slot so that producers still holding it look the
+   * pair up again instead of buffering a sample nobody will take.
+   */
+  private static final SampleMessage RETIRED = new SampleMessage();
+
+  /**
+   * Identifies a (device, receiver) pair.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  private static final class Key {
+
+    /**
+     * The device identifier.
+     */
+    private final DeviceId device;
+
+    /**
+     * The receiver identifier.
+     */
+    private final DeviceId receiver;
+
+    /**
+     * Creates a new key.
+     * 
+     * @param device
+     *          the device identifier.
+     * @param receiver
+     *          the receiver identifier.
+     */
+    Key(final DeviceId device, final DeviceId receiver) {
+      this.device = device;
+      this.receiver = receiver;
+    }
+
+    @Override
+    public int hashCode() {
+      return this.device.hashCode() * 31 + this.receiver.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return this.device.equals(other.device)
+          && this.receiver.equals(other.receiver);
+    }
+  }
+
+  /**
+   * Holds the pending sample for a single pair.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  private static final class Slot {
+
+    /**
+     * The pair this slot holds samples for.
+     */
+    final Key key;
+
+    /**
+     * The latest pending sample, {@code null} if the pair has no pending
+     * sample, or {@link ConflatingSampleBuffer#RETIRED} once the slot was
+     * evicted.
+     */
+    final AtomicReference<SampleMessage> latest = new AtomicReference<SampleMessage>();
+
+    /**
+     * Whether this slot is in, or about to be added to, the queue of pending
+     * slots. Set by whoever enqueues the slot and cleared by {@link #poll()}
+     * after removing it, so a sample stored at any time is either taken by
+     * that poll or queues the slot again. Eviction also holds it, so a
+     * retired slot is never queued.
+     */
+    final AtomicBoolean queued = new AtomicBoolean(false);
+
+    /**
+     * Whether this slot is in the queue of idle slots.
+     */
+    final AtomicBoolean idle = new AtomicBoolean(false);
+
+    /**
+     * Creates a new slot for a pair.
+     * 
+     * @param key
+     *          the pair.
+     */
+    Slot(final Key key) {
+      this.key = key;
+    }
+  }
+
+  /**
+   * The maximum number of pairs tracked by this buffer.
+   */
+  private final int capacity;
+
+  /**
+   * Slots for all tracked pairs.
+   */
+  private final ConcurrentHashMap<Key, Slot> slots;
+
+  /**
+   * The number of slots created and not yet evicted. Reserved before a slot
+   * is created, so it never exceeds {@link #capacity}.
+   */
+  private final AtomicInteger tracked = new AtomicInteger(0);
+
+  /**
+   * Slots with a pending sample, in the order they became pending. A slot is
+   * only enqueued when it is not already in the queue, so this queue never
+   * holds more entries than there are tracked slots.
+   */
+  private final RingBuffer<Slot> pending;
+
+  /**
+   * Slots whose pending sample was taken, in the order they became idle. A
+   * slot may have received a new sample since it was enqueued, so eviction
+   * checks each slot again before removing it. A slot is only enqueued when
+   * it is not already in the queue.
+   */
+  private final RingBuffer<Slot> idle;
+
+  /**
+   * Interns identifiers so that repeated pairs don't allocate new keys'
+   * identifiers.
+   */
+  private final DeviceIdCache idCache;
+
+  /**
+   * The number of samples that were replaced by a newer sample before being
+   * taken.
+   */
+  private final AtomicLong conflatedCount = new AtomicLong(0);
+
+  /**
+   * Creates a new conflating buffer that tracks up to {@code capacity}
+   * (device, receiver) pairs, interning identifiers in the shared
+   * {@code DeviceIdCache}.
+   * 
+   * @param capacity
+   *          the maximum number of pairs.
+   */
+  public ConflatingSampleBuffer(final int capacity) {
+    this(capacity, DeviceIdCache.getDefault());
+  }
+
+  /**
+   * Creates a new conflating buffer that tracks up to {@code capacity}
+   * (device, receiver) pairs.
+   * 
+   * @param capacity
+   *          the maximum number of pairs.
+   * @param idCache
+   *          the cache used to intern identifiers.
+   */
+  public ConflatingSampleBuffer(final int capacity, final DeviceIdCache idCache) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Buffer capacity must be positive: "
+          + capacity);
+    }
+    if (idCache == null) {
+      throw new IllegalArgumentException("Identifier cache cannot be null.");
+    }
+    this.capacity = capacity;
+    this.slots = new ConcurrentHashMap<Key, Slot>(capacity);
+    this.pending = new RingBuffer<Slot>(capacity);
+    this.idle = new RingBuffer<Slot>(capacity);
+    this.idCache = idCache;
+  }
+
+  /**
+   * Buffers {@code sample}, replacing any pending sample for the same
+   * (device, receiver) pair.
+   * 
+   * @param sample
+   *          the sample to insert.
+   * @return {@code true} if the sample was buffered, or {@code false} if it
+   *         is for a new pair and the buffer is already tracking
+   *         {@link #capacity()} pairs with pending samples.
+   */
+  @Override
+  public boolean offer(final SampleMessage sample) {
+    Key key = new Key(this.idCache.intern(sample.getDeviceId()),
+        this.idCache.intern(sample.getReceiverId()));
+    Slot slot = this.slots.get(key);
+    for (;;) {
+      if (slot == null) {
+        slot = this.track(key);
+        if (slot == null) {
+          return false;
+        }
+      }
+      SampleMessage previous = slot.latest.get();
+      if (previous == RETIRED) {
+        // Evicted since the lookup, so the pair needs a new slot
+        this.slots.remove(key, slot);
+        slot = this.slots.get(key);
+      } else if (slot.latest.compareAndSet(previous, sample)) {
+        if (previous != null) {
+          this.conflatedCount.incrementAndGet();
+        }
+        break;
+      }
+    }
+    if (slot.queued.compareAndSet(false, true)) {
+      // Only tracked slots are queued, each at most once, and poll releases
+      // a slot's entry before clearing its flag, so there is always room
+      this.pending.offer(slot);
+      this.elementAdded();
+    }
+    return true;
+  }
+
+  /**
+   * Creates a slot for a new pair, evicting an idle pair if the buffer is
+   * already tracking {@link #capacity()} pairs.
+   * 
+   * @param key
+   *          the pair.
+   * @return the slot for the pair, or {@code null} if there was no room.
+   */
+  private Slot track(final Key key) {
+    if (!this.reserve()) {
+      // Another producer may have just created it
+      return this.slots.get(key);
+    }
+    Slot created = new Slot(key);
+    Slot slot = this.slots.putIfAbsent(key, created);
+    if (slot != null) {
+      this.tracked.decrementAndGet();
+      return slot;
+    }
+    return created;
+  }
+
+  /**
+   * Reserves room for one more tracked pair.
+   * 
+   * @return {@code true} if room was reserved, either from unused capacity or
+   *         by evicting an idle pair.
+   */
+  private boolean reserve() {
+    for (;;) {
+      int count = this.tracked.get();
+      if (count >= this.capacity) {
+        // An evicted pair's reservation passes to the new one
+        return this.evictIdle();
+      }
+      if (this.tracked.compareAndSet(count, count + 1)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Removes and returns the latest sample for the pair that has been pending
+   * the longest.
+   * 
+   * @return the latest sample for the next pending pair, or {@code null} if
+   *         no pairs are pending.
+   */
+  @Override
+  public SampleMessage poll() {
+    Slot slot;
+    while ((slot = this.pending.poll()) != null) {
+      slot.queued.set(false);
+      SampleMessage sample = slot.latest.getAndSet(null);
+      if (slot.idle.compareAndSet(false, true) && !this.idle.offer(slot)) {
+        slot.idle.set(false);
+      }
+      if (sample != null) {
+        this.elementRemoved();
+        return sample;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public int drainTo(final Collection<? super SampleMessage> target,
+      final int max) {
+    int count = 0;
+    SampleMessage sample;
+    while (count < max && (sample = this.poll()) != null) {
+      target.add(sample);
+      ++count;
+    }
+    return count;
+  }
+
+  /**
+   * Returns the number of pairs with a pending sample.
+   * 
+   * @return the number of pending samples.
+   */
+  @Override
+  public int size() {
+    return this.pending.size();
+  }
+
+  /**
+   * Returns the maximum number of pairs tracked by this buffer.
+   * 
+   * @return the capacity of the buffer.
+   */
+  @Override
+  public int capacity() {
+    return this.capacity;
+  }
+
+  /**
+   * Returns the number of samples that were replaced by a newer sample for
+   * the same pair before being taken.
+   * 
+   * @return the number of conflated samples.
+   */
+  public long getConflatedCount() {
+    return this.conflatedCount.get();
+  }
+
+  /**
+   * Stops tracking the pair that has been idle the longest, making room for a
+   * new pair. Only slots that became idle are examined, so this returns
+   * immediately when every tracked pair has a pending sample.
+   * 
+   * @return {@code true} if a pair was removed.
+   */
+  private boolean evictIdle() {
+    Slot slot;
+    while ((slot = this.idle.poll()) != null) {
+      slot.idle.set(false);
+      // Holding the queued flag keeps producers from queuing a retired slot
+      if (slot.queued.compareAndSet(false, true)) {
+        if (slot.latest.compareAndSet(null, RETIRED)) {
+          this.slots.remove(slot.key, slot);
+          return true;
+        }
+        // A sample arrived first, so queue it for the producer that saw the
+        // flag held
+        this.pending.offer(slot);
+        this.elementAdded();
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return "Conflating Buffer (" + this.size() + "/" + this.capacity + ")";
+  }
+}
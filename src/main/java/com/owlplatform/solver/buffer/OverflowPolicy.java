@@ -0,0 +1,209 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.solver.buffer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Determines what happens when an element is inserted into a full
+ * {@link BlockingBuffer}, and counts the elements discarded as a result.
+ * </p>
+ * 
+ * <p>
+ * Policies are created with {@link #dropNewest()}, {@link #dropOldest()} or
+ * {@link #block(long, TimeUnit)}. Each policy keeps its own discard counter, so
+ * a policy instance should only be used with a single buffer.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public abstract class OverflowPolicy {
+
+  /**
+   * Discards the element being inserted when the buffer is full.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  private static final class DropNewest extends OverflowPolicy {
+
+    @Override
+    public <E> boolean offer(final BlockingBuffer<E> buffer, final E element) {
+      if (buffer.offer(element)) {
+        return true;
+      }
+      this.discarded();
+      return false;
+    }
+
+    @Override
+    public String toString() {
+      return "Drop Newest";
+    }
+  }
+
+  /**
+   * Discards the oldest element to make room when the buffer is full.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  private static final class DropOldest extends OverflowPolicy {
+
+    @Override
+    public <E> boolean offer(final BlockingBuffer<E> buffer, final E element) {
+      boolean lossless = true;
+      while (!buffer.offer(element)) {
+        if (buffer.evict(element) != null) {
+          this.discarded();
+          lossless = false;
+        }
+      }
+      return lossless;
+    }
+
+    @Override
+    public String toString() {
+      return "Drop Oldest";
+    }
+  }
+
+  /**
+   * Waits for space in the buffer, discarding the element being inserted if
+   * none becomes available before a timeout.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  private static final class Block extends OverflowPolicy {
+
+    /**
+     * How long to wait for space, in nanoseconds.
+     */
+    private final long timeoutNanos;
+
+    /**
+     * Creates a new blocking policy.
+     * 
+     * @param timeoutNanos
+     *          how long to wait for space, in nanoseconds.
+     */
+    Block(final long timeoutNanos) {
+      this.timeoutNanos = timeoutNanos;
+    }
+
+    @Override
+    public <E> boolean offer(final BlockingBuffer<E> buffer, final E element) {
+      try {
+        if (buffer.offer(element, this.timeoutNanos, TimeUnit.NANOSECONDS)) {
+          return true;
+        }
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+      }
+      this.discarded();
+      return false;
+    }
+
+    @Override
+    public String toString() {
+      return "Block (" + TimeUnit.NANOSECONDS.toMillis(this.timeoutNanos)
+          + "ms)";
+    }
+  }
+
+  /**
+   * The number of elements discarded by this policy.
+   */
+  private final AtomicLong discardedCount = new AtomicLong(0);
+
+  /**
+   * Creates a policy that discards the element being inserted when the buffer
+   * is full. The buffered elements are always the oldest ones.
+   * 
+   * @return a new drop-newest policy.
+   */
+  public static OverflowPolicy dropNewest() {
+    return new DropNewest();
+  }
+
+  /**
+   * Creates a policy that discards the oldest buffered element to make room
+   * when the buffer is full. The buffered elements are always the newest ones.
+   * 
+   * @return a new drop-oldest policy.
+   */
+  public static OverflowPolicy dropOldest() {
+    return new DropOldest();
+  }
+
+  /**
+   * Creates a policy that makes the inserting thread wait up to
+   * {@code timeout} for space when the buffer is full, discarding the element
+   * being inserted if the timeout elapses. No elements are lost as long as
+   * consumers keep up within the timeout, but the inserting thread is stalled
+   * while it waits.
+   * 
+   * @param timeout
+   *          how long to wait for space, in units of {@code unit}.
+   * @param unit
+   *          the unit of {@code timeout}.
+   * @return a new blocking policy.
+   */
+  public static OverflowPolicy block(final long timeout, final TimeUnit unit) {
+    if (timeout < 0) {
+      throw new IllegalArgumentException("Timeout must not be negative: "
+          + timeout);
+    }
+    return new Block(unit.toNanos(timeout));
+  }
+
+  /**
+   * Inserts {@code element} into {@code buffer}, applying this policy if the
+   * buffer is full.
+   * 
+   * @param buffer
+   *          the buffer to insert into.
+   * @param element
+   *          the element to insert.
+   * @return {@code true} if the element was inserted without discarding any
+   *         element, or {@code false} if an element was discarded.
+   */
+  public abstract <E> boolean offer(BlockingBuffer<E> buffer, E element);
+
+  /**
+   * Returns the number of elements discarded by this policy.
+   * 
+   * @return the number of discarded elements.
+   */
+  public long getDiscardedCount() {
+    return this.discardedCount.get();
+  }
+
+  /**
+   * Records that an element was discarded.
+   */
+  protected void discarded() {
+    this.discardedCount.incrementAndGet();
+  }
+}
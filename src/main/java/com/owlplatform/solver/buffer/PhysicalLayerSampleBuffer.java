@@ -0,0 +1,332 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.solver.buffer;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.owlplatform.common.SampleMessage;
+
+/**
+ * <p>
+ * A sample buffer divided into separately bounded lanes by physical layer.
+ * Samples from a high-rate physical layer can only fill their own lane, so
+ * they cannot crowd out samples from other layers.
+ * </p>
+ * 
+ * <p>
+ * Consumers are served from the lanes in weighted round-robin order: a lane
+ * with weight 3 is served three times as often as a lane with weight 1 while
+ * both have samples waiting. Empty lanes are skipped, so no consumer waits
+ * while any lane has samples. Physical layers without their own lane share
+ * the default lane.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class PhysicalLayerSampleBuffer extends BlockingBuffer<SampleMessage> {
+
+  /**
+   * The maximum weight of a lane.
+   */
+  public static final int MAX_WEIGHT = 100;
+
+  /**
+   * A bounded buffer for a single physical layer.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  private static final class Lane {
+
+    /**
+     * The samples in this lane.
+     */
+    final RingBuffer<SampleMessage> samples;
+
+    /**
+     * The relative share of consumer polls given to this lane.
+     */
+    final int weight;
+
+    /**
+     * Creates a new lane.
+     * 
+     * @param capacity
+     *          the maximum number of samples in the lane.
+     * @param weight
+     *          the relative share of polls given to the lane.
+     */
+    Lane(final int capacity, final int weight) {
+      if (weight < 1 || weight > MAX_WEIGHT) {
+        throw new IllegalArgumentException(String.format(
+            "Lane weight must be between 1 and %d: %d",
+            Integer.valueOf(MAX_WEIGHT), Integer.valueOf(weight)));
+      }
+      this.samples = new RingBuffer<SampleMessage>(capacity);
+      this.weight = weight;
+    }
+  }
+
+  /**
+   * Lane for physical layers that don't have their own lane.
+   */
+  private final Lane defaultLane;
+
+  /**
+   * Lanes indexed by physical layer, with {@code null} for physical layers
+   * that use the default lane. Replaced when a lane is added.
+   */
+  private volatile Lane[] lanesByPhy = new Lane[256];
+
+  /**
+   * All lanes, including the default lane. Replaced when a lane is added.
+   */
+  private volatile Lane[] lanes;
+
+  /**
+   * The order in which lanes are served. Each lane appears as many times as
+   * its weight, spread evenly. Replaced when a lane is added.
+   */
+  private volatile Lane[] schedule;
+
+  /**
+   * Position of the next consumer in {@link #schedule}.
+   */
+  private final AtomicInteger ticket = new AtomicInteger(0);
+
+  /**
+   * Creates a new buffer whose default lane holds up to
+   * {@code defaultCapacity} samples and has weight 1.
+   * 
+   * @param defaultCapacity
+   *          the capacity of the default lane.
+   */
+  public PhysicalLayerSampleBuffer(final int defaultCapacity) {
+    this(defaultCapacity, 1);
+  }
+
+  /**
+   * Creates a new buffer with the specified default lane.
+   * 
+   * @param defaultCapacity
+   *          the capacity of the default lane.
+   * @param defaultWeight
+   *          the weight of the default lane, between 1 and
+   *          {@link #MAX_WEIGHT}.
+   */
+  public PhysicalLayerSampleBuffer(final int defaultCapacity,
+      final int defaultWeight) {
+    this.defaultLane = new Lane(defaultCapacity, defaultWeight);
+    this.lanes = new Lane[] { this.defaultLane };
+    this.schedule = this.lanes;
+  }
+
+  /**
+   * Adds a separate lane for samples from {@code physicalLayer}. Lanes should
+   * be added before samples are buffered; samples from {@code physicalLayer}
+   * that are already in the default lane remain there.
+   * 
+   * @param physicalLayer
+   *          the physical layer of the lane.
+   * @param capacity
+   *          the maximum number of samples in the lane.
+   * @param weight
+   *          the relative share of polls given to the lane, between 1 and
+   *          {@link #MAX_WEIGHT}.
+   * @throws IllegalArgumentException
+   *           if {@code physicalLayer} already has a lane, or the capacity or
+   *           weight is invalid.
+   */
+  public synchronized void addLane(final byte physicalLayer,
+      final int capacity, final int weight) {
+    int index = physicalLayer & 0xFF;
+    if (this.lanesByPhy[index] != null) {
+      throw new IllegalArgumentException("Physical layer " + index
+          + " already has a lane.");
+    }
+    Lane lane = new Lane(capacity, weight);
+
+    Lane[] newLanes = new Lane[this.lanes.length + 1];
+    System.arraycopy(this.lanes, 0, newLanes, 0, this.lanes.length);
+    newLanes[this.lanes.length] = lane;
+    Lane[] newByPhy = this.lanesByPhy.clone();
+    newByPhy[index] = lane;
+
+    this.lanes = newLanes;
+    this.schedule = buildSchedule(newLanes);
+    this.lanesByPhy = newByPhy;
+  }
+
+  /**
+   * Builds a smooth weighted round-robin schedule, in which each lane
+   * appears as many times as its weight and its appearances are spread
+   * evenly.
+   * 
+   * @param lanes
+   *          the lanes to schedule.
+   * @return the schedule.
+   */
+  private static Lane[] buildSchedule(final Lane[] lanes) {
+    int total = 0;
+    for (Lane lane : lanes) {
+      total += lane.weight;
+    }
+    Lane[] schedule = new Lane[total];
+    int[] current = new int[lanes.length];
+    for (int slot = 0; slot < total; ++slot) {
+      int best = 0;
+      for (int i = 0; i < lanes.length; ++i) {
+        current[i] += lanes[i].weight;
+        if (current[i] > current[best]) {
+          best = i;
+        }
+      }
+      current[best] -= total;
+      schedule[slot] = lanes[best];
+    }
+    return schedule;
+  }
+
+  /**
+   * Returns the lane for a physical layer.
+   * 
+   * @param physicalLayer
+   *          the physical layer.
+   * @return the lane for the physical layer, or the default lane.
+   */
+  private Lane laneFor(final byte physicalLayer) {
+    Lane lane = this.lanesByPhy[physicalLayer & 0xFF];
+    return lane == null ? this.defaultLane : lane;
+  }
+
+  /**
+   * Inserts a sample into the lane for its physical layer.
+   * 
+   * @param sample
+   *          the sample to insert.
+   * @return {@code true} if the sample was inserted, or {@code false} if its
+   *         lane is full.
+   */
+  @Override
+  public boolean offer(final SampleMessage sample) {
+    if (!this.laneFor(sample.getPhysicalLayer()).samples.offer(sample)) {
+      return false;
+    }
+    this.elementAdded();
+    return true;
+  }
+
+  /**
+   * Removes and returns the oldest sample of the next lane in the schedule
+   * that is not empty.
+   * 
+   * @return the next sample, or {@code null} if all lanes are empty.
+   */
+  @Override
+  public SampleMessage poll() {
+    Lane[] currentSchedule = this.schedule;
+    int length = currentSchedule.length;
+    int start = (this.ticket.getAndIncrement() & Integer.MAX_VALUE) % length;
+    for (int i = 0; i < length; ++i) {
+      int index = start + i;
+      if (index >= length) {
+        index -= length;
+      }
+      SampleMessage sample = currentSchedule[index].samples.poll();
+      if (sample != null) {
+        this.elementRemoved();
+        return sample;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public int drainTo(final Collection<? super SampleMessage> target,
+      final int max) {
+    int count = 0;
+    SampleMessage sample;
+    while (count < max && (sample = this.poll()) != null) {
+      target.add(sample);
+      ++count;
+    }
+    return count;
+  }
+
+  /**
+   * Removes the oldest sample from the lane that {@code sample} belongs in.
+   * 
+   * @param sample
+   *          the sample that could not be inserted.
+   * @return the removed sample, or {@code null} if the lane was empty.
+   */
+  @Override
+  public SampleMessage evict(final SampleMessage sample) {
+    SampleMessage evicted = this.laneFor(sample.getPhysicalLayer()).samples
+        .poll();
+    if (evicted != null) {
+      this.elementRemoved();
+    }
+    return evicted;
+  }
+
+  @Override
+  public int size() {
+    int size = 0;
+    for (Lane lane : this.lanes) {
+      size += lane.samples.size();
+    }
+    return size;
+  }
+
+  /**
+   * Returns the total capacity of all lanes.
+   * 
+   * @return the capacity of the buffer.
+   */
+  @Override
+  public int capacity() {
+    int capacity = 0;
+    for (Lane lane : this.lanes) {
+      capacity += lane.samples.capacity();
+    }
+    return capacity;
+  }
+
+  /**
+   * Returns the number of samples in the lane used by
+   * {@code physicalLayer}.
+   * 
+   * @param physicalLayer
+   *          the physical layer.
+   * @return the number of samples in its lane.
+   */
+  public int getLaneSize(final byte physicalLayer) {
+    return this.laneFor(physicalLayer).samples.size();
+  }
+
+  @Override
+  public String toString() {
+    return "Physical Layer Buffer (" + this.lanes.length + " lanes, "
+        + this.size() + "/" + this.capacity() + ")";
+  }
+}
@@ -0,0 +1,261 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.solver.buffer;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, pre-allocated FIFO buffer backed by an array ring. Each slot
+ * carries a sequence number that tells producers and consumers whether it is
+ * free or full, so {@link #offer(Object)} and {@link #poll()} never lock and
+ * never allocate. The buffer is safe for any number of producer and consumer
+ * threads.
+ * 
+ * @author Robert Moore
+ * 
+ * @param <E>
+ *          the type of element held in the buffer.
+ */
+public class RingBuffer<E> extends BlockingBuffer<E> {
+
+  /**
+   * The maximum number of elements in the buffer.
+   */
+  private final int capacity;
+
+  /**
+   * The slots of the ring.
+   */
+  private final AtomicReferenceArray<E> elements;
+
+  /**
+   * The sequence number of each slot. A slot at position {@code p} is free to
+   * be written when its sequence is {@code p}, and full when its sequence is
+   * {@code p + 1}.
+   */
+  private final AtomicLongArray sequences;
+
+  /**
+   * Position of the next element to be removed.
+   */
+  private final AtomicLong head = new AtomicLong(0);
+
+  /**
+   * Position of the next element to be inserted.
+   */
+  private final AtomicLong tail = new AtomicLong(0);
+
+  /**
+   * Creates a new ring buffer that holds up to {@code capacity} elements. All
+   * slots are allocated immediately.
+   * 
+   * @param capacity
+   *          the maximum number of elements in the buffer.
+   */
+  public RingBuffer(final int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Buffer capacity must be positive: "
+          + capacity);
+    }
+    this.capacity = capacity;
+    this.elements = new AtomicReferenceArray<E>(capacity);
+    this.sequences = new AtomicLongArray(capacity);
+    for (int i = 0; i < capacity; ++i) {
+      this.sequences.set(i, i);
+    }
+  }
+
+  /**
+   * Inserts an element at the tail of the buffer if there is room.
+   * 
+   * @param element
+   *          the element to insert.
+   * @return {@code true} if the element was inserted, or {@code false} if
+   *         the buffer is full.
+   */
+  @Override
+  public boolean offer(final E element) {
+    if (element == null) {
+      throw new NullPointerException("Cannot buffer a null element.");
+    }
+    long position = this.tail.get();
+    int index;
+    for (;;) {
+      index = this.index(position);
+      long diff = this.sequences.get(index) - position;
+      if (diff == 0) {
+        if (this.tail.compareAndSet(position, position + 1)) {
+          break;
+        }
+        position = this.tail.get();
+      } else if (diff < 0) {
+        return false;
+      } else {
+        position = this.tail.get();
+      }
+    }
+    this.elements.lazySet(index, element);
+    // Volatile store so a consumer that just started waiting can't miss it
+    this.sequences.set(index, position + 1);
+    this.elementAdded();
+    return true;
+  }
+
+  /**
+   * Removes and returns the element at the head of the buffer, if there is
+   * one.
+   * 
+   * @return the head of the buffer, or {@code null} if it is empty.
+   */
+  @Override
+  public E poll() {
+    long position = this.head.get();
+    int index;
+    for (;;) {
+      index = this.index(position);
+      long diff = this.sequences.get(index) - (position + 1);
+      if (diff == 0) {
+        if (this.head.compareAndSet(position, position + 1)) {
+          break;
+        }
+        position = this.head.get();
+      } else if (diff < 0) {
+        return null;
+      } else {
+        position = this.head.get();
+      }
+    }
+    E element = this.elements.get(index);
+    this.elements.lazySet(index, null);
+    // Volatile store so a producer that just started waiting can't miss it
+    this.sequences.set(index, position + this.capacity);
+    this.elementRemoved();
+    return element;
+  }
+
+  /**
+   * Removes up to {@code max} elements from the head of the buffer and adds
+   * them to {@code target}, in order. A consumer claims all of the elements
+   * available to it at once, so draining several elements costs no more
+   * synchronization than polling one. If {@code target} throws an exception,
+   * the claimed elements that were not added to it are discarded, but their
+   * slots are still released.
+   * 
+   * @param target
+   *          the collection to add the elements to.
+   * @param max
+   *          the maximum number of elements to remove.
+   * @return the number of elements added to {@code target}.
+   */
+  @Override
+  public int drainTo(final Collection<? super E> target, final int max) {
+    if (target == null) {
+      throw new NullPointerException("Cannot drain to a null collection.");
+    }
+    long position;
+    int count;
+    do {
+      position = this.head.get();
+      count = 0;
+      while (count < max
+          && this.sequences.get(this.index(position + count)) == position
+              + count + 1) {
+        ++count;
+      }
+      if (count == 0) {
+        return 0;
+      }
+    } while (!this.head.compareAndSet(position, position + count));
+
+    int released = 0;
+    try {
+      while (released < count) {
+        E element = this.release(position, released, count);
+        ++released;
+        target.add(element);
+      }
+    } finally {
+      // Slots that were claimed but never released would block producers
+      while (released < count) {
+        this.release(position, released, count);
+        ++released;
+      }
+      this.elementRemoved();
+    }
+    return count;
+  }
+
+  /**
+   * Frees one of the slots claimed by {@link #drainTo(Collection, int)}.
+   * 
+   * @param position
+   *          the position of the first claimed slot.
+   * @param offset
+   *          the offset of the slot from {@code position}.
+   * @param count
+   *          the number of claimed slots.
+   * @return the element that was in the slot.
+   */
+  private E release(final long position, final int offset, final int count) {
+    int index = this.index(position + offset);
+    E element = this.elements.get(index);
+    this.elements.lazySet(index, null);
+    if (offset < count - 1) {
+      this.sequences.lazySet(index, position + offset + this.capacity);
+    } else {
+      // Volatile store so a producer that just started waiting can't miss it
+      this.sequences.set(index, position + offset + this.capacity);
+    }
+    return element;
+  }
+
+  @Override
+  public int size() {
+    long size = this.tail.get() - this.head.get();
+    if (size < 0) {
+      return 0;
+    }
+    return size > this.capacity ? this.capacity : (int) size;
+  }
+
+  @Override
+  public int capacity() {
+    return this.capacity;
+  }
+
+  /**
+   * Returns the slot index for a position.
+   * 
+   * @param position
+   *          a head or tail position.
+   * @return the index of the slot for that position.
+   */
+  private int index(final long position) {
+    return (int) (position % this.capacity);
+  }
+
+  @Override
+  public String toString() {
+    return "Ring Buffer (" + this.size() + "/" + this.capacity + ")";
+  }
+}
@@ -0,0 +1,307 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.dispatch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.mina.core.session.IoEvent;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.executor.IoEventQueueHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.owlplatform.common.SampleMessage;
+import com.owlplatform.solver.ReadSuspension;
+import com.owlplatform.solver.protocol.messages.SampleBatch;
+
+/**
+ * <p>
+ * Limits the number and estimated size of IO events waiting in a listener
+ * thread pool. When an event pushes the queue over either limit, reads are
+ * suspended on the session that produced it. The throttle releases its
+ * suspension once the queue has drained to half of each limit, so the memory
+ * held by queued samples cannot grow without bound while listeners are
+ * stalled. Reads stay suspended while any other {@link ReadSuspension} reason
+ * is held on the session.
+ * </p>
+ * 
+ * <p>
+ * Unlike MINA's {@code IoEventQueueThrottle}, this handler never blocks the
+ * IO processor thread. Since a read already in progress is decoded before the
+ * suspension takes effect, the queue may briefly exceed the limits by the
+ * samples of a single read.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class EventQueueThrottle implements IoEventQueueHandler {
+
+  /**
+   * Logging facility for this class.
+   */
+  private static final Logger log = LoggerFactory
+      .getLogger(EventQueueThrottle.class);
+
+  /**
+   * Estimated size of an event that does not contain samples, in bytes.
+   */
+  public static final int EVENT_SIZE = 64;
+
+  /**
+   * Estimated size of a {@code SampleMessage} and its identifier arrays, not
+   * including its sensed data, in bytes.
+   */
+  public static final int SAMPLE_OVERHEAD = 112;
+
+  /**
+   * Maximum estimated size of queued events, or 0 for no limit.
+   */
+  private final long maxBytes;
+
+  /**
+   * Maximum number of queued events, or 0 for no limit.
+   */
+  private final int maxEvents;
+
+  /**
+   * Estimated size of the queued events.
+   */
+  private final AtomicLong queuedBytes = new AtomicLong(0);
+
+  /**
+   * Number of queued events.
+   */
+  private final AtomicInteger queuedEvents = new AtomicInteger(0);
+
+  /**
+   * Sessions whose reads were suspended by this throttle. Guarded by itself.
+   */
+  private final List<IoSession> suspended = new ArrayList<IoSession>();
+
+  /**
+   * Whether any sessions are suspended, checked without locking.
+   */
+  private volatile boolean anySuspended = false;
+
+  /**
+   * Number of times reads were suspended.
+   */
+  private final AtomicLong suspendCount = new AtomicLong(0);
+
+  /**
+   * Creates a new throttle.
+   * 
+   * @param maxBytes
+   *          the maximum estimated size of queued events in bytes, or 0 for
+   *          no limit.
+   * @param maxEvents
+   *          the maximum number of queued events, or 0 for no limit.
+   */
+  public EventQueueThrottle(final long maxBytes, final int maxEvents) {
+    if (maxBytes < 0) {
+      throw new IllegalArgumentException("Byte limit cannot be negative: "
+          + maxBytes);
+    }
+    if (maxEvents < 0) {
+      throw new IllegalArgumentException("Event limit cannot be negative: "
+          + maxEvents);
+    }
+    if (maxBytes == 0 && maxEvents == 0) {
+      throw new IllegalArgumentException(
+          "At least one of the byte and event limits must be positive.");
+    }
+    this.maxBytes = maxBytes;
+    this.maxEvents = maxEvents;
+  }
+
+  @Override
+  public boolean accept(final Object source, final IoEvent event) {
+    return true;
+  }
+
+  @Override
+  public void offered(final Object source, final IoEvent event) {
+    long bytes = this.queuedBytes.addAndGet(estimateSize(event));
+    int events = this.queuedEvents.incrementAndGet();
+    if ((this.maxBytes > 0 && bytes > this.maxBytes)
+        || (this.maxEvents > 0 && events > this.maxEvents)) {
+      this.suspend(event.getSession());
+    }
+  }
+
+  @Override
+  public void polled(final Object source, final IoEvent event) {
+    this.queuedBytes.addAndGet(-estimateSize(event));
+    this.queuedEvents.decrementAndGet();
+    this.checkResume();
+  }
+
+  /**
+   * Suspends reads on {@code session} if they were not already suspended by
+   * this throttle.
+   * 
+   * @param session
+   *          the session to suspend.
+   */
+  private void suspend(final IoSession session) {
+    if (session == null) {
+      return;
+    }
+    synchronized (this.suspended) {
+      if (this.suspended.contains(session)) {
+        return;
+      }
+      this.suspended.add(session);
+      this.anySuspended = true;
+      ReadSuspension.suspend(session, this);
+    }
+    this.suspendCount.incrementAndGet();
+    log.debug("Suspended reads from {} at {} queued bytes.", session,
+        Long.valueOf(this.queuedBytes.get()));
+    // The queue may have drained before reads were suspended
+    this.checkResume();
+  }
+
+  /**
+   * Resumes all suspended sessions if the queue has drained to half of each
+   * limit.
+   */
+  private void checkResume() {
+    if (!this.anySuspended || !this.isBelowResumeLevel()) {
+      return;
+    }
+    synchronized (this.suspended) {
+      if (!this.isBelowResumeLevel()) {
+        return;
+      }
+      for (IoSession session : this.suspended) {
+        ReadSuspension.resume(session, this);
+        log.debug("Released suspended reads from {}.", session);
+      }
+      this.suspended.clear();
+      this.anySuspended = false;
+    }
+  }
+
+  /**
+   * Determines whether the queue has drained enough to resume reads.
+   * 
+   * @return {@code true} if the queue is at or below half of each limit.
+   */
+  private boolean isBelowResumeLevel() {
+    if (this.maxBytes > 0 && this.queuedBytes.get() > this.maxBytes / 2) {
+      return false;
+    }
+    return this.maxEvents == 0
+        || this.queuedEvents.get() <= this.maxEvents / 2;
+  }
+
+  /**
+   * Estimates the memory held by the parameter of {@code event}.
+   * 
+   * @param event
+   *          the event to measure.
+   * @return the estimated size of the event in bytes.
+   */
+  static int estimateSize(final IoEvent event) {
+    Object param = event.getParameter();
+    if (param instanceof SampleMessage) {
+      return EVENT_SIZE + estimateSize((SampleMessage) param);
+    }
+    if (param instanceof SampleBatch) {
+      int size = EVENT_SIZE;
+      for (SampleMessage sample : (SampleBatch) param) {
+        size += estimateSize(sample);
+      }
+      return size;
+    }
+    return EVENT_SIZE;
+  }
+
+  /**
+   * Estimates the memory held by {@code sample}.
+   * 
+   * @param sample
+   *          the sample to measure.
+   * @return the estimated size of the sample in bytes.
+   */
+  private static int estimateSize(final SampleMessage sample) {
+    byte[] data = sample.getSensedData();
+    return SAMPLE_OVERHEAD + (data == null ? 0 : data.length);
+  }
+
+  /**
+   * Returns the estimated size of the queued events.
+   * 
+   * @return the estimated size of the queued events in bytes.
+   */
+  public long getQueuedBytes() {
+    return this.queuedBytes.get();
+  }
+
+  /**
+   * Returns the number of queued events.
+   * 
+   * @return the number of queued events.
+   */
+  public int getQueuedEvents() {
+    return this.queuedEvents.get();
+  }
+
+  /**
+   * Returns the maximum estimated size of queued events.
+   * 
+   * @return the byte limit, or 0 if there is none.
+   */
+  public long getMaxBytes() {
+    return this.maxBytes;
+  }
+
+  /**
+   * Returns the maximum number of queued events.
+   * 
+   * @return the event limit, or 0 if there is none.
+   */
+  public int getMaxEvents() {
+    return this.maxEvents;
+  }
+
+  /**
+   * Returns the number of times reads were suspended by this throttle.
+   * 
+   * @return the number of suspensions.
+   */
+  public long getSuspendCount() {
+    return this.suspendCount.get();
+  }
+
+  /**
+   * Determines whether any sessions are currently suspended by this
+   * throttle.
+   * 
+   * @return {@code true} if reads are suspended on at least one session.
+   */
+  public boolean isSuspended() {
+    return this.anySuspended;
+  }
+}
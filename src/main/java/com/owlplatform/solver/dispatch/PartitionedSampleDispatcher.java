@@ -0,0 +1,311 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.solver.dispatch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.owlplatform.common.SampleMessage;
+import com.owlplatform.solver.SolverAggregatorInterface;
+import com.owlplatform.solver.buffer.RingBuffer;
+import com.owlplatform.solver.listeners.SampleListener;
+import com.owlplatform.solver.protocol.messages.DeviceId;
+
+/**
+ * <p>
+ * Delivers samples to a {@link SampleListener} on several threads at once,
+ * while keeping samples from the same device in order. Each sample's device
+ * identifier is hashed to one of a fixed number of lanes, and each lane has a
+ * pre-allocated buffer and a dedicated thread that delivers its samples.
+ * Samples from one device are therefore always delivered by the same thread,
+ * in the order they arrived, and samples from different devices are
+ * delivered in parallel.
+ * </p>
+ * 
+ * <p>
+ * When a lane's buffer is full, {@link #dispatch(SampleMessage)} waits for
+ * space rather than dropping the sample.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class PartitionedSampleDispatcher {
+
+  /**
+   * Default number of samples buffered for each lane.
+   */
+  public static final int DEFAULT_LANE_CAPACITY = 1024;
+
+  /**
+   * Maximum number of samples a lane thread takes from its buffer at once.
+   */
+  private static final int BATCH_SIZE = 64;
+
+  /**
+   * How long to wait for space in a full lane before checking whether the
+   * dispatcher was shut down, in milliseconds.
+   */
+  private static final long FULL_LANE_WAIT = 100;
+
+  /**
+   * Logger for this class.
+   */
+  private static final Logger log = LoggerFactory
+      .getLogger(PartitionedSampleDispatcher.class);
+
+  /**
+   * Delivers the samples from a single lane.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  private final class LaneWorker implements Runnable {
+
+    /**
+     * The buffer for this lane.
+     */
+    private final RingBuffer<SampleMessage> lane;
+
+    /**
+     * Creates a new worker for a lane.
+     * 
+     * @param lane
+     *          the buffer for the lane.
+     */
+    LaneWorker(final RingBuffer<SampleMessage> lane) {
+      this.lane = lane;
+    }
+
+    @Override
+    public void run() {
+      List<SampleMessage> batch = new ArrayList<SampleMessage>(BATCH_SIZE);
+      try {
+        while (this.lane.takeAll(batch, BATCH_SIZE) > 0) {
+          for (SampleMessage sample : batch) {
+            try {
+              PartitionedSampleDispatcher.this.target.sampleReceived(
+                  PartitionedSampleDispatcher.this.aggregator, sample);
+            } catch (RuntimeException re) {
+              log.error("Sample listener threw an exception.", re);
+            }
+          }
+          batch.clear();
+        }
+      } catch (InterruptedException ie) {
+        log.warn("Interrupted while waiting for samples, {} undelivered.",
+            Integer.valueOf(this.lane.size()));
+      }
+    }
+  }
+
+  /**
+   * The aggregator passed to the target listener.
+   */
+  final SolverAggregatorInterface aggregator;
+
+  /**
+   * The listener that samples are delivered to.
+   */
+  final SampleListener target;
+
+  /**
+   * Buffers for each lane.
+   */
+  private final RingBuffer<SampleMessage>[] lanes;
+
+  /**
+   * Threads for each lane.
+   */
+  private final Thread[] threads;
+
+  /**
+   * Whether the dispatcher has been shut down.
+   */
+  private volatile boolean shutdown = false;
+
+  /**
+   * Creates and starts a new dispatcher with {@link #DEFAULT_LANE_CAPACITY}
+   * samples per lane.
+   * 
+   * @param aggregator
+   *          the aggregator passed to {@code target} with each sample.
+   * @param target
+   *          the listener that samples are delivered to. It must be safe to
+   *          call from several threads at once.
+   * @param laneCount
+   *          the number of lanes and threads.
+   */
+  public PartitionedSampleDispatcher(
+      final SolverAggregatorInterface aggregator, final SampleListener target,
+      final int laneCount) {
+    this(aggregator, target, laneCount, DEFAULT_LANE_CAPACITY);
+  }
+
+  /**
+   * Creates and starts a new dispatcher.
+   * 
+   * @param aggregator
+   *          the aggregator passed to {@code target} with each sample.
+   * @param target
+   *          the listener that samples are delivered to. It must be safe to
+   *          call from several threads at once.
+   * @param laneCount
+   *          the number of lanes and threads.
+   * @param laneCapacity
+   *          the number of samples buffered for each lane.
+   */
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  public PartitionedSampleDispatcher(
+      final SolverAggregatorInterface aggregator, final SampleListener target,
+      final int laneCount, final int laneCapacity) {
+    if (target == null) {
+      throw new IllegalArgumentException("Target listener cannot be null.");
+    }
+    if (laneCount < 1) {
+      throw new IllegalArgumentException("Lane count must be positive: "
+          + laneCount);
+    }
+    this.aggregator = aggregator;
+    this.target = target;
+    this.lanes = new RingBuffer[laneCount];
+    this.threads = new Thread[laneCount];
+    for (int i = 0; i < laneCount; ++i) {
+      this.lanes[i] = new RingBuffer<SampleMessage>(laneCapacity);
+      this.threads[i] = new Thread(new LaneWorker(this.lanes[i]),
+          "Sample Dispatch " + i);
+      this.threads[i].setDaemon(true);
+    }
+    for (Thread thread : this.threads) {
+      thread.start();
+    }
+  }
+
+  /**
+   * Returns the lane that samples from a device are delivered by.
+   * 
+   * @param deviceId
+   *          the device identifier.
+   * @return the index of the lane for the device.
+   */
+  public int laneFor(final byte[] deviceId) {
+    int hash = DeviceId.hashCode(deviceId);
+    return (hash & Integer.MAX_VALUE) % this.lanes.length;
+  }
+
+  /**
+   * Queues a sample for delivery by the lane of its device, waiting if the
+   * lane is full.
+   * 
+   * @param sample
+   *          the sample to deliver.
+   * @return {@code true} if the sample was queued, or {@code false} if the
+   *         dispatcher was shut down or the thread interrupted.
+   */
+  public boolean dispatch(final SampleMessage sample) {
+    if (this.shutdown) {
+      return false;
+    }
+    RingBuffer<SampleMessage> lane = this.lanes[this.laneFor(sample
+        .getDeviceId())];
+    try {
+      while (!lane.offer(sample, FULL_LANE_WAIT, TimeUnit.MILLISECONDS)) {
+        if (this.shutdown) {
+          return false;
+        }
+      }
+      return true;
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /**
+   * Returns the number of lanes.
+   * 
+   * @return the number of lanes.
+   */
+  public int getLaneCount() {
+    return this.lanes.length;
+  }
+
+  /**
+   * Returns the number of samples waiting in all lanes.
+   * 
+   * @return the number of undelivered samples.
+   */
+  public int getPendingCount() {
+    int pending = 0;
+    for (RingBuffer<SampleMessage> lane : this.lanes) {
+      pending += lane.size();
+    }
+    return pending;
+  }
+
+  /**
+   * Stops accepting samples. Each lane thread delivers the samples already
+   * in its lane and then exits.
+   */
+  public void shutdown() {
+    this.shutdown = true;
+    for (RingBuffer<SampleMessage> lane : this.lanes) {
+      lane.close();
+    }
+  }
+
+  /**
+   * Waits for all lane threads to exit after {@link #shutdown()}.
+   * 
+   * @param timeout
+   *          how long to wait, in milliseconds, or 0 to wait indefinitely.
+   * @return {@code true} if all lane threads exited, else {@code false}.
+   * @throws InterruptedException
+   *           if the thread is interrupted while waiting.
+   */
+  public boolean awaitTermination(final long timeout)
+      throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeout;
+    for (Thread thread : this.threads) {
+      if (timeout == 0) {
+        thread.join();
+      } else {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+          return false;
+        }
+        thread.join(remaining);
+      }
+      if (thread.isAlive()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return "Partitioned Dispatcher (" + this.lanes.length + " lanes)";
+  }
+}
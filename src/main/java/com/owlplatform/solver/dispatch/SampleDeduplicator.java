@@ -0,0 +1,428 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.solver.dispatch;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.owlplatform.common.SampleMessage;
+
+/**
+ * <p>
+ * Detects samples that were already seen recently, such as the copies of a
+ * sample received from several redundant aggregators. A sample is identified
+ * by its device identifier, receiver identifier and receiver timestamp.
+ * </p>
+ * 
+ * <p>
+ * Identifiers are remembered in two generations of fixed-size tables. New
+ * identifiers go into the current generation, and when the window has
+ * elapsed, the previous generation is discarded and the current one takes its
+ * place. A sample is therefore recognized for at least one window and at most
+ * two after it was first seen. If more samples than the maximum arrive within
+ * a window, the generations are rotated early, so memory use is constant. The
+ * tables are striped by identifier so that several threads can check samples
+ * at once.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class SampleDeduplicator {
+
+  /**
+   * Default length of a window, in milliseconds.
+   */
+  public static final long DEFAULT_WINDOW = 1000;
+
+  /**
+   * Default maximum number of samples remembered per window.
+   */
+  public static final int DEFAULT_MAX_SAMPLES = 65536;
+
+  /**
+   * Number of independently locked stripes.
+   */
+  private static final int STRIPES = 16;
+
+  /**
+   * Number of {@code long} values stored for each sample.
+   */
+  private static final int KEY_LONGS = 5;
+
+  /**
+   * A single generation of remembered samples, as an open-addressing hash
+   * table of primitive keys.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  private static final class Generation {
+
+    /**
+     * The keys, {@link #KEY_LONGS} values per slot.
+     */
+    final long[] keys;
+
+    /**
+     * The epoch each slot was written in. Slots from earlier epochs are
+     * empty, so the table is cleared by incrementing {@link #epoch}.
+     */
+    final int[] epochs;
+
+    /**
+     * The current epoch of this table.
+     */
+    int epoch = 1;
+
+    /**
+     * Number of keys in the current epoch.
+     */
+    int size = 0;
+
+    /**
+     * When the current epoch started, from {@link System#nanoTime()}.
+     */
+    long started;
+
+    /**
+     * Creates a new, empty generation.
+     * 
+     * @param slots
+     *          the number of slots, a power of two.
+     */
+    Generation(final int slots) {
+      this.keys = new long[slots * KEY_LONGS];
+      this.epochs = new int[slots];
+    }
+
+    /**
+     * Empties this generation.
+     * 
+     * @param now
+     *          the current time, from {@link System#nanoTime()}.
+     */
+    void clear(final long now) {
+      ++this.epoch;
+      if (this.epoch == 0) {
+        // Slots may hold any earlier epoch after wrapping
+        Arrays.fill(this.epochs, 0);
+        this.epoch = 1;
+      }
+      this.size = 0;
+      this.started = now;
+    }
+
+    /**
+     * Finds the slot of a key, or the empty slot where it would be inserted.
+     * 
+     * @param hash
+     *          the hash of the key.
+     * @param key
+     *          the key.
+     * @return the index of the slot.
+     */
+    int find(final int hash, final long[] key) {
+      int mask = this.epochs.length - 1;
+      int slot = hash & mask;
+      while (this.epochs[slot] == this.epoch) {
+        int base = slot * KEY_LONGS;
+        if (this.keys[base] == key[0] && this.keys[base + 1] == key[1]
+            && this.keys[base + 2] == key[2] && this.keys[base + 3] == key[3]
+            && this.keys[base + 4] == key[4]) {
+          return slot;
+        }
+        slot = (slot + 1) & mask;
+      }
+      return slot;
+    }
+
+    /**
+     * Determines whether a slot holds a key in the current epoch.
+     * 
+     * @param slot
+     *          the slot.
+     * @return {@code true} if the slot is occupied.
+     */
+    boolean occupied(final int slot) {
+      return this.epochs[slot] == this.epoch;
+    }
+
+    /**
+     * Stores a key in an empty slot.
+     * 
+     * @param slot
+     *          the empty slot returned by {@link #find(int, long[])}.
+     * @param key
+     *          the key.
+     */
+    void put(final int slot, final long[] key) {
+      System.arraycopy(key, 0, this.keys, slot * KEY_LONGS, KEY_LONGS);
+      this.epochs[slot] = this.epoch;
+      ++this.size;
+    }
+  }
+
+  /**
+   * The current and previous generations of a single stripe.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  private static final class Stripe {
+
+    /**
+     * The generation new keys are added to.
+     */
+    Generation current;
+
+    /**
+     * The generation before {@link #current}.
+     */
+    Generation previous;
+
+    /**
+     * Scratch space for the key being checked.
+     */
+    final long[] key = new long[KEY_LONGS];
+
+    /**
+     * Creates a new stripe.
+     * 
+     * @param slots
+     *          the number of slots in each generation.
+     * @param now
+     *          the current time, from {@link System#nanoTime()}.
+     */
+    Stripe(final int slots, final long now) {
+      this.current = new Generation(slots);
+      this.previous = new Generation(slots);
+      this.current.started = now;
+      this.previous.started = now;
+    }
+  }
+
+  /**
+   * The stripes.
+   */
+  private final Stripe[] stripes = new Stripe[STRIPES];
+
+  /**
+   * Length of a window, in nanoseconds.
+   */
+  private final long windowNanos;
+
+  /**
+   * Maximum number of keys per generation in each stripe.
+   */
+  private final int maxPerStripe;
+
+  /**
+   * Number of duplicates detected.
+   */
+  private final AtomicLong duplicates = new AtomicLong(0);
+
+  /**
+   * Creates a new deduplicator with a window of {@link #DEFAULT_WINDOW}
+   * milliseconds and {@link #DEFAULT_MAX_SAMPLES} samples.
+   */
+  public SampleDeduplicator() {
+    this(DEFAULT_WINDOW, DEFAULT_MAX_SAMPLES);
+  }
+
+  /**
+   * Creates a new deduplicator.
+   * 
+   * @param window
+   *          the length of a window, in milliseconds. Duplicates arriving
+   *          within this time are always detected.
+   * @param maxSamples
+   *          the maximum number of samples remembered per window, which
+   *          bounds the memory used.
+   */
+  public SampleDeduplicator(final long window, final int maxSamples) {
+    if (window <= 0) {
+      throw new IllegalArgumentException("Window must be positive: " + window);
+    }
+    if (maxSamples < STRIPES) {
+      throw new IllegalArgumentException("Maximum samples must be at least "
+          + STRIPES + ": " + maxSamples);
+    }
+    this.windowNanos = TimeUnit.MILLISECONDS.toNanos(window);
+    this.maxPerStripe = (maxSamples + STRIPES - 1) / STRIPES;
+    // Keep the load factor at or below 1/2
+    int slots = Integer.highestOneBit(this.maxPerStripe * 2 - 1) << 1;
+    long now = System.nanoTime();
+    for (int i = 0; i < STRIPES; ++i) {
+      this.stripes[i] = new Stripe(slots, now);
+    }
+  }
+
+  /**
+   * Determines whether a sample with the same device identifier, receiver
+   * identifier and receiver timestamp was seen recently. If not, the sample
+   * is remembered.
+   * 
+   * @param sample
+   *          the sample to check.
+   * @return {@code true} if the sample is a duplicate, else {@code false}.
+   */
+  public boolean isDuplicate(final SampleMessage sample) {
+    byte[] device = sample.getDeviceId();
+    byte[] receiver = sample.getReceiverId();
+    return this.isDuplicate(toLong(device, 0), toLong(device, 8),
+        toLong(receiver, 0), toLong(receiver, 8),
+        sample.getReceiverTimeStamp());
+  }
+
+  /**
+   * Determines whether a sample with the given identifiers and receiver
+   * timestamp was seen recently. If not, the sample is remembered.
+   * 
+   * @param deviceHigh
+   *          the high 8 bytes of the device identifier.
+   * @param deviceLow
+   *          the low 8 bytes of the device identifier.
+   * @param receiverHigh
+   *          the high 8 bytes of the receiver identifier.
+   * @param receiverLow
+   *          the low 8 bytes of the receiver identifier.
+   * @param receiverTimeStamp
+   *          the receiver timestamp.
+   * @return {@code true} if the sample is a duplicate, else {@code false}.
+   */
+  public boolean isDuplicate(final long deviceHigh, final long deviceLow,
+      final long receiverHigh, final long receiverLow,
+      final long receiverTimeStamp) {
+    int hash = hash(deviceHigh, deviceLow, receiverHigh, receiverLow,
+        receiverTimeStamp);
+    Stripe stripe = this.stripes[(hash >>> 28) & (STRIPES - 1)];
+    synchronized (stripe) {
+      long[] key = stripe.key;
+      key[0] = deviceHigh;
+      key[1] = deviceLow;
+      key[2] = receiverHigh;
+      key[3] = receiverLow;
+      key[4] = receiverTimeStamp;
+
+      long now = System.nanoTime();
+      if (now - stripe.current.started >= this.windowNanos) {
+        this.rotate(stripe, now);
+      }
+      if (stripe.previous.occupied(stripe.previous.find(hash, key))) {
+        this.duplicates.incrementAndGet();
+        return true;
+      }
+      int slot = stripe.current.find(hash, key);
+      if (stripe.current.occupied(slot)) {
+        this.duplicates.incrementAndGet();
+        return true;
+      }
+      if (stripe.current.size >= this.maxPerStripe) {
+        this.rotate(stripe, now);
+        slot = stripe.current.find(hash, key);
+      }
+      stripe.current.put(slot, key);
+      return false;
+    }
+  }
+
+  /**
+   * Discards the previous generation of a stripe and starts a new current
+   * generation.
+   * 
+   * @param stripe
+   *          the stripe to rotate.
+   * @param now
+   *          the current time, from {@link System#nanoTime()}.
+   */
+  private void rotate(final Stripe stripe, final long now) {
+    Generation discarded = stripe.previous;
+    stripe.previous = stripe.current;
+    // A stripe that was idle for two windows forgets everything
+    if (now - stripe.previous.started >= 2 * this.windowNanos) {
+      stripe.previous.clear(now);
+    }
+    discarded.clear(now);
+    stripe.current = discarded;
+  }
+
+  /**
+   * Returns the number of duplicate samples detected.
+   * 
+   * @return the number of duplicates.
+   */
+  public long getDuplicateCount() {
+    return this.duplicates.get();
+  }
+
+  /**
+   * Reads 8 bytes of an identifier as a big-endian {@code long}.
+   * 
+   * @param id
+   *          the identifier, or {@code null}.
+   * @param offset
+   *          the index of the first byte.
+   * @return the value of the bytes, or 0 if {@code id} is too short.
+   */
+  private static long toLong(final byte[] id, final int offset) {
+    if (id == null || id.length < offset + 8) {
+      return 0;
+    }
+    long value = 0;
+    for (int i = offset; i < offset + 8; ++i) {
+      value = (value << 8) | (id[i] & 0xFF);
+    }
+    return value;
+  }
+
+  /**
+   * Hashes a sample key.
+   * 
+   * @param deviceHigh
+   *          the high 8 bytes of the device identifier.
+   * @param deviceLow
+   *          the low 8 bytes of the device identifier.
+   * @param receiverHigh
+   *          the high 8 bytes of the receiver identifier.
+   * @param receiverLow
+   *          the low 8 bytes of the receiver identifier.
+   * @param receiverTimeStamp
+   *          the receiver timestamp.
+   * @return the hash of the key.
+   */
+  private static int hash(final long deviceHigh, final long deviceLow,
+      final long receiverHigh, final long receiverLow,
+      final long receiverTimeStamp) {
+    long h = deviceHigh * 0x9E3779B97F4A7C15L;
+    h = (h ^ deviceLow) * 0x9E3779B97F4A7C15L;
+    h = (h ^ receiverHigh) * 0x9E3779B97F4A7C15L;
+    h = (h ^ receiverLow) * 0x9E3779B97F4A7C15L;
+    h = (h ^ receiverTimeStamp) * 0x9E3779B97F4A7C15L;
+    h ^= h >>> 32;
+    return (int) (h ^ (h >>> 16));
+  }
+
+  @Override
+  public String toString() {
+    return "Sample Deduplicator (" + this.duplicates.get() + " duplicates)";
+  }
+}
@@ -0,0 +1,633 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.solver.dispatch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.owlplatform.common.SampleMessage;
+import com.owlplatform.solver.SolverAggregatorInterface;
+import com.owlplatform.solver.listeners.SampleListener;
+import com.owlplatform.solver.protocol.messages.DeviceId;
+import com.owlplatform.solver.protocol.messages.Transmitter;
+import com.owlplatform.solver.rules.SubscriptionRequestRule;
+
+/**
+ * <p>
+ * Routes samples to the {@link SampleListener}s whose interest matches them.
+ * Interest is expressed with {@link SubscriptionRequestRule}s: a sample
+ * matches a rule if its physical layer matches the rule's physical layer (or
+ * the rule accepts all physical layers), and its device matches one of the
+ * rule's transmitters (or the rule has no transmitters).
+ * </p>
+ * 
+ * <p>
+ * Transmitters with an exact mask are found with a single hash lookup.
+ * Transmitters with other masks are grouped by mask, with one hash lookup per
+ * distinct mask. The cost of routing a sample therefore depends on the number
+ * of matching listeners and distinct masks, not on the number of registered
+ * listeners. Lookups use the two {@code long} halves of the identifier, and
+ * the listeners already passed a sample are tracked in a per-thread list, so
+ * routing doesn't create any objects. The index is rebuilt when listeners
+ * are added or removed, so routing never locks.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class SampleListenerIndex {
+
+  /**
+   * A listener's interest in a single physical layer.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  private static final class Entry {
+
+    /**
+     * The listener.
+     */
+    final SampleListener listener;
+
+    /**
+     * The physical layer of interest, or
+     * {@code SampleMessage.PHYSICAL_LAYER_ALL}.
+     */
+    final byte physicalLayer;
+
+    /**
+     * Creates a new entry.
+     * 
+     * @param listener
+     *          the listener.
+     * @param physicalLayer
+     *          the physical layer of interest.
+     */
+    Entry(final SampleListener listener, final byte physicalLayer) {
+      this.listener = listener;
+      this.physicalLayer = physicalLayer;
+    }
+
+    /**
+     * Determines whether this entry accepts a physical layer.
+     * 
+     * @param phy
+     *          the physical layer of a sample.
+     * @return {@code true} if this entry accepts the physical layer.
+     */
+    boolean accepts(final byte phy) {
+      return this.physicalLayer == SampleMessage.PHYSICAL_LAYER_ALL
+          || this.physicalLayer == phy;
+    }
+  }
+
+  /**
+   * An immutable open-addressing hash table of entries, keyed by the two
+   * halves of a device identifier.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  private static final class IdTable {
+
+    /**
+     * The keys, as a high and low value for each slot.
+     */
+    private final long[] keys;
+
+    /**
+     * The entries for each slot, or {@code null} for an empty slot.
+     */
+    private final Entry[][] values;
+
+    /**
+     * The number of keys in the table.
+     */
+    final int size;
+
+    /**
+     * Creates a new table containing the entries in {@code lists}.
+     * 
+     * @param lists
+     *          the entries for each identifier.
+     */
+    IdTable(final Map<DeviceId, List<Entry>> lists) {
+      int capacity = 2;
+      while (capacity < lists.size() * 2) {
+        capacity <<= 1;
+      }
+      this.keys = new long[capacity * 2];
+      this.values = new Entry[capacity][];
+      this.size = lists.size();
+      for (Map.Entry<DeviceId, List<Entry>> entry : lists.entrySet()) {
+        long high = entry.getKey().getHigh();
+        long low = entry.getKey().getLow();
+        int slot = DeviceId.hashCode(high, low) & (capacity - 1);
+        while (this.values[slot] != null) {
+          slot = (slot + 1) & (capacity - 1);
+        }
+        this.keys[slot * 2] = high;
+        this.keys[slot * 2 + 1] = low;
+        this.values[slot] = entry.getValue().toArray(NO_ENTRIES);
+      }
+    }
+
+    /**
+     * Returns the entries for an identifier.
+     * 
+     * @param high
+     *          the high 8 bytes of the identifier.
+     * @param low
+     *          the low 8 bytes of the identifier.
+     * @return the entries, or {@code null} if there are none.
+     */
+    Entry[] get(final long high, final long low) {
+      int mask = this.values.length - 1;
+      int slot = DeviceId.hashCode(high, low) & mask;
+      Entry[] entries;
+      while ((entries = this.values[slot]) != null) {
+        if (this.keys[slot * 2] == high && this.keys[slot * 2 + 1] == low) {
+          return entries;
+        }
+        slot = (slot + 1) & mask;
+      }
+      return null;
+    }
+  }
+
+  /**
+   * The listeners that have received a sample during a single dispatch.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  private static final class Delivered {
+
+    /**
+     * The listeners, in the order they received the sample.
+     */
+    private SampleListener[] listeners = new SampleListener[4];
+
+    /**
+     * The number of listeners that received the sample.
+     */
+    int count = 0;
+
+    /**
+     * Whether a dispatch on the owning thread is using this list.
+     */
+    boolean inUse = false;
+
+    /**
+     * Determines whether a listener already received the sample.
+     * 
+     * @param listener
+     *          the listener to find.
+     * @return {@code true} if the listener received the sample.
+     */
+    boolean contains(final SampleListener listener) {
+      for (int i = 0; i < this.count; ++i) {
+        if (this.listeners[i] == listener) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Records that a listener received the sample.
+     * 
+     * @param listener
+     *          the listener.
+     */
+    void add(final SampleListener listener) {
+      if (this.count == this.listeners.length) {
+        this.listeners = Arrays.copyOf(this.listeners, this.count * 2);
+      }
+      this.listeners[this.count++] = listener;
+    }
+
+    /**
+     * Empties the list so it can be used by the next dispatch, without
+     * holding on to the listeners.
+     */
+    void clear() {
+      Arrays.fill(this.listeners, 0, this.count, null);
+      this.count = 0;
+      this.inUse = false;
+    }
+  }
+
+  /**
+   * Entries for transmitters that share a mask, keyed by masked base ID.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  private static final class MaskGroup {
+
+    /**
+     * High 8 bytes of the mask.
+     */
+    final long maskHigh;
+
+    /**
+     * Low 8 bytes of the mask.
+     */
+    final long maskLow;
+
+    /**
+     * Entries keyed by masked base ID.
+     */
+    final IdTable entries;
+
+    /**
+     * Creates a new group for a mask.
+     * 
+     * @param maskHigh
+     *          high 8 bytes of the mask.
+     * @param maskLow
+     *          low 8 bytes of the mask.
+     * @param entries
+     *          entries keyed by masked base ID.
+     */
+    MaskGroup(final long maskHigh, final long maskLow, final IdTable entries) {
+      this.maskHigh = maskHigh;
+      this.maskLow = maskLow;
+      this.entries = entries;
+    }
+
+    /**
+     * Returns the entries for a device identifier, after applying the mask.
+     * 
+     * @param high
+     *          the high 8 bytes of the identifier.
+     * @param low
+     *          the low 8 bytes of the identifier.
+     * @return the entries, or {@code null} if there are none.
+     */
+    Entry[] get(final long high, final long low) {
+      return this.entries.get(high & this.maskHigh, low & this.maskLow);
+    }
+  }
+
+  /**
+   * An immutable view of all registrations, optimized for routing.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  private static final class Snapshot {
+
+    /**
+     * Entries for rules without transmitters.
+     */
+    final Entry[] wildcard;
+
+    /**
+     * Entries for transmitters with an exact mask, keyed by device ID.
+     */
+    final IdTable exact;
+
+    /**
+     * Entries for transmitters with other masks.
+     */
+    final MaskGroup[] masked;
+
+    /**
+     * Creates a new snapshot.
+     * 
+     * @param wildcard
+     *          entries for rules without transmitters.
+     * @param exact
+     *          entries for exact transmitters.
+     * @param masked
+     *          entries for masked transmitters.
+     */
+    Snapshot(final Entry[] wildcard, final IdTable exact,
+        final MaskGroup[] masked) {
+      this.wildcard = wildcard;
+      this.exact = exact;
+      this.masked = masked;
+    }
+  }
+
+  /**
+   * Empty array of entries.
+   */
+  private static final Entry[] NO_ENTRIES = new Entry[0];
+
+  /**
+   * Mask value for an exact match.
+   */
+  private static final long EXACT = -1L;
+
+  /**
+   * Listeners already passed the sample being dispatched on each thread.
+   */
+  private static final ThreadLocal<Delivered> DELIVERED = new ThreadLocal<Delivered>() {
+    @Override
+    protected Delivered initialValue() {
+      return new Delivered();
+    }
+  };
+
+  /**
+   * Registered listeners and their interest, in registration order.
+   */
+  private final Map<SampleListener, SubscriptionRequestRule[]> registrations = new LinkedHashMap<SampleListener, SubscriptionRequestRule[]>();
+
+  /**
+   * The current routing snapshot.
+   */
+  private volatile Snapshot snapshot = new Snapshot(NO_ENTRIES, new IdTable(
+      new HashMap<DeviceId, List<Entry>>()), new MaskGroup[0]);
+
+  /**
+   * Registers a listener for samples matching any of the rules in
+   * {@code interest}, replacing any interest it was previously registered
+   * with.
+   * 
+   * @param listener
+   *          the listener.
+   * @param interest
+   *          the rules describing the samples the listener is interested in.
+   */
+  public synchronized void add(final SampleListener listener,
+      final SubscriptionRequestRule... interest) {
+    if (listener == null) {
+      throw new IllegalArgumentException("Listener cannot be null.");
+    }
+    if (interest == null || interest.length == 0) {
+      throw new IllegalArgumentException(
+          "At least one rule is required to register interest.");
+    }
+    this.registrations.put(listener, interest.clone());
+    this.rebuild();
+  }
+
+  /**
+   * Unregisters a listener.
+   * 
+   * @param listener
+   *          the listener.
+   * @return {@code true} if the listener was registered.
+   */
+  public synchronized boolean remove(final SampleListener listener) {
+    if (this.registrations.remove(listener) == null) {
+      return false;
+    }
+    this.rebuild();
+    return true;
+  }
+
+  /**
+   * Returns {@code true} if no listeners are registered.
+   * 
+   * @return {@code true} if the index is empty.
+   */
+  public boolean isEmpty() {
+    Snapshot current = this.snapshot;
+    return current.wildcard.length == 0 && current.exact.size == 0
+        && current.masked.length == 0;
+  }
+
+  /**
+   * Passes {@code sample} to each listener whose interest matches it. Each
+   * listener is called at most once per sample.
+   * 
+   * @param aggregator
+   *          the aggregator passed to the listeners.
+   * @param sample
+   *          the sample to route.
+   * @return the number of listeners the sample was passed to.
+   */
+  public int dispatch(final SolverAggregatorInterface aggregator,
+      final SampleMessage sample) {
+    Snapshot current = this.snapshot;
+    byte phy = sample.getPhysicalLayer();
+    Delivered delivered = DELIVERED.get();
+    if (delivered.inUse) {
+      // A listener is dispatching another sample from within this dispatch
+      delivered = new Delivered();
+    }
+    delivered.inUse = true;
+    try {
+      deliver(aggregator, sample, phy, current.wildcard, delivered);
+
+      byte[] deviceId = sample.getDeviceId();
+      if (deviceId == null || deviceId.length != SampleMessage.DEVICE_ID_SIZE
+          || (current.exact.size == 0 && current.masked.length == 0)) {
+        return delivered.count;
+      }
+      long high = toLong(deviceId, 0);
+      long low = toLong(deviceId, 8);
+      Entry[] matched = current.exact.get(high, low);
+      if (matched != null) {
+        deliver(aggregator, sample, phy, matched, delivered);
+      }
+      for (MaskGroup group : current.masked) {
+        matched = group.get(high, low);
+        if (matched != null) {
+          deliver(aggregator, sample, phy, matched, delivered);
+        }
+      }
+      return delivered.count;
+    } finally {
+      delivered.clear();
+    }
+  }
+
+  /**
+   * Determines whether the interest of any registered listener matches a
+   * sample, without passing the sample to any listeners.
+   * 
+   * @param physicalLayer
+   *          the physical layer of the sample.
+   * @param deviceHigh
+   *          the high 8 bytes of the sample's device identifier.
+   * @param deviceLow
+   *          the low 8 bytes of the sample's device identifier.
+   * @return {@code true} if at least one listener is interested in the
+   *         sample.
+   */
+  public boolean matches(final byte physicalLayer, final long deviceHigh,
+      final long deviceLow) {
+    Snapshot current = this.snapshot;
+    if (accepts(current.wildcard, physicalLayer)) {
+      return true;
+    }
+    if (accepts(current.exact.get(deviceHigh, deviceLow), physicalLayer)) {
+      return true;
+    }
+    for (MaskGroup group : current.masked) {
+      if (accepts(group.get(deviceHigh, deviceLow), physicalLayer)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Determines whether the interest of any registered listener matches a
+   * sample, without passing the sample to any listeners.
+   * 
+   * @param sample
+   *          the sample to check.
+   * @return {@code true} if at least one listener is interested in the
+   *         sample.
+   */
+  public boolean matches(final SampleMessage sample) {
+    byte[] deviceId = sample.getDeviceId();
+    if (deviceId == null || deviceId.length != SampleMessage.DEVICE_ID_SIZE) {
+      return accepts(this.snapshot.wildcard, sample.getPhysicalLayer());
+    }
+    return this.matches(sample.getPhysicalLayer(), toLong(deviceId, 0),
+        toLong(deviceId, 8));
+  }
+
+  /**
+   * Determines whether any of {@code entries} accepts a physical layer.
+   * 
+   * @param entries
+   *          the entries to check, or {@code null}.
+   * @param phy
+   *          the physical layer of a sample.
+   * @return {@code true} if an entry accepts the physical layer.
+   */
+  private static boolean accepts(final Entry[] entries, final byte phy) {
+    if (entries == null) {
+      return false;
+    }
+    for (Entry entry : entries) {
+      if (entry.accepts(phy)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Passes a sample to the listeners of matching entries that have not
+   * already received it.
+   * 
+   * @param aggregator
+   *          the aggregator passed to the listeners.
+   * @param sample
+   *          the sample.
+   * @param phy
+   *          the physical layer of the sample.
+   * @param entries
+   *          the candidate entries.
+   * @param delivered
+   *          listeners that already received the sample.
+   */
+  private static void deliver(final SolverAggregatorInterface aggregator,
+      final SampleMessage sample, final byte phy, final Entry[] entries,
+      final Delivered delivered) {
+    for (Entry entry : entries) {
+      if (!entry.accepts(phy) || delivered.contains(entry.listener)) {
+        continue;
+      }
+      delivered.add(entry.listener);
+      entry.listener.sampleReceived(aggregator, sample);
+    }
+  }
+
+  /**
+   * Reads 8 bytes from {@code bytes} as a big-endian {@code long}.
+   * 
+   * @param bytes
+   *          the source array.
+   * @param offset
+   *          the index of the first byte.
+   * @return the {@code long} value.
+   */
+  private static long toLong(final byte[] bytes, final int offset) {
+    long value = 0;
+    for (int i = offset; i < offset + 8; ++i) {
+      value = (value << 8) | (bytes[i] & 0xFFL);
+    }
+    return value;
+  }
+
+  /**
+   * Rebuilds the routing snapshot from the registrations.
+   */
+  private void rebuild() {
+    List<Entry> wildcard = new ArrayList<Entry>();
+    Map<DeviceId, List<Entry>> exact = new HashMap<DeviceId, List<Entry>>();
+    Map<DeviceId, Map<DeviceId, List<Entry>>> masked = new LinkedHashMap<DeviceId, Map<DeviceId, List<Entry>>>();
+
+    for (Map.Entry<SampleListener, SubscriptionRequestRule[]> registration : this.registrations
+        .entrySet()) {
+      for (SubscriptionRequestRule rule : registration.getValue()) {
+        Entry entry = new Entry(registration.getKey(), rule.getPhysicalLayer());
+        Transmitter[] transmitters = rule.getTransmitters();
+        if (transmitters == null || transmitters.length == 0) {
+          wildcard.add(entry);
+          continue;
+        }
+        for (Transmitter transmitter : transmitters) {
+          DeviceId base = DeviceId.valueOf(transmitter.getBaseId());
+          DeviceId mask = DeviceId.valueOf(transmitter.getMask());
+          DeviceId key = new DeviceId(base.getHigh() & mask.getHigh(),
+              base.getLow() & mask.getLow());
+          Map<DeviceId, List<Entry>> target = exact;
+          if (mask.getHigh() != EXACT || mask.getLow() != EXACT) {
+            target = masked.get(mask);
+            if (target == null) {
+              target = new HashMap<DeviceId, List<Entry>>();
+              masked.put(mask, target);
+            }
+          }
+          List<Entry> entries = target.get(key);
+          if (entries == null) {
+            entries = new ArrayList<Entry>(1);
+            target.put(key, entries);
+          }
+          entries.add(entry);
+        }
+      }
+    }
+
+    MaskGroup[] groups = new MaskGroup[masked.size()];
+    int i = 0;
+    for (Map.Entry<DeviceId, Map<DeviceId, List<Entry>>> group : masked
+        .entrySet()) {
+      groups[i] = new MaskGroup(group.getKey().getHigh(), group.getKey()
+          .getLow(), new IdTable(group.getValue()));
+      ++i;
+    }
+    this.snapshot = new Snapshot(wildcard.toArray(NO_ENTRIES), new IdTable(
+        exact), groups);
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "Sample Listener Index (" + this.registrations.size()
+        + " listeners)";
+  }
+}
@@ -0,0 +1,301 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.solver.dispatch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.owlplatform.common.SampleMessage;
+import com.owlplatform.solver.SolverAggregatorInterface;
+import com.owlplatform.solver.buffer.OverflowPolicy;
+import com.owlplatform.solver.buffer.RingBuffer;
+import com.owlplatform.solver.listeners.SampleListener;
+
+/**
+ * <p>
+ * Isolates a slow {@link SampleListener} from the thread that receives
+ * samples. Each sample passed to {@link #sampleReceived} is placed in a
+ * bounded mailbox and the call returns immediately. A dedicated thread takes
+ * samples from the mailbox and passes them to the target listener in the
+ * order they arrived.
+ * </p>
+ * 
+ * <p>
+ * When the mailbox is full, the {@link OverflowPolicy} decides which sample
+ * is discarded. Each mailbox needs its own policy instance, since the policy
+ * counts the samples it discards. A blocking policy stalls the receiving
+ * thread, and so every other listener, until there is space.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class SampleMailbox implements SampleListener {
+
+  /**
+   * Default number of samples buffered in the mailbox.
+   */
+  public static final int DEFAULT_CAPACITY = 1024;
+
+  /**
+   * Maximum number of samples the mailbox thread takes at once.
+   */
+  private static final int BATCH_SIZE = 64;
+
+  /**
+   * Logger for this class.
+   */
+  private static final Logger log = LoggerFactory
+      .getLogger(SampleMailbox.class);
+
+  /**
+   * A sample waiting in the mailbox, with the aggregator it was received from.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  private static final class Delivery {
+
+    /**
+     * The aggregator the sample was received from.
+     */
+    final SolverAggregatorInterface aggregator;
+
+    /**
+     * The sample.
+     */
+    final SampleMessage sample;
+
+    /**
+     * Creates a new delivery.
+     * 
+     * @param aggregator
+     *          the aggregator the sample was received from.
+     * @param sample
+     *          the sample.
+     */
+    Delivery(final SolverAggregatorInterface aggregator,
+        final SampleMessage sample) {
+      this.aggregator = aggregator;
+      this.sample = sample;
+    }
+  }
+
+  /**
+   * Delivers samples from the mailbox to the target listener.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  private final class Worker implements Runnable {
+    @Override
+    public void run() {
+      List<Delivery> batch = new ArrayList<Delivery>(BATCH_SIZE);
+      try {
+        while (SampleMailbox.this.mailbox.takeAll(batch, BATCH_SIZE) > 0) {
+          for (Delivery delivery : batch) {
+            try {
+              SampleMailbox.this.target.sampleReceived(delivery.aggregator,
+                  delivery.sample);
+            } catch (RuntimeException re) {
+              log.error("Sample listener threw an exception.", re);
+            }
+            SampleMailbox.this.delivered.incrementAndGet();
+          }
+          batch.clear();
+        }
+      } catch (InterruptedException ie) {
+        log.warn("Interrupted while waiting for samples, {} undelivered.",
+            Integer.valueOf(SampleMailbox.this.mailbox.size()));
+      }
+    }
+  }
+
+  /**
+   * The listener that samples are delivered to.
+   */
+  final SampleListener target;
+
+  /**
+   * The buffered samples, each with the aggregator it was received from so
+   * that a mailbox registered with several aggregators passes the right one.
+   */
+  final RingBuffer<Delivery> mailbox;
+
+  /**
+   * Decides which sample to discard when the mailbox is full.
+   */
+  private final OverflowPolicy overflowPolicy;
+
+  /**
+   * Number of samples delivered to the target listener.
+   */
+  final AtomicLong delivered = new AtomicLong(0);
+
+  /**
+   * The thread that delivers samples.
+   */
+  private final Thread thread;
+
+  /**
+   * Whether the mailbox has been shut down.
+   */
+  private volatile boolean shutdown = false;
+
+  /**
+   * Creates and starts a new mailbox of {@link #DEFAULT_CAPACITY} samples
+   * that discards new samples when full.
+   * 
+   * @param target
+   *          the listener that samples are delivered to.
+   */
+  public SampleMailbox(final SampleListener target) {
+    this(target, DEFAULT_CAPACITY, OverflowPolicy.dropNewest());
+  }
+
+  /**
+   * Creates and starts a new mailbox.
+   * 
+   * @param target
+   *          the listener that samples are delivered to.
+   * @param capacity
+   *          the number of samples the mailbox can hold.
+   * @param overflowPolicy
+   *          decides which sample to discard when the mailbox is full.
+   */
+  public SampleMailbox(final SampleListener target, final int capacity,
+      final OverflowPolicy overflowPolicy) {
+    if (target == null) {
+      throw new IllegalArgumentException("Target listener cannot be null.");
+    }
+    if (overflowPolicy == null) {
+      throw new IllegalArgumentException("Overflow policy cannot be null.");
+    }
+    this.target = target;
+    this.mailbox = new RingBuffer<Delivery>(capacity);
+    this.overflowPolicy = overflowPolicy;
+    this.thread = new Thread(new Worker(), "Sample Mailbox ("
+        + target.getClass().getName() + ")");
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  /**
+   * Queues {@code sample} for delivery to the target listener, applying the
+   * overflow policy if the mailbox is full. Samples received after
+   * {@link #shutdown()} are discarded.
+   */
+  @Override
+  public void sampleReceived(final SolverAggregatorInterface aggregator,
+      final SampleMessage sample) {
+    if (this.shutdown) {
+      return;
+    }
+    this.overflowPolicy.offer(this.mailbox, new Delivery(aggregator, sample));
+  }
+
+  /**
+   * Returns the listener that samples are delivered to.
+   * 
+   * @return the target listener.
+   */
+  public SampleListener getTarget() {
+    return this.target;
+  }
+
+  /**
+   * Returns the overflow policy of the mailbox.
+   * 
+   * @return the overflow policy.
+   */
+  public OverflowPolicy getOverflowPolicy() {
+    return this.overflowPolicy;
+  }
+
+  /**
+   * Returns the number of samples the mailbox can hold.
+   * 
+   * @return the capacity of the mailbox.
+   */
+  public int getCapacity() {
+    return this.mailbox.capacity();
+  }
+
+  /**
+   * Returns the number of samples waiting in the mailbox.
+   * 
+   * @return the number of undelivered samples.
+   */
+  public int getPendingCount() {
+    return this.mailbox.size();
+  }
+
+  /**
+   * Returns the number of samples delivered to the target listener.
+   * 
+   * @return the number of delivered samples.
+   */
+  public long getDeliveredCount() {
+    return this.delivered.get();
+  }
+
+  /**
+   * Returns the number of samples discarded because the mailbox was full.
+   * 
+   * @return the number of dropped samples.
+   */
+  public long getDroppedCount() {
+    return this.overflowPolicy.getDiscardedCount();
+  }
+
+  /**
+   * Stops accepting samples. The mailbox thread delivers the samples already
+   * in the mailbox and then exits.
+   */
+  public void shutdown() {
+    this.shutdown = true;
+    this.mailbox.close();
+  }
+
+  /**
+   * Waits for the mailbox thread to exit after {@link #shutdown()}.
+   * 
+   * @param timeout
+   *          how long to wait, in milliseconds, or 0 to wait indefinitely.
+   * @return {@code true} if the thread exited, else {@code false}.
+   * @throws InterruptedException
+   *           if the thread is interrupted while waiting.
+   */
+  public boolean awaitTermination(final long timeout)
+      throws InterruptedException {
+    this.thread.join(timeout);
+    return !this.thread.isAlive();
+  }
+
+  @Override
+  public String toString() {
+    return "Sample Mailbox (" + this.target + ", " + this.mailbox.size() + "/"
+        + this.mailbox.capacity() + ", " + this.overflowPolicy + ")";
+  }
+}
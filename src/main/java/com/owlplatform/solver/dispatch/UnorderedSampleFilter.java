@@ -0,0 +1,183 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.dispatch;
+
+import java.util.concurrent.Executor;
+
+import org.apache.mina.core.filterchain.IoFilterEvent;
+import org.apache.mina.core.session.IoEventType;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.executor.ExecutorFilter;
+
+import com.owlplatform.common.SampleMessage;
+import com.owlplatform.solver.protocol.messages.SampleBatch;
+
+/**
+ * <p>
+ * Passes received samples to an unordered thread pool, while every other
+ * event is handled in order on the IO processor thread. The handshake and
+ * subscription messages drive the connection's protocol state, so they must
+ * never run concurrently or out of order, even when sample listeners do.
+ * </p>
+ * 
+ * <p>
+ * A session's closed event is held back until the samples already passed to
+ * the pool for that session have been delivered, so listeners never see
+ * samples after the connection has ended.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class UnorderedSampleFilter extends ExecutorFilter {
+
+  /**
+   * Session attribute key for the {@link SessionState} of a session.
+   */
+  private static final String STATE_KEY = UnorderedSampleFilter.class
+      .getName() + ".STATE";
+
+  /**
+   * Samples of a session that are waiting in or running on the pool.
+   */
+  private static final class SessionState {
+    /**
+     * Number of sample events not yet delivered. Guarded by this.
+     */
+    int pending = 0;
+
+    /**
+     * The closed event held back until {@link #pending} is 0, or
+     * {@code null}. Guarded by this.
+     */
+    IoFilterEvent closed = null;
+
+    /**
+     * Records that a sample event was delivered, and returns the closed
+     * event if it may now be fired.
+     * 
+     * @return the closed event to fire, or {@code null}.
+     */
+    synchronized IoFilterEvent delivered() {
+      if (--this.pending > 0) {
+        return null;
+      }
+      IoFilterEvent event = this.closed;
+      this.closed = null;
+      return event;
+    }
+  }
+
+  /**
+   * A sample event that updates its session's state once it is delivered.
+   */
+  private static final class SampleEvent extends IoFilterEvent {
+    /**
+     * The state of the event's session.
+     */
+    private final SessionState state;
+
+    /**
+     * Creates a new sample event.
+     * 
+     * @param event
+     *          the received event.
+     * @param state
+     *          the state of the event's session.
+     */
+    SampleEvent(final IoFilterEvent event, final SessionState state) {
+      super(event.getNextFilter(), event.getType(), event.getSession(), event
+          .getParameter());
+      this.state = state;
+    }
+
+    @Override
+    public void fire() {
+      try {
+        super.fire();
+      } finally {
+        this.delivered();
+      }
+    }
+
+    /**
+     * Records that this event was delivered or will never be, firing the
+     * session's closed event if it was waiting for this one.
+     */
+    void delivered() {
+      IoFilterEvent closed = this.state.delivered();
+      if (closed != null) {
+        closed.fire();
+      }
+    }
+  }
+
+  /**
+   * Creates a new filter.
+   * 
+   * @param executor
+   *          the pool that delivers samples.
+   */
+  public UnorderedSampleFilter(final Executor executor) {
+    super(executor, IoEventType.MESSAGE_RECEIVED, IoEventType.SESSION_CLOSED);
+  }
+
+  @Override
+  protected void fireEvent(final IoFilterEvent event) {
+    IoSession session = event.getSession();
+    if (event.getType() == IoEventType.SESSION_CLOSED) {
+      SessionState state = (SessionState) session.getAttribute(STATE_KEY);
+      if (state != null) {
+        synchronized (state) {
+          if (state.pending > 0) {
+            state.closed = event;
+            return;
+          }
+        }
+      }
+      event.fire();
+      return;
+    }
+
+    Object message = event.getParameter();
+    if (!(message instanceof SampleMessage || message instanceof SampleBatch)) {
+      event.fire();
+      return;
+    }
+    SessionState state = (SessionState) session.getAttribute(STATE_KEY);
+    if (state == null) {
+      state = new SessionState();
+      SessionState existing = (SessionState) session.setAttributeIfAbsent(
+          STATE_KEY, state);
+      if (existing != null) {
+        state = existing;
+      }
+    }
+    synchronized (state) {
+      ++state.pending;
+    }
+    SampleEvent sampleEvent = new SampleEvent(event, state);
+    try {
+      super.fireEvent(sampleEvent);
+    } catch (RuntimeException re) {
+      sampleEvent.delivered();
+      throw re;
+    }
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.solver.flow;
+
+/**
+ * A producer of items that are delivered to {@link Subscriber}s according to
+ * the demand they signal. Mirrors {@code java.util.concurrent.Flow.Publisher},
+ * which is not available on the Java versions supported by this library, and
+ * can be adapted to it or to Reactive Streams with a trivial wrapper.
+ * 
+ * @author Robert Moore
+ * 
+ * @param <T>
+ *          the type of item published.
+ */
+public interface Publisher<T> {
+
+  /**
+   * Adds a subscriber. The subscriber's {@link Subscriber#onSubscribe}
+   * method is called with a new {@link Subscription} before any items are
+   * delivered.
+   * 
+   * @param subscriber
+   *          the subscriber to add.
+   */
+  public void subscribe(Subscriber<? super T> subscriber);
+}
@@ -0,0 +1,512 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.solver.flow;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.mina.core.session.IoSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.owlplatform.common.SampleMessage;
+import com.owlplatform.solver.ReadSuspension;
+import com.owlplatform.solver.SolverAggregatorInterface;
+import com.owlplatform.solver.buffer.RingBuffer;
+import com.owlplatform.solver.listeners.ConnectionListener;
+import com.owlplatform.solver.listeners.SampleListener;
+import com.owlplatform.solver.protocol.messages.SubscriptionMessage;
+
+/**
+ * <p>
+ * Publishes the samples received by a {@link SolverAggregatorInterface} to
+ * subscribers, honoring the demand each subscriber signals through
+ * {@link Subscription#request(long)}.
+ * </p>
+ * 
+ * <p>
+ * Each subscriber has a bounded buffer for samples that arrived before it
+ * requested them. When any subscriber's buffer is half full, reads from the
+ * aggregator are suspended so that TCP flow control throttles the aggregator
+ * instead of samples being dropped. Reads resume once every subscriber has
+ * requested enough samples to bring its buffer down to a quarter full. If a
+ * buffer still fills up, new samples for that subscriber are discarded and
+ * counted by {@link #getDroppedCount()}. The thread delivering samples is
+ * shared with other listeners and connections, so it never waits for a
+ * subscriber.
+ * </p>
+ * 
+ * <p>
+ * Subscribers receive {@link Subscriber#onComplete()} when the connection to
+ * the aggregator ends and will not be reestablished.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class SamplePublisher implements Publisher<SampleMessage> {
+
+  /**
+   * Default number of samples buffered for each subscriber.
+   */
+  public static final int DEFAULT_BUFFER_SIZE = 1024;
+
+  /**
+   * Logger for this class.
+   */
+  private static final Logger log = LoggerFactory
+      .getLogger(SamplePublisher.class);
+
+  /**
+   * Private class to hide listener methods from users of the publisher.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  private static final class Handler implements SampleListener,
+      ConnectionListener {
+
+    /**
+     * The publisher that handles the events.
+     */
+    private final SamplePublisher parent;
+
+    /**
+     * Creates a new handler for the specified publisher.
+     * 
+     * @param parent
+     *          the publisher that handles the events.
+     */
+    Handler(final SamplePublisher parent) {
+      this.parent = parent;
+    }
+
+    @Override
+    public void sampleReceived(SolverAggregatorInterface aggregator,
+        SampleMessage sample) {
+      this.parent.publish(sample);
+    }
+
+    @Override
+    public void connectionEnded(SolverAggregatorInterface aggregator) {
+      this.parent.complete();
+    }
+
+    @Override
+    public void connectionEstablished(SolverAggregatorInterface aggregator) {
+      this.parent.sessionEstablished();
+    }
+
+    @Override
+    public void connectionInterrupted(SolverAggregatorInterface aggregator) {
+      // Subscribers continue after reconnecting
+    }
+
+    @Override
+    public void subscriptionReceived(SolverAggregatorInterface aggregator,
+        SubscriptionMessage response) {
+      // Ignored
+    }
+  }
+
+  /**
+   * The subscription of a single subscriber, holding the samples it has not
+   * yet requested.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  final class SampleSubscription implements Subscription {
+
+    /**
+     * The subscriber.
+     */
+    private final Subscriber<? super SampleMessage> subscriber;
+
+    /**
+     * Samples not yet delivered to the subscriber.
+     */
+    final RingBuffer<SampleMessage> queue;
+
+    /**
+     * Outstanding demand of the subscriber.
+     */
+    private final AtomicLong requested = new AtomicLong(0);
+
+    /**
+     * Number of pending requests to run {@link #drain()}. Only the thread
+     * that increments this from 0 delivers samples, so the subscriber is
+     * never called concurrently.
+     */
+    private final AtomicInteger wip = new AtomicInteger(0);
+
+    /**
+     * Whether the subscription was cancelled or has terminated.
+     */
+    private volatile boolean cancelled = false;
+
+    /**
+     * Whether no more samples will be published.
+     */
+    private volatile boolean completed = false;
+
+    /**
+     * Error to deliver once buffered samples are delivered.
+     */
+    private volatile Throwable error = null;
+
+    /**
+     * Whether this subscription's buffer is holding reads suspended. Only
+     * changed while holding the publisher's lock.
+     */
+    volatile boolean saturated = false;
+
+    /**
+     * Creates a new subscription.
+     * 
+     * @param subscriber
+     *          the subscriber.
+     */
+    SampleSubscription(final Subscriber<? super SampleMessage> subscriber) {
+      this.subscriber = subscriber;
+      this.queue = new RingBuffer<SampleMessage>(SamplePublisher.this.bufferSize);
+    }
+
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        this.error = new IllegalArgumentException(
+            "Subscribers must request a positive number of samples: " + n);
+      } else {
+        long current;
+        long next;
+        do {
+          current = this.requested.get();
+          next = current + n;
+          if (next < 0) {
+            next = Long.MAX_VALUE;
+          }
+        } while (!this.requested.compareAndSet(current, next));
+      }
+      this.drain();
+    }
+
+    @Override
+    public void cancel() {
+      this.cancelled = true;
+      SamplePublisher.this.remove(this);
+    }
+
+    /**
+     * Buffers a sample for the subscriber, discarding it if the buffer is
+     * full.
+     * 
+     * @param sample
+     *          the sample to buffer.
+     */
+    void offer(final SampleMessage sample) {
+      if (!this.cancelled && !this.completed && !this.queue.offer(sample)) {
+        SamplePublisher.this.droppedCount.incrementAndGet();
+      }
+      SamplePublisher.this.updateSaturation(this);
+      this.drain();
+    }
+
+    /**
+     * Marks the subscription completed, delivering
+     * {@link Subscriber#onComplete()} once buffered samples are delivered.
+     */
+    void complete() {
+      this.completed = true;
+      this.drain();
+    }
+
+    /**
+     * Delivers as many buffered samples as the subscriber has requested.
+     */
+    void drain() {
+      if (this.wip.getAndIncrement() != 0) {
+        return;
+      }
+      int missed = 1;
+      do {
+        long demand = this.requested.get();
+        long emitted = 0;
+        while (emitted != demand && !this.cancelled) {
+          SampleMessage sample = this.queue.poll();
+          if (sample == null) {
+            break;
+          }
+          try {
+            this.subscriber.onNext(sample);
+          } catch (RuntimeException re) {
+            log.warn("Subscriber " + this.subscriber
+                + " threw an exception and was cancelled.", re);
+            this.cancel();
+            return;
+          }
+          ++emitted;
+        }
+        if (this.cancelled) {
+          return;
+        }
+
+        Throwable failure = this.error;
+        if (failure != null || (this.completed && this.queue.isEmpty())) {
+          this.cancelled = true;
+          SamplePublisher.this.remove(this);
+          if (failure != null) {
+            this.subscriber.onError(failure);
+          } else {
+            this.subscriber.onComplete();
+          }
+          return;
+        }
+
+        if (emitted != 0) {
+          if (demand != Long.MAX_VALUE) {
+            this.requested.addAndGet(-emitted);
+          }
+          SamplePublisher.this.updateSaturation(this);
+        }
+        missed = this.wip.addAndGet(-missed);
+      } while (missed != 0);
+    }
+  }
+
+  /**
+   * The aggregator whose samples are published.
+   */
+  private final SolverAggregatorInterface aggregator;
+
+  /**
+   * Number of samples buffered for each subscriber.
+   */
+  final int bufferSize;
+
+  /**
+   * Buffer size at which a subscriber causes reads to be suspended.
+   */
+  private final int highWatermark;
+
+  /**
+   * Buffer size at which a subscriber no longer holds reads suspended.
+   */
+  private final int lowWatermark;
+
+  /**
+   * The current subscriptions.
+   */
+  private final CopyOnWriteArrayList<SampleSubscription> subscriptions = new CopyOnWriteArrayList<SampleSubscription>();
+
+  /**
+   * Number of subscriptions whose buffers are holding reads suspended.
+   * Guarded by this publisher's lock.
+   */
+  private int saturatedCount = 0;
+
+  /**
+   * Whether reads from the aggregator are suspended.
+   */
+  private volatile boolean readSuspended = false;
+
+  /**
+   * Number of samples discarded because a subscriber's buffer was full.
+   */
+  final AtomicLong droppedCount = new AtomicLong(0);
+
+  /**
+   * Creates a new publisher for the samples received by {@code aggregator},
+   * buffering up to {@link #DEFAULT_BUFFER_SIZE} samples per subscriber.
+   * 
+   * @param aggregator
+   *          the aggregator whose samples are published.
+   */
+  public SamplePublisher(final SolverAggregatorInterface aggregator) {
+    this(aggregator, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Creates a new publisher for the samples received by {@code aggregator}.
+   * 
+   * @param aggregator
+   *          the aggregator whose samples are published.
+   * @param bufferSize
+   *          the number of samples buffered for each subscriber, at least 4.
+   */
+  public SamplePublisher(final SolverAggregatorInterface aggregator,
+      final int bufferSize) {
+    if (bufferSize < 4) {
+      throw new IllegalArgumentException(
+          "Subscriber buffer size must be at least 4: " + bufferSize);
+    }
+    this.aggregator = aggregator;
+    this.bufferSize = bufferSize;
+    this.highWatermark = bufferSize / 2;
+    this.lowWatermark = bufferSize / 4;
+    Handler handler = new Handler(this);
+    aggregator.addSampleListener(handler);
+    aggregator.addConnectionListener(handler);
+  }
+
+  @Override
+  public void subscribe(final Subscriber<? super SampleMessage> subscriber) {
+    if (subscriber == null) {
+      throw new NullPointerException("Subscriber cannot be null.");
+    }
+    SampleSubscription subscription = new SampleSubscription(subscriber);
+    subscriber.onSubscribe(subscription);
+    this.subscriptions.add(subscription);
+  }
+
+  /**
+   * Returns the number of current subscribers.
+   * 
+   * @return the number of subscribers.
+   */
+  public int getSubscriberCount() {
+    return this.subscriptions.size();
+  }
+
+  /**
+   * Returns {@code true} if reads from the aggregator are suspended because
+   * a subscriber has not requested enough samples.
+   * 
+   * @return {@code true} if reads are suspended, else {@code false}.
+   */
+  public boolean isReadSuspended() {
+    return this.readSuspended;
+  }
+
+  /**
+   * Returns the number of samples discarded because a subscriber's buffer
+   * was full. A sample discarded for several subscribers is counted once for
+   * each of them.
+   * 
+   * @return the number of discarded samples.
+   */
+  public long getDroppedCount() {
+    return this.droppedCount.get();
+  }
+
+  /**
+   * Buffers a sample for every subscriber and delivers it to those that have
+   * requested it.
+   * 
+   * @param sample
+   *          the sample to publish.
+   */
+  void publish(final SampleMessage sample) {
+    for (SampleSubscription subscription : this.subscriptions) {
+      subscription.offer(sample);
+    }
+  }
+
+  /**
+   * Completes all current subscriptions.
+   */
+  void complete() {
+    for (SampleSubscription subscription : this.subscriptions) {
+      subscription.complete();
+    }
+  }
+
+  /**
+   * Removes a terminated subscription, releasing any suspension it held.
+   * 
+   * @param subscription
+   *          the subscription to remove.
+   */
+  void remove(final SampleSubscription subscription) {
+    this.subscriptions.remove(subscription);
+    synchronized (this) {
+      if (subscription.saturated) {
+        subscription.saturated = false;
+        --this.saturatedCount;
+        this.applyReadState();
+      }
+    }
+  }
+
+  /**
+   * Suspends reads on a newly-established session if any subscriber's buffer
+   * is saturated.
+   */
+  synchronized void sessionEstablished() {
+    this.readSuspended = false;
+    this.applyReadState();
+  }
+
+  /**
+   * Updates whether {@code subscription} is holding reads suspended, based on
+   * the size of its buffer. The size is checked again after each change, so
+   * the state can't be left stale by a concurrent delivery.
+   * 
+   * @param subscription
+   *          the subscription to update.
+   */
+  void updateSaturation(final SampleSubscription subscription) {
+    for (;;) {
+      int size = subscription.queue.size();
+      boolean saturate = subscription.saturated ? size > this.lowWatermark
+          : size >= this.highWatermark;
+      if (saturate == subscription.saturated || subscription.cancelled) {
+        return;
+      }
+      synchronized (this) {
+        if (subscription.saturated != saturate && !subscription.cancelled) {
+          subscription.saturated = saturate;
+          this.saturatedCount += saturate ? 1 : -1;
+          this.applyReadState();
+        }
+      }
+    }
+  }
+
+  /**
+   * Suspends or resumes reads to match the number of saturated
+   * subscriptions. Must be called while holding this publisher's lock.
+   */
+  private void applyReadState() {
+    boolean suspend = this.saturatedCount > 0;
+    if (suspend == this.readSuspended) {
+      return;
+    }
+    this.readSuspended = suspend;
+    IoSession session = this.aggregator.getSession();
+    if (session == null) {
+      return;
+    }
+    if (suspend) {
+      ReadSuspension.suspend(session, this);
+      log.debug("Suspended reads from {} for a slow subscriber.",
+          this.aggregator);
+    } else {
+      ReadSuspension.resume(session, this);
+      log.debug("Released suspended reads from {}.", this.aggregator);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "Sample Publisher (" + this.subscriptions.size() + " subscribers)";
+  }
+}
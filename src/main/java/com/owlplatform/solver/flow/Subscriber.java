@@ -0,0 +1,65 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.solver.flow;
+
+/**
+ * A receiver of items from a {@link Publisher}. Mirrors
+ * {@code java.util.concurrent.Flow.Subscriber}. Calls to a subscriber are
+ * never made concurrently, but may be made from different threads.
+ * 
+ * @author Robert Moore
+ * 
+ * @param <T>
+ *          the type of item received.
+ */
+public interface Subscriber<T> {
+
+  /**
+   * Called once, before any other method, with the subscription that
+   * controls delivery to this subscriber. No items are delivered until
+   * {@link Subscription#request(long)} is called.
+   * 
+   * @param subscription
+   *          the new subscription.
+   */
+  public void onSubscribe(Subscription subscription);
+
+  /**
+   * Called with the next item, at most as many times as items were
+   * requested.
+   * 
+   * @param item
+   *          the next item.
+   */
+  public void onNext(T item);
+
+  /**
+   * Called when the subscription fails. No further calls are made.
+   * 
+   * @param throwable
+   *          the cause of the failure.
+   */
+  public void onError(Throwable throwable);
+
+  /**
+   * Called when no more items will be delivered. No further calls are made.
+   */
+  public void onComplete();
+}
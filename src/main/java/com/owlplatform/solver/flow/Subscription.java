@@ -0,0 +1,45 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.solver.flow;
+
+/**
+ * Controls the delivery of items from a {@link Publisher} to a single
+ * {@link Subscriber}. Mirrors {@code java.util.concurrent.Flow.Subscription}.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public interface Subscription {
+
+  /**
+   * Adds {@code n} items to the demand of the subscriber. Demand of
+   * {@code Long.MAX_VALUE} or more is treated as unbounded.
+   * 
+   * @param n
+   *          the number of additional items requested; must be positive.
+   */
+  public void request(long n);
+
+  /**
+   * Stops delivery of items to the subscriber. Some items may still be
+   * delivered after this method is called.
+   */
+  public void cancel();
+}
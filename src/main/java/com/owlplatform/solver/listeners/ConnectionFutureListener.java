@@ -0,0 +1,42 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.solver.listeners;
+
+import com.owlplatform.solver.ConnectionFuture;
+
+/**
+ * Implementing classes will be notified when an asynchronous connection
+ * attempt to an aggregator completes.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public interface ConnectionFutureListener {
+
+  /**
+   * Called once when the connection attempt succeeds or fails. If the
+   * attempt had already completed when the listener was added, this method
+   * is called immediately by the thread that added it.
+   * 
+   * @param future
+   *          the completed connection attempt.
+   */
+  public void connectionCompleted(ConnectionFuture future);
+}
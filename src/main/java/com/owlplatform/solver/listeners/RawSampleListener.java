@@ -0,0 +1,67 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.solver.listeners;
+
+import java.nio.ByteBuffer;
+
+import com.owlplatform.solver.SolverAggregatorInterface;
+
+/**
+ * Implementing classes will respond to the arrival of Sample messages from the
+ * aggregator with the sample's fields passed as primitive values, so that no
+ * objects are created for each sample.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public interface RawSampleListener {
+
+  /**
+   * Called each time a Sample message is decoded while raw samples are
+   * enabled. This method is invoked on the IO thread that decoded the sample,
+   * so it should return quickly. Identifiers are passed as their high and low
+   * 8 bytes, in network byte order.
+   * 
+   * @param aggregator
+   *          the aggregator the sample was received from.
+   * @param physicalLayer
+   *          the physical layer identifier.
+   * @param deviceHigh
+   *          the high 8 bytes of the device identifier.
+   * @param deviceLow
+   *          the low 8 bytes of the device identifier.
+   * @param receiverHigh
+   *          the high 8 bytes of the receiver identifier.
+   * @param receiverLow
+   *          the low 8 bytes of the receiver identifier.
+   * @param receiverTimeStamp
+   *          the timestamp assigned by the receiver.
+   * @param rssi
+   *          the received signal strength.
+   * @param sensedData
+   *          a read-only buffer whose remaining bytes are the sensed data,
+   *          possibly none. It is reused for the next sample and is only
+   *          valid until this method returns.
+   */
+  public void sampleReceived(SolverAggregatorInterface aggregator,
+      byte physicalLayer, long deviceHigh, long deviceLow, long receiverHigh,
+      long receiverLow, long receiverTimeStamp, float rssi,
+      ByteBuffer sensedData);
+}
@@ -0,0 +1,45 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.solver.listeners;
+
+import com.owlplatform.solver.SolverAggregatorInterface;
+import com.owlplatform.solver.protocol.messages.SampleBatch;
+
+/**
+ * Implementing classes will respond to the arrival of batches of Sample
+ * messages from the aggregator.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public interface SampleBatchListener {
+
+  /**
+   * Called each time a batch of samples is decoded while batch decoding is
+   * enabled. Each batch contains all of the complete samples from a single
+   * read of the connection. Calls may be invoked within different threads, so
+   * any code executed within the method body should be thread-safe.
+   * 
+   * @param aggregator
+   * @param batch
+   */
+  public void sampleBatchReceived(SolverAggregatorInterface aggregator,
+      SampleBatch batch);
+}
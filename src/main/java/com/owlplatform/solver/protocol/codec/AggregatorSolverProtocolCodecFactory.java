@@ -19,14 +19,25 @@
 
 package com.owlplatform.solver.protocol.codec;
 
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.codec.ProtocolDecoder;
 import org.apache.mina.filter.codec.demux.DemuxingProtocolCodecFactory;
+import org.apache.mina.filter.codec.demux.MessageDecoder;
+import org.apache.mina.filter.codec.demux.MessageDecoderFactory;
 
 import com.owlplatform.common.SampleMessage;
+import com.owlplatform.solver.protocol.messages.DeviceIdCache;
 import com.owlplatform.solver.protocol.messages.HandshakeMessage;
 import com.owlplatform.solver.protocol.messages.SubscriptionMessage;
+import com.owlplatform.solver.rules.SampleFilter;
 
 /**
- * Factory for generating Solver-Aggregator protocol codecs.
+ * Factory for generating Solver-Aggregator protocol codecs. By default, each
+ * session is decoded by an {@link AggregatorSolverProtocolDecoder}. In
+ * compatibility mode, the individual message decoders are selected by
+ * MINA's demultiplexing decoder instead.
  * 
  * @author Robert Moore
  * 
@@ -34,11 +45,94 @@ import com.owlplatform.solver.protocol.messages.SubscriptionMessage;
 public class AggregatorSolverProtocolCodecFactory extends
     DemuxingProtocolCodecFactory {
 
+  /**
+   * Creates a new {@code SampleDecoder} for each session that uses the options
+   * of the enclosing factory.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  private static final class SampleDecoderFactory implements
+      MessageDecoderFactory {
+    /**
+     * The factory whose options are used by the decoders.
+     */
+    private final AggregatorSolverProtocolCodecFactory parent;
+
+    /**
+     * Creates a new decoder factory for the specified codec factory.
+     * 
+     * @param parent
+     *          the codec factory.
+     */
+    public SampleDecoderFactory(AggregatorSolverProtocolCodecFactory parent) {
+      this.parent = parent;
+    }
+
+    @Override
+    public MessageDecoder getDecoder() throws Exception {
+      return new SampleDecoder(this.parent);
+    }
+  }
+
   /**
    * Codec name for inserting into filter chains.
    */
   public static final String CODEC_NAME = "Owl Platform Aggregator-Solver codec";
 
+  /**
+   * Session attribute key for the per-session decoder.
+   */
+  public static final String DECODER_KEY = AggregatorSolverProtocolCodecFactory.class
+      .getName() + ".DECODER";
+
+  /**
+   * {@code true} if this factory is for an aggregator, or {@code false} for
+   * solvers.
+   */
+  private final boolean isServer;
+
+  /**
+   * {@code true} if the demultiplexing message decoders should be used instead
+   * of the single-pass decoder.
+   */
+  private final boolean compatibilityMode;
+
+  /**
+   * Handler for flyweight samples, or {@code null} if samples should be
+   * decoded into {@code SampleMessage} objects.
+   */
+  private volatile SampleViewHandler sampleViewHandler = null;
+
+  /**
+   * Handler for raw samples, or {@code null} if samples should not be passed
+   * as primitive values.
+   */
+  private volatile RawSampleHandler rawSampleHandler = null;
+
+  /**
+   * Whether consecutive samples should be decoded into a single
+   * {@code SampleBatch}.
+   */
+  private volatile boolean batchSamples = false;
+
+  /**
+   * Filter applied to samples before they are decoded, or {@code null} to
+   * decode all samples.
+   */
+  private volatile SampleFilter sampleFilter = null;
+
+  /**
+   * The number of samples rejected by {@link #sampleFilter}.
+   */
+  private final AtomicLong filteredSamples = new AtomicLong(0);
+
+  /**
+   * Cache used to intern device and receiver identifiers of decoded samples,
+   * or {@code null} to copy them into new arrays.
+   */
+  private volatile DeviceIdCache deviceIdCache = null;
+
   /**
    * Creates a new protocol codec factory for either a solver or aggregator.
    * 
@@ -47,7 +141,25 @@ public class AggregatorSolverProtocolCodecFactory extends
    *          or {@code false} for solvers.
    */
   public AggregatorSolverProtocolCodecFactory(boolean isServer) {
+    this(isServer, false);
+  }
+
+  /**
+   * Creates a new protocol codec factory for either a solver or aggregator.
+   * 
+   * @param isServer
+   *          {@code true} if this protocol codec factory is for an aggregator,
+   *          or {@code false} for solvers.
+   * @param compatibilityMode
+   *          {@code true} to decode messages using the demultiplexing message
+   *          decoders, or {@code false} to use the single-pass
+   *          {@link AggregatorSolverProtocolDecoder}.
+   */
+  public AggregatorSolverProtocolCodecFactory(boolean isServer,
+      boolean compatibilityMode) {
     super();
+    this.isServer = isServer;
+    this.compatibilityMode = compatibilityMode;
     if (isServer) {
       super.addMessageEncoder(HandshakeMessage.class, HandshakeEncoder.class);
       super.addMessageEncoder(SubscriptionMessage.class,
@@ -63,7 +175,164 @@ public class AggregatorSolverProtocolCodecFactory extends
 
       super.addMessageDecoder(SubscriptionMessageDecoder.class);
       super.addMessageDecoder(HandshakeDecoder.class);
-      super.addMessageDecoder(SampleDecoder.class);
+      super.addMessageDecoder(new SampleDecoderFactory(this));
+    }
+  }
+
+  @Override
+  public ProtocolDecoder getDecoder(IoSession session) throws Exception {
+    if (this.compatibilityMode) {
+      return super.getDecoder(session);
+    }
+    ProtocolDecoder decoder = (ProtocolDecoder) session
+        .getAttribute(DECODER_KEY);
+    if (decoder == null) {
+      decoder = new AggregatorSolverProtocolDecoder(this.isServer, this);
+      ProtocolDecoder existing = (ProtocolDecoder) session.setAttributeIfAbsent(
+          DECODER_KEY, decoder);
+      if (existing != null) {
+        decoder = existing;
+      }
     }
+    return decoder;
+  }
+
+  /**
+   * Indicates whether this factory decodes messages using the demultiplexing
+   * message decoders.
+   * 
+   * @return {@code true} if compatibility mode is in use, else {@code false}.
+   */
+  public boolean isCompatibilityMode() {
+    return this.compatibilityMode;
+  }
+
+  /**
+   * Returns the handler for flyweight samples.
+   * 
+   * @return the handler for flyweight samples, or {@code null} if samples are
+   *         decoded into {@code SampleMessage} objects.
+   */
+  public SampleViewHandler getSampleViewHandler() {
+    return this.sampleViewHandler;
+  }
+
+  /**
+   * Sets the handler for flyweight samples. When a handler is set, decoded
+   * samples are passed directly to it as a {@code SampleView} on the IO thread
+   * and no {@code SampleMessage} is produced.
+   * 
+   * @param sampleViewHandler
+   *          the new handler, or {@code null} to decode samples into
+   *          {@code SampleMessage} objects.
+   */
+  public void setSampleViewHandler(SampleViewHandler sampleViewHandler) {
+    this.sampleViewHandler = sampleViewHandler;
+  }
+
+  /**
+   * Returns the handler for raw samples.
+   * 
+   * @return the handler for raw samples, or {@code null} if samples are not
+   *         passed as primitive values.
+   */
+  public RawSampleHandler getRawSampleHandler() {
+    return this.rawSampleHandler;
+  }
+
+  /**
+   * Sets the handler for raw samples. When a handler is set, the fields of
+   * each sample are passed directly to it as primitive values on the IO
+   * thread, and neither a {@code SampleMessage} nor a {@code SampleView} is
+   * produced.
+   * 
+   * @param rawSampleHandler
+   *          the new handler, or {@code null} to stop passing raw samples.
+   */
+  public void setRawSampleHandler(RawSampleHandler rawSampleHandler) {
+    this.rawSampleHandler = rawSampleHandler;
+  }
+
+  /**
+   * Indicates whether consecutive samples are decoded into a single
+   * {@code SampleBatch}.
+   * 
+   * @return {@code true} if batch decoding is enabled, else {@code false}.
+   */
+  public boolean isBatchSamples() {
+    return this.batchSamples;
+  }
+
+  /**
+   * Sets whether all complete samples available in the decode buffer should
+   * be written as a single {@code SampleBatch} instead of one
+   * {@code SampleMessage} each. Has no effect on flyweight samples.
+   * 
+   * @param batchSamples
+   *          {@code true} to enable batch decoding, else {@code false}.
+   */
+  public void setBatchSamples(boolean batchSamples) {
+    this.batchSamples = batchSamples;
+  }
+
+  /**
+   * Returns the filter applied to samples before they are decoded.
+   * 
+   * @return the filter, or {@code null} if all samples are decoded.
+   */
+  public SampleFilter getSampleFilter() {
+    return this.sampleFilter;
+  }
+
+  /**
+   * Sets the filter applied to samples before they are decoded. Samples
+   * rejected by the filter are skipped in the decode buffer and never reach
+   * the rest of the filter chain. The new filter takes effect immediately for
+   * all sessions using this factory.
+   * 
+   * @param sampleFilter
+   *          the new filter, or {@code null} to decode all samples.
+   */
+  public void setSampleFilter(SampleFilter sampleFilter) {
+    this.sampleFilter = sampleFilter;
+  }
+
+  /**
+   * Returns the cache used to intern the identifiers of decoded samples.
+   * 
+   * @return the cache, or {@code null} if identifiers are not interned.
+   */
+  public DeviceIdCache getDeviceIdCache() {
+    return this.deviceIdCache;
+  }
+
+  /**
+   * Sets the cache used to intern the device and receiver identifiers of
+   * decoded samples. When set, samples with the same identifier share a single
+   * canonical array, so the arrays returned by
+   * {@code SampleMessage.getDeviceId()} and
+   * {@code SampleMessage.getReceiverId()} must not be modified.
+   * 
+   * @param deviceIdCache
+   *          the cache, or {@code null} to copy identifiers into new arrays.
+   */
+  public void setDeviceIdCache(DeviceIdCache deviceIdCache) {
+    this.deviceIdCache = deviceIdCache;
+  }
+
+  /**
+   * Returns the number of samples rejected by the sample filter.
+   * 
+   * @return the number of filtered samples.
+   */
+  public long getFilteredSampleCount() {
+    return this.filteredSamples.get();
+  }
+
+  /**
+   * Called by decoders each time a sample is rejected by the sample filter.
+   */
+  void sampleFiltered() {
+    this.filteredSamples.incrementAndGet();
   }
 }
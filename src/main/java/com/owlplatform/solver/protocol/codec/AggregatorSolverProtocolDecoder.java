@@ -0,0 +1,151 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.solver.protocol.codec;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.codec.CumulativeProtocolDecoder;
+import org.apache.mina.filter.codec.ProtocolDecoderException;
+import org.apache.mina.filter.codec.ProtocolDecoderOutput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.owlplatform.common.SampleMessage;
+import com.owlplatform.solver.protocol.messages.HandshakeMessage;
+import com.owlplatform.solver.protocol.messages.SubscriptionMessage;
+
+/**
+ * <p>
+ * Decoder for all Solver-Aggregator protocol messages. Each frame's length
+ * prefix and message type are read once, and the frame is dispatched directly
+ * to the matching message decoding logic. Once the handshake has been received
+ * on a session, the handshake is no longer considered when decoding.
+ * </p>
+ * 
+ * <p>
+ * One decoder is created for each session by
+ * {@link AggregatorSolverProtocolCodecFactory}, so instances hold per-session
+ * state and are not thread-safe.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class AggregatorSolverProtocolDecoder extends CumulativeProtocolDecoder {
+
+  /**
+   * Logger for this class.
+   */
+  private static final Logger log = LoggerFactory
+      .getLogger(AggregatorSolverProtocolDecoder.class);
+
+  /**
+   * The maximum length prefix accepted for a message.
+   */
+  public static final int MAX_MESSAGE_LENGTH = 65536;
+
+  /**
+   * {@code true} if this decoder is for an aggregator (decoding subscription
+   * requests), or {@code false} if it is for a solver.
+   */
+  private final boolean isServer;
+
+  /**
+   * Decoder for sample messages on this session.
+   */
+  private final SampleDecoder sampleDecoder;
+
+  /**
+   * Flag to indicate that the handshake was received on this session.
+   */
+  private boolean handshakeReceived = false;
+
+  /**
+   * Creates a new decoder for a single session.
+   * 
+   * @param isServer
+   *          {@code true} if this decoder is for an aggregator, or
+   *          {@code false} for solvers.
+   * @param factory
+   *          the codec factory whose options should be used.
+   */
+  public AggregatorSolverProtocolDecoder(boolean isServer,
+      AggregatorSolverProtocolCodecFactory factory) {
+    super();
+    this.isServer = isServer;
+    this.sampleDecoder = new SampleDecoder(factory);
+  }
+
+  @Override
+  protected boolean doDecode(IoSession session, IoBuffer in,
+      ProtocolDecoderOutput out) throws Exception {
+    int start = in.position();
+    int available = in.remaining();
+
+    if (!this.handshakeReceived) {
+      if (available < HandshakeMessage.MESSAGE_LENGTH) {
+        return false;
+      }
+      HandshakeMessage message = HandshakeDecoder.decodeHandshake(in);
+      this.handshakeReceived = true;
+      out.write(message);
+      log.debug("Decoded {}.", message);
+      return true;
+    }
+
+    if (available < 5) {
+      return false;
+    }
+
+    int messageLength = in.getInt(start);
+    if (messageLength < 1 || messageLength > MAX_MESSAGE_LENGTH) {
+      in.position(in.limit());
+      throw new ProtocolDecoderException("Invalid message length: "
+          + messageLength);
+    }
+    if (available - 4 < messageLength) {
+      return false;
+    }
+
+    int end = start + 4 + messageLength;
+    byte messageType = in.get(start + 4);
+    switch (messageType) {
+    case SampleMessage.MESSAGE_TYPE:
+      if (this.isServer) {
+        in.position(end);
+        throw new ProtocolDecoderException(
+            "Protocol error: Sample message sent to the aggregator.");
+      }
+      // May consume several samples when batch decoding is enabled
+      this.sampleDecoder.decode(session, in, out);
+      return true;
+    case SubscriptionMessage.SUBSCRIPTION_MESSAGE_ID:
+    case SubscriptionMessage.RESPONSE_MESSAGE_ID:
+      out.write(SubscriptionMessageDecoder.decodeSubscription(in));
+      break;
+    default:
+      in.position(end);
+      throw new ProtocolDecoderException("Unknown message type: "
+          + messageType);
+    }
+    in.position(end);
+    return true;
+  }
+}
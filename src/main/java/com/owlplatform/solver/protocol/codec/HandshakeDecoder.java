@@ -119,19 +119,7 @@ public class HandshakeDecoder implements MessageDecoder {
 
 		if (arg1.prefixedDataAvailable(4,
 				HandshakeMessage.PROTOCOL_STRING_LENGTH)) {
-			HandshakeMessage message = new HandshakeMessage();
-			message.setStringLength(arg1.getInt());
-			if (message.getStringLength() != HandshakeMessage.PROTOCOL_STRING_LENGTH) {
-				throw new RuntimeException(String.format(
-						"Handshake protocol string length is incorrect: %d",Integer.valueOf(
-						message.getStringLength())));
-			}
-
-			message.setProtocolString(String.valueOf(arg1.getString(message
-					.getStringLength(), HandshakeDecoder.charsetASCII
-					.newDecoder())));
-			message.setVersionNumber(arg1.get());
-			message.setReservedBits(arg1.get());
+			HandshakeMessage message = decodeHandshake(arg1);
 
 			arg2.write(message);
 			log.debug("Wrote {}.", message);
@@ -142,6 +130,33 @@ public class HandshakeDecoder implements MessageDecoder {
 		return MessageDecoderResult.NEED_DATA;
 	}
 
+	/**
+	 * Reads a complete handshake message from {@code in}, starting with the
+	 * length prefix of the protocol string.
+	 * 
+	 * @param in
+	 *            the buffer containing the handshake.
+	 * @return the decoded handshake message.
+	 * @throws Exception
+	 *             if the protocol string length or encoding is invalid.
+	 */
+	static HandshakeMessage decodeHandshake(IoBuffer in) throws Exception {
+		HandshakeMessage message = new HandshakeMessage();
+		message.setStringLength(in.getInt());
+		if (message.getStringLength() != HandshakeMessage.PROTOCOL_STRING_LENGTH) {
+			throw new RuntimeException(String.format(
+					"Handshake protocol string length is incorrect: %d",Integer.valueOf(
+					message.getStringLength())));
+		}
+
+		message.setProtocolString(String.valueOf(in.getString(message
+				.getStringLength(), HandshakeDecoder.charsetASCII
+				.newDecoder())));
+		message.setVersionNumber(in.get());
+		message.setReservedBits(in.get());
+		return message;
+	}
+
 	@Override
 	public void finishDecode(IoSession arg0, ProtocolDecoderOutput arg1)
 			throws Exception {
@@ -0,0 +1,61 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.solver.protocol.codec;
+
+import java.nio.ByteBuffer;
+
+import org.apache.mina.core.session.IoSession;
+
+/**
+ * Receives samples directly from the {@link SampleDecoder} as primitive values
+ * instead of as a decoded {@code SampleMessage}.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public interface RawSampleHandler {
+
+  /**
+   * Called by the decoder for each Sample message on the session.
+   * 
+   * @param session
+   *          the session the sample arrived on.
+   * @param physicalLayer
+   *          the physical layer identifier.
+   * @param deviceHigh
+   *          the high 8 bytes of the device identifier.
+   * @param deviceLow
+   *          the low 8 bytes of the device identifier.
+   * @param receiverHigh
+   *          the high 8 bytes of the receiver identifier.
+   * @param receiverLow
+   *          the low 8 bytes of the receiver identifier.
+   * @param receiverTimeStamp
+   *          the timestamp assigned by the receiver.
+   * @param rssi
+   *          the received signal strength.
+   * @param sensedData
+   *          a read-only buffer over the sensed data in the decode buffer,
+   *          only valid until this method returns.
+   */
+  public void sampleDecoded(IoSession session, byte physicalLayer,
+      long deviceHigh, long deviceLow, long receiverHigh, long receiverLow,
+      long receiverTimeStamp, float rssi, ByteBuffer sensedData);
+}
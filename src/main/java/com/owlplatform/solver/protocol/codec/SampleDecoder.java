@@ -19,6 +19,8 @@
 
 package com.owlplatform.solver.protocol.codec;
 
+import java.nio.ByteBuffer;
+
 import org.apache.mina.core.buffer.IoBuffer;
 import org.apache.mina.core.session.IoSession;
 import org.apache.mina.filter.codec.ProtocolDecoderException;
@@ -27,13 +29,66 @@ import org.apache.mina.filter.codec.demux.MessageDecoder;
 import org.apache.mina.filter.codec.demux.MessageDecoderResult;
 
 import com.owlplatform.common.SampleMessage;
+import com.owlplatform.solver.protocol.messages.DeviceIdCache;
+import com.owlplatform.solver.protocol.messages.SampleBatch;
+import com.owlplatform.solver.protocol.messages.SampleView;
+import com.owlplatform.solver.rules.SampleFilter;
 
 /**
  * Decoder for the {@code SampleMessage} according to the Solver-Aggregator protocol.
+ * If the codec factory has a {@link RawSampleHandler} configured, the fields of
+ * each sample are passed to it as primitive values without creating any
+ * objects.  Otherwise, if the codec factory has a {@link SampleViewHandler}
+ * configured, samples are passed to it as a {@link SampleView} over the decode
+ * buffer instead of being decoded into a {@code SampleMessage}.  If batch decoding is enabled, all
+ * complete Sample messages at the front of the buffer are decoded together
+ * and written as a single {@link SampleBatch}.  Samples rejected by the
+ * factory's {@link SampleFilter} are skipped in the buffer without being
+ * decoded.  If the factory has a {@link DeviceIdCache}, decoded samples share
+ * the canonical identifier arrays from the cache rather than copying them.
  * @author Robert Moore
  *
  */
 public class SampleDecoder implements MessageDecoder {
+
+	/**
+	 * The codec factory that created this decoder, or {@code null} if it was
+	 * created with the default constructor.
+	 */
+	private final AggregatorSolverProtocolCodecFactory factory;
+
+	/**
+	 * Reusable view for flyweight samples.  Decoders are created per-session,
+	 * so this is only accessed by the session's IO thread.
+	 */
+	private final SampleView view = new SampleView();
+
+	/**
+	 * The buffer that {@link #sensedData} was created from.
+	 */
+	private ByteBuffer sensedDataSource = null;
+
+	/**
+	 * Reusable read-only view of the sensed data of raw samples.  It is only
+	 * replaced when the decode buffer's backing buffer changes.
+	 */
+	private ByteBuffer sensedData = null;
+
+	/**
+	 * Creates a new decoder that always produces {@code SampleMessage} objects.
+	 */
+	public SampleDecoder() {
+		this(null);
+	}
+
+	/**
+	 * Creates a new decoder that uses the options configured in {@code factory}.
+	 * @param factory the codec factory that created this decoder.
+	 */
+	public SampleDecoder(final AggregatorSolverProtocolCodecFactory factory) {
+		super();
+		this.factory = factory;
+	}
   
 	@Override
 	public MessageDecoderResult decodable(IoSession session, IoBuffer buffer) {
@@ -61,6 +116,109 @@ public class SampleDecoder implements MessageDecoder {
 	public MessageDecoderResult decode(IoSession session, IoBuffer in,
 			ProtocolDecoderOutput out) throws Exception {
 
+		if (this.factory == null) {
+			out.write(decodeSample(in));
+			return MessageDecoderResult.OK;
+		}
+
+		SampleFilter filter = this.factory.getSampleFilter();
+		if (filter != null && this.skipFiltered(in, filter)) {
+			return MessageDecoderResult.OK;
+		}
+
+		RawSampleHandler rawHandler = this.factory.getRawSampleHandler();
+		if (rawHandler != null) {
+			this.decodeRaw(session, in, rawHandler);
+			return MessageDecoderResult.OK;
+		}
+
+		SampleViewHandler viewHandler = this.factory.getSampleViewHandler();
+		if (viewHandler != null) {
+			this.decodeView(session, in, viewHandler);
+			return MessageDecoderResult.OK;
+		}
+
+		DeviceIdCache idCache = this.factory.getDeviceIdCache();
+		SampleMessage message = decodeSample(in, idCache);
+		if (this.factory.isBatchSamples()) {
+			SampleBatch batch = new SampleBatch();
+			batch.add(message);
+			while (isSampleAvailable(in)) {
+				if (filter != null && this.skipFiltered(in, filter)) {
+					continue;
+				}
+				batch.add(decodeSample(in, idCache));
+			}
+			out.write(batch);
+		} else {
+			out.write(message);
+		}
+
+		return MessageDecoderResult.OK;
+	}
+
+	/**
+	 * Tests the complete Sample message at the front of {@code in} against
+	 * {@code filter}, and skips over it if it is rejected.
+	 * @param in the buffer containing a complete Sample message.
+	 * @param filter the filter to apply.
+	 * @return {@code true} if the sample was rejected and skipped, or
+	 * {@code false} if it was accepted and the buffer is unchanged.
+	 */
+	private boolean skipFiltered(IoBuffer in, SampleFilter filter) {
+		int start = in.position();
+		int messageLength = in.getInt(start);
+		// Leave malformed messages for the decoder to reject
+		if (messageLength < SampleView.MIN_LENGTH_PREFIX
+				|| filter.accept(in, start + 4)) {
+			return false;
+		}
+		in.position(start + 4 + messageLength);
+		this.factory.sampleFiltered();
+		return true;
+	}
+
+	/**
+	 * Determines whether the next message in {@code in} is a complete Sample
+	 * message with a valid length prefix, without modifying the buffer.
+	 * Malformed messages are left for the protocol decoder to reject.
+	 * @param in the buffer to check.
+	 * @return {@code true} if a complete Sample message is available, else {@code false}.
+	 */
+	static boolean isSampleAvailable(IoBuffer in) {
+		int available = in.remaining();
+		if (available < 5) {
+			return false;
+		}
+		int start = in.position();
+		int messageLength = in.getInt(start);
+		return messageLength >= SampleView.MIN_LENGTH_PREFIX
+				&& messageLength <= AggregatorSolverProtocolDecoder.MAX_MESSAGE_LENGTH
+				&& messageLength <= available - 4
+				&& in.get(start + 4) == SampleMessage.MESSAGE_TYPE;
+	}
+
+	/**
+	 * Reads a complete Sample message from {@code in}, starting with the length prefix.
+	 * @param in the buffer containing the message.
+	 * @return the decoded sample.
+	 * @throws ProtocolDecoderException if the message is not a valid Sample message.
+	 */
+	static SampleMessage decodeSample(IoBuffer in) throws ProtocolDecoderException {
+		return decodeSample(in, null);
+	}
+
+	/**
+	 * Reads a complete Sample message from {@code in}, starting with the length prefix.
+	 * If {@code idCache} is not {@code null}, the device and receiver identifiers of
+	 * the message are the shared arrays of their interned {@code DeviceId}.
+	 * @param in the buffer containing the message.
+	 * @param idCache the cache used to intern identifiers, or {@code null} to copy them.
+	 * @return the decoded sample.
+	 * @throws ProtocolDecoderException if the message is not a valid Sample message.
+	 */
+	static SampleMessage decodeSample(IoBuffer in, DeviceIdCache idCache)
+			throws ProtocolDecoderException {
 		SampleMessage message = new SampleMessage();
 		
 		int messageLength = in.getInt();
@@ -69,17 +227,25 @@ public class SampleDecoder implements MessageDecoder {
 		if(type != SampleMessage.MESSAGE_TYPE){
 			throw new ProtocolDecoderException("Invalid message type value: " + type);
 		}
+		if (messageLength < SampleView.MIN_LENGTH_PREFIX) {
+			throw new ProtocolDecoderException("Invalid sample message length: "
+					+ messageLength);
+		}
 		--messageLength;
 		message.setPhysicalLayer(in.get());
 		--messageLength;
-		byte[] deviceId = new byte[SampleMessage.DEVICE_ID_SIZE];
-		in.get(deviceId);
-		message.setDeviceId(deviceId);
-		messageLength -= SampleMessage.DEVICE_ID_SIZE;
-		byte[] receiverId = new byte[SampleMessage.DEVICE_ID_SIZE];
-		in.get(receiverId);
-		message.setReceiverId(receiverId);
-		messageLength -= SampleMessage.DEVICE_ID_SIZE;
+		if (idCache == null) {
+			byte[] deviceId = new byte[SampleMessage.DEVICE_ID_SIZE];
+			in.get(deviceId);
+			message.setDeviceId(deviceId);
+			byte[] receiverId = new byte[SampleMessage.DEVICE_ID_SIZE];
+			in.get(receiverId);
+			message.setReceiverId(receiverId);
+		} else {
+			message.setDeviceId(idCache.internArray(in.getLong(), in.getLong()));
+			message.setReceiverId(idCache.internArray(in.getLong(), in.getLong()));
+		}
+		messageLength -= 2 * SampleMessage.DEVICE_ID_SIZE;
 		message.setReceiverTimeStamp(in.getLong());
 		messageLength -= 8;
 		message.setRssi(in.getFloat());
@@ -92,10 +258,80 @@ public class SampleDecoder implements MessageDecoder {
 			message.setSensedData(sensedData);
 		}
 		
-		
-		out.write(message);
-		
-		return MessageDecoderResult.OK;
+		return message;
+	}
+
+	/**
+	 * Passes the next sample in {@code in} to {@code viewHandler} without
+	 * copying it out of the buffer. The buffer position is advanced past the
+	 * sample before the handler is invoked.
+	 * @param session the session the sample arrived on.
+	 * @param in the buffer containing a complete Sample message.
+	 * @param viewHandler the handler for the sample.
+	 * @throws ProtocolDecoderException if the message is not a valid Sample message.
+	 */
+	private void decodeView(IoSession session, IoBuffer in,
+			SampleViewHandler viewHandler) throws ProtocolDecoderException {
+		int messageLength = in.getInt();
+		int start = in.position();
+		byte type = in.get(start);
+		if (type != SampleMessage.MESSAGE_TYPE) {
+			throw new ProtocolDecoderException("Invalid message type value: " + type);
+		}
+		if (messageLength < SampleView.MIN_LENGTH_PREFIX) {
+			throw new ProtocolDecoderException("Invalid sample message length: "
+					+ messageLength);
+		}
+		in.position(start + messageLength);
+		this.view.wrap(in, start, messageLength);
+		try {
+			viewHandler.sampleDecoded(session, this.view);
+		} finally {
+			this.view.clear();
+		}
+	}
+
+	/**
+	 * Passes the fields of the next sample in {@code in} to {@code rawHandler}
+	 * as primitive values.  The buffer position is advanced past the sample
+	 * before the handler is invoked.
+	 * @param session the session the sample arrived on.
+	 * @param in the buffer containing a complete Sample message.
+	 * @param rawHandler the handler for the sample.
+	 * @throws ProtocolDecoderException if the message is not a valid Sample message.
+	 */
+	private void decodeRaw(IoSession session, IoBuffer in,
+			RawSampleHandler rawHandler) throws ProtocolDecoderException {
+		int messageLength = in.getInt();
+		int start = in.position();
+		byte type = in.get(start);
+		if (type != SampleMessage.MESSAGE_TYPE) {
+			throw new ProtocolDecoderException("Invalid message type value: " + type);
+		}
+		if (messageLength < SampleView.MIN_LENGTH_PREFIX) {
+			throw new ProtocolDecoderException("Invalid sample message length: "
+					+ messageLength);
+		}
+		int end = start + messageLength;
+		in.position(end);
+
+		ByteBuffer source = in.buf();
+		if (source != this.sensedDataSource) {
+			this.sensedDataSource = source;
+			this.sensedData = source.asReadOnlyBuffer();
+		}
+		ByteBuffer data = this.sensedData;
+		data.limit(end);
+		data.position(start + SampleView.SENSED_DATA_OFFSET);
+
+		int deviceStart = start + SampleView.DEVICE_ID_OFFSET;
+		int receiverStart = start + SampleView.RECEIVER_ID_OFFSET;
+		rawHandler.sampleDecoded(session,
+				in.get(start + SampleView.PHYSICAL_LAYER_OFFSET),
+				in.getLong(deviceStart), in.getLong(deviceStart + 8),
+				in.getLong(receiverStart), in.getLong(receiverStart + 8),
+				in.getLong(start + SampleView.TIMESTAMP_OFFSET),
+				in.getFloat(start + SampleView.RSSI_OFFSET), data);
 	}
 
 	@Override
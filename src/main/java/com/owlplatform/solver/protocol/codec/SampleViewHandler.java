@@ -0,0 +1,45 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.solver.protocol.codec;
+
+import org.apache.mina.core.session.IoSession;
+
+import com.owlplatform.solver.protocol.messages.SampleView;
+
+/**
+ * Receives samples directly from the {@link SampleDecoder} as a
+ * {@code SampleView} instead of as a decoded {@code SampleMessage}.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public interface SampleViewHandler {
+
+  /**
+   * Called by the decoder for each Sample message on the session. The view is
+   * only valid until this method returns.
+   * 
+   * @param session
+   *          the session the sample arrived on.
+   * @param view
+   *          a view of the sample within the decode buffer.
+   */
+  public void sampleDecoded(IoSession session, SampleView view);
+}
@@ -72,6 +72,20 @@ public class SubscriptionMessageDecoder implements MessageDecoder {
   public MessageDecoderResult decode(IoSession session, IoBuffer in,
       ProtocolDecoderOutput out) throws Exception {
 
+    out.write(decodeSubscription(in));
+
+    return MessageDecoderResult.OK;
+  }
+
+  /**
+   * Reads a complete subscription request or response from {@code in},
+   * starting with the length prefix.
+   * 
+   * @param in
+   *          the buffer containing the message.
+   * @return the decoded message.
+   */
+  static SubscriptionMessage decodeSubscription(IoBuffer in) {
     SubscriptionMessage message = new SubscriptionMessage();
     int messageLength = in.getInt();
     if (log.isDebugEnabled()) {
@@ -125,9 +139,7 @@ public class SubscriptionMessageDecoder implements MessageDecoder {
       message.getRules()[rulesRead] = rule;
     }
 
-    out.write(message);
-
-    return MessageDecoderResult.OK;
+    return message;
   }
 
   @Override
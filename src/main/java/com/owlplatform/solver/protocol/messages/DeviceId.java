@@ -0,0 +1,245 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.solver.protocol.messages;
+
+import com.owlplatform.common.SampleMessage;
+import com.owlplatform.common.util.NumericUtils;
+
+/**
+ * An immutable 128-bit device or receiver identifier, stored as two
+ * {@code long} values with a precomputed hash code. {@code DeviceId} objects
+ * are suitable for use as map keys, and comparing or hashing them does not
+ * require examining each byte of the identifier.
+ * 
+ * @author Robert Moore
+ * 
+ * @see DeviceIdCache
+ */
+public final class DeviceId {
+
+  /**
+   * The high (first) 8 bytes of the identifier.
+   */
+  private final long high;
+
+  /**
+   * The low (last) 8 bytes of the identifier.
+   */
+  private final long low;
+
+  /**
+   * The precomputed hash code.
+   */
+  private final int hash;
+
+  /**
+   * The identifier as a 16-byte array. Never exposed to callers except
+   * through {@link DeviceIdCache#internArray(long, long)}.
+   */
+  private final byte[] bytes;
+
+  /**
+   * Creates a new {@code DeviceId} from its high and low 8 bytes.
+   * 
+   * @param high
+   *          the first 8 bytes of the identifier, big-endian.
+   * @param low
+   *          the last 8 bytes of the identifier, big-endian.
+   */
+  public DeviceId(long high, long low) {
+    this.high = high;
+    this.low = low;
+    this.hash = hash(high, low);
+    this.bytes = new byte[SampleMessage.DEVICE_ID_SIZE];
+    for (int i = 0; i < 8; ++i) {
+      this.bytes[i] = (byte) (high >>> (56 - 8 * i));
+      this.bytes[i + 8] = (byte) (low >>> (56 - 8 * i));
+    }
+  }
+
+  /**
+   * Creates a new {@code DeviceId} from a 16-byte identifier, as used in
+   * {@code SampleMessage} and {@code Transmitter}.
+   * 
+   * @param id
+   *          the 16-byte identifier.
+   * @return a new {@code DeviceId} with the same value.
+   */
+  public static DeviceId valueOf(byte[] id) {
+    checkLength(id);
+    return new DeviceId(toLong(id, 0), toLong(id, 8));
+  }
+
+  /**
+   * Returns the hash code that a {@code DeviceId} created from {@code id}
+   * would have, without creating one.
+   * 
+   * @param id
+   *          the 16-byte identifier.
+   * @return the hash code of the identifier.
+   */
+  public static int hashCode(byte[] id) {
+    checkLength(id);
+    return hash(toLong(id, 0), toLong(id, 8));
+  }
+
+  /**
+   * Returns the hash code that a {@code DeviceId} created from {@code high}
+   * and {@code low} would have, without creating one.
+   * 
+   * @param high
+   *          the first 8 bytes of the identifier, big-endian.
+   * @param low
+   *          the last 8 bytes of the identifier, big-endian.
+   * @return the hash code of the identifier.
+   */
+  public static int hashCode(long high, long low) {
+    return hash(high, low);
+  }
+
+  /**
+   * Returns the high (first) 8 bytes of the identifier.
+   * 
+   * @return the high 8 bytes as a big-endian {@code long}.
+   */
+  public long getHigh() {
+    return this.high;
+  }
+
+  /**
+   * Returns the low (last) 8 bytes of the identifier.
+   * 
+   * @return the low 8 bytes as a big-endian {@code long}.
+   */
+  public long getLow() {
+    return this.low;
+  }
+
+  /**
+   * Returns a copy of this identifier as a 16-byte array.
+   * 
+   * @return a new array containing the identifier.
+   */
+  public byte[] toByteArray() {
+    return this.bytes.clone();
+  }
+
+  /**
+   * Returns the internal 16-byte array. Must not be modified.
+   * 
+   * @return the internal array.
+   */
+  byte[] bytes() {
+    return this.bytes;
+  }
+
+  /**
+   * Determines whether this identifier is equal to the 16-byte identifier
+   * {@code id}.
+   * 
+   * @param id
+   *          a 16-byte identifier.
+   * @return {@code true} if the identifiers are equal, else {@code false}.
+   */
+  public boolean matches(byte[] id) {
+    return id != null && id.length == SampleMessage.DEVICE_ID_SIZE
+        && toLong(id, 0) == this.high && toLong(id, 8) == this.low;
+  }
+
+  @Override
+  public int hashCode() {
+    return this.hash;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (o instanceof DeviceId) {
+      return this.equals((DeviceId) o);
+    }
+    return false;
+  }
+
+  /**
+   * Compares this {@code DeviceId} to another by value.
+   * 
+   * @param id
+   *          another {@code DeviceId}.
+   * @return {@code true} if both represent the same identifier, else
+   *         {@code false}.
+   */
+  public boolean equals(DeviceId id) {
+    return id == this
+        || (id != null && this.low == id.low && this.high == id.high);
+  }
+
+  @Override
+  public String toString() {
+    return NumericUtils.toHexString(this.bytes);
+  }
+
+  /**
+   * Computes the hash code of an identifier. The bits are mixed so that
+   * identifiers differing only in a few low-order bits are well distributed.
+   * 
+   * @param high
+   *          the high 8 bytes of the identifier.
+   * @param low
+   *          the low 8 bytes of the identifier.
+   * @return the hash code.
+   */
+  static int hash(long high, long low) {
+    long h = high * 0x9E3779B97F4A7C15L + low;
+    h ^= h >>> 33;
+    h *= 0xFF51AFD7ED558CCDL;
+    h ^= h >>> 33;
+    return (int) h;
+  }
+
+  /**
+   * Reads 8 bytes from {@code bytes} as a big-endian {@code long}.
+   * 
+   * @param bytes
+   *          the source array.
+   * @param offset
+   *          the index of the first byte.
+   * @return the {@code long} value.
+   */
+  static long toLong(byte[] bytes, int offset) {
+    long value = 0;
+    for (int i = offset; i < offset + 8; ++i) {
+      value = (value << 8) | (bytes[i] & 0xFFL);
+    }
+    return value;
+  }
+
+  /**
+   * Verifies that {@code id} is a valid 16-byte identifier.
+   * 
+   * @param id
+   *          the identifier to check.
+   */
+  static void checkLength(byte[] id) {
+    if (id == null || id.length != SampleMessage.DEVICE_ID_SIZE) {
+      throw new IllegalArgumentException(String.format(
+          "Device ID must be %d bytes long.",
+          Integer.valueOf(SampleMessage.DEVICE_ID_SIZE)));
+    }
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.solver.protocol.messages;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <p>
+ * A bounded cache that maps identifiers to a canonical {@link DeviceId}
+ * instance. Repeated identifiers, such as those from a fixed fleet of tags,
+ * resolve to the same object without any allocation once they are cached.
+ * </p>
+ * 
+ * <p>
+ * The cache is a fixed-size, two-way associative table. When both candidate
+ * slots for an identifier are occupied by other identifiers, one is replaced,
+ * so the memory used by the cache never grows and identifiers that stop
+ * appearing are eventually evicted. Lookups are lock-free and safe to call from
+ * multiple threads; two threads racing to intern the same new identifier may
+ * briefly produce two instances, which remain equal to each other.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class DeviceIdCache {
+
+  /**
+   * Default number of entries in the shared cache.
+   */
+  public static final int DEFAULT_CAPACITY = 16384;
+
+  /**
+   * Cache shared by all decoders that do not supply their own.
+   */
+  private static final DeviceIdCache DEFAULT = new DeviceIdCache(
+      DEFAULT_CAPACITY);
+
+  /**
+   * The cached identifiers.
+   */
+  private final AtomicReferenceArray<DeviceId> entries;
+
+  /**
+   * Bit mask for computing an index into {@link #entries}.
+   */
+  private final int mask;
+
+  /**
+   * Creates a new cache with room for at least {@code capacity} identifiers.
+   * The capacity is rounded up to a power of two.
+   * 
+   * @param capacity
+   *          the minimum number of entries.
+   */
+  public DeviceIdCache(int capacity) {
+    if (capacity < 2 || capacity > (1 << 30)) {
+      throw new IllegalArgumentException(
+          "Cache capacity must be between 2 and 2^30.");
+    }
+    int size = Integer.highestOneBit(capacity - 1) << 1;
+    this.entries = new AtomicReferenceArray<DeviceId>(size);
+    this.mask = size - 1;
+  }
+
+  /**
+   * Returns the cache shared by default within this JVM.
+   * 
+   * @return the default cache.
+   */
+  public static DeviceIdCache getDefault() {
+    return DEFAULT;
+  }
+
+  /**
+   * Returns the number of entries in this cache.
+   * 
+   * @return the capacity of this cache.
+   */
+  public int getCapacity() {
+    return this.entries.length();
+  }
+
+  /**
+   * Returns the canonical {@code DeviceId} for the specified identifier.
+   * 
+   * @param high
+   *          the first 8 bytes of the identifier, big-endian.
+   * @param low
+   *          the last 8 bytes of the identifier, big-endian.
+   * @return the canonical instance for the identifier.
+   */
+  public DeviceId intern(long high, long low) {
+    int hash = DeviceId.hash(high, low);
+    int first = hash & this.mask;
+    DeviceId id = this.entries.get(first);
+    if (id != null && id.getLow() == low && id.getHigh() == high) {
+      return id;
+    }
+    int second = (first + 1) & this.mask;
+    DeviceId other = this.entries.get(second);
+    if (other != null && other.getLow() == low && other.getHigh() == high) {
+      return other;
+    }
+    DeviceId created = new DeviceId(high, low);
+    // Prefer an empty slot, otherwise replace the first slot
+    this.entries.lazySet(id != null && other == null ? second : first,
+        created);
+    return created;
+  }
+
+  /**
+   * Returns the canonical {@code DeviceId} for a 16-byte identifier.
+   * 
+   * @param id
+   *          the 16-byte identifier.
+   * @return the canonical instance for the identifier.
+   */
+  public DeviceId intern(byte[] id) {
+    DeviceId.checkLength(id);
+    return this.intern(DeviceId.toLong(id, 0), DeviceId.toLong(id, 8));
+  }
+
+  /**
+   * Returns the canonical 16-byte array for the specified identifier. The
+   * same array is returned to every caller for the same identifier, so it
+   * must never be modified.
+   * 
+   * @param high
+   *          the first 8 bytes of the identifier, big-endian.
+   * @param low
+   *          the last 8 bytes of the identifier, big-endian.
+   * @return the shared array for the identifier.
+   */
+  public byte[] internArray(long high, long low) {
+    return this.intern(high, low).bytes();
+  }
+}
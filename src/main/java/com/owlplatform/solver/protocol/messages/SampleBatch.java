@@ -0,0 +1,108 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.solver.protocol.messages;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import com.owlplatform.common.SampleMessage;
+
+/**
+ * A group of Sample messages that were decoded from a single read of the
+ * aggregator connection, delivered through the filter chain as one event.
+ * Samples are kept in the order they were received.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class SampleBatch implements Iterable<SampleMessage> {
+
+  /**
+   * The samples in this batch.
+   */
+  private final List<SampleMessage> samples;
+
+  /**
+   * Creates a new, empty batch.
+   */
+  public SampleBatch() {
+    this(16);
+  }
+
+  /**
+   * Creates a new, empty batch with space for {@code initialCapacity} samples.
+   * 
+   * @param initialCapacity
+   *          the expected number of samples.
+   */
+  public SampleBatch(int initialCapacity) {
+    this.samples = new ArrayList<SampleMessage>(initialCapacity);
+  }
+
+  /**
+   * Appends a sample to this batch.
+   * 
+   * @param sample
+   *          the sample to add.
+   */
+  public void add(SampleMessage sample) {
+    this.samples.add(sample);
+  }
+
+  /**
+   * Returns the sample at {@code index}.
+   * 
+   * @param index
+   *          the index of the sample.
+   * @return the sample at that index.
+   */
+  public SampleMessage get(int index) {
+    return this.samples.get(index);
+  }
+
+  /**
+   * Returns the number of samples in this batch.
+   * 
+   * @return the number of samples.
+   */
+  public int size() {
+    return this.samples.size();
+  }
+
+  /**
+   * Returns the samples in this batch, in the order they were received.
+   * 
+   * @return the samples in this batch.
+   */
+  public List<SampleMessage> getSamples() {
+    return this.samples;
+  }
+
+  @Override
+  public Iterator<SampleMessage> iterator() {
+    return this.samples.iterator();
+  }
+
+  @Override
+  public String toString() {
+    return "Sample Batch (" + this.samples.size() + " samples)";
+  }
+}
@@ -0,0 +1,335 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.solver.protocol.messages;
+
+import org.apache.mina.core.buffer.IoBuffer;
+
+import com.owlplatform.common.SampleMessage;
+import com.owlplatform.common.util.NumericUtils;
+
+/**
+ * <p>
+ * A read-only, reusable view of a single Sample message that is still
+ * contained in the decode buffer. Values are read directly from the
+ * underlying {@code IoBuffer} each time an accessor is called, so no
+ * {@code SampleMessage} or {@code byte[]} objects are created unless
+ * explicitly requested.
+ * </p>
+ * 
+ * <p>
+ * A {@code SampleView} is only valid for the duration of the callback it was
+ * passed to. The same instance is reused for the next sample on the session,
+ * so listeners that need to keep a sample must call {@link #copy()}.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class SampleView {
+
+  /**
+   * Offset of the physical layer identifier, relative to the message type.
+   */
+  public static final int PHYSICAL_LAYER_OFFSET = 1;
+
+  /**
+   * Offset of the device identifier, relative to the message type.
+   */
+  public static final int DEVICE_ID_OFFSET = 2;
+
+  /**
+   * Offset of the receiver identifier, relative to the message type.
+   */
+  public static final int RECEIVER_ID_OFFSET = DEVICE_ID_OFFSET
+      + SampleMessage.DEVICE_ID_SIZE;
+
+  /**
+   * Offset of the receiver timestamp, relative to the message type.
+   */
+  public static final int TIMESTAMP_OFFSET = RECEIVER_ID_OFFSET
+      + SampleMessage.DEVICE_ID_SIZE;
+
+  /**
+   * Offset of the RSSI value, relative to the message type.
+   */
+  public static final int RSSI_OFFSET = TIMESTAMP_OFFSET + 8;
+
+  /**
+   * Offset of the sensed data, relative to the message type.
+   */
+  public static final int SENSED_DATA_OFFSET = RSSI_OFFSET + 4;
+
+  /**
+   * The minimum value of the length prefix for a valid Sample message.
+   */
+  public static final int MIN_LENGTH_PREFIX = SENSED_DATA_OFFSET;
+
+  /**
+   * The buffer containing the sample.
+   */
+  private IoBuffer buffer;
+
+  /**
+   * Absolute index of the message type within {@link #buffer}.
+   */
+  private int offset;
+
+  /**
+   * The value of the length prefix of the message.
+   */
+  private int length;
+
+  /**
+   * Points this view at a Sample message contained in {@code buffer}. The
+   * buffer's position and limit are not modified by this view.
+   * 
+   * @param buffer
+   *          the buffer containing the message.
+   * @param offset
+   *          the absolute index of the message type within the buffer.
+   * @param length
+   *          the value of the message's length prefix (message type through
+   *          the end of the sensed data).
+   */
+  public void wrap(final IoBuffer buffer, final int offset, final int length) {
+    if (length < MIN_LENGTH_PREFIX) {
+      throw new IllegalArgumentException(String.format(
+          "Sample message length must be at least %d bytes: %d",
+          Integer.valueOf(MIN_LENGTH_PREFIX), Integer.valueOf(length)));
+    }
+    this.buffer = buffer;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  /**
+   * Detaches this view from its buffer.
+   */
+  public void clear() {
+    this.buffer = null;
+    this.offset = 0;
+    this.length = 0;
+  }
+
+  /**
+   * Returns the physical layer identifier of the sample.
+   * 
+   * @return the physical layer identifier.
+   */
+  public byte getPhysicalLayer() {
+    return this.buffer.get(this.offset + PHYSICAL_LAYER_OFFSET);
+  }
+
+  /**
+   * Returns a copy of the device identifier of the sample.
+   * 
+   * @return a new array containing the device identifier.
+   */
+  public byte[] getDeviceId() {
+    return this.getDeviceId(new byte[SampleMessage.DEVICE_ID_SIZE]);
+  }
+
+  /**
+   * Copies the device identifier of the sample into {@code dest}.
+   * 
+   * @param dest
+   *          an array of at least {@link SampleMessage#DEVICE_ID_SIZE} bytes.
+   * @return {@code dest}.
+   */
+  public byte[] getDeviceId(final byte[] dest) {
+    return this.copyId(this.offset + DEVICE_ID_OFFSET, dest);
+  }
+
+  /**
+   * Returns a copy of the receiver identifier of the sample.
+   * 
+   * @return a new array containing the receiver identifier.
+   */
+  public byte[] getReceiverId() {
+    return this.getReceiverId(new byte[SampleMessage.DEVICE_ID_SIZE]);
+  }
+
+  /**
+   * Copies the receiver identifier of the sample into {@code dest}.
+   * 
+   * @param dest
+   *          an array of at least {@link SampleMessage#DEVICE_ID_SIZE} bytes.
+   * @return {@code dest}.
+   */
+  public byte[] getReceiverId(final byte[] dest) {
+    return this.copyId(this.offset + RECEIVER_ID_OFFSET, dest);
+  }
+
+  /**
+   * Returns the canonical {@code DeviceId} for the device identifier of the
+   * sample. No objects are created if the identifier is already in
+   * {@code cache}.
+   * 
+   * @param cache
+   *          the cache used to intern the identifier.
+   * @return the device identifier.
+   */
+  public DeviceId getDevice(final DeviceIdCache cache) {
+    int start = this.offset + DEVICE_ID_OFFSET;
+    return cache.intern(this.buffer.getLong(start),
+        this.buffer.getLong(start + 8));
+  }
+
+  /**
+   * Returns the high 8 bytes of the device identifier of the sample.
+   * 
+   * @return the high 8 bytes of the device identifier.
+   */
+  public long getDeviceHigh() {
+    return this.buffer.getLong(this.offset + DEVICE_ID_OFFSET);
+  }
+
+  /**
+   * Returns the low 8 bytes of the device identifier of the sample.
+   * 
+   * @return the low 8 bytes of the device identifier.
+   */
+  public long getDeviceLow() {
+    return this.buffer.getLong(this.offset + DEVICE_ID_OFFSET + 8);
+  }
+
+  /**
+   * Returns the canonical {@code DeviceId} for the receiver identifier of the
+   * sample. No objects are created if the identifier is already in
+   * {@code cache}.
+   * 
+   * @param cache
+   *          the cache used to intern the identifier.
+   * @return the receiver identifier.
+   */
+  public DeviceId getReceiver(final DeviceIdCache cache) {
+    int start = this.offset + RECEIVER_ID_OFFSET;
+    return cache.intern(this.buffer.getLong(start),
+        this.buffer.getLong(start + 8));
+  }
+
+  /**
+   * Returns the timestamp assigned to the sample by the receiver.
+   * 
+   * @return the receiver timestamp.
+   */
+  public long getReceiverTimeStamp() {
+    return this.buffer.getLong(this.offset + TIMESTAMP_OFFSET);
+  }
+
+  /**
+   * Returns the received signal strength of the sample.
+   * 
+   * @return the RSSI value.
+   */
+  public float getRssi() {
+    return this.buffer.getFloat(this.offset + RSSI_OFFSET);
+  }
+
+  /**
+   * Returns the number of bytes of sensed data in the sample.
+   * 
+   * @return the length of the sensed data, possibly 0.
+   */
+  public int getSensedDataLength() {
+    return this.length - SENSED_DATA_OFFSET;
+  }
+
+  /**
+   * Returns the byte of sensed data at {@code index}.
+   * 
+   * @param index
+   *          the index within the sensed data.
+   * @return the byte value at that index.
+   */
+  public byte getSensedData(final int index) {
+    if (index < 0 || index >= this.getSensedDataLength()) {
+      throw new IndexOutOfBoundsException(String.valueOf(index));
+    }
+    return this.buffer.get(this.offset + SENSED_DATA_OFFSET + index);
+  }
+
+  /**
+   * Returns a copy of the sensed data of the sample, or {@code null} if the
+   * sample has none.
+   * 
+   * @return a new array containing the sensed data, or {@code null}.
+   */
+  public byte[] getSensedData() {
+    int dataLength = this.getSensedDataLength();
+    if (dataLength <= 0) {
+      return null;
+    }
+    byte[] data = new byte[dataLength];
+    int start = this.offset + SENSED_DATA_OFFSET;
+    for (int i = 0; i < dataLength; ++i) {
+      data[i] = this.buffer.get(start + i);
+    }
+    return data;
+  }
+
+  /**
+   * Creates a new {@code SampleMessage} containing the same values as this
+   * view. The returned message does not reference the decode buffer and may be
+   * retained after the callback returns.
+   * 
+   * @return a new {@code SampleMessage} equivalent to this view.
+   */
+  public SampleMessage copy() {
+    SampleMessage message = new SampleMessage();
+    message.setPhysicalLayer(this.getPhysicalLayer());
+    message.setDeviceId(this.getDeviceId());
+    message.setReceiverId(this.getReceiverId());
+    message.setReceiverTimeStamp(this.getReceiverTimeStamp());
+    message.setRssi(this.getRssi());
+    message.setSensedData(this.getSensedData());
+    return message;
+  }
+
+  /**
+   * Copies a 16-byte identifier starting at the absolute index {@code start}.
+   * 
+   * @param start
+   *          the absolute index of the identifier.
+   * @param dest
+   *          the destination array.
+   * @return {@code dest}.
+   */
+  private byte[] copyId(final int start, final byte[] dest) {
+    for (int i = 0; i < SampleMessage.DEVICE_ID_SIZE; ++i) {
+      dest[i] = this.buffer.get(start + i);
+    }
+    return dest;
+  }
+
+  @Override
+  public String toString() {
+    if (this.buffer == null) {
+      return "Sample View (empty)";
+    }
+    StringBuffer sb = new StringBuffer();
+    sb.append("Sample View: ").append(this.getPhysicalLayer()).append(", ")
+        .append(NumericUtils.toHexString(this.getDeviceId())).append(", ")
+        .append(NumericUtils.toHexString(this.getReceiverId())).append(", ")
+        .append(this.getReceiverTimeStamp()).append(", ")
+        .append(this.getRssi());
+    return sb.toString();
+  }
+}
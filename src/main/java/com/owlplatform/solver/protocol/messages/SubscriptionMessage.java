@@ -19,6 +19,9 @@
 
 package com.owlplatform.solver.protocol.messages;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import com.owlplatform.solver.rules.SubscriptionRequestRule;
 
 /**
@@ -40,6 +43,11 @@ public class SubscriptionMessage extends AggregatorSolverMessage {
    */
   public static final byte RESPONSE_MESSAGE_ID = 4;
 
+  /**
+   * The largest length prefix accepted by the subscription message decoder.
+   */
+  public static final int MAX_LENGTH_PREFIX = 65535;
+
   /**
    * The array of subscription rules referenced in this message.
    */
@@ -58,13 +66,7 @@ public class SubscriptionMessage extends AggregatorSolverMessage {
     length += 4;
     if (this.rules != null) {
       for (SubscriptionRequestRule rule : this.rules) {
-        // Physical Layer
-        ++length;
-        // Transmitters
-        length += 4 + rule.getNumTransmitters()
-            * Transmitter.TRANSMITTER_ID_SIZE * 2;
-        // Update interval
-        length += 8;
+        length += getEncodedLength(rule);
       }
 
     }
@@ -72,6 +74,63 @@ public class SubscriptionMessage extends AggregatorSolverMessage {
     return length;
   }
 
+  /**
+   * Returns the number of bytes used to encode {@code rule} in a
+   * subscription message.
+   * 
+   * @param rule
+   *          the rule.
+   * @return the encoded length of the rule.
+   */
+  private static int getEncodedLength(final SubscriptionRequestRule rule) {
+    // Physical layer, number of transmitters, transmitters, update interval
+    return 1 + 4 + rule.getNumTransmitters()
+        * Transmitter.TRANSMITTER_ID_SIZE * 2 + 8;
+  }
+
+  /**
+   * Creates subscription request messages for {@code rules}, dividing the
+   * rules between as many messages as needed to keep the length prefix of
+   * each message at or below {@code maxLengthPrefix}. A rule that doesn't fit
+   * in a message by itself is sent in a message of its own.
+   * 
+   * @param rules
+   *          the rules to send.
+   * @param maxLengthPrefix
+   *          the maximum length prefix of each message.
+   * @return the messages, in the order the rules appear in {@code rules}. At
+   *         least one message is returned, even if there are no rules.
+   */
+  public static List<SubscriptionMessage> partition(
+      final SubscriptionRequestRule[] rules, final int maxLengthPrefix) {
+    List<SubscriptionMessage> messages = new ArrayList<SubscriptionMessage>(1);
+    int count = rules == null ? 0 : rules.length;
+    int start = 0;
+    do {
+      int length = 5;
+      int end = start;
+      while (end < count) {
+        int ruleLength = getEncodedLength(rules[end]);
+        if (end > start && length + ruleLength > maxLengthPrefix) {
+          break;
+        }
+        length += ruleLength;
+        ++end;
+      }
+      SubscriptionRequestRule[] part = rules;
+      if (start > 0 || end < count) {
+        part = new SubscriptionRequestRule[end - start];
+        System.arraycopy(rules, start, part, 0, part.length);
+      }
+      SubscriptionMessage message = new SubscriptionMessage();
+      message.setRules(part);
+      message.setMessageType(SUBSCRIPTION_MESSAGE_ID);
+      messages.add(message);
+      start = end;
+    } while (start < count);
+    return messages;
+  }
+
   /**
    * Returns the number of rules specified in this subscription message.
    * 
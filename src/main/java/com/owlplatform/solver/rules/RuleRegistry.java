@@ -0,0 +1,445 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.rules;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.owlplatform.solver.protocol.messages.DeviceId;
+import com.owlplatform.solver.protocol.messages.Transmitter;
+
+/**
+ * <p>
+ * A set of {@link SubscriptionRequestRule}s, each identified by a rule number.
+ * Duplicate rules are detected with a hash lookup on a canonical form of the
+ * rule, in which transmitters are sorted and their base IDs masked, so the
+ * order of a rule's transmitters doesn't matter.
+ * </p>
+ * 
+ * <p>
+ * The registry is copy-on-write: readers never lock, and writers replace the
+ * current state with a compare-and-set, so adding many rules with
+ * {@link #addAll(Collection)} copies the state once rather than once per
+ * rule. Changes are also recorded until they are collected with
+ * {@link #drainChanges()}, so that several changes can be sent to the
+ * aggregator together.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class RuleRegistry {
+
+  /**
+   * The canonical form of a rule, used as a hash key.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  static final class CanonicalRule {
+
+    /**
+     * Orders transmitters by masked base ID, then by mask.
+     */
+    private static final Comparator<long[]> TRANSMITTER_ORDER = new Comparator<long[]>() {
+      @Override
+      public int compare(final long[] a, final long[] b) {
+        for (int i = 0; i < a.length; ++i) {
+          if (a[i] != b[i]) {
+            return a[i] < b[i] ? -1 : 1;
+          }
+        }
+        return 0;
+      }
+    };
+
+    /**
+     * Physical layer, update interval, then the masked base ID and mask of
+     * each transmitter in sorted order.
+     */
+    private final long[] values;
+
+    /**
+     * The precomputed hash code.
+     */
+    private final int hash;
+
+    /**
+     * Creates the canonical form of {@code rule}.
+     * 
+     * @param rule
+     *          the rule.
+     */
+    CanonicalRule(final SubscriptionRequestRule rule) {
+      Transmitter[] transmitters = rule.getTransmitters();
+      int count = transmitters == null ? 0 : transmitters.length;
+      long[][] sorted = new long[count][];
+      for (int i = 0; i < count; ++i) {
+        DeviceId base = DeviceId.valueOf(transmitters[i].getBaseId());
+        DeviceId mask = DeviceId.valueOf(transmitters[i].getMask());
+        sorted[i] = new long[] { base.getHigh() & mask.getHigh(),
+            base.getLow() & mask.getLow(), mask.getHigh(), mask.getLow() };
+      }
+      Arrays.sort(sorted, TRANSMITTER_ORDER);
+
+      this.values = new long[2 + 4 * count];
+      this.values[0] = rule.getPhysicalLayer();
+      this.values[1] = rule.getUpdateInterval();
+      for (int i = 0; i < count; ++i) {
+        System.arraycopy(sorted[i], 0, this.values, 2 + 4 * i, 4);
+      }
+      this.hash = Arrays.hashCode(this.values);
+    }
+
+    @Override
+    public int hashCode() {
+      return this.hash;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof CanonicalRule)) {
+        return false;
+      }
+      CanonicalRule other = (CanonicalRule) o;
+      return this.hash == other.hash
+          && Arrays.equals(this.values, other.values);
+    }
+  }
+
+  /**
+   * An immutable state of the registry.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  private static final class State {
+
+    /**
+     * Rules by rule number, in the order they were added.
+     */
+    final Map<Integer, SubscriptionRequestRule> rules;
+
+    /**
+     * Rule numbers by canonical rule.
+     */
+    final Map<CanonicalRule, Integer> numbers;
+
+    /**
+     * The number given to the next rule added. Part of the state so that
+     * numbers are only used up by additions that take effect.
+     */
+    final int nextRuleNum;
+
+    /**
+     * The rules as an array, created when first requested.
+     */
+    private volatile SubscriptionRequestRule[] array = null;
+
+    /**
+     * Creates a new state.
+     * 
+     * @param rules
+     *          rules by rule number.
+     * @param numbers
+     *          rule numbers by canonical rule.
+     * @param nextRuleNum
+     *          the number given to the next rule added.
+     */
+    State(final Map<Integer, SubscriptionRequestRule> rules,
+        final Map<CanonicalRule, Integer> numbers, final int nextRuleNum) {
+      this.rules = rules;
+      this.numbers = numbers;
+      this.nextRuleNum = nextRuleNum;
+    }
+
+    /**
+     * Returns the rules as an array.
+     * 
+     * @return the rules.
+     */
+    SubscriptionRequestRule[] toArray() {
+      SubscriptionRequestRule[] current = this.array;
+      if (current == null) {
+        current = this.rules.values().toArray(NO_RULES);
+        this.array = current;
+      }
+      return current;
+    }
+  }
+
+  /**
+   * The changes made to a registry since the previous call to
+   * {@link RuleRegistry#drainChanges()}.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  public static final class Changes {
+
+    /**
+     * All rules in the registry.
+     */
+    private final SubscriptionRequestRule[] rules;
+
+    /**
+     * The rules that were added.
+     */
+    private final SubscriptionRequestRule[] added;
+
+    /**
+     * Whether any rules were removed.
+     */
+    private final boolean removed;
+
+    /**
+     * Creates a new set of changes.
+     * 
+     * @param rules
+     *          all rules in the registry.
+     * @param added
+     *          the rules that were added.
+     * @param removed
+     *          whether any rules were removed.
+     */
+    Changes(final SubscriptionRequestRule[] rules,
+        final SubscriptionRequestRule[] added, final boolean removed) {
+      this.rules = rules;
+      this.added = added;
+      this.removed = removed;
+    }
+
+    /**
+     * Returns all of the rules in the registry, including the added rules.
+     * 
+     * @return the rules.
+     */
+    public SubscriptionRequestRule[] getRules() {
+      return this.rules;
+    }
+
+    /**
+     * Returns the rules that were added. If rules were also removed, some of
+     * these may no longer be in the registry.
+     * 
+     * @return the added rules.
+     */
+    public SubscriptionRequestRule[] getAdded() {
+      return this.added;
+    }
+
+    /**
+     * Returns {@code true} if any rules were removed, in which case the
+     * complete rule set must be sent to the aggregator.
+     * 
+     * @return {@code true} if rules were removed.
+     */
+    public boolean isRemoved() {
+      return this.removed;
+    }
+  }
+
+  /**
+   * Empty array of rules.
+   */
+  static final SubscriptionRequestRule[] NO_RULES = new SubscriptionRequestRule[0];
+
+  /**
+   * The current state.
+   */
+  private final AtomicReference<State> state = new AtomicReference<State>(
+      new State(new LinkedHashMap<Integer, SubscriptionRequestRule>(),
+          new HashMap<CanonicalRule, Integer>(), 0));
+
+  /**
+   * Rules added since the last call to {@link #drainChanges()}.
+   */
+  private final ConcurrentLinkedQueue<SubscriptionRequestRule> pendingAdded = new ConcurrentLinkedQueue<SubscriptionRequestRule>();
+
+  /**
+   * Whether rules were removed since the last call to {@link #drainChanges()}.
+   */
+  private final AtomicBoolean pendingRemoved = new AtomicBoolean(false);
+
+  /**
+   * Adds a rule, unless an equivalent rule is already present.
+   * 
+   * @param rule
+   *          the rule to add.
+   * @return the rule number, or -1 if an equivalent rule was already present.
+   */
+  public int add(final SubscriptionRequestRule rule) {
+    return this.addAll(Arrays.asList(rule))[0];
+  }
+
+  /**
+   * Adds rules, skipping those equivalent to a rule that is already present
+   * or earlier in {@code rules}.
+   * 
+   * @param rules
+   *          the rules to add.
+   * @return the rule number of each rule in iteration order, or -1 for
+   *         rules that were skipped.
+   */
+  public int[] addAll(final Collection<SubscriptionRequestRule> rules) {
+    List<SubscriptionRequestRule> candidates = new ArrayList<SubscriptionRequestRule>(
+        rules);
+    List<CanonicalRule> keys = new ArrayList<CanonicalRule>(candidates.size());
+    for (SubscriptionRequestRule rule : candidates) {
+      if (rule == null) {
+        throw new IllegalArgumentException("Rules cannot be null.");
+      }
+      keys.add(new CanonicalRule(rule));
+    }
+
+    int[] ruleNums = new int[candidates.size()];
+    List<SubscriptionRequestRule> added = new ArrayList<SubscriptionRequestRule>();
+    while (true) {
+      State current = this.state.get();
+      Map<Integer, SubscriptionRequestRule> newRules = new LinkedHashMap<Integer, SubscriptionRequestRule>(
+          current.rules);
+      Map<CanonicalRule, Integer> newNumbers = new HashMap<CanonicalRule, Integer>(
+          current.numbers);
+      int nextRuleNum = current.nextRuleNum;
+      added.clear();
+      for (int i = 0; i < ruleNums.length; ++i) {
+        CanonicalRule key = keys.get(i);
+        if (newNumbers.containsKey(key)) {
+          ruleNums[i] = -1;
+          continue;
+        }
+        Integer ruleNum = Integer.valueOf(nextRuleNum++);
+        newNumbers.put(key, ruleNum);
+        newRules.put(ruleNum, candidates.get(i));
+        added.add(candidates.get(i));
+        ruleNums[i] = ruleNum.intValue();
+      }
+      if (added.isEmpty()
+          || this.state.compareAndSet(current, new State(newRules, newNumbers,
+              nextRuleNum))) {
+        break;
+      }
+    }
+    this.pendingAdded.addAll(added);
+    return ruleNums;
+  }
+
+  /**
+   * Removes a rule.
+   * 
+   * @param ruleNum
+   *          the number of the rule to remove.
+   * @return the removed rule, or {@code null} if there was no rule with that
+   *         number.
+   */
+  public SubscriptionRequestRule remove(final int ruleNum) {
+    Integer key = Integer.valueOf(ruleNum);
+    while (true) {
+      State current = this.state.get();
+      SubscriptionRequestRule rule = current.rules.get(key);
+      if (rule == null) {
+        return null;
+      }
+      Map<Integer, SubscriptionRequestRule> newRules = new LinkedHashMap<Integer, SubscriptionRequestRule>(
+          current.rules);
+      newRules.remove(key);
+      Map<CanonicalRule, Integer> newNumbers = new HashMap<CanonicalRule, Integer>(
+          current.numbers);
+      newNumbers.remove(new CanonicalRule(rule));
+      if (this.state.compareAndSet(current, new State(newRules, newNumbers,
+          current.nextRuleNum))) {
+        this.pendingRemoved.set(true);
+        return rule;
+      }
+    }
+  }
+
+  /**
+   * Returns the rule with a rule number.
+   * 
+   * @param ruleNum
+   *          the rule number.
+   * @return the rule, or {@code null} if there is no rule with that number.
+   */
+  public SubscriptionRequestRule get(final int ruleNum) {
+    return this.state.get().rules.get(Integer.valueOf(ruleNum));
+  }
+
+  /**
+   * Returns {@code true} if a rule equivalent to {@code rule} is present.
+   * 
+   * @param rule
+   *          the rule to look for.
+   * @return {@code true} if an equivalent rule is present.
+   */
+  public boolean contains(final SubscriptionRequestRule rule) {
+    return this.state.get().numbers.containsKey(new CanonicalRule(rule));
+  }
+
+  /**
+   * Returns the number of rules.
+   * 
+   * @return the number of rules.
+   */
+  public int size() {
+    return this.state.get().rules.size();
+  }
+
+  /**
+   * Returns the current rules, in the order they were added. The returned
+   * array is shared and must not be modified.
+   * 
+   * @return the current rules.
+   */
+  public SubscriptionRequestRule[] getRules() {
+    return this.state.get().toArray();
+  }
+
+  /**
+   * Returns the changes made since the previous call to this method, and
+   * clears them.
+   * 
+   * @return the changes, or {@code null} if there were none.
+   */
+  public Changes drainChanges() {
+    boolean removed = this.pendingRemoved.getAndSet(false);
+    List<SubscriptionRequestRule> added = new ArrayList<SubscriptionRequestRule>();
+    SubscriptionRequestRule rule;
+    while ((rule = this.pendingAdded.poll()) != null) {
+      added.add(rule);
+    }
+    if (!removed && added.isEmpty()) {
+      return null;
+    }
+    // Read after draining, so the state includes every drained change
+    return new Changes(this.getRules(), added.toArray(NO_RULES), removed);
+  }
+}
@@ -0,0 +1,366 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.solver.rules;
+
+import java.util.Arrays;
+
+import org.apache.mina.core.buffer.IoBuffer;
+
+import com.owlplatform.common.SampleMessage;
+import com.owlplatform.solver.protocol.messages.SampleView;
+import com.owlplatform.solver.protocol.messages.Transmitter;
+
+/**
+ * <p>
+ * A client-side filter for samples received from the aggregator. A sample is
+ * accepted only if it matches every configured criterion:
+ * </p>
+ * <ul>
+ * <li>Physical layer: equal to the configured physical layer, unless it is
+ * {@link SampleMessage#PHYSICAL_LAYER_ALL}.</li>
+ * <li>Device ID: matches at least one of the configured base ID/mask pairs,
+ * if any are configured.</li>
+ * <li>Receiver ID: equal to one of the configured receiver IDs, if any are
+ * configured.</li>
+ * <li>RSSI: within the configured (inclusive) range.</li>
+ * </ul>
+ * 
+ * <p>
+ * Identifiers are stored as pairs of {@code long} values so that samples can
+ * be tested directly against the bytes in the decode buffer, without creating
+ * any objects. A filter should be fully configured before it is registered
+ * with a {@code SolverAggregatorInterface}, and not modified afterwards.
+ * </p>
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class SampleFilter {
+
+  /**
+   * Empty array for unconfigured identifier sets.
+   */
+  private static final long[] EMPTY = new long[0];
+
+  /**
+   * Physical layer of accepted samples.
+   */
+  private byte physicalLayer = SampleMessage.PHYSICAL_LAYER_ALL;
+
+  /**
+   * Minimum accepted RSSI value.
+   */
+  private float minRssi = Float.NEGATIVE_INFINITY;
+
+  /**
+   * Maximum accepted RSSI value.
+   */
+  private float maxRssi = Float.POSITIVE_INFINITY;
+
+  /**
+   * Whether an RSSI range has been set. Without one, samples with any RSSI
+   * value (including NaN) are accepted.
+   */
+  private boolean rssiRange = false;
+
+  /**
+   * Device base IDs and masks, stored as four {@code long} values per entry:
+   * masked base high, masked base low, mask high, mask low.
+   */
+  private long[] devices = EMPTY;
+
+  /**
+   * Receiver IDs, stored as two {@code long} values (high, low) per entry and
+   * sorted for binary searching.
+   */
+  private long[] receivers = EMPTY;
+
+  /**
+   * Returns the physical layer of accepted samples.
+   * 
+   * @return the physical layer, or {@link SampleMessage#PHYSICAL_LAYER_ALL}
+   *         if samples from any physical layer are accepted.
+   */
+  public byte getPhysicalLayer() {
+    return this.physicalLayer;
+  }
+
+  /**
+   * Sets the physical layer of accepted samples.
+   * 
+   * @param physicalLayer
+   *          the physical layer, or {@link SampleMessage#PHYSICAL_LAYER_ALL}
+   *          to accept samples from any physical layer.
+   */
+  public void setPhysicalLayer(byte physicalLayer) {
+    this.physicalLayer = physicalLayer;
+  }
+
+  /**
+   * Returns the minimum accepted RSSI value.
+   * 
+   * @return the minimum RSSI value.
+   */
+  public float getMinRssi() {
+    return this.minRssi;
+  }
+
+  /**
+   * Returns the maximum accepted RSSI value.
+   * 
+   * @return the maximum RSSI value.
+   */
+  public float getMaxRssi() {
+    return this.maxRssi;
+  }
+
+  /**
+   * Sets the range of accepted RSSI values, inclusive. Samples with an RSSI
+   * value of NaN are outside of every range.
+   * 
+   * @param minRssi
+   *          the minimum RSSI value.
+   * @param maxRssi
+   *          the maximum RSSI value.
+   */
+  public void setRssiRange(float minRssi, float maxRssi) {
+    if (!(minRssi <= maxRssi)) {
+      throw new IllegalArgumentException(
+          "Minimum RSSI cannot be greater than maximum RSSI.");
+    }
+    this.minRssi = minRssi;
+    this.maxRssi = maxRssi;
+    this.rssiRange = true;
+  }
+
+  /**
+   * Adds a set of device IDs to accept, given as a base ID and mask. A device
+   * ID matches if it is equal to the base ID in every bit set in the mask.
+   * 
+   * @param transmitter
+   *          the base ID and mask of the devices.
+   */
+  public void addDevice(Transmitter transmitter) {
+    if (transmitter == null || transmitter.getBaseId() == null
+        || transmitter.getMask() == null) {
+      throw new IllegalArgumentException(
+          "Transmitter base ID and mask cannot be null.");
+    }
+    byte[] base = transmitter.getBaseId();
+    byte[] mask = transmitter.getMask();
+    long maskHigh = toLong(mask, 0);
+    long maskLow = toLong(mask, 8);
+
+    int length = this.devices.length;
+    long[] newDevices = Arrays.copyOf(this.devices, length + 4);
+    newDevices[length] = toLong(base, 0) & maskHigh;
+    newDevices[length + 1] = toLong(base, 8) & maskLow;
+    newDevices[length + 2] = maskHigh;
+    newDevices[length + 3] = maskLow;
+    this.devices = newDevices;
+  }
+
+  /**
+   * Adds a receiver ID to accept.
+   * 
+   * @param receiverId
+   *          the 16-byte receiver ID.
+   */
+  public void addReceiver(byte[] receiverId) {
+    if (receiverId == null
+        || receiverId.length != SampleMessage.DEVICE_ID_SIZE) {
+      throw new IllegalArgumentException(String.format(
+          "Receiver ID must be %d bytes long.",
+          Integer.valueOf(SampleMessage.DEVICE_ID_SIZE)));
+    }
+    long high = toLong(receiverId, 0);
+    long low = toLong(receiverId, 8);
+    int index = this.findReceiver(high, low);
+    if (index >= 0) {
+      return;
+    }
+    int insert = -(index + 1);
+    long[] newReceivers = new long[this.receivers.length + 2];
+    System.arraycopy(this.receivers, 0, newReceivers, 0, insert);
+    newReceivers[insert] = high;
+    newReceivers[insert + 1] = low;
+    System.arraycopy(this.receivers, insert, newReceivers, insert + 2,
+        this.receivers.length - insert);
+    this.receivers = newReceivers;
+  }
+
+  /**
+   * Tests a sample contained in a decode buffer against this filter. The
+   * buffer position and limit are not modified.
+   * 
+   * @param buffer
+   *          the buffer containing the sample.
+   * @param offset
+   *          the absolute index of the sample's message type within the
+   *          buffer.
+   * @return {@code true} if the sample is accepted by this filter, else
+   *         {@code false}.
+   */
+  public boolean accept(IoBuffer buffer, int offset) {
+    if (this.physicalLayer != SampleMessage.PHYSICAL_LAYER_ALL
+        && buffer.get(offset + SampleView.PHYSICAL_LAYER_OFFSET) != this.physicalLayer) {
+      return false;
+    }
+    if (this.rssiRange
+        && !this.acceptsRssi(buffer.getFloat(offset + SampleView.RSSI_OFFSET))) {
+      return false;
+    }
+    if (this.devices.length > 0
+        && !this.matchesDevice(
+            buffer.getLong(offset + SampleView.DEVICE_ID_OFFSET),
+            buffer.getLong(offset + SampleView.DEVICE_ID_OFFSET + 8))) {
+      return false;
+    }
+    if (this.receivers.length > 0
+        && this.findReceiver(
+            buffer.getLong(offset + SampleView.RECEIVER_ID_OFFSET),
+            buffer.getLong(offset + SampleView.RECEIVER_ID_OFFSET + 8)) < 0) {
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Tests a decoded sample against this filter.
+   * 
+   * @param sample
+   *          the sample to test.
+   * @return {@code true} if the sample is accepted by this filter, else
+   *         {@code false}.
+   */
+  public boolean accept(SampleMessage sample) {
+    if (this.physicalLayer != SampleMessage.PHYSICAL_LAYER_ALL
+        && sample.getPhysicalLayer() != this.physicalLayer) {
+      return false;
+    }
+    if (this.rssiRange && !this.acceptsRssi(sample.getRssi())) {
+      return false;
+    }
+    if (this.devices.length > 0) {
+      byte[] deviceId = sample.getDeviceId();
+      if (deviceId == null
+          || !this.matchesDevice(toLong(deviceId, 0), toLong(deviceId, 8))) {
+        return false;
+      }
+    }
+    if (this.receivers.length > 0) {
+      byte[] receiverId = sample.getReceiverId();
+      if (receiverId == null
+          || this.findReceiver(toLong(receiverId, 0), toLong(receiverId, 8)) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Determines whether an RSSI value is within the configured range. NaN is
+   * never within the range.
+   * 
+   * @param rssi
+   *          the RSSI value.
+   * @return {@code true} if the value is within the range, else {@code false}.
+   */
+  private boolean acceptsRssi(float rssi) {
+    return rssi >= this.minRssi && rssi <= this.maxRssi;
+  }
+
+  /**
+   * Determines whether a device ID matches any of the configured base ID and
+   * mask pairs.
+   * 
+   * @param high
+   *          the high 8 bytes of the device ID.
+   * @param low
+   *          the low 8 bytes of the device ID.
+   * @return {@code true} if the device ID matches, else {@code false}.
+   */
+  private boolean matchesDevice(long high, long low) {
+    long[] devs = this.devices;
+    for (int i = 0; i < devs.length; i += 4) {
+      if ((high & devs[i + 2]) == devs[i] && (low & devs[i + 3]) == devs[i + 1]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Binary search for a receiver ID.
+   * 
+   * @param high
+   *          the high 8 bytes of the receiver ID.
+   * @param low
+   *          the low 8 bytes of the receiver ID.
+   * @return the index of the receiver ID if it is present, otherwise
+   *         {@code (-(insertion point) - 1)}.
+   */
+  private int findReceiver(long high, long low) {
+    long[] rcvs = this.receivers;
+    int lowIndex = 0;
+    int highIndex = rcvs.length / 2 - 1;
+    while (lowIndex <= highIndex) {
+      int mid = (lowIndex + highIndex) >>> 1;
+      long midHigh = rcvs[mid * 2];
+      long midLow = rcvs[mid * 2 + 1];
+      if (midHigh < high || (midHigh == high && midLow < low)) {
+        lowIndex = mid + 1;
+      } else if (midHigh == high && midLow == low) {
+        return mid * 2;
+      } else {
+        highIndex = mid - 1;
+      }
+    }
+    return -(lowIndex * 2 + 1);
+  }
+
+  /**
+   * Reads 8 bytes from {@code bytes} as a big-endian {@code long}.
+   * 
+   * @param bytes
+   *          the source array.
+   * @param offset
+   *          the index of the first byte.
+   * @return the {@code long} value.
+   */
+  private static long toLong(byte[] bytes, int offset) {
+    long value = 0;
+    for (int i = offset; i < offset + 8; ++i) {
+      value = (value << 8) | (bytes[i] & 0xFFL);
+    }
+    return value;
+  }
+
+  @Override
+  public String toString() {
+    StringBuffer sb = new StringBuffer();
+    sb.append("Sample filter: Phy (").append(this.physicalLayer)
+        .append(") Devices: ").append(this.devices.length / 4)
+        .append(" Receivers: ").append(this.receivers.length / 2)
+        .append(" RSSI [").append(this.minRssi).append(", ")
+        .append(this.maxRssi).append(']');
+    return sb.toString();
+  }
+}
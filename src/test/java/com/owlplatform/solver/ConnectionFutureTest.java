@@ -0,0 +1,143 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.solver;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.owlplatform.solver.listeners.ConnectionFutureListener;
+
+/**
+ * Test class for {@link ConnectionFuture}.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class ConnectionFutureTest {
+
+  /**
+   * Checks that listeners are notified exactly once, including listeners
+   * added after completion, and that only the first completion counts.
+   * 
+   * @throws Exception
+   *           if the test fails.
+   */
+  @Test
+  public void testSuccess() throws Exception {
+    SolverAggregatorInterface agg = new SolverAggregatorInterface();
+    ConnectionFuture future = new ConnectionFuture(agg);
+    final AtomicInteger notified = new AtomicInteger(0);
+    ConnectionFutureListener listener = new ConnectionFutureListener() {
+      @Override
+      public void connectionCompleted(ConnectionFuture completed) {
+        notified.incrementAndGet();
+      }
+    };
+    future.addListener(listener);
+    Assert.assertFalse(future.isDone());
+    try {
+      future.get(10, TimeUnit.MILLISECONDS);
+      Assert.fail("Incomplete future returned a value.");
+    } catch (TimeoutException te) {
+      // Expected
+    }
+
+    Assert.assertTrue(future.succeed());
+    Assert.assertFalse(future.fail(new IOException()));
+    future.addListener(listener);
+    Assert.assertEquals(2, notified.get());
+    Assert.assertTrue(future.isSuccess());
+    Assert.assertSame(agg, future.get());
+  }
+
+  /**
+   * Checks that a failed attempt reports its cause and fails
+   * {@link ConnectionFuture#awaitAll}.
+   * 
+   * @throws InterruptedException
+   *           if the test is interrupted.
+   */
+  @Test
+  public void testFailure() throws InterruptedException {
+    ConnectionFuture good = new ConnectionFuture(
+        new SolverAggregatorInterface());
+    ConnectionFuture bad = new ConnectionFuture(
+        new SolverAggregatorInterface());
+    good.succeed();
+    IOException cause = new IOException("Refused");
+    bad.fail(cause);
+    try {
+      bad.get();
+      Assert.fail("Failed future returned a value.");
+    } catch (ExecutionException ee) {
+      Assert.assertSame(cause, ee.getCause());
+    }
+    Assert.assertTrue(ConnectionFuture.awaitAll(Arrays.asList(good), 0,
+        TimeUnit.MILLISECONDS));
+    Assert.assertFalse(ConnectionFuture.awaitAll(Arrays.asList(good, bad),
+        0, TimeUnit.MILLISECONDS));
+  }
+
+  /**
+   * Checks that {@link ConnectionFuture#awaitAny} returns as soon as one
+   * attempt succeeds, even while others are still pending, and returns
+   * {@code false} once every attempt has failed.
+   * 
+   * @throws InterruptedException
+   *           if the test is interrupted.
+   */
+  @Test
+  public void testAwaitAny() throws InterruptedException {
+    final ConnectionFuture pending = new ConnectionFuture(
+        new SolverAggregatorInterface());
+    final ConnectionFuture good = new ConnectionFuture(
+        new SolverAggregatorInterface());
+    Thread completer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        good.succeed();
+      }
+    });
+    long start = System.currentTimeMillis();
+    completer.start();
+    Assert.assertTrue(ConnectionFuture.awaitAny(Arrays.asList(pending, good),
+        10, TimeUnit.SECONDS));
+    Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+    Assert.assertFalse(pending.isDone());
+
+    ConnectionFuture bad = new ConnectionFuture(
+        new SolverAggregatorInterface());
+    ConnectionFuture worse = new ConnectionFuture(
+        new SolverAggregatorInterface());
+    bad.fail(new IOException());
+    worse.fail(new IOException());
+    Assert.assertFalse(ConnectionFuture.awaitAny(Arrays.asList(bad, worse),
+        10, TimeUnit.SECONDS));
+    Assert.assertFalse(ConnectionFuture.awaitAny(Arrays.asList(pending), 10,
+        TimeUnit.MILLISECONDS));
+  }
+}
@@ -0,0 +1,187 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.owlplatform.common.SampleMessage;
+import com.owlplatform.solver.protocol.messages.HandshakeMessage;
+import com.owlplatform.solver.protocol.messages.SubscriptionMessage;
+
+/**
+ * A minimal aggregator for tests. It echoes the solver's handshake, answers
+ * each subscription request with the same rules, and sends samples on
+ * request.
+ * 
+ * @author Robert Moore
+ * 
+ */
+class FakeAggregator implements Runnable {
+
+  /**
+   * The listening socket.
+   */
+  private final ServerSocket server;
+
+  /**
+   * The body (message type onward) of each subscription request received.
+   */
+  final List<byte[]> requests = new CopyOnWriteArrayList<byte[]>();
+
+  /**
+   * The stream to the most recently connected solver.
+   */
+  private volatile DataOutputStream out = null;
+
+  /**
+   * The most recently accepted socket.
+   */
+  private volatile Socket socket = null;
+
+  /**
+   * Starts a new aggregator on an ephemeral port.
+   * 
+   * @throws IOException
+   *           if the socket cannot be opened.
+   */
+  FakeAggregator() throws IOException {
+    this.server = new ServerSocket(0);
+    Thread thread = new Thread(this, "Fake Aggregator");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Returns the port the aggregator listens on.
+   * 
+   * @return the port number.
+   */
+  int getPort() {
+    return this.server.getLocalPort();
+  }
+
+  @Override
+  public void run() {
+    try {
+      while (!this.server.isClosed()) {
+        this.serve(this.server.accept());
+      }
+    } catch (IOException ioe) {
+      // Closed
+    }
+  }
+
+  /**
+   * Serves a single solver until it disconnects.
+   * 
+   * @param accepted
+   *          the solver's socket.
+   */
+  private void serve(final Socket accepted) {
+    this.socket = accepted;
+    try {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(
+          accepted.getInputStream()));
+      DataOutputStream stream = new DataOutputStream(
+          accepted.getOutputStream());
+      byte[] handshake = new byte[HandshakeMessage.MESSAGE_LENGTH];
+      in.readFully(handshake);
+      stream.write(handshake);
+      stream.flush();
+      this.out = stream;
+      for (;;) {
+        byte[] body = new byte[in.readInt()];
+        in.readFully(body);
+        this.requests.add(body.clone());
+        body[0] = SubscriptionMessage.RESPONSE_MESSAGE_ID;
+        synchronized (stream) {
+          stream.writeInt(body.length);
+          stream.write(body);
+          stream.flush();
+        }
+      }
+    } catch (IOException ioe) {
+      // Solver disconnected
+    }
+  }
+
+  /**
+   * Sends a sample to the connected solver.
+   * 
+   * @param phy
+   *          the physical layer of the sample.
+   * @param device
+   *          the low 8 bytes of the device ID.
+   * @param timestamp
+   *          the receiver timestamp of the sample.
+   * @throws IOException
+   *           if the sample cannot be sent.
+   */
+  void sendSample(final byte phy, final long device, final long timestamp)
+      throws IOException {
+    DataOutputStream stream = this.out;
+    synchronized (stream) {
+      stream.writeInt(2 + 2 * SampleMessage.DEVICE_ID_SIZE + 12);
+      stream.write(SampleMessage.MESSAGE_TYPE);
+      stream.write(phy);
+      stream.writeLong(0);
+      stream.writeLong(device);
+      stream.writeLong(0);
+      stream.writeLong(1);
+      stream.writeLong(timestamp);
+      stream.writeFloat(-50f);
+      stream.flush();
+    }
+  }
+
+  /**
+   * Stops accepting solvers and disconnects the current one.
+   * 
+   * @throws IOException
+   *           if a socket cannot be closed.
+   */
+  void close() throws IOException {
+    this.server.close();
+    Socket current = this.socket;
+    if (current != null) {
+      current.close();
+    }
+  }
+
+  /**
+   * Returns a port that nothing is listening on.
+   * 
+   * @return an unused port number.
+   * @throws IOException
+   *           if a socket cannot be opened.
+   */
+  static int unusedPort() throws IOException {
+    ServerSocket unused = new ServerSocket(0);
+    int port = unused.getLocalPort();
+    unused.close();
+    return port;
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scheduler that records scheduled tasks for a test to run, instead of
+ * running them after their delay.
+ * 
+ * @author Robert Moore
+ * 
+ */
+class ManualScheduler extends ScheduledThreadPoolExecutor {
+
+  /**
+   * The scheduled tasks, in order.
+   */
+  final List<Runnable> tasks = new ArrayList<Runnable>();
+
+  /**
+   * The delay of each scheduled task, in milliseconds.
+   */
+  final List<Long> delays = new ArrayList<Long>();
+
+  /**
+   * Creates a new scheduler.
+   */
+  ManualScheduler() {
+    super(1);
+  }
+
+  /**
+   * Records {@code command} and its delay. The returned future can be
+   * cancelled, but the task is never run by the scheduler itself.
+   */
+  @Override
+  public ScheduledFuture<?> schedule(Runnable command, long delay,
+      TimeUnit unit) {
+    this.tasks.add(command);
+    this.delays.add(Long.valueOf(unit.toMillis(delay)));
+    return super.schedule(command, 1, TimeUnit.DAYS);
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.owlplatform.common.SampleMessage;
+
+/**
+ * Test class for {@link MultiAggregatorConnection}.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class MultiAggregatorConnectionTest {
+
+  /**
+   * Checks that samples from a working aggregator are delivered when another
+   * aggregator is down, including after the failed aggregator gives up.
+   * 
+   * @throws Exception
+   *           if the test fails.
+   */
+  @Test
+  public void testOneAggregatorDown() throws Exception {
+    FakeAggregator up = new FakeAggregator();
+    MultiAggregatorConnection conn = new MultiAggregatorConnection();
+    SolverAggregatorInterface down = conn.addAggregator("localhost",
+        FakeAggregator.unusedPort());
+    conn.addAggregator("localhost", up.getPort());
+    try {
+      // Returns soon after the working aggregator connects
+      long start = System.currentTimeMillis();
+      Assert.assertTrue(conn.connect(10000));
+      Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+      Assert.assertTrue(conn.isConnected());
+      up.sendSample((byte) 1, 5L, 1L);
+      SampleMessage sample = conn.pollSample(2, TimeUnit.SECONDS);
+      Assert.assertNotNull(sample);
+      Assert.assertEquals(1L, sample.getReceiverTimeStamp());
+
+      // The failed aggregator ending doesn't end the connection
+      down.disconnect();
+      Assert.assertTrue(conn.isConnected());
+      up.sendSample((byte) 1, 5L, 2L);
+      Assert.assertEquals(2L, conn.getNextSample().getReceiverTimeStamp());
+    } finally {
+      conn.disconnect();
+      up.close();
+    }
+  }
+
+  /**
+   * Checks that connecting fails, and the connection ends, when no
+   * aggregator is reachable.
+   * 
+   * @throws Exception
+   *           if the test fails.
+   */
+  @Test
+  public void testAllAggregatorsDown() throws Exception {
+    MultiAggregatorConnection conn = new MultiAggregatorConnection();
+    conn.addAggregator("localhost", FakeAggregator.unusedPort());
+    conn.addAggregator("localhost", FakeAggregator.unusedPort());
+    long start = System.currentTimeMillis();
+    Assert.assertFalse(conn.connect(500));
+    // Both attempts share the timeout
+    Assert.assertTrue(System.currentTimeMillis() - start < 900);
+    long deadline = System.currentTimeMillis() + 2000;
+    while (conn.isConnected() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    Assert.assertFalse(conn.isConnected());
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver;
+
+import org.apache.mina.core.session.DummySession;
+import org.apache.mina.core.session.IoEvent;
+import org.apache.mina.core.session.IoEventType;
+import org.apache.mina.core.session.IoSession;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.owlplatform.common.SampleMessage;
+import com.owlplatform.solver.dispatch.EventQueueThrottle;
+
+/**
+ * Test class for {@link ReadSuspension}.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class ReadSuspensionTest {
+
+  /**
+   * Checks that reads are only resumed once every reason is released, and
+   * that repeated calls for the same reason have no effect.
+   */
+  @Test
+  public void testReasons() {
+    IoSession session = new DummySession();
+    Object first = new Object();
+    Object second = new Object();
+    Assert.assertEquals(0, ReadSuspension.getReasonCount(session));
+    Assert.assertFalse(ReadSuspension.resume(session, first));
+
+    Assert.assertTrue(ReadSuspension.suspend(session, first));
+    Assert.assertTrue(session.isReadSuspended());
+    Assert.assertFalse(ReadSuspension.suspend(session, first));
+    Assert.assertTrue(ReadSuspension.suspend(session, second));
+    Assert.assertEquals(2, ReadSuspension.getReasonCount(session));
+
+    Assert.assertTrue(ReadSuspension.resume(session, first));
+    Assert.assertTrue(session.isReadSuspended());
+    Assert.assertFalse(ReadSuspension.resume(session, first));
+    Assert.assertTrue(session.isReadSuspended());
+    Assert.assertTrue(ReadSuspension.resume(session, second));
+    Assert.assertFalse(session.isReadSuspended());
+    Assert.assertEquals(0, ReadSuspension.getReasonCount(session));
+  }
+
+  /**
+   * Checks that an event queue throttle draining doesn't resume reads that
+   * another component still holds suspended.
+   */
+  @Test
+  public void testThrottleWithOtherReason() {
+    IoSession session = new DummySession();
+    SampleMessage sample = new SampleMessage();
+    sample.setDeviceId(new byte[SampleMessage.DEVICE_ID_SIZE]);
+    sample.setReceiverId(new byte[SampleMessage.DEVICE_ID_SIZE]);
+    IoEvent event = new IoEvent(IoEventType.MESSAGE_RECEIVED, session, sample);
+    EventQueueThrottle throttle = new EventQueueThrottle(0, 2);
+    Object buffer = new Object();
+
+    for (int i = 0; i < 3; ++i) {
+      throttle.offered(this, event);
+    }
+    Assert.assertTrue(throttle.isSuspended());
+    ReadSuspension.suspend(session, buffer);
+
+    for (int i = 0; i < 3; ++i) {
+      throttle.polled(this, event);
+    }
+    Assert.assertFalse(throttle.isSuspended());
+    Assert.assertTrue(session.isReadSuspended());
+
+    ReadSuspension.resume(session, buffer);
+    Assert.assertFalse(session.isReadSuspended());
+  }
+}
@@ -0,0 +1,176 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver;
+
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.owlplatform.solver.SolverAggregatorInterfaceTest.WriteRecorder;
+import com.owlplatform.solver.rules.RuleRegistry;
+import com.owlplatform.solver.rules.SubscriptionRequestRule;
+
+/**
+ * Test class for {@link RuleUpdateCoalescer}.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class RuleUpdateCoalescerTest {
+
+  /**
+   * Scheduler of the aggregator interface.
+   */
+  private ManualScheduler scheduler;
+
+  /**
+   * The aggregator interface that is sent the changes.
+   */
+  private SolverAggregatorInterface aggregator;
+
+  /**
+   * The rules.
+   */
+  private RuleRegistry registry;
+
+  /**
+   * The coalescer under test.
+   */
+  private RuleUpdateCoalescer coalescer;
+
+  /**
+   * Creates a disconnected aggregator interface and a coalescer for it.
+   */
+  @Before
+  public void setUp() {
+    this.scheduler = new ManualScheduler();
+    this.aggregator = new SolverAggregatorInterface();
+    this.aggregator.setReconnectScheduler(this.scheduler);
+    this.registry = new RuleRegistry();
+    this.coalescer = new RuleUpdateCoalescer(this.registry,
+        Collections.singletonList(this.aggregator));
+  }
+
+  /**
+   * Shuts down the scheduler.
+   */
+  @After
+  public void tearDown() {
+    this.scheduler.shutdownNow();
+  }
+
+  /**
+   * Checks that changes are applied immediately while no aggregator is
+   * connected, so that the next connection uses them.
+   */
+  @Test
+  public void testDisconnected() {
+    this.registry.add(SolverAggregatorInterfaceTest.rule(1));
+    this.coalescer.changed();
+    Assert.assertTrue(this.scheduler.tasks.isEmpty());
+    Assert.assertArrayEquals(
+        new SubscriptionRequestRule[] { SolverAggregatorInterfaceTest.rule(1) },
+        this.aggregator.getRules());
+  }
+
+  /**
+   * Checks that changes within the window are sent in one request when it
+   * ends.
+   */
+  @Test
+  public void testWindow() {
+    WriteRecorder recorder = new WriteRecorder();
+    SolverAggregatorInterfaceTest.connect(this.aggregator, recorder);
+    Assert.assertEquals(1, recorder.written.size());
+
+    this.registry.add(SolverAggregatorInterfaceTest.rule(1));
+    this.coalescer.changed();
+    this.registry.add(SolverAggregatorInterfaceTest.rule(2));
+    this.coalescer.changed();
+    Assert.assertEquals(1, this.scheduler.tasks.size());
+    Assert.assertEquals(Long.valueOf(RuleUpdateCoalescer.DEFAULT_WINDOW),
+        this.scheduler.delays.get(0));
+    Assert.assertEquals(1, recorder.written.size());
+
+    this.scheduler.tasks.get(0).run();
+    Assert.assertEquals(2, recorder.written.size());
+    Assert.assertEquals(2, recorder.written.get(1).getRules().length);
+
+    // The next change opens a new window
+    this.registry.add(SolverAggregatorInterfaceTest.rule(3));
+    this.coalescer.changed();
+    Assert.assertEquals(2, this.scheduler.tasks.size());
+  }
+
+  /**
+   * Checks that each change is sent immediately without a window.
+   */
+  @Test
+  public void testNoWindow() {
+    WriteRecorder recorder = new WriteRecorder();
+    SolverAggregatorInterfaceTest.connect(this.aggregator, recorder);
+    this.coalescer.setWindow(0);
+
+    this.registry.add(SolverAggregatorInterfaceTest.rule(1));
+    this.coalescer.changed();
+    Assert.assertTrue(this.scheduler.tasks.isEmpty());
+    Assert.assertEquals(2, recorder.written.size());
+  }
+
+  /**
+   * Checks that only the added rules are requested, whether or not rules
+   * were also removed.
+   */
+  @Test
+  public void testDeltaOnly() {
+    int first = this.registry.add(SolverAggregatorInterfaceTest.rule(1));
+    this.coalescer.changed();
+    WriteRecorder recorder = new WriteRecorder();
+    SolverAggregatorInterfaceTest.connect(this.aggregator, recorder);
+    Assert.assertEquals(1, recorder.written.size());
+
+    this.registry.add(SolverAggregatorInterfaceTest.rule(2));
+    this.registry.remove(first);
+    this.coalescer.changed();
+    this.scheduler.tasks.get(0).run();
+    Assert.assertEquals(2, recorder.written.size());
+    Assert.assertArrayEquals(
+        new SubscriptionRequestRule[] { SolverAggregatorInterfaceTest.rule(2) },
+        recorder.written.get(1).getRules());
+    Assert.assertArrayEquals(
+        new SubscriptionRequestRule[] { SolverAggregatorInterfaceTest.rule(2) },
+        this.aggregator.getRules());
+
+    // Removing a rule alone sends nothing
+    int third = this.registry.add(SolverAggregatorInterfaceTest.rule(3));
+    this.coalescer.changed();
+    this.scheduler.tasks.get(1).run();
+    Assert.assertEquals(3, recorder.written.size());
+    this.registry.remove(third);
+    this.coalescer.changed();
+    this.scheduler.tasks.get(2).run();
+    Assert.assertEquals(3, recorder.written.size());
+    Assert.assertArrayEquals(
+        new SubscriptionRequestRule[] { SolverAggregatorInterfaceTest.rule(2) },
+        this.aggregator.getRules());
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import org.apache.mina.core.session.DummySession;
+import org.apache.mina.core.session.IoSession;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.owlplatform.common.SampleMessage;
+
+/**
+ * Test class for {@link SolverAggregatorConnection}.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class SolverAggregatorConnectionTest {
+
+  /**
+   * Session that counts calls to suspend and resume reads, and passes every
+   * call on to a {@link DummySession}.
+   */
+  private static final class CountingSession implements InvocationHandler {
+    /**
+     * The session that handles the calls.
+     */
+    private final IoSession target = new DummySession();
+
+    /**
+     * Number of calls to {@link IoSession#suspendRead()}.
+     */
+    int suspended = 0;
+
+    /**
+     * Number of calls to {@link IoSession#resumeRead()}.
+     */
+    int resumed = 0;
+
+    /**
+     * The proxy passed to the connection.
+     */
+    final IoSession session = (IoSession) Proxy.newProxyInstance(
+        IoSession.class.getClassLoader(), new Class<?>[] { IoSession.class },
+        this);
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args)
+        throws Throwable {
+      if ("suspendRead".equals(method.getName())) {
+        ++this.suspended;
+      } else if ("resumeRead".equals(method.getName())) {
+        ++this.resumed;
+      }
+      try {
+        return method.invoke(this.target, args);
+      } catch (InvocationTargetException ite) {
+        throw ite.getCause();
+      }
+    }
+  }
+
+  /**
+   * Creates a sample.
+   * 
+   * @return the new sample.
+   */
+  private static SampleMessage sample() {
+    SampleMessage sample = new SampleMessage();
+    sample.setDeviceId(new byte[SampleMessage.DEVICE_ID_SIZE]);
+    sample.setReceiverId(new byte[SampleMessage.DEVICE_ID_SIZE]);
+    return sample;
+  }
+
+  /**
+   * Checks that reads are suspended once at the high watermark and resumed
+   * once at the low watermark, and that a new session starts with reads
+   * enabled.
+   */
+  @Test
+  public void testBackpressure() {
+    SolverAggregatorConnection connection = new SolverAggregatorConnection(10);
+    connection.setBackpressureWatermarks(4, 1);
+    CountingSession first = new CountingSession();
+    connection.agg.connectionOpened(first.session);
+
+    for (int i = 0; i < 3; ++i) {
+      connection.sampleReceived(connection.agg, sample());
+    }
+    Assert.assertEquals(0, first.suspended);
+    Assert.assertFalse(connection.isReadSuspended());
+    for (int i = 0; i < 3; ++i) {
+      connection.sampleReceived(connection.agg, sample());
+    }
+    Assert.assertEquals(1, first.suspended);
+    Assert.assertTrue(connection.isReadSuspended());
+
+    // 6 buffered samples, resumed only at 1
+    for (int i = 0; i < 4; ++i) {
+      Assert.assertNotNull(connection.tryNextSample());
+    }
+    Assert.assertEquals(0, first.resumed);
+    Assert.assertNotNull(connection.tryNextSample());
+    Assert.assertEquals(1, first.resumed);
+    Assert.assertFalse(connection.isReadSuspended());
+    Assert.assertNotNull(connection.tryNextSample());
+    Assert.assertNull(connection.tryNextSample());
+    Assert.assertEquals(1, first.resumed);
+
+    for (int i = 0; i < 4; ++i) {
+      connection.sampleReceived(connection.agg, sample());
+    }
+    Assert.assertEquals(2, first.suspended);
+    Assert.assertTrue(first.session.isReadSuspended());
+
+    // A new session starts with reads enabled
+    connection.agg._disconnect();
+    CountingSession second = new CountingSession();
+    connection.agg.connectionOpened(second.session);
+    Assert.assertFalse(connection.isReadSuspended());
+    connection.sampleReceived(connection.agg, sample());
+    Assert.assertEquals(1, second.suspended);
+    Assert.assertTrue(second.session.isReadSuspended());
+    Assert.assertEquals(1, first.resumed);
+  }
+}
@@ -0,0 +1,426 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.mina.core.filterchain.IoFilterAdapter;
+import org.apache.mina.core.session.DummySession;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.core.write.WriteRequest;
+import org.apache.mina.filter.executor.ExecutorFilter;
+import org.apache.mina.filter.executor.OrderedThreadPoolExecutor;
+import org.apache.mina.filter.executor.UnorderedThreadPoolExecutor;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.owlplatform.common.SampleMessage;
+import com.owlplatform.solver.dispatch.UnorderedSampleFilter;
+import com.owlplatform.solver.listeners.SampleListener;
+import com.owlplatform.solver.protocol.messages.HandshakeMessage;
+import com.owlplatform.solver.protocol.messages.SubscriptionMessage;
+import com.owlplatform.solver.protocol.messages.Transmitter;
+import com.owlplatform.solver.rules.SubscriptionRequestRule;
+
+/**
+ * Test class for {@link SolverAggregatorInterface}.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class SolverAggregatorInterfaceTest {
+
+  /**
+   * Filter that records the subscription requests written to a session.
+   */
+  static final class WriteRecorder extends IoFilterAdapter {
+    /**
+     * The subscription requests written, in order.
+     */
+    final List<SubscriptionMessage> written = new ArrayList<SubscriptionMessage>();
+
+    @Override
+    public void filterWrite(NextFilter nextFilter, IoSession session,
+        WriteRequest writeRequest) throws Exception {
+      if (writeRequest.getMessage() instanceof SubscriptionMessage) {
+        this.written.add((SubscriptionMessage) writeRequest.getMessage());
+      }
+      nextFilter.filterWrite(session, writeRequest);
+    }
+  }
+
+  /**
+   * Listener that records the devices of the samples it receives.
+   */
+  private static final class DeviceRecorder implements SampleListener {
+    /**
+     * The low byte of each received device ID.
+     */
+    final List<Integer> devices = new ArrayList<Integer>();
+
+    @Override
+    public void sampleReceived(SolverAggregatorInterface aggregator,
+        SampleMessage sample) {
+      this.devices.add(Integer.valueOf(sample.getDeviceId()[15]));
+    }
+  }
+
+  /**
+   * Creates a rule for a single device.
+   * 
+   * @param device
+   *          the device ID.
+   * @return the new rule.
+   */
+  static SubscriptionRequestRule rule(final int device) {
+    SubscriptionRequestRule rule = new SubscriptionRequestRule();
+    rule.setPhysicalLayer((byte) 1);
+    rule.setTransmitters(new Transmitter[] { new Transmitter(device) });
+    return rule;
+  }
+
+  /**
+   * Creates a sample for a single device.
+   * 
+   * @param device
+   *          the device ID.
+   * @return the new sample.
+   */
+  private static SampleMessage sample(final int device) {
+    SampleMessage sample = new SampleMessage();
+    sample.setPhysicalLayer((byte) 1);
+    byte[] deviceId = new byte[SampleMessage.DEVICE_ID_SIZE];
+    deviceId[15] = (byte) device;
+    sample.setDeviceId(deviceId);
+    sample.setReceiverId(new byte[SampleMessage.DEVICE_ID_SIZE]);
+    return sample;
+  }
+
+  /**
+   * Opens a session and completes the handshake.
+   * 
+   * @param aggregator
+   *          the aggregator interface.
+   * @param recorder
+   *          records the subscription requests written to the session.
+   * @return the session.
+   */
+  static IoSession connect(final SolverAggregatorInterface aggregator,
+      final WriteRecorder recorder) {
+    IoSession session = new DummySession();
+    session.getFilterChain().addLast("recorder", recorder);
+    aggregator.connectionOpened(session);
+    aggregator.handshakeSent(session, HandshakeMessage.getDefaultMessage());
+    aggregator.handshakeReceived(session, HandshakeMessage.getDefaultMessage());
+    return session;
+  }
+
+  /**
+   * Passes the latest written subscription request to the aggregator as sent
+   * and then as answered.
+   * 
+   * @param aggregator
+   *          the aggregator interface.
+   * @param session
+   *          the session.
+   * @param recorder
+   *          records the subscription requests written to the session.
+   */
+  private static void answer(final SolverAggregatorInterface aggregator,
+      final IoSession session, final WriteRecorder recorder) {
+    SubscriptionMessage request = recorder.written.get(recorder.written
+        .size() - 1);
+    aggregator.subscriptionRequestSent(session, request);
+    SubscriptionMessage response = new SubscriptionMessage();
+    response.setMessageType(SubscriptionMessage.RESPONSE_MESSAGE_ID);
+    response.setRules(request.getRules());
+    aggregator.subscriptionResponseReceived(session, response);
+  }
+
+  /**
+   * Checks that a rule update only requests new rules, and that samples
+   * matching only removed rules stay discarded after the aggregator answers,
+   * until the next connection.
+   */
+  @Test
+  public void testUpdateRules() {
+    SolverAggregatorInterface aggregator = new SolverAggregatorInterface();
+    DeviceRecorder listener = new DeviceRecorder();
+    aggregator.addSampleListener(listener);
+    aggregator.setRules(new SubscriptionRequestRule[] { rule(1), rule(2) });
+
+    WriteRecorder recorder = new WriteRecorder();
+    IoSession session = connect(aggregator, recorder);
+    Assert.assertTrue(aggregator.isConnected());
+    Assert.assertEquals(1, recorder.written.size());
+    Assert.assertEquals(2, recorder.written.get(0).getRules().length);
+    answer(aggregator, session, recorder);
+
+    aggregator.updateRules(new SubscriptionRequestRule[] { rule(1), rule(3) });
+    Assert.assertEquals(2, recorder.written.size());
+    Assert.assertArrayEquals(new SubscriptionRequestRule[] { rule(3) },
+        recorder.written.get(1).getRules());
+    answer(aggregator, session, recorder);
+
+    // The aggregator still sends samples for device 2
+    for (int device = 1; device <= 3; ++device) {
+      aggregator.solverSampleReceived(session, sample(device));
+    }
+    Assert.assertEquals(Arrays.asList(Integer.valueOf(1), Integer.valueOf(3)),
+        listener.devices);
+
+    // Re-adding a removed rule needs no request and lifts the filter
+    aggregator.updateRules(new SubscriptionRequestRule[] { rule(1), rule(2),
+        rule(3) });
+    Assert.assertEquals(2, recorder.written.size());
+    listener.devices.clear();
+    aggregator.solverSampleReceived(session, sample(2));
+    Assert.assertEquals(Arrays.asList(Integer.valueOf(2)), listener.devices);
+
+    aggregator.updateRules(new SubscriptionRequestRule[] { rule(3) });
+    Assert.assertEquals(2, recorder.written.size());
+
+    // A new connection only requests the current rules, so the filter ends
+    aggregator.connectionClosed(session);
+    Assert.assertFalse(aggregator.isConnected());
+    recorder = new WriteRecorder();
+    session = connect(aggregator, recorder);
+    Assert.assertEquals(1, recorder.written.size());
+    Assert.assertArrayEquals(new SubscriptionRequestRule[] { rule(3) },
+        recorder.written.get(0).getRules());
+    answer(aggregator, session, recorder);
+    listener.devices.clear();
+    aggregator.solverSampleReceived(session, sample(1));
+    Assert.assertEquals(Arrays.asList(Integer.valueOf(1)), listener.devices);
+  }
+
+  /**
+   * Checks that retry delays stay within the doubled retry delay, capped at
+   * the maximum retry delay.
+   */
+  @Test
+  public void testRetryDelayCeiling() {
+    SolverAggregatorInterface aggregator = new SolverAggregatorInterface();
+    aggregator.setConnectionRetryDelay(100);
+    aggregator.setMaxConnectionRetryDelay(1000);
+    aggregator.setRetrySeed(42);
+    for (int attempt = 0; attempt < 8; ++attempt) {
+      long ceiling = Math.min(100L << attempt, 1000L);
+      for (int i = 0; i < 100; ++i) {
+        long delay = aggregator.nextRetryDelay(attempt);
+        Assert.assertTrue(delay >= 0 && delay <= ceiling);
+      }
+    }
+  }
+
+  /**
+   * Checks that many failed attempts or a very large retry delay cannot
+   * overflow the ceiling.
+   */
+  @Test
+  public void testRetryDelayOverflow() {
+    SolverAggregatorInterface aggregator = new SolverAggregatorInterface();
+    aggregator.setConnectionRetryDelay(100);
+    aggregator.setMaxConnectionRetryDelay(1000);
+    aggregator.setRetrySeed(42);
+    int[] attempts = { 62, 63, 64, 100, Integer.MAX_VALUE };
+    for (int attempt : attempts) {
+      for (int i = 0; i < 100; ++i) {
+        long delay = aggregator.nextRetryDelay(attempt);
+        Assert.assertTrue(delay >= 0 && delay <= 1000);
+      }
+    }
+
+    aggregator.setConnectionRetryDelay(Long.MAX_VALUE / 2);
+    aggregator.setMaxConnectionRetryDelay(Long.MAX_VALUE);
+    for (int attempt = 0; attempt < 70; ++attempt) {
+      Assert.assertTrue(aggregator.nextRetryDelay(attempt) >= 0);
+    }
+  }
+
+  /**
+   * Checks that a seeded interface repeats its delays, and that they are
+   * spread across the whole range.
+   */
+  @Test
+  public void testRetryJitter() {
+    SolverAggregatorInterface first = new SolverAggregatorInterface();
+    SolverAggregatorInterface second = new SolverAggregatorInterface();
+    first.setRetrySeed(7);
+    second.setRetrySeed(7);
+    long min = Long.MAX_VALUE;
+    long max = Long.MIN_VALUE;
+    for (int i = 0; i < 1000; ++i) {
+      long delay = first.nextRetryDelay(0);
+      Assert.assertEquals(delay, second.nextRetryDelay(0));
+      min = Math.min(min, delay);
+      max = Math.max(max, delay);
+    }
+    long ceiling = first.getConnectionRetryDelay();
+    Assert.assertTrue(min < ceiling / 10);
+    Assert.assertTrue(max > ceiling - ceiling / 10);
+  }
+
+  /**
+   * Checks that a lost connection schedules one reconnection attempt on the
+   * injected scheduler, and that a verified handshake resets the backoff.
+   */
+  @Test
+  public void testScheduleReconnect() {
+    ManualScheduler scheduler = new ManualScheduler();
+    try {
+      SolverAggregatorInterface aggregator = new SolverAggregatorInterface();
+      aggregator.setReconnectScheduler(scheduler);
+      aggregator.setStayConnected(true);
+      aggregator.setRetrySeed(3);
+      SolverAggregatorInterface expected = new SolverAggregatorInterface();
+      expected.setRetrySeed(3);
+
+      IoSession session = connect(aggregator, new WriteRecorder());
+      Assert.assertEquals(0, aggregator.getReconnectAttempts());
+      aggregator.connectionClosed(session);
+      Assert.assertEquals(1, aggregator.getReconnectAttempts());
+      Assert.assertEquals(1, scheduler.tasks.size());
+      Assert.assertEquals(Long.valueOf(expected.nextRetryDelay(0)),
+          scheduler.delays.get(0));
+
+      // Already scheduled
+      aggregator.scheduleReconnect();
+      Assert.assertEquals(1, scheduler.tasks.size());
+      Assert.assertEquals(1, aggregator.getReconnectAttempts());
+
+      connect(aggregator, new WriteRecorder());
+      Assert.assertEquals(0, aggregator.getReconnectAttempts());
+    } finally {
+      scheduler.shutdownNow();
+    }
+  }
+
+  /**
+   * Sets up the connector of an interface for a threading model.
+   * 
+   * @param threadingModel
+   *          the threading model.
+   * @return the interface.
+   */
+  private static SolverAggregatorInterface setUpConnector(
+      final ThreadingModel threadingModel) {
+    SolverAggregatorInterface aggregator = new SolverAggregatorInterface();
+    aggregator.setHost("localhost");
+    aggregator.setPort(7008);
+    aggregator.setThreadingModel(threadingModel);
+    Assert.assertTrue(aggregator.setConnector());
+    return aggregator;
+  }
+
+  /**
+   * Checks that the inline threading model handles events on the IO thread.
+   */
+  @Test
+  public void testInlineThreading() {
+    SolverAggregatorInterface aggregator = setUpConnector(ThreadingModel.INLINE);
+    try {
+      Assert.assertFalse(aggregator.getConnector().getFilterChain()
+          .contains(ExecutorFilter.class));
+      Assert.assertNull(aggregator.getListenerExecutor());
+    } finally {
+      aggregator.finishConnection();
+    }
+  }
+
+  /**
+   * Checks that the pooled threading models create the matching executor,
+   * and that it is shut down when the connection is finished.
+   */
+  @Test
+  public void testPooledThreading() {
+    ThreadingModel[] models = { ThreadingModel.ORDERED_POOL,
+        ThreadingModel.UNORDERED_POOL };
+    Class<?>[] types = { OrderedThreadPoolExecutor.class,
+        UnorderedThreadPoolExecutor.class };
+    for (int i = 0; i < models.length; ++i) {
+      SolverAggregatorInterface aggregator = setUpConnector(models[i]);
+      ExecutorService executor = aggregator.getListenerExecutor();
+      Assert.assertTrue(types[i].isInstance(executor));
+      ExecutorFilter filter = (ExecutorFilter) aggregator.getConnector()
+          .getFilterChain().get(ExecutorFilter.class);
+      Assert.assertSame(executor, filter.getExecutor());
+      Assert.assertEquals(models[i] == ThreadingModel.UNORDERED_POOL,
+          filter instanceof UnorderedSampleFilter);
+
+      aggregator.finishConnection();
+      Assert.assertTrue(executor.isShutdown());
+      Assert.assertNull(aggregator.getListenerExecutor());
+      Assert.assertNull(aggregator.getConnector());
+    }
+  }
+
+  /**
+   * Checks that the handshake subscribes exactly once when samples are
+   * delivered by an unordered pool.
+   * 
+   * @throws Exception
+   *           if the test fails.
+   */
+  @Test
+  public void testUnorderedHandshake() throws Exception {
+    FakeAggregator fake = new FakeAggregator();
+    try {
+      for (int i = 0; i < 10; ++i) {
+        SolverAggregatorInterface aggregator = new SolverAggregatorInterface();
+        aggregator.setHost("localhost");
+        aggregator.setPort(fake.getPort());
+        aggregator.setThreadingModel(ThreadingModel.UNORDERED_POOL);
+        aggregator.setListenerThreads(4);
+        aggregator.setRules(new SubscriptionRequestRule[] { rule(1) });
+        try {
+          Assert.assertTrue(aggregator.connect(2000));
+          Thread.sleep(20);
+          Assert.assertEquals(i + 1, fake.requests.size());
+        } finally {
+          aggregator.disconnect();
+        }
+      }
+    } finally {
+      fake.close();
+    }
+  }
+
+  /**
+   * Checks that removing every rule discards all samples.
+   */
+  @Test
+  public void testRemoveAllRules() {
+    SolverAggregatorInterface aggregator = new SolverAggregatorInterface();
+    DeviceRecorder listener = new DeviceRecorder();
+    aggregator.addSampleListener(listener);
+    aggregator.setRules(new SubscriptionRequestRule[] { rule(1) });
+    WriteRecorder recorder = new WriteRecorder();
+    IoSession session = connect(aggregator, recorder);
+    answer(aggregator, session, recorder);
+
+    aggregator.updateRules(new SubscriptionRequestRule[0]);
+    Assert.assertEquals(1, recorder.written.size());
+    aggregator.solverSampleReceived(session, sample(1));
+    Assert.assertTrue(listener.devices.isEmpty());
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.owlplatform.common.SampleMessage;
+import com.owlplatform.solver.protocol.messages.SampleBatch;
+
+/**
+ * Test class for {@link SolverIoHandler}.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class SolverIoHandlerTest {
+
+  /**
+   * Creates an adapter that records the names of the methods called on it.
+   * 
+   * @param type
+   *          the adapter interface to implement.
+   * @param calls
+   *          receives the method names.
+   * @return the adapter.
+   */
+  private static SolverIoAdapter recordingAdapter(
+      final Class<? extends SolverIoAdapter> type, final List<String> calls) {
+    return (SolverIoAdapter) Proxy.newProxyInstance(type.getClassLoader(),
+        new Class<?>[] { type }, new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            calls.add(method.getName());
+            return null;
+          }
+        });
+  }
+
+  /**
+   * Creates a batch of two samples.
+   * 
+   * @return the batch.
+   */
+  private static SampleBatch batch() {
+    SampleBatch batch = new SampleBatch();
+    batch.add(new SampleMessage());
+    batch.add(new SampleMessage());
+    return batch;
+  }
+
+  /**
+   * Checks that a batch is passed whole to a {@link SolverBatchIoAdapter},
+   * and one sample at a time to any other adapter.
+   * 
+   * @throws Exception
+   *           if the handler fails.
+   */
+  @Test
+  public void testBatchDelivery() throws Exception {
+    List<String> calls = new ArrayList<String>();
+    SolverIoHandler handler = new SolverIoHandler(recordingAdapter(
+        SolverBatchIoAdapter.class, calls));
+    handler.messageReceived(null, batch());
+    Assert.assertEquals(Arrays.asList("solverSampleBatchReceived"), calls);
+
+    calls.clear();
+    handler.setSolverIoAdapter(recordingAdapter(SolverIoAdapter.class, calls));
+    handler.messageReceived(null, batch());
+    Assert.assertEquals(
+        Arrays.asList("solverSampleReceived", "solverSampleReceived"), calls);
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.solver;
+
+import org.apache.mina.filter.executor.ExecutorFilter;
+import org.apache.mina.transport.socket.nio.NioSocketConnector;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test class for {@link SolverRuntime}.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class SolverRuntimeTest {
+
+  /**
+   * Checks that connectors and executor filters share the runtime's threads
+   * and that disposing them leaves the runtime usable.
+   */
+  @Test
+  public void testSharing() {
+    SolverRuntime runtime = new SolverRuntime(1, 2);
+    ExecutorFilter first = runtime.newExecutorFilter();
+    ExecutorFilter second = runtime.newExecutorFilter();
+    Assert.assertSame(first.getExecutor(), second.getExecutor());
+    Assert.assertSame(runtime.getDispatchExecutor(), first.getExecutor());
+
+    NioSocketConnector connector = runtime.newConnector();
+    connector.dispose();
+    first.destroy();
+    Assert.assertFalse(runtime.isDisposed());
+    Assert.assertFalse(runtime.getDispatchExecutor().isShutdown());
+    runtime.newConnector().dispose();
+
+    runtime.dispose();
+    Assert.assertTrue(runtime.isDisposed());
+    try {
+      runtime.newConnector();
+      Assert.fail("Disposed runtime created a connector.");
+    } catch (IllegalStateException ise) {
+      // Expected
+    }
+  }
+}
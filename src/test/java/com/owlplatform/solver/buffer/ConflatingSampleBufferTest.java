@@ -0,0 +1,206 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.solver.buffer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.owlplatform.common.SampleMessage;
+
+/**
+ * Test class for {@link ConflatingSampleBuffer}.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class ConflatingSampleBufferTest {
+
+  /**
+   * Creates a sample for the specified device and receiver.
+   * 
+   * @param device
+   *          the last byte of the device identifier.
+   * @param receiver
+   *          the last byte of the receiver identifier.
+   * @param timestamp
+   *          the receiver timestamp.
+   * @return the new sample.
+   */
+  private static SampleMessage sample(int device, int receiver, long timestamp) {
+    SampleMessage sample = new SampleMessage();
+    byte[] deviceId = new byte[SampleMessage.DEVICE_ID_SIZE];
+    deviceId[15] = (byte) device;
+    byte[] receiverId = new byte[SampleMessage.DEVICE_ID_SIZE];
+    receiverId[15] = (byte) receiver;
+    sample.setDeviceId(deviceId);
+    sample.setReceiverId(receiverId);
+    sample.setReceiverTimeStamp(timestamp);
+    return sample;
+  }
+
+  /**
+   * Checks that newer samples replace pending samples for the same pair, and
+   * that pairs are returned in the order they became pending.
+   */
+  @Test
+  public void testConflation() {
+    ConflatingSampleBuffer buffer = new ConflatingSampleBuffer(4);
+    Assert.assertTrue(buffer.offer(sample(1, 1, 1)));
+    Assert.assertTrue(buffer.offer(sample(2, 1, 2)));
+    Assert.assertTrue(buffer.offer(sample(1, 2, 3)));
+    Assert.assertTrue(buffer.offer(sample(1, 1, 4)));
+    Assert.assertTrue(buffer.offer(sample(2, 1, 5)));
+    Assert.assertEquals(3, buffer.size());
+    Assert.assertEquals(2, buffer.getConflatedCount());
+
+    List<SampleMessage> drained = new ArrayList<SampleMessage>();
+    Assert.assertEquals(3, buffer.drainTo(drained, 10));
+    Assert.assertEquals(4, drained.get(0).getReceiverTimeStamp());
+    Assert.assertEquals(5, drained.get(1).getReceiverTimeStamp());
+    Assert.assertEquals(3, drained.get(2).getReceiverTimeStamp());
+    Assert.assertTrue(buffer.isEmpty());
+
+    Assert.assertTrue(buffer.offer(sample(1, 1, 6)));
+    Assert.assertEquals(6, buffer.poll().getReceiverTimeStamp());
+    Assert.assertNull(buffer.poll());
+  }
+
+  /**
+   * Checks that pairs without a pending sample are evicted to make room, and
+   * that new pairs are rejected while all tracked pairs are pending.
+   */
+  @Test
+  public void testCapacity() {
+    ConflatingSampleBuffer buffer = new ConflatingSampleBuffer(2);
+    Assert.assertTrue(buffer.offer(sample(1, 1, 1)));
+    Assert.assertTrue(buffer.offer(sample(2, 1, 2)));
+    Assert.assertFalse(buffer.offer(sample(3, 1, 3)));
+    Assert.assertTrue(buffer.offer(sample(2, 1, 4)));
+
+    Assert.assertEquals(1, buffer.poll().getReceiverTimeStamp());
+    Assert.assertTrue(buffer.offer(sample(3, 1, 5)));
+    Assert.assertEquals(4, buffer.poll().getReceiverTimeStamp());
+    Assert.assertEquals(5, buffer.poll().getReceiverTimeStamp());
+  }
+
+  /**
+   * Checks that the pair idle the longest is evicted first, and that pairs
+   * that received a new sample after becoming idle are not evicted.
+   */
+  @Test
+  public void testEvictionOrder() {
+    ConflatingSampleBuffer buffer = new ConflatingSampleBuffer(3);
+    Assert.assertTrue(buffer.offer(sample(1, 1, 1)));
+    Assert.assertTrue(buffer.offer(sample(2, 1, 2)));
+    Assert.assertTrue(buffer.offer(sample(3, 1, 3)));
+    Assert.assertEquals(1, buffer.poll().getReceiverTimeStamp());
+    Assert.assertEquals(2, buffer.poll().getReceiverTimeStamp());
+
+    // Pair 1 is pending again, so pair 2 is evicted for pair 4
+    Assert.assertTrue(buffer.offer(sample(1, 1, 4)));
+    Assert.assertTrue(buffer.offer(sample(4, 1, 5)));
+    Assert.assertFalse(buffer.offer(sample(5, 1, 6)));
+    for (int i = 0; i < 100; ++i) {
+      Assert.assertFalse(buffer.offer(sample(6 + i, 1, 7)));
+    }
+    Assert.assertEquals(3, buffer.size());
+
+    Assert.assertEquals(3, buffer.poll().getReceiverTimeStamp());
+    Assert.assertEquals(4, buffer.poll().getReceiverTimeStamp());
+    Assert.assertEquals(5, buffer.poll().getReceiverTimeStamp());
+    Assert.assertNull(buffer.poll());
+
+    // Pair 3 has been idle the longest, so it is evicted for pair 2
+    Assert.assertTrue(buffer.offer(sample(2, 1, 8)));
+    Assert.assertTrue(buffer.offer(sample(1, 1, 9)));
+    Assert.assertTrue(buffer.offer(sample(1, 1, 10)));
+    Assert.assertEquals(1, buffer.getConflatedCount());
+    Assert.assertEquals(8, buffer.poll().getReceiverTimeStamp());
+    Assert.assertEquals(10, buffer.poll().getReceiverTimeStamp());
+  }
+
+  /**
+   * Checks that concurrent producers sharing more pairs than the buffer can
+   * track never leave a pair with a sample that isn't pending, so that every
+   * pair is delivered again once the producers stop.
+   * 
+   * @throws InterruptedException
+   *           if the test is interrupted.
+   */
+  @Test
+  public void testConcurrentProducers() throws InterruptedException {
+    final ConflatingSampleBuffer buffer = new ConflatingSampleBuffer(8);
+    final int devices = 6;
+    final int receivers = 2;
+    final int perProducer = 20000;
+    final AtomicBoolean producing = new AtomicBoolean(true);
+    final AtomicBoolean invalid = new AtomicBoolean(false);
+    Thread consumer = new Thread() {
+      @Override
+      public void run() {
+        SampleMessage sample;
+        while (producing.get() || !buffer.isEmpty()) {
+          while ((sample = buffer.poll()) != null) {
+            if (sample.getDeviceId() == null) {
+              invalid.set(true);
+            }
+          }
+          Thread.yield();
+        }
+      }
+    };
+    consumer.start();
+
+    Thread[] producers = new Thread[4];
+    for (int i = 0; i < producers.length; ++i) {
+      producers[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < perProducer; ++j) {
+            buffer.offer(sample(j % devices, (j / devices) % receivers, j));
+          }
+        }
+      };
+      producers[i].start();
+    }
+    for (Thread producer : producers) {
+      producer.join(10000);
+    }
+    producing.set(false);
+    consumer.join(10000);
+    Assert.assertFalse(invalid.get());
+    Assert.assertNull(buffer.poll());
+
+    for (int device = 0; device < devices; ++device) {
+      for (int receiver = 0; receiver < receivers; ++receiver) {
+        Assert.assertTrue(buffer.offer(sample(device, receiver, -1)));
+        SampleMessage sample = buffer.poll();
+        Assert.assertNotNull(sample);
+        Assert.assertEquals(-1, sample.getReceiverTimeStamp());
+        Assert.assertEquals(device, sample.getDeviceId()[15]);
+        Assert.assertEquals(receiver, sample.getReceiverId()[15]);
+      }
+    }
+  }
+}
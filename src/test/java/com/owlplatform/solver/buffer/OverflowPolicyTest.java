@@ -0,0 +1,109 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.solver.buffer;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test class for {@link OverflowPolicy}.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class OverflowPolicyTest {
+
+  /**
+   * Creates a buffer of capacity 2 containing 1 and 2.
+   * 
+   * @return the full buffer.
+   */
+  private static RingBuffer<Integer> fullBuffer() {
+    RingBuffer<Integer> buffer = new RingBuffer<Integer>(2);
+    buffer.offer(Integer.valueOf(1));
+    buffer.offer(Integer.valueOf(2));
+    return buffer;
+  }
+
+  /**
+   * Checks that the drop-newest policy keeps the buffered elements.
+   */
+  @Test
+  public void testDropNewest() {
+    RingBuffer<Integer> buffer = fullBuffer();
+    OverflowPolicy policy = OverflowPolicy.dropNewest();
+    Assert.assertFalse(policy.offer(buffer, Integer.valueOf(3)));
+    Assert.assertEquals(1, policy.getDiscardedCount());
+    Assert.assertEquals(Integer.valueOf(1), buffer.poll());
+    Assert.assertTrue(policy.offer(buffer, Integer.valueOf(4)));
+    Assert.assertEquals(1, policy.getDiscardedCount());
+  }
+
+  /**
+   * Checks that the drop-oldest policy keeps the newest elements.
+   */
+  @Test
+  public void testDropOldest() {
+    RingBuffer<Integer> buffer = fullBuffer();
+    OverflowPolicy policy = OverflowPolicy.dropOldest();
+    Assert.assertFalse(policy.offer(buffer, Integer.valueOf(3)));
+    Assert.assertFalse(policy.offer(buffer, Integer.valueOf(4)));
+    Assert.assertEquals(2, policy.getDiscardedCount());
+    Assert.assertEquals(Integer.valueOf(3), buffer.poll());
+    Assert.assertEquals(Integer.valueOf(4), buffer.poll());
+  }
+
+  /**
+   * Checks that the blocking policy waits for space and times out.
+   * 
+   * @throws InterruptedException
+   *           if the test is interrupted.
+   */
+  @Test
+  public void testBlock() throws InterruptedException {
+    final RingBuffer<Integer> buffer = fullBuffer();
+    OverflowPolicy policy = OverflowPolicy.block(20, TimeUnit.MILLISECONDS);
+    Assert.assertFalse(policy.offer(buffer, Integer.valueOf(3)));
+    Assert.assertEquals(1, policy.getDiscardedCount());
+
+    policy = OverflowPolicy.block(10, TimeUnit.SECONDS);
+    Thread consumer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(50);
+        } catch (InterruptedException ie) {
+          // Ignored
+        }
+        buffer.poll();
+      }
+    };
+    consumer.start();
+    long start = System.nanoTime();
+    Assert.assertTrue(policy.offer(buffer, Integer.valueOf(4)));
+    Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    Assert.assertEquals(0, policy.getDiscardedCount());
+    consumer.join();
+    Assert.assertEquals(Integer.valueOf(2), buffer.poll());
+    Assert.assertEquals(Integer.valueOf(4), buffer.poll());
+  }
+}
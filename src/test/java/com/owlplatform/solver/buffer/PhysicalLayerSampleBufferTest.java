@@ -0,0 +1,103 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.solver.buffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.owlplatform.common.SampleMessage;
+
+/**
+ * Test class for {@link PhysicalLayerSampleBuffer}.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class PhysicalLayerSampleBufferTest {
+
+  /**
+   * Creates a sample for the specified physical layer.
+   * 
+   * @param physicalLayer
+   *          the physical layer of the sample.
+   * @param timestamp
+   *          the receiver timestamp.
+   * @return the new sample.
+   */
+  private static SampleMessage sample(int physicalLayer, long timestamp) {
+    SampleMessage sample = new SampleMessage();
+    sample.setPhysicalLayer((byte) physicalLayer);
+    sample.setReceiverTimeStamp(timestamp);
+    return sample;
+  }
+
+  /**
+   * Checks that a full lane does not prevent other layers from being
+   * buffered, and that drop-oldest evicts from the full lane.
+   */
+  @Test
+  public void testLaneIsolation() {
+    PhysicalLayerSampleBuffer buffer = new PhysicalLayerSampleBuffer(2);
+    buffer.addLane((byte) 1, 2, 1);
+    Assert.assertEquals(4, buffer.capacity());
+
+    Assert.assertTrue(buffer.offer(sample(3, 1)));
+    Assert.assertTrue(buffer.offer(sample(3, 2)));
+    Assert.assertFalse(buffer.offer(sample(3, 3)));
+    Assert.assertTrue(buffer.offer(sample(1, 4)));
+    Assert.assertEquals(2, buffer.getLaneSize((byte) 3));
+    Assert.assertEquals(1, buffer.getLaneSize((byte) 1));
+
+    OverflowPolicy policy = OverflowPolicy.dropOldest();
+    Assert.assertFalse(policy.offer(buffer, sample(3, 5)));
+    Assert.assertEquals(1, buffer.getLaneSize((byte) 1));
+    Assert.assertEquals(3, buffer.size());
+  }
+
+  /**
+   * Checks that busy lanes are served in proportion to their weights and
+   * that empty lanes are skipped.
+   */
+  @Test
+  public void testWeightedRoundRobin() {
+    PhysicalLayerSampleBuffer buffer = new PhysicalLayerSampleBuffer(100);
+    buffer.addLane((byte) 1, 100, 3);
+    for (int i = 0; i < 40; ++i) {
+      buffer.offer(sample(2, i));
+      buffer.offer(sample(1, i));
+    }
+
+    int fromLane = 0;
+    for (int i = 0; i < 40; ++i) {
+      if (buffer.poll().getPhysicalLayer() == 1) {
+        ++fromLane;
+      }
+    }
+    Assert.assertEquals(30, fromLane);
+
+    // Only the default lane has samples left after lane 1 is drained
+    while (buffer.getLaneSize((byte) 1) > 0) {
+      buffer.poll();
+    }
+    for (int i = 0; i < 10; ++i) {
+      Assert.assertEquals(2, buffer.poll().getPhysicalLayer());
+    }
+  }
+}
@@ -0,0 +1,229 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.solver.buffer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test class for {@link RingBuffer}.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class RingBufferTest {
+
+  /**
+   * Checks that elements are returned in order, that the capacity is exact,
+   * and that slots are reused after the ring wraps around.
+   */
+  @Test
+  public void testOfferPoll() {
+    RingBuffer<Integer> buffer = new RingBuffer<Integer>(3);
+    Assert.assertEquals(3, buffer.capacity());
+    Assert.assertTrue(buffer.isEmpty());
+    Assert.assertNull(buffer.poll());
+
+    for (int round = 0; round < 5; ++round) {
+      for (int i = 0; i < 3; ++i) {
+        Assert.assertTrue(buffer.offer(Integer.valueOf(i)));
+      }
+      Assert.assertFalse(buffer.offer(Integer.valueOf(3)));
+      Assert.assertEquals(3, buffer.size());
+      for (int i = 0; i < 3; ++i) {
+        Assert.assertEquals(Integer.valueOf(i), buffer.poll());
+      }
+      Assert.assertNull(buffer.poll());
+    }
+  }
+
+  /**
+   * Checks that draining removes elements in order, up to the limit.
+   * 
+   * @throws InterruptedException
+   *           if the test is interrupted.
+   */
+  @Test
+  public void testDrain() throws InterruptedException {
+    RingBuffer<Integer> buffer = new RingBuffer<Integer>(5);
+    List<Integer> drained = new ArrayList<Integer>();
+    Assert.assertEquals(0, buffer.drainTo(drained, 10));
+
+    // Wrap the ring before draining
+    for (int i = 0; i < 3; ++i) {
+      buffer.offer(Integer.valueOf(-1));
+      buffer.poll();
+    }
+    for (int i = 0; i < 5; ++i) {
+      buffer.offer(Integer.valueOf(i));
+    }
+    Assert.assertEquals(2, buffer.drainTo(drained, 2));
+    Assert.assertEquals(3, buffer.takeAll(drained, 10));
+    Assert.assertEquals(Arrays.asList(Integer.valueOf(0), Integer.valueOf(1),
+        Integer.valueOf(2), Integer.valueOf(3), Integer.valueOf(4)), drained);
+    Assert.assertTrue(buffer.isEmpty());
+    Assert.assertTrue(buffer.offer(Integer.valueOf(5)));
+  }
+
+  /**
+   * Checks that a collection that throws from {@code add} doesn't leave
+   * claimed slots unusable.
+   */
+  @Test
+  public void testDrainThrowingCollection() {
+    RingBuffer<Integer> buffer = new RingBuffer<Integer>(4);
+    for (int i = 0; i < 4; ++i) {
+      buffer.offer(Integer.valueOf(i));
+    }
+    List<Integer> bounded = new ArrayList<Integer>() {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      public boolean add(Integer element) {
+        if (this.size() == 1) {
+          throw new IllegalStateException("Full");
+        }
+        return super.add(element);
+      }
+    };
+    try {
+      buffer.drainTo(bounded, 4);
+      Assert.fail("Expected the collection's exception.");
+    } catch (IllegalStateException expected) {
+      // Expected
+    }
+    Assert.assertEquals(Arrays.asList(Integer.valueOf(0)), bounded);
+    Assert.assertTrue(buffer.isEmpty());
+
+    // Every slot must be writable again, including after the ring wraps
+    for (int round = 0; round < 3; ++round) {
+      for (int i = 0; i < 4; ++i) {
+        Assert.assertTrue(buffer.offer(Integer.valueOf(i)));
+      }
+      List<Integer> drained = new ArrayList<Integer>();
+      Assert.assertEquals(4, buffer.drainTo(drained, 4));
+      Assert.assertEquals(4, drained.size());
+    }
+  }
+
+  /**
+   * Checks that timed polls expire, and that closing the buffer wakes a
+   * waiting consumer.
+   * 
+   * @throws InterruptedException
+   *           if the test is interrupted.
+   */
+  @Test
+  public void testTimeoutAndClose() throws InterruptedException {
+    final RingBuffer<Integer> buffer = new RingBuffer<Integer>(4);
+    long start = System.nanoTime();
+    Assert.assertNull(buffer.poll(20, TimeUnit.MILLISECONDS));
+    Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS
+        .toNanos(20));
+
+    final AtomicBoolean woken = new AtomicBoolean(false);
+    Thread consumer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          woken.set(buffer.take() == null);
+        } catch (InterruptedException ie) {
+          // Fails the check below
+        }
+      }
+    };
+    consumer.start();
+    Thread.sleep(50);
+    buffer.close();
+    consumer.join(1000);
+    Assert.assertTrue(woken.get());
+
+    // Buffered elements are still available after closing
+    Assert.assertTrue(buffer.offer(Integer.valueOf(1)));
+    Assert.assertEquals(Integer.valueOf(1), buffer.take());
+    Assert.assertNull(buffer.poll(10, TimeUnit.SECONDS));
+
+    buffer.reopen();
+    Assert.assertFalse(buffer.isClosed());
+    Assert.assertNull(buffer.poll(1, TimeUnit.MILLISECONDS));
+  }
+
+  /**
+   * Checks that every element is delivered exactly once to several consumers
+   * blocked in {@link RingBuffer#take()} and
+   * {@link RingBuffer#takeAll(java.util.Collection, int)}.
+   * 
+   * @throws InterruptedException
+   *           if the test is interrupted.
+   */
+  @Test
+  public void testTakeConcurrent() throws InterruptedException {
+    final RingBuffer<Long> buffer = new RingBuffer<Long>(16);
+    final int perConsumer = 10000;
+    final AtomicLong sum = new AtomicLong(0);
+    Thread[] consumers = new Thread[4];
+    for (int i = 0; i < consumers.length; ++i) {
+      final boolean batched = (i % 2) == 0;
+      consumers[i] = new Thread() {
+        @Override
+        public void run() {
+          List<Long> batch = new ArrayList<Long>();
+          try {
+            int taken = 0;
+            while (taken < perConsumer) {
+              batch.clear();
+              if (batched) {
+                taken += buffer.takeAll(batch, Math.min(7, perConsumer - taken));
+              } else {
+                batch.add(buffer.take());
+                ++taken;
+              }
+              for (Long value : batch) {
+                sum.addAndGet(value.longValue());
+              }
+            }
+          } catch (InterruptedException ie) {
+            // Fails the sum check below
+          }
+        }
+      };
+      consumers[i].start();
+    }
+
+    long total = (long) perConsumer * consumers.length;
+    for (long i = 1; i <= total; ++i) {
+      while (!buffer.offer(Long.valueOf(i))) {
+        Thread.yield();
+      }
+    }
+    for (Thread consumer : consumers) {
+      consumer.join(10000);
+    }
+    Assert.assertEquals(total * (total + 1) / 2, sum.get());
+    Assert.assertTrue(buffer.isEmpty());
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.dispatch;
+
+import org.apache.mina.core.session.DummySession;
+import org.apache.mina.core.session.IoEvent;
+import org.apache.mina.core.session.IoEventType;
+import org.apache.mina.core.session.IoSession;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.owlplatform.common.SampleMessage;
+import com.owlplatform.solver.protocol.messages.SampleBatch;
+
+/**
+ * Test class for {@link EventQueueThrottle}.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class EventQueueThrottleTest {
+
+  /**
+   * Creates a message received event for a sample.
+   * 
+   * @param session
+   *          the session of the event.
+   * @param dataLength
+   *          the number of bytes of sensed data in the sample.
+   * @return the new event.
+   */
+  private static IoEvent sampleEvent(final IoSession session,
+      final int dataLength) {
+    SampleMessage sample = new SampleMessage();
+    sample.setDeviceId(new byte[SampleMessage.DEVICE_ID_SIZE]);
+    sample.setReceiverId(new byte[SampleMessage.DEVICE_ID_SIZE]);
+    if (dataLength > 0) {
+      sample.setSensedData(new byte[dataLength]);
+    }
+    return new IoEvent(IoEventType.MESSAGE_RECEIVED, session, sample);
+  }
+
+  /**
+   * Checks the size estimates of sample, batch and other events.
+   */
+  @Test
+  public void testEstimateSize() {
+    IoSession session = new DummySession();
+    int sampleSize = EventQueueThrottle.EVENT_SIZE
+        + EventQueueThrottle.SAMPLE_OVERHEAD;
+    Assert.assertEquals(sampleSize,
+        EventQueueThrottle.estimateSize(sampleEvent(session, 0)));
+    Assert.assertEquals(sampleSize + 10,
+        EventQueueThrottle.estimateSize(sampleEvent(session, 10)));
+
+    SampleBatch batch = new SampleBatch();
+    batch.add((SampleMessage) sampleEvent(session, 0).getParameter());
+    batch.add((SampleMessage) sampleEvent(session, 4).getParameter());
+    Assert.assertEquals(EventQueueThrottle.EVENT_SIZE + 2
+        * EventQueueThrottle.SAMPLE_OVERHEAD + 4, EventQueueThrottle
+        .estimateSize(new IoEvent(IoEventType.MESSAGE_RECEIVED, session,
+            batch)));
+    Assert.assertEquals(EventQueueThrottle.EVENT_SIZE,
+        EventQueueThrottle.estimateSize(new IoEvent(
+            IoEventType.SESSION_CLOSED, session, null)));
+  }
+
+  /**
+   * Checks that reads are suspended when the byte limit is exceeded and
+   * resumed once half of the queue has drained.
+   */
+  @Test
+  public void testByteLimit() {
+    IoSession session = new DummySession();
+    IoEvent event = sampleEvent(session, 0);
+    int size = EventQueueThrottle.estimateSize(event);
+    EventQueueThrottle throttle = new EventQueueThrottle(4 * size, 0);
+
+    for (int i = 0; i < 4; ++i) {
+      throttle.offered(this, event);
+    }
+    Assert.assertEquals(4 * size, throttle.getQueuedBytes());
+    Assert.assertFalse(session.isReadSuspended());
+
+    throttle.offered(this, event);
+    Assert.assertTrue(session.isReadSuspended());
+    Assert.assertTrue(throttle.isSuspended());
+    throttle.offered(this, event);
+    Assert.assertEquals(1, throttle.getSuspendCount());
+
+    for (int i = 0; i < 3; ++i) {
+      throttle.polled(this, event);
+    }
+    Assert.assertTrue(session.isReadSuspended());
+    throttle.polled(this, event);
+    Assert.assertFalse(session.isReadSuspended());
+    Assert.assertFalse(throttle.isSuspended());
+    Assert.assertEquals(2, throttle.getQueuedEvents());
+    Assert.assertEquals(2 * size, throttle.getQueuedBytes());
+  }
+
+  /**
+   * Checks that the event limit suspends each session that exceeds it and
+   * resumes all of them together.
+   */
+  @Test
+  public void testEventLimit() {
+    IoSession first = new DummySession();
+    IoSession second = new DummySession();
+    EventQueueThrottle throttle = new EventQueueThrottle(0, 2);
+
+    throttle.offered(this, sampleEvent(first, 100));
+    throttle.offered(this, sampleEvent(second, 100));
+    Assert.assertFalse(first.isReadSuspended());
+    throttle.offered(this, sampleEvent(first, 0));
+    throttle.offered(this, sampleEvent(second, 0));
+    Assert.assertTrue(first.isReadSuspended());
+    Assert.assertTrue(second.isReadSuspended());
+
+    throttle.polled(this, sampleEvent(first, 100));
+    throttle.polled(this, sampleEvent(second, 100));
+    Assert.assertTrue(first.isReadSuspended());
+    throttle.polled(this, sampleEvent(first, 0));
+    Assert.assertFalse(first.isReadSuspended());
+    Assert.assertFalse(second.isReadSuspended());
+    Assert.assertEquals(2, throttle.getSuspendCount());
+  }
+
+  /**
+   * Checks that a throttle must have at least one valid limit.
+   */
+  @Test
+  public void testInvalidLimits() {
+    try {
+      new EventQueueThrottle(0, 0);
+      Assert.fail("Created a throttle without limits.");
+    } catch (IllegalArgumentException iae) {
+      // Expected
+    }
+    try {
+      new EventQueueThrottle(-1, 10);
+      Assert.fail("Created a throttle with a negative limit.");
+    } catch (IllegalArgumentException iae) {
+      // Expected
+    }
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.solver.dispatch;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.owlplatform.common.SampleMessage;
+import com.owlplatform.solver.SolverAggregatorInterface;
+import com.owlplatform.solver.listeners.SampleListener;
+
+/**
+ * Test class for {@link PartitionedSampleDispatcher}.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class PartitionedSampleDispatcherTest {
+
+  /**
+   * Checks that samples from each device are delivered in order by a single
+   * thread, and that all samples are delivered before the lanes exit.
+   * 
+   * @throws InterruptedException
+   *           if the test is interrupted.
+   */
+  @Test
+  public void testPerDeviceOrder() throws InterruptedException {
+    final int devices = 16;
+    final int perDevice = 500;
+    final Map<Integer, Long> lastTimestamp = new ConcurrentHashMap<Integer, Long>();
+    final Map<Integer, Thread> deviceThread = new ConcurrentHashMap<Integer, Thread>();
+    final Set<Thread> threads = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+    final AtomicInteger outOfOrder = new AtomicInteger(0);
+    final AtomicInteger delivered = new AtomicInteger(0);
+
+    SampleListener listener = new SampleListener() {
+      @Override
+      public void sampleReceived(SolverAggregatorInterface aggregator,
+          SampleMessage sample) {
+        Integer device = Integer.valueOf(sample.getDeviceId()[15]);
+        Long last = lastTimestamp.get(device);
+        if (last != null && last.longValue() >= sample.getReceiverTimeStamp()) {
+          outOfOrder.incrementAndGet();
+        }
+        Thread previous = deviceThread.put(device, Thread.currentThread());
+        if (previous != null && previous != Thread.currentThread()) {
+          outOfOrder.incrementAndGet();
+        }
+        lastTimestamp.put(device, Long.valueOf(sample.getReceiverTimeStamp()));
+        threads.add(Thread.currentThread());
+        delivered.incrementAndGet();
+      }
+    };
+
+    PartitionedSampleDispatcher dispatcher = new PartitionedSampleDispatcher(
+        null, listener, 4, 8);
+    for (int i = 0; i < perDevice; ++i) {
+      for (int d = 0; d < devices; ++d) {
+        SampleMessage sample = new SampleMessage();
+        byte[] deviceId = new byte[SampleMessage.DEVICE_ID_SIZE];
+        deviceId[15] = (byte) d;
+        sample.setDeviceId(deviceId);
+        sample.setReceiverTimeStamp(i);
+        Assert.assertTrue(dispatcher.dispatch(sample));
+      }
+    }
+    dispatcher.shutdown();
+    Assert.assertTrue(dispatcher.awaitTermination(10000));
+
+    Assert.assertEquals(devices * perDevice, delivered.get());
+    Assert.assertEquals(0, outOfOrder.get());
+    Assert.assertTrue(threads.size() > 1);
+    Assert.assertFalse(dispatcher.dispatch(new SampleMessage()));
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.solver.dispatch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.owlplatform.common.SampleMessage;
+
+/**
+ * Test class for {@link SampleDeduplicator}.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class SampleDeduplicatorTest {
+
+  /**
+   * Creates a sample.
+   * 
+   * @param device
+   *          the last byte of the device ID.
+   * @param receiver
+   *          the last byte of the receiver ID.
+   * @param timestamp
+   *          the receiver timestamp.
+   * @return the new sample.
+   */
+  private static SampleMessage sample(final int device, final int receiver,
+      final long timestamp) {
+    SampleMessage sample = new SampleMessage();
+    byte[] deviceId = new byte[SampleMessage.DEVICE_ID_SIZE];
+    deviceId[15] = (byte) device;
+    sample.setDeviceId(deviceId);
+    byte[] receiverId = new byte[SampleMessage.DEVICE_ID_SIZE];
+    receiverId[15] = (byte) receiver;
+    sample.setReceiverId(receiverId);
+    sample.setReceiverTimeStamp(timestamp);
+    return sample;
+  }
+
+  /**
+   * Checks that copies of a sample are detected, and samples differing in
+   * any part of the key are not.
+   */
+  @Test
+  public void testDuplicates() {
+    SampleDeduplicator dedup = new SampleDeduplicator();
+    Assert.assertFalse(dedup.isDuplicate(sample(1, 2, 3)));
+    Assert.assertTrue(dedup.isDuplicate(sample(1, 2, 3)));
+    Assert.assertFalse(dedup.isDuplicate(sample(9, 2, 3)));
+    Assert.assertFalse(dedup.isDuplicate(sample(1, 9, 3)));
+    Assert.assertFalse(dedup.isDuplicate(sample(1, 2, 9)));
+    Assert.assertTrue(dedup.isDuplicate(sample(1, 9, 3)));
+    Assert.assertEquals(2, dedup.getDuplicateCount());
+  }
+
+  /**
+   * Checks that samples are forgotten after two windows.
+   * 
+   * @throws InterruptedException
+   *           if the test is interrupted.
+   */
+  @Test
+  public void testWindow() throws InterruptedException {
+    SampleDeduplicator dedup = new SampleDeduplicator(50, 1024);
+    Assert.assertFalse(dedup.isDuplicate(sample(1, 2, 3)));
+    Thread.sleep(60);
+    // Moved to the previous generation
+    Assert.assertTrue(dedup.isDuplicate(sample(1, 2, 3)));
+    Thread.sleep(120);
+    Assert.assertFalse(dedup.isDuplicate(sample(1, 2, 3)));
+  }
+
+  /**
+   * Checks that memory stays bounded when more samples than the maximum
+   * arrive within a window, while recent samples are still detected.
+   */
+  @Test
+  public void testBounded() {
+    SampleDeduplicator dedup = new SampleDeduplicator(60000, 16);
+    for (int i = 0; i < 10000; ++i) {
+      Assert.assertFalse(dedup.isDuplicate(sample(1, 2, i)));
+      Assert.assertTrue(dedup.isDuplicate(sample(1, 2, i)));
+    }
+    Assert.assertFalse(dedup.isDuplicate(sample(1, 2, 0)));
+  }
+}
@@ -0,0 +1,258 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.solver.dispatch;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.owlplatform.common.SampleMessage;
+import com.owlplatform.solver.SolverAggregatorInterface;
+import com.owlplatform.solver.listeners.SampleListener;
+import com.owlplatform.solver.protocol.messages.Transmitter;
+import com.owlplatform.solver.rules.SubscriptionRequestRule;
+
+/**
+ * Test class for {@link SampleListenerIndex}.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class SampleListenerIndexTest {
+
+  /**
+   * Listener that counts the samples it receives.
+   */
+  private static final class CountingListener implements SampleListener {
+    /**
+     * Number of samples received.
+     */
+    final AtomicInteger count = new AtomicInteger(0);
+
+    @Override
+    public void sampleReceived(SolverAggregatorInterface aggregator,
+        SampleMessage sample) {
+      this.count.incrementAndGet();
+    }
+  }
+
+  /**
+   * Creates a rule for a physical layer and transmitters.
+   * 
+   * @param phy
+   *          the physical layer.
+   * @param transmitters
+   *          the transmitters.
+   * @return the new rule.
+   */
+  private static SubscriptionRequestRule rule(final byte phy,
+      final Transmitter... transmitters) {
+    SubscriptionRequestRule rule = new SubscriptionRequestRule();
+    rule.setPhysicalLayer(phy);
+    rule.setTransmitters(transmitters);
+    return rule;
+  }
+
+  /**
+   * Creates a sample for a physical layer and device.
+   * 
+   * @param phy
+   *          the physical layer.
+   * @param device
+   *          the low 8 bytes of the device ID.
+   * @return the new sample.
+   */
+  private static SampleMessage sample(final byte phy, final long device) {
+    SampleMessage sample = new SampleMessage();
+    sample.setPhysicalLayer(phy);
+    byte[] deviceId = new byte[SampleMessage.DEVICE_ID_SIZE];
+    for (int i = 0; i < 8; ++i) {
+      deviceId[15 - i] = (byte) (device >>> (8 * i));
+    }
+    sample.setDeviceId(deviceId);
+    return sample;
+  }
+
+  /**
+   * Checks routing by exact device ID, masked device ID, physical layer and
+   * wildcard rules.
+   */
+  @Test
+  public void testRouting() {
+    SampleListenerIndex index = new SampleListenerIndex();
+    Assert.assertTrue(index.isEmpty());
+
+    CountingListener exact = new CountingListener();
+    CountingListener masked = new CountingListener();
+    CountingListener phy = new CountingListener();
+    CountingListener all = new CountingListener();
+
+    index.add(exact, rule((byte) 1, new Transmitter(0x1234L)));
+    Transmitter prefix = new Transmitter(0x1200L);
+    byte[] mask = new byte[16];
+    for (int i = 0; i < 15; ++i) {
+      mask[i] = (byte) 0xFF;
+    }
+    prefix.setMask(mask);
+    index.add(masked, rule(SampleMessage.PHYSICAL_LAYER_ALL, prefix));
+    index.add(phy, rule((byte) 2));
+    index.add(all, SubscriptionRequestRule.generateGenericRule());
+    Assert.assertFalse(index.isEmpty());
+
+    Assert.assertEquals(3, index.dispatch(null, sample((byte) 1, 0x1234L)));
+    Assert.assertEquals(3, index.dispatch(null, sample((byte) 2, 0x1234L)));
+    Assert.assertEquals(2, index.dispatch(null, sample((byte) 2, 0x9999L)));
+    Assert.assertEquals(1, index.dispatch(null, sample((byte) 1, 0x1300L)));
+
+    Assert.assertEquals(1, exact.count.get());
+    Assert.assertEquals(2, masked.count.get());
+    Assert.assertEquals(2, phy.count.get());
+    Assert.assertEquals(4, all.count.get());
+
+    Assert.assertTrue(index.remove(all));
+    Assert.assertFalse(index.remove(all));
+    Assert.assertEquals(0, index.dispatch(null, sample((byte) 1, 0x1300L)));
+  }
+
+  /**
+   * Checks that a listener matched by several rules receives a sample once.
+   */
+  @Test
+  public void testSingleDelivery() {
+    SampleListenerIndex index = new SampleListenerIndex();
+    CountingListener listener = new CountingListener();
+    index.add(listener, rule((byte) 1, new Transmitter(5L)),
+        rule(SampleMessage.PHYSICAL_LAYER_ALL, new Transmitter(5L)),
+        rule((byte) 1));
+    Assert.assertEquals(1, index.dispatch(null, sample((byte) 1, 5L)));
+    Assert.assertEquals(1, listener.count.get());
+  }
+
+  /**
+   * Checks that a listener matched by several rules receives a sample once,
+   * even when more than four other listeners received it first.
+   */
+  @Test
+  public void testSingleDeliveryManyListeners() {
+    SampleListenerIndex index = new SampleListenerIndex();
+    CountingListener[] wildcards = new CountingListener[4];
+    for (int i = 0; i < wildcards.length; ++i) {
+      wildcards[i] = new CountingListener();
+      index.add(wildcards[i], SubscriptionRequestRule.generateGenericRule());
+    }
+    CountingListener listener = new CountingListener();
+    Transmitter prefix = new Transmitter(0x1200L);
+    byte[] mask = new byte[16];
+    for (int i = 0; i < 15; ++i) {
+      mask[i] = (byte) 0xFF;
+    }
+    prefix.setMask(mask);
+    index.add(listener, rule((byte) 1, new Transmitter(0x1234L)),
+        rule((byte) 1, prefix));
+
+    Assert.assertEquals(5, index.dispatch(null, sample((byte) 1, 0x1234L)));
+    Assert.assertEquals(1, listener.count.get());
+    for (CountingListener wildcard : wildcards) {
+      Assert.assertEquals(1, wildcard.count.get());
+    }
+  }
+
+  /**
+   * Checks that a listener dispatching another sample from within a dispatch
+   * doesn't disturb the listeners recorded for the outer sample.
+   */
+  @Test
+  public void testNestedDispatch() {
+    final SampleListenerIndex index = new SampleListenerIndex();
+    final CountingListener listener = new CountingListener();
+    final AtomicInteger nested = new AtomicInteger(-1);
+    index.add(listener, rule((byte) 1, new Transmitter(5L)),
+        rule((byte) 1, new Transmitter(6L)), rule((byte) 1));
+    index.add(new SampleListener() {
+      @Override
+      public void sampleReceived(SolverAggregatorInterface aggregator,
+          SampleMessage sample) {
+        if (sample.getDeviceId()[15] == 5) {
+          nested.set(index.dispatch(aggregator, sample((byte) 1, 6L)));
+        }
+      }
+    }, rule((byte) 1));
+
+    Assert.assertEquals(2, index.dispatch(null, sample((byte) 1, 5L)));
+    Assert.assertEquals(2, nested.get());
+    Assert.assertEquals(2, listener.count.get());
+    Assert.assertEquals(2, index.dispatch(null, sample((byte) 1, 7L)));
+    Assert.assertEquals(3, listener.count.get());
+  }
+
+  /**
+   * Checks exact routing with enough device IDs to cause hash collisions.
+   */
+  @Test
+  public void testManyDevices() {
+    SampleListenerIndex index = new SampleListenerIndex();
+    CountingListener even = new CountingListener();
+    CountingListener odd = new CountingListener();
+    Transmitter[] evenIds = new Transmitter[500];
+    Transmitter[] oddIds = new Transmitter[500];
+    for (int i = 0; i < 500; ++i) {
+      evenIds[i] = new Transmitter(2L * i);
+      oddIds[i] = new Transmitter(2L * i + 1);
+    }
+    index.add(even, rule(SampleMessage.PHYSICAL_LAYER_ALL, evenIds));
+    index.add(odd, rule(SampleMessage.PHYSICAL_LAYER_ALL, oddIds));
+
+    for (long id = 0; id < 1100; ++id) {
+      Assert.assertEquals(id < 1000 ? 1 : 0,
+          index.dispatch(null, sample((byte) 1, id)));
+      Assert.assertEquals(id < 1000, index.matches((byte) 1, 0L, id));
+    }
+    Assert.assertEquals(500, even.count.get());
+    Assert.assertEquals(500, odd.count.get());
+  }
+
+  /**
+   * Checks that matching a sample doesn't pass it to any listeners.
+   */
+  @Test
+  public void testMatches() {
+    SampleListenerIndex index = new SampleListenerIndex();
+    Assert.assertFalse(index.matches((byte) 1, 0L, 5L));
+
+    CountingListener listener = new CountingListener();
+    Transmitter prefix = new Transmitter(0x1200L);
+    byte[] mask = new byte[16];
+    for (int i = 0; i < 15; ++i) {
+      mask[i] = (byte) 0xFF;
+    }
+    prefix.setMask(mask);
+    index.add(listener, rule((byte) 1, new Transmitter(5L)),
+        rule((byte) 2, prefix), rule((byte) 3));
+
+    Assert.assertTrue(index.matches((byte) 1, 0L, 5L));
+    Assert.assertFalse(index.matches((byte) 2, 0L, 5L));
+    Assert.assertTrue(index.matches((byte) 2, 0L, 0x12ABL));
+    Assert.assertFalse(index.matches((byte) 1, 0L, 0x12ABL));
+    Assert.assertTrue(index.matches((byte) 3, 0L, 0x9999L));
+    Assert.assertFalse(index.matches((byte) 4, 0L, 5L));
+    Assert.assertEquals(0, listener.count.get());
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.solver.dispatch;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.owlplatform.common.SampleMessage;
+import com.owlplatform.solver.SolverAggregatorInterface;
+import com.owlplatform.solver.buffer.OverflowPolicy;
+import com.owlplatform.solver.listeners.SampleListener;
+
+/**
+ * Test class for {@link SampleMailbox}.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class SampleMailboxTest {
+
+  /**
+   * Checks that a stalled listener does not block the caller, that samples
+   * are dropped once its mailbox is full, and that every sample is either
+   * delivered in order or counted as dropped.
+   * 
+   * @throws InterruptedException
+   *           if the test is interrupted.
+   */
+  @Test
+  public void testStalledListener() throws InterruptedException {
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicLong lastTimestamp = new AtomicLong(-1);
+    final AtomicLong outOfOrder = new AtomicLong(0);
+    SampleListener slow = new SampleListener() {
+      @Override
+      public void sampleReceived(SolverAggregatorInterface aggregator,
+          SampleMessage sample) {
+        try {
+          release.await();
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+        }
+        if (lastTimestamp.getAndSet(sample.getReceiverTimeStamp()) >= sample
+            .getReceiverTimeStamp()) {
+          outOfOrder.incrementAndGet();
+        }
+      }
+    };
+
+    SampleMailbox mailbox = new SampleMailbox(slow, 4,
+        OverflowPolicy.dropNewest());
+    Assert.assertEquals(4, mailbox.getCapacity());
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < 100; ++i) {
+      SampleMessage sample = new SampleMessage();
+      sample.setReceiverTimeStamp(i);
+      mailbox.sampleReceived(null, sample);
+    }
+    Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+    Assert.assertTrue(mailbox.getDroppedCount() >= 100 - 2 * 4 - 1);
+    Assert.assertEquals(0, mailbox.getDeliveredCount());
+
+    release.countDown();
+    mailbox.shutdown();
+    Assert.assertTrue(mailbox.awaitTermination(10000));
+    Assert.assertEquals(100,
+        mailbox.getDeliveredCount() + mailbox.getDroppedCount());
+    Assert.assertEquals(0, mailbox.getPendingCount());
+    Assert.assertEquals(0, outOfOrder.get());
+
+    mailbox.sampleReceived(null, new SampleMessage());
+    Assert.assertEquals(0, mailbox.getPendingCount());
+  }
+
+  /**
+   * Checks that each sample is delivered with the aggregator it was received
+   * from when one mailbox receives samples from several aggregators.
+   * 
+   * @throws InterruptedException
+   *           if the test is interrupted.
+   */
+  @Test
+  public void testSeveralAggregators() throws InterruptedException {
+    final SolverAggregatorInterface[] aggregators = new SolverAggregatorInterface[] {
+        new SolverAggregatorInterface(), new SolverAggregatorInterface() };
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicLong mismatched = new AtomicLong(0);
+    SampleListener checking = new SampleListener() {
+      @Override
+      public void sampleReceived(SolverAggregatorInterface aggregator,
+          SampleMessage sample) {
+        try {
+          release.await();
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+        }
+        if (aggregator != aggregators[(int) sample.getReceiverTimeStamp() % 2]) {
+          mismatched.incrementAndGet();
+        }
+      }
+    };
+
+    SampleMailbox mailbox = new SampleMailbox(checking, 16,
+        OverflowPolicy.dropNewest());
+    for (int i = 0; i < 10; ++i) {
+      SampleMessage sample = new SampleMessage();
+      sample.setReceiverTimeStamp(i);
+      mailbox.sampleReceived(aggregators[i % 2], sample);
+    }
+    release.countDown();
+    mailbox.shutdown();
+    Assert.assertTrue(mailbox.awaitTermination(10000));
+    Assert.assertEquals(10, mailbox.getDeliveredCount());
+    Assert.assertEquals(0, mismatched.get());
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.dispatch;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mina.core.service.IoHandlerAdapter;
+import org.apache.mina.core.session.DummySession;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.executor.UnorderedThreadPoolExecutor;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.owlplatform.common.SampleMessage;
+import com.owlplatform.solver.protocol.messages.HandshakeMessage;
+
+/**
+ * Test class for {@link UnorderedSampleFilter}.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class UnorderedSampleFilterTest {
+
+  /**
+   * Handler that records events, and holds samples until released.
+   */
+  private static final class RecordingHandler extends IoHandlerAdapter {
+    /**
+     * The events handled, in order.
+     */
+    final List<String> events = new CopyOnWriteArrayList<String>();
+
+    /**
+     * The thread that handled the handshake.
+     */
+    volatile Thread handshakeThread = null;
+
+    /**
+     * Released to let samples be delivered.
+     */
+    final CountDownLatch release = new CountDownLatch(1);
+
+    /**
+     * Counted down when the session closed event is handled.
+     */
+    final CountDownLatch closed = new CountDownLatch(1);
+
+    @Override
+    public void messageReceived(IoSession session, Object message)
+        throws Exception {
+      if (message instanceof HandshakeMessage) {
+        this.handshakeThread = Thread.currentThread();
+        this.events.add("handshake");
+        return;
+      }
+      this.release.await();
+      this.events.add("sample");
+    }
+
+    @Override
+    public void sessionClosed(IoSession session) {
+      this.events.add("closed");
+      this.closed.countDown();
+    }
+  }
+
+  /**
+   * Checks that protocol messages are handled on the calling thread, and
+   * that the closed event waits for samples already passed to the pool.
+   * 
+   * @throws Exception
+   *           if the test fails.
+   */
+  @Test
+  public void testOrdering() throws Exception {
+    UnorderedThreadPoolExecutor executor = new UnorderedThreadPoolExecutor(0,
+        4);
+    try {
+      DummySession session = new DummySession();
+      RecordingHandler handler = new RecordingHandler();
+      session.setHandler(handler);
+      session.getFilterChain().addLast("executor",
+          new UnorderedSampleFilter(executor));
+
+      session.getFilterChain().fireMessageReceived(
+          HandshakeMessage.getDefaultMessage());
+      Assert.assertSame(Thread.currentThread(), handler.handshakeThread);
+
+      SampleMessage sample = new SampleMessage();
+      for (int i = 0; i < 3; ++i) {
+        session.getFilterChain().fireMessageReceived(sample);
+      }
+      session.getFilterChain().fireSessionClosed();
+      Assert.assertFalse(handler.closed.await(100, TimeUnit.MILLISECONDS));
+      Assert.assertEquals(1, handler.events.size());
+
+      handler.release.countDown();
+      Assert.assertTrue(handler.closed.await(5, TimeUnit.SECONDS));
+      Assert.assertEquals(5, handler.events.size());
+      Assert.assertEquals("closed", handler.events.get(4));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Checks that a session with no samples in the pool is closed
+   * immediately.
+   */
+  @Test
+  public void testCloseWithoutSamples() {
+    UnorderedThreadPoolExecutor executor = new UnorderedThreadPoolExecutor(0,
+        4);
+    try {
+      DummySession session = new DummySession();
+      RecordingHandler handler = new RecordingHandler();
+      session.setHandler(handler);
+      session.getFilterChain().addLast("executor",
+          new UnorderedSampleFilter(executor));
+      session.getFilterChain().fireSessionClosed();
+      Assert.assertEquals(0, handler.closed.getCount());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,178 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.solver.flow;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.owlplatform.common.SampleMessage;
+import com.owlplatform.solver.SolverAggregatorInterface;
+
+/**
+ * Test class for {@link SamplePublisher}.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class SamplePublisherTest {
+
+  /**
+   * Subscriber that records everything it receives.
+   * 
+   * @author Robert Moore
+   * 
+   */
+  private static final class RecordingSubscriber implements
+      Subscriber<SampleMessage> {
+
+    /**
+     * The subscription passed to {@link #onSubscribe(Subscription)}.
+     */
+    Subscription subscription;
+
+    /**
+     * The samples received.
+     */
+    final List<SampleMessage> samples = new ArrayList<SampleMessage>();
+
+    /**
+     * Whether {@link #onComplete()} was called.
+     */
+    boolean completed = false;
+
+    /**
+     * The error passed to {@link #onError(Throwable)}.
+     */
+    Throwable error = null;
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+      this.subscription = subscription;
+    }
+
+    @Override
+    public void onNext(SampleMessage item) {
+      this.samples.add(item);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      this.error = throwable;
+    }
+
+    @Override
+    public void onComplete() {
+      this.completed = true;
+    }
+  }
+
+  /**
+   * Checks that samples are delivered only as requested, that reads are
+   * suspended while a subscriber falls behind, and that buffered samples are
+   * delivered before completion.
+   */
+  @Test
+  public void testDemand() {
+    SamplePublisher publisher = new SamplePublisher(
+        new SolverAggregatorInterface(), 8);
+    RecordingSubscriber subscriber = new RecordingSubscriber();
+    publisher.subscribe(subscriber);
+    Assert.assertNotNull(subscriber.subscription);
+    Assert.assertEquals(1, publisher.getSubscriberCount());
+
+    for (int i = 0; i < 3; ++i) {
+      publisher.publish(new SampleMessage());
+    }
+    Assert.assertTrue(subscriber.samples.isEmpty());
+    subscriber.subscription.request(2);
+    Assert.assertEquals(2, subscriber.samples.size());
+
+    for (int i = 0; i < 3; ++i) {
+      publisher.publish(new SampleMessage());
+    }
+    Assert.assertTrue(publisher.isReadSuspended());
+    subscriber.subscription.request(3);
+    Assert.assertEquals(5, subscriber.samples.size());
+    Assert.assertFalse(publisher.isReadSuspended());
+
+    publisher.complete();
+    Assert.assertFalse(subscriber.completed);
+    subscriber.subscription.request(Long.MAX_VALUE);
+    Assert.assertEquals(6, subscriber.samples.size());
+    Assert.assertTrue(subscriber.completed);
+    Assert.assertEquals(0, publisher.getSubscriberCount());
+  }
+
+  /**
+   * Checks that samples for a full subscriber buffer are discarded without
+   * waiting, and don't affect other subscribers.
+   */
+  @Test
+  public void testFullBuffer() {
+    SamplePublisher publisher = new SamplePublisher(
+        new SolverAggregatorInterface(), 4);
+    RecordingSubscriber slow = new RecordingSubscriber();
+    RecordingSubscriber fast = new RecordingSubscriber();
+    publisher.subscribe(slow);
+    publisher.subscribe(fast);
+    fast.subscription.request(Long.MAX_VALUE);
+
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < 10; ++i) {
+      publisher.publish(new SampleMessage());
+    }
+    Assert.assertTrue(System.currentTimeMillis() - start < 100);
+    Assert.assertEquals(6, publisher.getDroppedCount());
+    Assert.assertEquals(10, fast.samples.size());
+    Assert.assertTrue(publisher.isReadSuspended());
+
+    slow.subscription.request(Long.MAX_VALUE);
+    Assert.assertEquals(4, slow.samples.size());
+    Assert.assertFalse(publisher.isReadSuspended());
+  }
+
+  /**
+   * Checks that cancelling a subscription releases suspended reads, and that
+   * invalid requests fail the subscription.
+   */
+  @Test
+  public void testCancelAndInvalidRequest() {
+    SamplePublisher publisher = new SamplePublisher(
+        new SolverAggregatorInterface(), 4);
+    RecordingSubscriber slow = new RecordingSubscriber();
+    RecordingSubscriber invalid = new RecordingSubscriber();
+    publisher.subscribe(slow);
+    publisher.subscribe(invalid);
+
+    invalid.subscription.request(0);
+    Assert.assertTrue(invalid.error instanceof IllegalArgumentException);
+    Assert.assertEquals(1, publisher.getSubscriberCount());
+
+    publisher.publish(new SampleMessage());
+    publisher.publish(new SampleMessage());
+    Assert.assertTrue(publisher.isReadSuspended());
+    slow.subscription.cancel();
+    Assert.assertFalse(publisher.isReadSuspended());
+    Assert.assertEquals(0, publisher.getSubscriberCount());
+  }
+}
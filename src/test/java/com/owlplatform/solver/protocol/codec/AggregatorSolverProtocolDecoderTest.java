@@ -0,0 +1,261 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.protocol.codec;
+
+import java.net.SocketAddress;
+import java.util.Queue;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.service.DefaultTransportMetadata;
+import org.apache.mina.core.session.IoSessionConfig;
+import org.apache.mina.filter.codec.ProtocolCodecSession;
+import org.apache.mina.filter.codec.ProtocolDecoder;
+import org.apache.mina.filter.codec.demux.MessageEncoder;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.owlplatform.common.SampleMessage;
+import com.owlplatform.solver.protocol.messages.HandshakeMessage;
+import com.owlplatform.solver.protocol.messages.SubscriptionMessage;
+import com.owlplatform.solver.protocol.messages.Transmitter;
+import com.owlplatform.solver.rules.SubscriptionRequestRule;
+
+/**
+ * Test class for {@link AggregatorSolverProtocolDecoder}, the decoder used
+ * by solvers when compatibility mode is off.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class AggregatorSolverProtocolDecoderTest {
+
+  /**
+   * The session that messages are decoded on.
+   */
+  private ProtocolCodecSession session;
+
+  /**
+   * The decoder under test.
+   */
+  private ProtocolDecoder decoder;
+
+  /**
+   * Creates a solver decoder on a session that may split messages between
+   * reads.
+   * 
+   * @throws Exception
+   *           if the decoder cannot be created.
+   */
+  @Before
+  public void setUp() throws Exception {
+    this.session = new ProtocolCodecSession();
+    this.session.setTransportMetadata(new DefaultTransportMetadata("mina",
+        "dummy", false, true, SocketAddress.class, IoSessionConfig.class,
+        Object.class));
+    AggregatorSolverProtocolCodecFactory factory = new AggregatorSolverProtocolCodecFactory(
+        false);
+    this.decoder = factory.getDecoder(this.session);
+    Assert.assertTrue(this.decoder instanceof AggregatorSolverProtocolDecoder);
+  }
+
+  /**
+   * Encodes a message on a separate session.
+   * 
+   * @param encoder
+   *          the encoder for the message.
+   * @param message
+   *          the message to encode.
+   * @return the encoded message.
+   * @throws Exception
+   *           if encoding fails.
+   */
+  private static <T> IoBuffer encode(final MessageEncoder<T> encoder,
+      final T message) throws Exception {
+    ProtocolCodecSession encodeSession = new ProtocolCodecSession();
+    encoder.encode(encodeSession, message, encodeSession.getEncoderOutput());
+    return (IoBuffer) encodeSession.getEncoderOutputQueue().poll();
+  }
+
+  /**
+   * Concatenates encoded messages into one buffer.
+   * 
+   * @param buffers
+   *          the encoded messages.
+   * @return a buffer containing all of the messages.
+   */
+  private static IoBuffer concat(final IoBuffer... buffers) {
+    IoBuffer all = IoBuffer.allocate(256).setAutoExpand(true);
+    for (IoBuffer buffer : buffers) {
+      all.put(buffer.duplicate());
+    }
+    all.flip();
+    return all;
+  }
+
+  /**
+   * Creates a sample with every field set.
+   * 
+   * @param device
+   *          the low byte of the device ID.
+   * @return the new sample.
+   */
+  private static SampleMessage sample(final int device) {
+    SampleMessage sample = new SampleMessage();
+    sample.setPhysicalLayer(SampleMessage.PHYSICAL_LAYER_PIPSQUEAK);
+    byte[] deviceId = new byte[SampleMessage.DEVICE_ID_SIZE];
+    deviceId[15] = (byte) device;
+    sample.setDeviceId(deviceId);
+    byte[] receiverId = new byte[SampleMessage.DEVICE_ID_SIZE];
+    receiverId[0] = 7;
+    sample.setReceiverId(receiverId);
+    sample.setReceiverTimeStamp(1000L + device);
+    sample.setRssi(-50.5f);
+    sample.setSensedData(new byte[] { 1, 2, 3 });
+    return sample;
+  }
+
+  /**
+   * Checks that a decoded sample matches {@link #sample(int)}.
+   * 
+   * @param device
+   *          the low byte of the expected device ID.
+   * @param decoded
+   *          the decoded message.
+   */
+  private static void assertSample(final int device, final Object decoded) {
+    Assert.assertTrue(decoded instanceof SampleMessage);
+    SampleMessage expected = sample(device);
+    SampleMessage sample = (SampleMessage) decoded;
+    Assert.assertEquals(expected.getPhysicalLayer(), sample.getPhysicalLayer());
+    Assert.assertArrayEquals(expected.getDeviceId(), sample.getDeviceId());
+    Assert.assertArrayEquals(expected.getReceiverId(), sample.getReceiverId());
+    Assert.assertEquals(expected.getReceiverTimeStamp(),
+        sample.getReceiverTimeStamp());
+    Assert.assertEquals(expected.getRssi(), sample.getRssi(), 0f);
+    Assert.assertArrayEquals(expected.getSensedData(), sample.getSensedData());
+  }
+
+  /**
+   * Returns the encoded default handshake.
+   * 
+   * @return the handshake.
+   * @throws Exception
+   *           if encoding fails.
+   */
+  private static IoBuffer handshake() throws Exception {
+    return encode(new HandshakeEncoder(), HandshakeMessage.getDefaultMessage());
+  }
+
+  /**
+   * Checks that the handshake is decoded, even when it arrives one byte at a
+   * time.
+   * 
+   * @throws Exception
+   *           if decoding fails.
+   */
+  @Test
+  public void testHandshake() throws Exception {
+    IoBuffer handshake = handshake();
+    Assert.assertEquals(HandshakeMessage.MESSAGE_LENGTH, handshake.remaining());
+    Queue<Object> decoded = this.session.getDecoderOutputQueue();
+    while (handshake.remaining() > 1) {
+      this.decoder.decode(this.session, handshake.getSlice(1),
+          this.session.getDecoderOutput());
+      Assert.assertTrue(decoded.isEmpty());
+    }
+    this.decoder.decode(this.session, handshake,
+        this.session.getDecoderOutput());
+    Assert.assertEquals(1, decoded.size());
+    Assert.assertEquals(HandshakeMessage.getDefaultMessage(), decoded.poll());
+  }
+
+  /**
+   * Checks that a subscription response is decoded after the handshake.
+   * 
+   * @throws Exception
+   *           if decoding fails.
+   */
+  @Test
+  public void testSubscriptionResponse() throws Exception {
+    SubscriptionRequestRule rule = new SubscriptionRequestRule();
+    rule.setPhysicalLayer(SampleMessage.PHYSICAL_LAYER_PIPSQUEAK);
+    rule.setTransmitters(new Transmitter[] { new Transmitter(0x1234) });
+    rule.setUpdateInterval(500);
+    SubscriptionMessage response = new SubscriptionMessage();
+    response.setMessageType(SubscriptionMessage.RESPONSE_MESSAGE_ID);
+    response.setRules(new SubscriptionRequestRule[] { rule });
+
+    this.decoder.decode(this.session,
+        concat(handshake(), encode(new SubscriptionMessageEncoder(), response)),
+        this.session.getDecoderOutput());
+    Queue<Object> decoded = this.session.getDecoderOutputQueue();
+    Assert.assertEquals(2, decoded.size());
+    Assert.assertTrue(decoded.poll() instanceof HandshakeMessage);
+    Object message = decoded.poll();
+    Assert.assertEquals(response, message);
+    Assert.assertEquals(SubscriptionMessage.RESPONSE_MESSAGE_ID,
+        ((SubscriptionMessage) message).getMessageType());
+  }
+
+  /**
+   * Checks that a sample split between two reads is decoded once the second
+   * part arrives.
+   * 
+   * @throws Exception
+   *           if decoding fails.
+   */
+  @Test
+  public void testSplitSample() throws Exception {
+    IoBuffer sample = encode(new SampleEncoder(), sample(1));
+    IoBuffer first = concat(handshake(), sample.getSlice(10));
+    Queue<Object> decoded = this.session.getDecoderOutputQueue();
+
+    this.decoder.decode(this.session, first, this.session.getDecoderOutput());
+    Assert.assertEquals(1, decoded.size());
+    Assert.assertTrue(decoded.poll() instanceof HandshakeMessage);
+
+    this.decoder.decode(this.session, sample, this.session.getDecoderOutput());
+    Assert.assertEquals(1, decoded.size());
+    assertSample(1, decoded.poll());
+  }
+
+  /**
+   * Checks that every frame in a single read is decoded in order.
+   * 
+   * @throws Exception
+   *           if decoding fails.
+   */
+  @Test
+  public void testSeveralFrames() throws Exception {
+    this.decoder.decode(this.session, handshake(),
+        this.session.getDecoderOutput());
+    Queue<Object> decoded = this.session.getDecoderOutputQueue();
+    decoded.clear();
+
+    SampleEncoder encoder = new SampleEncoder();
+    this.decoder.decode(this.session,
+        concat(encode(encoder, sample(1)), encode(encoder, sample(2)),
+            encode(encoder, sample(3))), this.session.getDecoderOutput());
+    Assert.assertEquals(3, decoded.size());
+    for (int device = 1; device <= 3; ++device) {
+      assertSample(device, decoded.poll());
+    }
+  }
+}
@@ -0,0 +1,191 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.solver.protocol.codec;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.filter.codec.ProtocolCodecSession;
+import org.apache.mina.filter.codec.ProtocolDecoderException;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.owlplatform.common.SampleMessage;
+import com.owlplatform.solver.protocol.messages.SampleBatch;
+import com.owlplatform.solver.protocol.messages.SampleView;
+import com.owlplatform.solver.protocol.messages.Transmitter;
+import com.owlplatform.solver.rules.SampleFilter;
+
+/**
+ * Test class for batch decoding in {@link SampleDecoder}.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class BatchSampleDecoderTest {
+
+  /**
+   * The codec factory with batch decoding enabled.
+   */
+  private AggregatorSolverProtocolCodecFactory factory;
+
+  /**
+   * The decoder under test.
+   */
+  private SampleDecoder decoder;
+
+  /**
+   * The session that receives decoded batches.
+   */
+  private ProtocolCodecSession session;
+
+  /**
+   * Creates a batch decoder.
+   */
+  @Before
+  public void setUp() {
+    this.factory = new AggregatorSolverProtocolCodecFactory(false);
+    this.factory.setBatchSamples(true);
+    this.decoder = new SampleDecoder(this.factory);
+    this.session = new ProtocolCodecSession();
+  }
+
+  /**
+   * Appends a Sample message for a device to {@code buffer}.
+   * 
+   * @param buffer
+   *          the buffer to write to.
+   * @param device
+   *          the device ID.
+   */
+  private static void putSample(final IoBuffer buffer, final int device) {
+    buffer.putInt(SampleView.MIN_LENGTH_PREFIX + 1);
+    buffer.put(SampleMessage.MESSAGE_TYPE);
+    buffer.put(SampleMessage.PHYSICAL_LAYER_PIPSQUEAK);
+    buffer.putLong(0L);
+    buffer.putLong(device);
+    buffer.putLong(0L);
+    buffer.putLong(1L);
+    buffer.putLong(1000L + device);
+    buffer.putFloat(-40f);
+    buffer.put((byte) device);
+  }
+
+  /**
+   * Decodes the samples at the front of {@code buffer} and returns the batch
+   * written.
+   * 
+   * @param buffer
+   *          the buffer to decode.
+   * @return the decoded batch.
+   * @throws Exception
+   *           if decoding fails.
+   */
+  private SampleBatch decodeBatch(final IoBuffer buffer) throws Exception {
+    this.decoder.decode(this.session, buffer, this.session.getDecoderOutput());
+    Assert.assertEquals(1, this.session.getDecoderOutputQueue().size());
+    return (SampleBatch) this.session.getDecoderOutputQueue().poll();
+  }
+
+  /**
+   * Checks that a partial frame after complete samples is left in the buffer
+   * for the next read.
+   * 
+   * @throws Exception
+   *           if decoding fails.
+   */
+  @Test
+  public void testPartialTrailingFrame() throws Exception {
+    IoBuffer buffer = IoBuffer.allocate(256);
+    putSample(buffer, 1);
+    putSample(buffer, 2);
+    int partial = buffer.position();
+    putSample(buffer, 3);
+    buffer.limit(buffer.position() - 5);
+    buffer.position(0);
+
+    SampleBatch batch = decodeBatch(buffer);
+    Assert.assertEquals(2, batch.size());
+    Assert.assertEquals(1, batch.get(0).getDeviceId()[15]);
+    Assert.assertEquals(2, batch.get(1).getDeviceId()[15]);
+    Assert.assertEquals(partial, buffer.position());
+
+    // Only the length prefix and type of the last frame are available
+    buffer.limit(partial + 5);
+    Assert.assertFalse(SampleDecoder.isSampleAvailable(buffer));
+  }
+
+  /**
+   * Checks that samples rejected by the filter are skipped inside a batch.
+   * 
+   * @throws Exception
+   *           if decoding fails.
+   */
+  @Test
+  public void testFilteredSamples() throws Exception {
+    SampleFilter filter = new SampleFilter();
+    filter.addDevice(new Transmitter(1));
+    filter.addDevice(new Transmitter(3));
+    this.factory.setSampleFilter(filter);
+
+    IoBuffer buffer = IoBuffer.allocate(256);
+    for (int device = 1; device <= 4; ++device) {
+      putSample(buffer, device);
+    }
+    buffer.flip();
+
+    SampleBatch batch = decodeBatch(buffer);
+    Assert.assertEquals(2, batch.size());
+    Assert.assertEquals(1, batch.get(0).getDeviceId()[15]);
+    Assert.assertEquals(3, batch.get(1).getDeviceId()[15]);
+    Assert.assertEquals(2, this.factory.getFilteredSampleCount());
+    Assert.assertFalse(buffer.hasRemaining());
+  }
+
+  /**
+   * Checks that a frame with a length prefix too short for a sample ends the
+   * batch and is rejected instead of being read into the next frame.
+   * 
+   * @throws Exception
+   *           if decoding fails.
+   */
+  @Test
+  public void testInvalidLengthPrefix() throws Exception {
+    IoBuffer buffer = IoBuffer.allocate(256);
+    putSample(buffer, 1);
+    int invalid = buffer.position();
+    buffer.putInt(SampleView.MIN_LENGTH_PREFIX - 1);
+    buffer.put(SampleMessage.MESSAGE_TYPE);
+    buffer.put(new byte[SampleView.MIN_LENGTH_PREFIX - 2]);
+    putSample(buffer, 2);
+    buffer.flip();
+
+    SampleBatch batch = decodeBatch(buffer);
+    Assert.assertEquals(1, batch.size());
+    Assert.assertEquals(invalid, buffer.position());
+
+    try {
+      this.decoder.decode(this.session, buffer,
+          this.session.getDecoderOutput());
+      Assert.fail("Decoded a sample with an invalid length prefix.");
+    } catch (ProtocolDecoderException pde) {
+      // Expected
+    }
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.solver.protocol.codec;
+
+import java.nio.ByteBuffer;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.session.IoSession;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.owlplatform.common.SampleMessage;
+import com.owlplatform.solver.protocol.messages.SampleView;
+
+/**
+ * Test class for raw sample decoding in {@link SampleDecoder}.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class RawSampleDecoderTest {
+
+  /**
+   * Checks that each field of two consecutive samples is passed to the raw
+   * handler, that the sensed data buffer is read-only and bounded by the
+   * sample, and that the decode buffer is advanced past each sample.
+   * 
+   * @throws Exception
+   *           if decoding fails.
+   */
+  @Test
+  public void testDecodeRaw() throws Exception {
+    IoBuffer buffer = IoBuffer.allocate(256);
+    for (int i = 0; i < 2; ++i) {
+      buffer.putInt(SampleView.MIN_LENGTH_PREFIX + 2 + i);
+      buffer.put(SampleMessage.MESSAGE_TYPE);
+      buffer.put(SampleMessage.PHYSICAL_LAYER_PIPSQUEAK);
+      buffer.putLong(0x0102030405060708L);
+      buffer.putLong(i);
+      buffer.putLong(-1L);
+      buffer.putLong(0x10L + i);
+      buffer.putLong(1000L + i);
+      buffer.putFloat(-42.5f);
+      for (int j = 0; j < 2 + i; ++j) {
+        buffer.put((byte) (40 + j));
+      }
+    }
+    buffer.flip();
+
+    final long[] fields = new long[7];
+    final int[] dataLength = new int[1];
+    final boolean[] readOnly = new boolean[1];
+    AggregatorSolverProtocolCodecFactory factory = new AggregatorSolverProtocolCodecFactory(
+        false);
+    factory.setRawSampleHandler(new RawSampleHandler() {
+      @Override
+      public void sampleDecoded(IoSession session, byte physicalLayer,
+          long deviceHigh, long deviceLow, long receiverHigh,
+          long receiverLow, long receiverTimeStamp, float rssi,
+          ByteBuffer sensedData) {
+        fields[0] = physicalLayer;
+        fields[1] = deviceHigh;
+        fields[2] = deviceLow;
+        fields[3] = receiverHigh;
+        fields[4] = receiverLow;
+        fields[5] = receiverTimeStamp;
+        fields[6] = (long) rssi;
+        dataLength[0] = sensedData.remaining();
+        readOnly[0] = sensedData.isReadOnly();
+        Assert.assertEquals(40, sensedData.get(sensedData.position()));
+      }
+    });
+    SampleDecoder decoder = new SampleDecoder(factory);
+
+    for (int i = 0; i < 2; ++i) {
+      decoder.decode(null, buffer, null);
+      Assert.assertEquals(SampleMessage.PHYSICAL_LAYER_PIPSQUEAK, fields[0]);
+      Assert.assertEquals(0x0102030405060708L, fields[1]);
+      Assert.assertEquals(i, fields[2]);
+      Assert.assertEquals(-1L, fields[3]);
+      Assert.assertEquals(0x10L + i, fields[4]);
+      Assert.assertEquals(1000L + i, fields[5]);
+      Assert.assertEquals(-42, fields[6]);
+      Assert.assertEquals(2 + i, dataLength[0]);
+      Assert.assertTrue(readOnly[0]);
+    }
+    Assert.assertFalse(buffer.hasRemaining());
+  }
+}
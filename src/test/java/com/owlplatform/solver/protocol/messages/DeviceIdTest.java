@@ -0,0 +1,82 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.solver.protocol.messages;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test class for {@link DeviceId} and {@link DeviceIdCache}.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class DeviceIdTest {
+
+  /**
+   * A 16-byte identifier with distinct bytes.
+   */
+  public static final byte[] ID = new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10,
+      11, 12, 13, 14, 15, (byte) 0xF0 };
+
+  /**
+   * Checks that identifiers convert to and from byte arrays and compare by
+   * value.
+   */
+  @Test
+  public void testValue() {
+    DeviceId id = DeviceId.valueOf(ID);
+    Assert.assertEquals(0x0102030405060708L, id.getHigh());
+    Assert.assertEquals(0x090A0B0C0D0E0FF0L, id.getLow());
+    Assert.assertTrue(Arrays.equals(ID, id.toByteArray()));
+    Assert.assertNotSame(id.toByteArray(), id.toByteArray());
+    Assert.assertTrue(id.matches(ID));
+
+    DeviceId same = new DeviceId(id.getHigh(), id.getLow());
+    Assert.assertEquals(id, same);
+    Assert.assertEquals(id.hashCode(), same.hashCode());
+    Assert.assertEquals(id.hashCode(), DeviceId.hashCode(ID));
+    Assert.assertFalse(id.equals(new DeviceId(id.getHigh(), id.getLow() + 1)));
+  }
+
+  /**
+   * Checks that interning returns the canonical instance and array, and that
+   * the cache stays within its capacity.
+   */
+  @Test
+  public void testIntern() {
+    DeviceIdCache cache = new DeviceIdCache(100);
+    Assert.assertEquals(128, cache.getCapacity());
+
+    DeviceId id = cache.intern(ID);
+    Assert.assertSame(id, cache.intern(ID.clone()));
+    Assert.assertSame(id, cache.intern(id.getHigh(), id.getLow()));
+    Assert.assertSame(cache.internArray(id.getHigh(), id.getLow()),
+        cache.internArray(id.getHigh(), id.getLow()));
+
+    // Many more identifiers than entries must still intern to equal values
+    for (long i = 0; i < 10000; ++i) {
+      Assert.assertEquals(i, cache.intern(0, i).getLow());
+    }
+    Assert.assertEquals(id, cache.intern(ID));
+  }
+}
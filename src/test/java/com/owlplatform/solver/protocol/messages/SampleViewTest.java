@@ -0,0 +1,138 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.solver.protocol.messages;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.owlplatform.common.SampleMessage;
+
+/**
+ * Test class for {@link SampleView}.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class SampleViewTest {
+
+  /**
+   * Device ID for the test sample.
+   */
+  public static final byte[] DEVICE_ID = new byte[] { 0, 0, 0, 0, 0, 0, 0, 0,
+      0, 0, 0, 0, 0, 0, 0, 123 };
+
+  /**
+   * Receiver ID for the test sample.
+   */
+  public static final byte[] RECEIVER_ID = new byte[] { 1, 2, 3, 4, 5, 6, 7,
+      8, 9, 10, 11, 12, 13, 14, 15, 16 };
+
+  /**
+   * Sensed data for the test sample.
+   */
+  public static final byte[] SENSED_DATA = new byte[] { 42, 43 };
+
+  /**
+   * Number of bytes placed in the buffer before the sample.
+   */
+  public static final int PADDING = 3;
+
+  /**
+   * Buffer containing a single encoded sample after some padding.
+   */
+  private IoBuffer buffer;
+
+  /**
+   * Length prefix of the encoded sample.
+   */
+  private int length;
+
+  /**
+   * Encodes a sample into {@link #buffer}.
+   */
+  @Before
+  public void createBuffer() {
+    this.length = SampleView.MIN_LENGTH_PREFIX + SENSED_DATA.length;
+    this.buffer = IoBuffer.allocate(PADDING + 4 + this.length);
+    this.buffer.put(new byte[PADDING]);
+    this.buffer.putInt(this.length);
+    this.buffer.put(SampleMessage.MESSAGE_TYPE);
+    this.buffer.put(SampleMessage.PHYSICAL_LAYER_PIPSQUEAK);
+    this.buffer.put(DEVICE_ID);
+    this.buffer.put(RECEIVER_ID);
+    this.buffer.putLong(1234567l);
+    this.buffer.putFloat(-42.5f);
+    this.buffer.put(SENSED_DATA);
+    this.buffer.flip();
+  }
+
+  /**
+   * Checks that the view reads each field from the buffer without moving the
+   * buffer position.
+   */
+  @Test
+  public void testAccessors() {
+    SampleView view = new SampleView();
+    view.wrap(this.buffer, PADDING + 4, this.length);
+
+    Assert.assertEquals(SampleMessage.PHYSICAL_LAYER_PIPSQUEAK,
+        view.getPhysicalLayer());
+    Assert.assertArrayEquals(DEVICE_ID, view.getDeviceId());
+    Assert.assertArrayEquals(RECEIVER_ID, view.getReceiverId());
+    Assert.assertEquals(1234567l, view.getReceiverTimeStamp());
+    Assert.assertEquals(-42.5f, view.getRssi(), 0f);
+    Assert.assertEquals(SENSED_DATA.length, view.getSensedDataLength());
+    Assert.assertEquals(SENSED_DATA[1], view.getSensedData(1));
+    Assert.assertArrayEquals(SENSED_DATA, view.getSensedData());
+    Assert.assertEquals(0, this.buffer.position());
+  }
+
+  /**
+   * Checks that {@link SampleView#copy()} produces an equivalent
+   * {@code SampleMessage}.
+   */
+  @Test
+  public void testCopy() {
+    SampleView view = new SampleView();
+    view.wrap(this.buffer, PADDING + 4, this.length);
+    SampleMessage copy = view.copy();
+    view.clear();
+
+    Assert.assertEquals(SampleMessage.PHYSICAL_LAYER_PIPSQUEAK,
+        copy.getPhysicalLayer());
+    Assert.assertArrayEquals(DEVICE_ID, copy.getDeviceId());
+    Assert.assertArrayEquals(RECEIVER_ID, copy.getReceiverId());
+    Assert.assertEquals(1234567l, copy.getReceiverTimeStamp());
+    Assert.assertEquals(-42.5f, copy.getRssi(), 0f);
+    Assert.assertArrayEquals(SENSED_DATA, copy.getSensedData());
+    Assert.assertEquals(this.length, copy.getLengthPrefixSolver());
+  }
+
+  /**
+   * Checks that a length shorter than the fixed fields is rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testShortLength() {
+    new SampleView().wrap(this.buffer, PADDING + 4,
+        SampleView.MIN_LENGTH_PREFIX - 1);
+  }
+}
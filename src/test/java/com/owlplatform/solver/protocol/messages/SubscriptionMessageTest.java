@@ -1,5 +1,7 @@
 package com.owlplatform.solver.protocol.messages;
 
+import java.util.List;
+
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -237,4 +239,41 @@ public class SubscriptionMessageTest {
     Assert.assertEquals(TIME_NOW, this.m1.getCreationTime());
   }
 
+  /**
+   * Test dividing rules between messages by length.
+   */
+  @Test
+  public void testPartition() {
+    List<SubscriptionMessage> messages = SubscriptionMessage.partition(r34,
+        PREFIX_R34);
+    Assert.assertEquals(1, messages.size());
+    Assert.assertSame(r34, messages.get(0).getRules());
+    Assert.assertEquals(SubscriptionMessage.SUBSCRIPTION_MESSAGE_ID, messages
+        .get(0).getMessageType());
+
+    messages = SubscriptionMessage.partition(r34, PREFIX_R34 - 1);
+    Assert.assertEquals(2, messages.size());
+    Assert.assertSame(r34[0], messages.get(0).getRules()[0]);
+    Assert.assertSame(r34[1], messages.get(1).getRules()[0]);
+
+    messages = SubscriptionMessage.partition(null, PREFIX_DEFAULT);
+    Assert.assertEquals(1, messages.size());
+    Assert.assertEquals(PREFIX_DEFAULT, messages.get(0).getLengthPrefix());
+
+    SubscriptionRequestRule[] many = new SubscriptionRequestRule[10000];
+    for (int i = 0; i < many.length; ++i) {
+      many[i] = new SubscriptionRequestRule();
+    }
+    messages = SubscriptionMessage.partition(many,
+        SubscriptionMessage.MAX_LENGTH_PREFIX);
+    Assert.assertEquals(2, messages.size());
+    int total = 0;
+    for (SubscriptionMessage message : messages) {
+      Assert.assertTrue(message.getLengthPrefix() <= SubscriptionMessage
+          .MAX_LENGTH_PREFIX);
+      total += message.getNumRules();
+    }
+    Assert.assertEquals(many.length, total);
+  }
+
 }
@@ -0,0 +1,169 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.owlplatform.solver.rules;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.owlplatform.solver.protocol.messages.Transmitter;
+
+/**
+ * Test class for {@link RuleRegistry}.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class RuleRegistryTest {
+
+  /**
+   * Creates a rule.
+   * 
+   * @param phy
+   *          the physical layer.
+   * @param transmitters
+   *          the transmitters.
+   * @return the new rule.
+   */
+  private static SubscriptionRequestRule rule(final int phy,
+      final Transmitter... transmitters) {
+    SubscriptionRequestRule rule = new SubscriptionRequestRule();
+    rule.setPhysicalLayer((byte) phy);
+    rule.setTransmitters(transmitters);
+    return rule;
+  }
+
+  /**
+   * Checks that equivalent rules are detected regardless of transmitter
+   * order, and that distinct rules are not.
+   */
+  @Test
+  public void testDuplicates() {
+    RuleRegistry registry = new RuleRegistry();
+    Transmitter a = new Transmitter(1234L);
+    Transmitter b = new Transmitter(5678L);
+
+    int first = registry.add(rule(1, a, b));
+    Assert.assertTrue(first >= 0);
+    Assert.assertEquals(-1, registry.add(rule(1, b, a)));
+    Assert.assertTrue(registry.contains(rule(1, new Transmitter(5678L),
+        new Transmitter(1234L))));
+    Assert.assertTrue(registry.add(rule(2, a, b)) >= 0);
+    Assert.assertTrue(registry.add(rule(1, a)) >= 0);
+
+    SubscriptionRequestRule interval = rule(1, a, b);
+    interval.setUpdateInterval(1000);
+    Assert.assertTrue(registry.add(interval) >= 0);
+    Assert.assertEquals(4, registry.size());
+  }
+
+  /**
+   * Checks bulk additions, including duplicates within the collection.
+   */
+  @Test
+  public void testAddAll() {
+    RuleRegistry registry = new RuleRegistry();
+    registry.add(rule(1));
+    List<SubscriptionRequestRule> rules = new ArrayList<SubscriptionRequestRule>();
+    for (int i = 0; i < 1000; ++i) {
+      rules.add(rule(2, new Transmitter(i)));
+    }
+    rules.add(rule(1));
+    rules.add(rule(2, new Transmitter(0)));
+
+    int[] ruleNums = registry.addAll(rules);
+    Assert.assertEquals(1002, ruleNums.length);
+    Assert.assertEquals(-1, ruleNums[1000]);
+    Assert.assertEquals(-1, ruleNums[1001]);
+    Assert.assertEquals(1001, registry.size());
+    Assert.assertSame(rules.get(500), registry.get(ruleNums[500]));
+    Assert.assertSame(rules.get(999), registry.getRules()[1000]);
+  }
+
+  /**
+   * Checks that rules added concurrently are numbered without gaps, even
+   * when additions conflict and are retried.
+   * 
+   * @throws InterruptedException
+   *           if the test is interrupted.
+   */
+  @Test
+  public void testConcurrentAdd() throws InterruptedException {
+    final RuleRegistry registry = new RuleRegistry();
+    final int perThread = 200;
+    final int[][] ruleNums = new int[4][perThread];
+    Thread[] threads = new Thread[ruleNums.length];
+    for (int i = 0; i < threads.length; ++i) {
+      final int thread = i;
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < perThread; ++j) {
+            ruleNums[thread][j] = registry.add(rule(thread,
+                new Transmitter(j)));
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join(10000);
+    }
+
+    int[] all = new int[ruleNums.length * perThread];
+    for (int i = 0; i < ruleNums.length; ++i) {
+      System.arraycopy(ruleNums[i], 0, all, i * perThread, perThread);
+    }
+    Arrays.sort(all);
+    for (int i = 0; i < all.length; ++i) {
+      Assert.assertEquals(i, all[i]);
+    }
+    Assert.assertEquals(all.length, registry.add(rule(9)));
+  }
+
+  /**
+   * Checks that changes are collected until drained.
+   */
+  @Test
+  public void testChanges() {
+    RuleRegistry registry = new RuleRegistry();
+    Assert.assertNull(registry.drainChanges());
+
+    int first = registry.add(rule(1));
+    registry.addAll(Arrays.asList(rule(2), rule(3)));
+    RuleRegistry.Changes changes = registry.drainChanges();
+    Assert.assertEquals(3, changes.getAdded().length);
+    Assert.assertEquals(3, changes.getRules().length);
+    Assert.assertFalse(changes.isRemoved());
+    Assert.assertNull(registry.drainChanges());
+
+    Assert.assertNotNull(registry.remove(first));
+    Assert.assertNull(registry.remove(first));
+    registry.add(rule(4));
+    changes = registry.drainChanges();
+    Assert.assertTrue(changes.isRemoved());
+    Assert.assertEquals(1, changes.getAdded().length);
+    Assert.assertEquals(3, changes.getRules().length);
+    Assert.assertFalse(registry.contains(rule(1)));
+    Assert.assertTrue(registry.add(rule(1)) >= 0);
+  }
+}
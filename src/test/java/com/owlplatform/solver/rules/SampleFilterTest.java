@@ -0,0 +1,168 @@
+/*
+ * Owl Platform Solver-Aggregator Library for Java
+ * Copyright (C) 2012 Robert Moore and the Owl Platform
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.owlplatform.solver.rules;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.owlplatform.common.SampleMessage;
+import com.owlplatform.solver.protocol.messages.Transmitter;
+
+/**
+ * Test class for {@link SampleFilter}.
+ * 
+ * @author Robert Moore
+ * 
+ */
+public class SampleFilterTest {
+
+  /**
+   * Creates a sample with the specified values.
+   * 
+   * @param phy
+   *          the physical layer.
+   * @param device
+   *          the device ID.
+   * @param receiver
+   *          the receiver ID.
+   * @param rssi
+   *          the RSSI value.
+   * @return the new sample.
+   */
+  private static SampleMessage makeSample(byte phy, long device,
+      long receiver, float rssi) {
+    SampleMessage sample = new SampleMessage();
+    sample.setPhysicalLayer(phy);
+    sample.setDeviceId(new Transmitter(device).getBaseId());
+    sample.setReceiverId(new Transmitter(receiver).getBaseId());
+    sample.setRssi(rssi);
+    return sample;
+  }
+
+  /**
+   * Checks the filter result for a sample both as a decoded message and as
+   * encoded bytes, and verifies that they agree.
+   * 
+   * @param filter
+   *          the filter to test.
+   * @param sample
+   *          the sample to test.
+   * @return the result of the filter.
+   */
+  private static boolean check(SampleFilter filter, SampleMessage sample) {
+    IoBuffer buffer = IoBuffer.allocate(64);
+    buffer.putInt(sample.getLengthPrefixSolver());
+    buffer.put(SampleMessage.MESSAGE_TYPE);
+    buffer.put(sample.getPhysicalLayer());
+    buffer.put(sample.getDeviceId());
+    buffer.put(sample.getReceiverId());
+    buffer.putLong(sample.getReceiverTimeStamp());
+    buffer.putFloat(sample.getRssi());
+    buffer.flip();
+
+    boolean decoded = filter.accept(sample);
+    Assert.assertEquals(decoded, filter.accept(buffer, 4));
+    return decoded;
+  }
+
+  /**
+   * An empty filter accepts everything.
+   */
+  @Test
+  public void testEmptyFilter() {
+    SampleFilter filter = new SampleFilter();
+    Assert.assertTrue(check(filter,
+        makeSample(SampleMessage.PHYSICAL_LAYER_WIFI, 1, 2, -90f)));
+  }
+
+  /**
+   * Tests physical layer and RSSI range filtering.
+   */
+  @Test
+  public void testPhysicalLayerAndRssi() {
+    SampleFilter filter = new SampleFilter();
+    filter.setPhysicalLayer(SampleMessage.PHYSICAL_LAYER_PIPSQUEAK);
+    filter.setRssiRange(-80f, -20f);
+    Assert.assertTrue(check(filter,
+        makeSample(SampleMessage.PHYSICAL_LAYER_PIPSQUEAK, 1, 2, -80f)));
+    Assert.assertFalse(check(filter,
+        makeSample(SampleMessage.PHYSICAL_LAYER_WIFI, 1, 2, -50f)));
+    Assert.assertFalse(check(filter,
+        makeSample(SampleMessage.PHYSICAL_LAYER_PIPSQUEAK, 1, 2, -81f)));
+    Assert.assertFalse(check(filter,
+        makeSample(SampleMessage.PHYSICAL_LAYER_PIPSQUEAK, 1, 2, -10f)));
+  }
+
+  /**
+   * A NaN RSSI value is outside of any RSSI range, but is accepted when no
+   * range is set.
+   */
+  @Test
+  public void testNaNRssi() {
+    SampleFilter filter = new SampleFilter();
+    Assert.assertTrue(check(filter, makeSample((byte) 1, 1, 2, Float.NaN)));
+    filter.setRssiRange(-80f, -20f);
+    Assert.assertFalse(check(filter, makeSample((byte) 1, 1, 2, Float.NaN)));
+    filter.setRssiRange(Float.NEGATIVE_INFINITY, Float.POSITIVE_INFINITY);
+    Assert.assertFalse(check(filter, makeSample((byte) 1, 1, 2, Float.NaN)));
+  }
+
+  /**
+   * Tests device ID masks and receiver ID sets.
+   */
+  @Test
+  public void testDevicesAndReceivers() {
+    SampleFilter filter = new SampleFilter();
+    Transmitter masked = new Transmitter(0x1200);
+    byte[] mask = masked.getMask();
+    mask[15] = 0;
+    filter.addDevice(masked);
+    filter.addDevice(new Transmitter(7));
+    filter.addReceiver(new Transmitter(30).getBaseId());
+    filter.addReceiver(new Transmitter(10).getBaseId());
+    filter.addReceiver(new Transmitter(20).getBaseId());
+    filter.addReceiver(new Transmitter(10).getBaseId());
+
+    Assert.assertTrue(check(filter, makeSample((byte) 1, 0x12AB, 10, 0f)));
+    Assert.assertTrue(check(filter, makeSample((byte) 1, 7, 20, 0f)));
+    Assert.assertTrue(check(filter, makeSample((byte) 1, 7, 30, 0f)));
+    Assert.assertFalse(check(filter, makeSample((byte) 1, 0x13AB, 10, 0f)));
+    Assert.assertFalse(check(filter, makeSample((byte) 1, 8, 10, 0f)));
+    Assert.assertFalse(check(filter, makeSample((byte) 1, 7, 15, 0f)));
+    Assert.assertFalse(check(filter, makeSample((byte) 1, 7, 40, 0f)));
+  }
+
+  /**
+   * An inverted RSSI range is rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidRssiRange() {
+    new SampleFilter().setRssiRange(0f, -1f);
+  }
+
+  /**
+   * A NaN RSSI bound is rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testNaNRssiRange() {
+    new SampleFilter().setRssiRange(Float.NaN, 0f);
+  }
+}